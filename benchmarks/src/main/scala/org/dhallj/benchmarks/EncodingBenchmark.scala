@@ -1,5 +1,7 @@
 package org.dhallj.benchmarks
 
+import java.io.OutputStream
+import java.nio.ByteBuffer
 import java.util.concurrent.TimeUnit
 import org.openjdk.jmh.annotations._
 import org.dhallj.core.Expr
@@ -21,9 +23,36 @@ class EncodingBenchmark {
     case (acc, i) => Expr.makeRecordLiteral(s"a$i", acc)
   }
 
+  val preludeBuffer: ByteBuffer = ByteBuffer.allocateDirect(prelude.getEncodedBytes.length)
+  val deepBuffer: ByteBuffer = ByteBuffer.allocateDirect(deep.getEncodedBytes.length)
+  val nullStream: OutputStream = new OutputStream {
+    def write(b: Int): Unit = ()
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = ()
+  }
+
   @Benchmark
   def encodePreludeToBytes: Array[Byte] = prelude.getEncodedBytes
 
   @Benchmark
   def encodeDeepToBytes: Array[Byte] = deep.getEncodedBytes
+
+  @Benchmark
+  def encodePreludeToDirectBuffer: ByteBuffer = {
+    preludeBuffer.clear()
+    Expr.Util.encodeToBuffer(prelude, preludeBuffer)
+    preludeBuffer
+  }
+
+  @Benchmark
+  def encodeDeepToDirectBuffer: ByteBuffer = {
+    deepBuffer.clear()
+    Expr.Util.encodeToBuffer(deep, deepBuffer)
+    deepBuffer
+  }
+
+  @Benchmark
+  def encodePreludeToStream: Unit = Expr.Util.encodeToStream(prelude, nullStream)
+
+  @Benchmark
+  def encodeDeepToStream: Unit = Expr.Util.encodeToStream(deep, nullStream)
 }
@@ -0,0 +1,73 @@
+package org.dhallj.benchmarks
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import java.math.BigInteger
+import org.dhallj.core.{Expr, Operator}
+
+/**
+ * Compare the performance of normalizing folds over large literals.
+ *
+ * The following command will run the benchmarks with reasonable settings:
+ *
+ * > sbt "benchmarks/jmh:run -i 10 -wi 10 -f 2 -t 1 org.dhallj.benchmarks.FoldBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class FoldBenchmark {
+  @Param(Array("10000", "100000", "1000000"))
+  var size: Int = _
+
+  private[this] val ZERO: Expr = Expr.makeNaturalLiteral(BigInteger.ZERO)
+  private[this] val ONE: Expr = Expr.makeNaturalLiteral(BigInteger.ONE)
+
+  var naturalFoldAddition: Expr = _
+  var naturalFoldBool: Expr = _
+  var listFoldSum: Expr = _
+
+  @Setup
+  def setup(): Unit = {
+    val count = Expr.makeNaturalLiteral(BigInteger.valueOf(size))
+    val x = Expr.makeIdentifier("x")
+    val increment =
+      Expr.makeLambda("x", Expr.Constants.NATURAL, Expr.makeOperatorApplication(Operator.PLUS, x, ONE))
+    val negate = Expr.makeLambda(
+      "b",
+      Expr.Constants.BOOL,
+      Expr.makeOperatorApplication(Operator.EQUALS, Expr.makeIdentifier("b"), Expr.Constants.FALSE)
+    )
+    val add = Expr.makeLambda(
+      "x",
+      Expr.Constants.NATURAL,
+      Expr.makeLambda(
+        "acc",
+        Expr.Constants.NATURAL,
+        Expr.makeOperatorApplication(Operator.PLUS, x, Expr.makeIdentifier("acc"))
+      )
+    )
+    val values = Array.tabulate[Expr](size)(i => Expr.makeNaturalLiteral(BigInteger.valueOf(i)))
+
+    naturalFoldAddition = Expr.makeApplication(
+      Expr.makeBuiltIn("Natural/fold"),
+      Array(count, Expr.Constants.NATURAL, increment, ZERO)
+    )
+    naturalFoldBool = Expr.makeApplication(
+      Expr.makeBuiltIn("Natural/fold"),
+      Array(count, Expr.Constants.BOOL, negate, Expr.Constants.TRUE)
+    )
+    listFoldSum = Expr.makeApplication(
+      Expr.makeBuiltIn("List/fold"),
+      Array(Expr.Constants.NATURAL, Expr.makeNonEmptyListLiteral(values), Expr.Constants.NATURAL, add, ZERO)
+    )
+  }
+
+  @Benchmark
+  def normalizeNaturalFoldAddition: Expr = naturalFoldAddition.normalize
+
+  @Benchmark
+  def normalizeNaturalFoldBool: Expr = naturalFoldBool.normalize
+
+  @Benchmark
+  def normalizeListFoldSum: Expr = listFoldSum.normalize
+}
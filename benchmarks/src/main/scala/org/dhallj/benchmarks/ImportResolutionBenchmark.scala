@@ -0,0 +1,60 @@
+package org.dhallj.benchmarks
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+import cats.effect.IO
+import org.openjdk.jmh.annotations._
+import org.dhallj.core.Expr
+import org.dhallj.imports.{ResolutionConfig, ResolveImportsVisitor}
+import org.dhallj.imports.Caching.{ImportsCache, NoopImportsCache}
+import org.dhallj.imports.ResolutionConfig.FromFileSystem
+import org.dhallj.prelude.Prelude
+import org.http4s.HttpApp
+import org.http4s.client.Client
+
+/**
+ * Compare the performance of resolving a hashed import of the Prelude with a
+ * cold and a warm imports cache.
+ *
+ * The following command will run the benchmarks with reasonable settings:
+ *
+ * > sbt "benchmarks/jmh:run -i 10 -wi 10 -f 2 -t 1 org.dhallj.benchmarks.ImportResolutionBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class ImportResolutionBenchmark {
+  implicit val client: Client[IO] = Client.fromHttpApp(HttpApp.notFound[IO])
+
+  val encoded: Array[Byte] = Prelude.instance.normalize.getEncodedBytes
+  val hash: Array[Byte] = MessageDigest.getInstance("SHA-256").digest(encoded)
+
+  val warmCache: ImportsCache[IO] = new ImportsCache[IO] {
+    def get(key: Array[Byte]): IO[Option[Array[Byte]]] =
+      IO.pure(if (key.sameElements(hash)) Some(encoded) else None)
+    def put(key: Array[Byte], value: Array[Byte]): IO[Unit] = IO.unit
+  }
+
+  var path: Path = _
+  var preludeImport: Expr = _
+
+  @Setup
+  def setup(): Unit = {
+    path = Files.createTempFile("prelude", ".dhall")
+    Files.write(path, Prelude.instance.toString.getBytes(StandardCharsets.UTF_8))
+    preludeImport = Expr.makeLocalImport(path, Expr.ImportMode.CODE, hash)
+  }
+
+  @TearDown
+  def tearDown(): Unit = Files.deleteIfExists(path)
+
+  @Benchmark
+  def resolvePreludeCold: Expr =
+    preludeImport.accept(ResolveImportsVisitor.mkVisitor(ResolutionConfig(FromFileSystem), NoopImportsCache[IO]())).unsafeRunSync
+
+  @Benchmark
+  def resolvePreludeWarm: Expr =
+    preludeImport.accept(ResolveImportsVisitor.mkVisitor(ResolutionConfig(FromFileSystem), warmCache)).unsafeRunSync
+}
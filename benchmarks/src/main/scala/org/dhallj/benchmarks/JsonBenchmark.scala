@@ -0,0 +1,51 @@
+package org.dhallj.benchmarks
+
+import java.io.Writer
+import java.math.BigInteger
+import java.util.AbstractMap.SimpleImmutableEntry
+import java.util.Map.Entry
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import org.dhallj.core.Expr
+import org.dhallj.core.converters.JsonConverter
+
+/**
+ * Compare the cost of checking whether an expression can be converted to JSON with the cost of
+ * writing it (which includes the check).
+ *
+ * The following command will run the benchmarks with reasonable settings:
+ *
+ * > sbt "benchmarks/jmh:run -i 10 -wi 10 -f 2 -t 1 org.dhallj.benchmarks.JsonBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class JsonBenchmark {
+  val wide: Expr = Expr.makeRecordLiteral(
+    (0 until 10000)
+      .map(i =>
+        new SimpleImmutableEntry[String, Expr](
+          s"field$i",
+          Expr.makeNonEmptyListLiteral(
+            Array(Expr.makeTextLiteral(s"""value \\"$i\\""""), Expr.makeNaturalLiteral(BigInteger.valueOf(i)))
+          )
+        ): Entry[String, Expr]
+      )
+      .toArray
+  )
+
+  val nullWriter: Writer = new Writer {
+    def write(cbuf: Array[Char], off: Int, len: Int): Unit = ()
+    def flush(): Unit = ()
+    def close(): Unit = ()
+  }
+
+  @Benchmark
+  def canConvertWide: Boolean = JsonConverter.canConvert(wide)
+
+  @Benchmark
+  def writeJsonWide: Boolean = JsonConverter.writeJson(wide, nullWriter, false)
+
+  @Benchmark
+  def toCompactStringWide: String = JsonConverter.toCompactString(wide)
+}
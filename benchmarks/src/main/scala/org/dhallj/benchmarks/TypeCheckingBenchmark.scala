@@ -0,0 +1,67 @@
+package org.dhallj.benchmarks
+
+import java.math.BigInteger
+import java.util.AbstractMap.SimpleImmutableEntry
+import java.util.Map.Entry
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import org.dhallj.core.{Expr, Operator}
+import org.dhallj.core.typechecking.TypeCheck
+import org.dhallj.prelude.Prelude
+
+/**
+ * Compare the performance of type-checking with and without memoization, of type-checking very
+ * deep expressions (which must not overflow the stack), and of type-checking long lists.
+ *
+ * The following command will run the benchmarks with reasonable settings:
+ *
+ * > sbt "benchmarks/jmh:run -i 10 -wi 10 -f 2 -t 1 org.dhallj.benchmarks.TypeCheckingBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class TypeCheckingBenchmark {
+  val prelude: Expr = Prelude.instance
+  val deepRecord: Expr = (0 to 100000).foldLeft(Expr.makeDoubleLiteral(0)) {
+    case (acc, i) => Expr.makeRecordLiteral(s"a$i", acc)
+  }
+  val deepListAppend: Expr = (0 to 100000)
+    .map(i => Expr.makeNonEmptyListLiteral(Array(Expr.makeDoubleLiteral(i))))
+    .reduce((acc, list) => Expr.makeOperatorApplication(Operator.LIST_APPEND, acc, list))
+  val letChain: Expr = (9999 to 0 by -1).foldLeft(Expr.makeIdentifier("x9999")) {
+    case (body, 0) => Expr.makeLet("x0", Expr.makeNaturalLiteral(BigInteger.ZERO), body)
+    case (body, i) =>
+      val one = Expr.makeNaturalLiteral(BigInteger.ONE)
+      Expr.makeLet(s"x$i", Expr.makeOperatorApplication(Operator.PLUS, Expr.makeIdentifier(s"x${i - 1}"), one), body)
+  }
+  val recordList: Expr = Expr.makeNonEmptyListLiteral(
+    (0 to 100000)
+      .map(i =>
+        Expr.makeRecordLiteral(
+          Array[Entry[String, Expr]](
+            new SimpleImmutableEntry[String, Expr]("id", Expr.makeNaturalLiteral(BigInteger.valueOf(i))),
+            new SimpleImmutableEntry[String, Expr]("name", Expr.makeTextLiteral(s"item$i"))
+          )
+        )
+      )
+      .toArray
+  )
+
+  @Benchmark
+  def typeCheckPrelude: Expr = Expr.Util.typeCheck(prelude)
+
+  @Benchmark
+  def typeCheckPreludeMemoized: Expr = Expr.Util.typeCheck(prelude, new TypeCheck.Cache())
+
+  @Benchmark
+  def typeCheckDeepRecord: Expr = Expr.Util.typeCheck(deepRecord)
+
+  @Benchmark
+  def typeCheckDeepListAppend: Expr = Expr.Util.typeCheck(deepListAppend)
+
+  @Benchmark
+  def typeCheckLetChain: Expr = Expr.Util.typeCheck(letChain)
+
+  @Benchmark
+  def typeCheckRecordList: Expr = Expr.Util.typeCheck(recordList)
+}
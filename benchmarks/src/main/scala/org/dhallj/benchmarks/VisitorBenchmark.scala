@@ -0,0 +1,45 @@
+package org.dhallj.benchmarks
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import org.dhallj.core.{Expr, Visitor}
+import org.dhallj.prelude.Prelude
+
+/**
+ * Measure the overhead of the internal visitor driver.
+ *
+ * The constant visitor does no work of its own, so its allocation rate is the driver's. The
+ * following command will run the benchmarks and report allocation per operation (the
+ * `gc.alloc.rate.norm` column):
+ *
+ * > sbt "benchmarks/jmh:run -i 10 -wi 10 -f 2 -t 1 -prof gc org.dhallj.benchmarks.VisitorBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class VisitorBenchmark {
+  val prelude: Expr = Prelude.instance
+  val deep: Expr = (0 to 100000).foldLeft(Expr.makeDoubleLiteral(0)) {
+    case (acc, i) => Expr.makeRecordLiteral(s"a$i", acc)
+  }
+  val deepApplication: Expr = (0 to 100000).foldLeft(Expr.makeIdentifier("f")) {
+    case (acc, i) => Expr.makeApplication(Expr.makeIdentifier("g"), acc)
+  }
+
+  val constant: Visitor[Integer] = new Visitor.Constant[Integer](0)
+
+  @Benchmark
+  def visitPrelude: Integer = prelude.accept(constant)
+
+  @Benchmark
+  def visitDeep: Integer = deep.accept(constant)
+
+  @Benchmark
+  def visitDeepApplication: Integer = deepApplication.accept(constant)
+
+  @Benchmark
+  def alphaNormalizePrelude: Expr = prelude.alphaNormalize
+
+  @Benchmark
+  def shiftPrelude: Expr = prelude.increment("x")
+}
@@ -12,6 +12,7 @@ public class Dhall {
     boolean typeCheck = false;
     boolean normalize = false;
     boolean alphaNormalize = false;
+    boolean pretty = false;
 
     for (int i = 1; i < args.length; i++) {
       if (args[i].equals("--resolve")) {
@@ -22,6 +23,8 @@ public class Dhall {
         normalize = true;
       } else if (args[i].equals("--alpha")) {
         alphaNormalize = true;
+      } else if (args[i].equals("--pretty")) {
+        pretty = true;
       }
     }
 
@@ -54,7 +57,11 @@ public class Dhall {
       }
       System.out.println(type);
     } else if (args[0].equals("json")) {
-      System.out.println(JsonConverter.toCompactString(expr));
+      if (JsonConverter.writeJson(expr, System.out, pretty)) {
+        System.out.println();
+      } else {
+        System.out.println("null");
+      }
     }
   }
 }
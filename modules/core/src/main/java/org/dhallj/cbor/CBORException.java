@@ -4,4 +4,8 @@ public class CBORException extends RuntimeException {
   CBORException(String message) {
     super(message);
   }
+
+  CBORException(String message, Throwable cause) {
+    super(message, cause);
+  }
 }
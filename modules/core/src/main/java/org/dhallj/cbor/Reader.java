@@ -1,6 +1,10 @@
 package org.dhallj.cbor;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,6 +14,8 @@ import java.util.Map;
  * Dhall.
  */
 public abstract class Reader {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final BigInteger MINUS_ONE = BigInteger.valueOf(-1);
 
   /** Only allow symbols that correspond to entire encoded Dhall expressions. */
   public <R> R nextSymbol(Visitor<R> visitor) {
@@ -27,7 +33,12 @@ public abstract class Reader {
       case ARRAY:
         return readArrayStart(b, visitor);
       case MAP:
-        return visitor.onMap(readMapStart(b));
+        long size = readMapStart(b);
+        if (visitor instanceof Visitor.LongLengths) {
+          return ((Visitor.LongLengths<R>) visitor).onMap(size);
+        } else {
+          return visitor.onMap(BigInteger.valueOf(size));
+        }
       case SEMANTIC_TAG:
         throw new CBORException("We should have skipped semantic tags");
       case PRIMITIVE:
@@ -43,15 +54,37 @@ public abstract class Reader {
 
   protected abstract byte[] read(int count);
 
+  /** Implementations that can decode in place should override this to avoid the extra copy. */
+  protected String readUtf8(int count) {
+    return new String(this.read(count), UTF_8);
+  }
+
   public BigInteger readUnsignedInteger() {
     skip55799();
     return readUnsignedInteger(read());
   }
 
+  /**
+   * Read an unsigned integer that is expected to be small (e.g. an operator label or import mode).
+   *
+   * <p>Note that this avoids allocating a {@code BigInteger}, and fails if the value does not fit
+   * in a signed {@code long}.
+   */
+  public long readUnsignedLong() {
+    skip55799();
+    byte next = read();
+    switch (MajorType.fromByte(next)) {
+      case UNSIGNED_INTEGER:
+        return readLength(AdditionalInfo.fromByte(next), next);
+      default:
+        throw new CBORException("Next symbol is not an unsigned integer");
+    }
+  }
+
   public BigInteger readPositiveBigNum() {
     skip55799();
     BigInteger result = readBigNum();
-    if (result.compareTo(BigInteger.ZERO) < 0) {
+    if (result.signum() < 0) {
       throw new CBORException(String.format("%s is not a positive big num", result));
     } else {
       return result;
@@ -67,21 +100,19 @@ public abstract class Reader {
       case NEGATIVE_INTEGER:
         return readNegativeInteger(next);
       case SEMANTIC_TAG:
-        AdditionalInfo info = AdditionalInfo.fromByte(next);
-        BigInteger t = readBigInteger(info, next);
-        long tag = t.longValue();
-        BigInteger length = readUnsignedInteger();
-        long len = length.longValue(); // Don't handle Bignums larger than this
-        BigInteger result = readBigInteger(len);
+        long tag = readLength(AdditionalInfo.fromByte(next), next);
+        byte[] bytes = readByteString(read());
+        BigInteger result = new BigInteger(1, bytes);
         if (tag == 2) {
           return result;
         } else if (tag == 3) {
-          return BigInteger.valueOf(-1).subtract(result);
+          return MINUS_ONE.subtract(result);
         } else {
           throw new CBORException(String.format("%d is not a valid tag for a bignum", tag));
         }
       default:
-        throw new CBORException(String.format("%d not a valid major type for an Unsigned Integer"));
+        throw new CBORException(
+            String.format("%s not a valid major type for an Unsigned Integer", next));
     }
   }
 
@@ -130,13 +161,18 @@ public abstract class Reader {
   }
 
   public BigInteger readArrayStart() {
+    return BigInteger.valueOf(readArrayLength());
+  }
+
+  /** Read the start of an array, returning its length without allocating a {@code BigInteger}. */
+  public long readArrayLength() {
     skip55799();
     byte next = read();
     switch (MajorType.fromByte(next)) {
       case ARRAY:
         AdditionalInfo info = AdditionalInfo.fromByte(next);
-        BigInteger length = readBigInteger(info, next);
-        if (length.compareTo(BigInteger.ZERO) < 0) {
+        long length = readLength(info, next);
+        if (length < 0) {
           throw new CBORException("Indefinite array not needed for Dhall");
         } else {
           return length;
@@ -151,9 +187,9 @@ public abstract class Reader {
     byte b = this.read();
     switch (MajorType.fromByte(b)) {
       case MAP:
-        BigInteger length = readMapStart(b);
-        Map<String, R> entries = new HashMap<>();
-        for (int i = 0; i < length.longValue(); i++) {
+        long length = readMapStart(b);
+        Map<String, R> entries = new HashMap<>(length < 16 ? 16 : (int) (length * 4 / 3 + 1));
+        for (long i = 0; i < length; i++) {
           String key = readNullableTextString();
           R value = nextSymbol(visitor);
           entries.put(key, value);
@@ -167,50 +203,70 @@ public abstract class Reader {
 
   private BigInteger readUnsignedInteger(byte b) {
     AdditionalInfo info = AdditionalInfo.fromByte(b);
-    return readBigInteger(info, b);
+    if (info == AdditionalInfo.EIGHT_BYTES) {
+      long value = readUint64();
+      return value >= 0 ? BigInteger.valueOf(value) : unsignedToBigInteger(value);
+    } else {
+      return BigInteger.valueOf(readLength(info, b));
+    }
   }
 
   private BigInteger readNegativeInteger(byte b) {
     AdditionalInfo info = AdditionalInfo.fromByte(b);
-    return BigInteger.valueOf(-1).subtract(readBigInteger(info, b));
+    if (info == AdditionalInfo.EIGHT_BYTES) {
+      long value = readUint64();
+      return value >= 0
+          ? BigInteger.valueOf(-1 - value)
+          : MINUS_ONE.subtract(unsignedToBigInteger(value));
+    } else {
+      return BigInteger.valueOf(-1 - readLength(info, b));
+    }
   }
 
   private byte[] readByteString(byte b) {
     AdditionalInfo info = AdditionalInfo.fromByte(b);
-    BigInteger length = readBigInteger(info, b);
-    if (length.compareTo(BigInteger.ZERO) < 0) {
+    long length = readLength(info, b);
+    if (length < 0) {
       throw new CBORException("Indefinite byte string not needed for Dhall");
     } else {
-      // We don't handle the case where the length is > Integer.MaxValue
-      return this.read(length.intValue());
+      return this.read(checkedSize(length));
     }
   }
 
   private String readTextString(byte b) {
     AdditionalInfo info = AdditionalInfo.fromByte(b);
-    BigInteger length = readBigInteger(info, b);
-    if (length.compareTo(BigInteger.ZERO) < 0) {
+    long length = readLength(info, b);
+    if (length < 0) {
       // Indefinite length - do we need this for Dhall?
       throw new CBORException("Indefinite text string not needed for Dhall");
     } else {
-      // We don't handle the case where the length is > Integer.MaxValue
-      return new String(this.read(length.intValue()), Charset.forName("UTF-8"));
+      return this.readUtf8(checkedSize(length));
     }
   }
 
   private <R> R readArrayStart(byte b, Visitor<R> visitor) {
     AdditionalInfo info = AdditionalInfo.fromByte(b);
-    BigInteger length = readBigInteger(info, b);
-    if (length.compareTo(BigInteger.ZERO) < 0) {
+    long length = readLength(info, b);
+    if (length < 0) {
       throw new CBORException("Indefinite array not needed for Dhall");
     } else {
       skip55799();
       byte next = read();
       switch (MajorType.fromByte(next)) {
         case UNSIGNED_INTEGER:
-          return visitor.onArray(length, readUnsignedInteger(next));
+          long tag = readLength(AdditionalInfo.fromByte(next), next);
+          if (visitor instanceof Visitor.LongLengths) {
+            return ((Visitor.LongLengths<R>) visitor).onArray(length, tag);
+          } else {
+            return visitor.onArray(BigInteger.valueOf(length), BigInteger.valueOf(tag));
+          }
         case TEXT_STRING:
-          return visitor.onVariableArray(length, readTextString(next));
+          String name = readTextString(next);
+          if (visitor instanceof Visitor.LongLengths) {
+            return ((Visitor.LongLengths<R>) visitor).onVariableArray(length, name);
+          } else {
+            return visitor.onVariableArray(BigInteger.valueOf(length), name);
+          }
         default:
           throw new CBORException(
               String.format(
@@ -220,10 +276,10 @@ public abstract class Reader {
     }
   }
 
-  private BigInteger readMapStart(byte b) {
+  private long readMapStart(byte b) {
     AdditionalInfo info = AdditionalInfo.fromByte(b);
-    BigInteger length = readBigInteger(info, b);
-    if (length.compareTo(BigInteger.ZERO) < 0) {
+    long length = readLength(info, b);
+    if (length < 0) {
       throw new CBORException("Indefinite array not needed for Dhall");
     } else {
       return length;
@@ -300,8 +356,7 @@ public abstract class Reader {
           case DIRECT:
             return; // Don't advance pointer if it's a Bignum
           default:
-            BigInteger tag = readBigInteger(info, read()); // Now advance pointer
-            int t = tag.intValue();
+            long t = readLength(info, read()); // Now advance pointer
             if (t != 55799) {
               throw new CBORException(String.format("Unrecognized CBOR semantic tag %d", t));
             } else {
@@ -312,36 +367,64 @@ public abstract class Reader {
     }
   }
 
-  private BigInteger readBigInteger(AdditionalInfo info, byte first) {
+  /**
+   * Read the argument of an initial byte as a length or small integer.
+   *
+   * <p>Returns -1 for indefinite lengths, and fails if an eight-byte argument does not fit in a
+   * signed {@code long} (callers that need the full range use {@link #readUint64()} directly).
+   */
+  private long readLength(AdditionalInfo info, byte first) {
     switch (info) {
       case DIRECT:
-        return BigInteger.valueOf(first & 31);
+        return first & 31;
       case ONE_BYTE:
-        return readBigInteger(1);
+        return this.read() & 0xff;
       case TWO_BYTES:
-        return readBigInteger(2);
+        return ((this.read() & 0xff) << 8) | (this.read() & 0xff);
       case FOUR_BYTES:
-        return readBigInteger(4);
+        return ((long) readInt()) & 0xffffffffL;
       case EIGHT_BYTES:
-        return readBigInteger(8);
+        long value = readUint64();
+        if (value < 0) {
+          throw new CBORException(
+              String.format("Length or integer %s is too large", unsignedToBigInteger(value)));
+        } else {
+          return value;
+        }
       case RESERVED:
         throw new CBORException("Additional info RESERVED should not require reading a uintXX");
       case INDEFINITE:
-        return BigInteger.valueOf(-1);
+        return -1;
       default:
         throw new IllegalArgumentException("Invalid AdditionalInfo");
     }
   }
 
-  private BigInteger readBigInteger(long numBytes) {
-    BigInteger result = BigInteger.ZERO;
-    for (long i = 0; i < numBytes; i++) {
-      int next = this.read() & 0xff;
-      result = result.shiftLeft(8).or(BigInteger.valueOf(next));
+  private int readInt() {
+    int result = 0;
+    for (int i = 0; i < 4; i++) {
+      result = (result << 8) | (this.read() & 0xff);
     }
     return result;
   }
 
+  /** Note that the result is unsigned, so may be negative as a Java {@code long}. */
+  private long readUint64() {
+    return (((long) readInt()) << 32) | (((long) readInt()) & 0xffffffffL);
+  }
+
+  private static BigInteger unsignedToBigInteger(long value) {
+    return BigInteger.valueOf(value >>> 1).shiftLeft(1).or(BigInteger.valueOf(value & 1));
+  }
+
+  private static int checkedSize(long length) {
+    if (length > Integer.MAX_VALUE) {
+      throw new CBORException(String.format("Length %d is too large", length));
+    } else {
+      return (int) length;
+    }
+  }
+
   public static final class ByteArrayReader extends Reader {
     private final byte[] bytes;
     private int cursor = 0;
@@ -369,5 +452,154 @@ public abstract class Reader {
 
       return bs;
     }
+
+    @Override
+    protected String readUtf8(int count) {
+      String result = new String(this.bytes, this.cursor, count, UTF_8);
+      this.cursor += count;
+      return result;
+    }
+  }
+
+  /**
+   * Reads directly from a buffer (which may be memory-mapped), starting at its current position.
+   *
+   * <p>Note that the given buffer's position is not changed.
+   */
+  public static final class ByteBufferReader extends Reader {
+    private final ByteBuffer buffer;
+
+    public ByteBufferReader(ByteBuffer buffer) {
+      this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    protected byte read() {
+      try {
+        return this.buffer.get();
+      } catch (BufferUnderflowException e) {
+        throw new CBORException("Unexpected end of input");
+      }
+    }
+
+    @Override
+    protected byte peek() {
+      if (this.buffer.hasRemaining()) {
+        return this.buffer.get(this.buffer.position());
+      } else {
+        throw new CBORException("Unexpected end of input");
+      }
+    }
+
+    @Override
+    protected byte[] read(int count) {
+      if (this.buffer.remaining() < count) {
+        throw new CBORException("Unexpected end of input");
+      }
+      byte[] bs = new byte[count];
+      this.buffer.get(bs);
+      return bs;
+    }
+
+    @Override
+    protected String readUtf8(int count) {
+      if (this.buffer.hasArray() && this.buffer.remaining() >= count) {
+        int position = this.buffer.position();
+        String result =
+            new String(this.buffer.array(), this.buffer.arrayOffset() + position, count, UTF_8);
+        this.buffer.position(position + count);
+        return result;
+      } else {
+        return super.readUtf8(count);
+      }
+    }
+  }
+
+  /**
+   * Reads from a stream through an internal buffer, so the stream does not need to be buffered.
+   *
+   * <p>Note that this may read past the end of the encoded expression, and does not close the
+   * stream.
+   */
+  public static final class InputStreamReader extends Reader {
+    private static final int BUFFER_SIZE = 8192;
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int cursor = 0;
+    private int limit = 0;
+
+    public InputStreamReader(InputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    protected byte read() {
+      if (this.cursor == this.limit) {
+        this.fill();
+      }
+      return this.buffer[this.cursor++];
+    }
+
+    @Override
+    protected byte peek() {
+      if (this.cursor == this.limit) {
+        this.fill();
+      }
+      return this.buffer[this.cursor];
+    }
+
+    @Override
+    protected byte[] read(int count) {
+      byte[] bs = new byte[count];
+      int available = this.limit - this.cursor;
+
+      if (count <= available) {
+        System.arraycopy(this.buffer, this.cursor, bs, 0, count);
+        this.cursor += count;
+      } else {
+        System.arraycopy(this.buffer, this.cursor, bs, 0, available);
+        this.cursor = this.limit;
+        int offset = available;
+        while (offset < count) {
+          int n = this.readInput(bs, offset, count - offset);
+          if (n < 0) {
+            throw new CBORException("Unexpected end of input");
+          }
+          offset += n;
+        }
+      }
+      return bs;
+    }
+
+    @Override
+    protected String readUtf8(int count) {
+      if (count <= this.limit - this.cursor) {
+        String result = new String(this.buffer, this.cursor, count, UTF_8);
+        this.cursor += count;
+        return result;
+      } else {
+        return super.readUtf8(count);
+      }
+    }
+
+    private void fill() {
+      int n = 0;
+      while (n == 0) {
+        n = this.readInput(this.buffer, 0, BUFFER_SIZE);
+      }
+      if (n < 0) {
+        throw new CBORException("Unexpected end of input");
+      }
+      this.cursor = 0;
+      this.limit = n;
+    }
+
+    private int readInput(byte[] bs, int offset, int length) {
+      try {
+        return this.input.read(bs, offset, length);
+      } catch (IOException e) {
+        throw new CBORException("Error reading input", e);
+      }
+    }
   }
 }
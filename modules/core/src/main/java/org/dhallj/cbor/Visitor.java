@@ -38,4 +38,32 @@ public interface Visitor<R> {
   public R onDoubleFloat(double value);
 
   public R onTag();
+
+  /**
+   * A visitor that receives array lengths, tags, and map sizes as primitive {@code long} values.
+   *
+   * <p>The reader passes these values to implementations of this class without allocating a {@code
+   * BigInteger}.
+   *
+   * @param R The result type
+   */
+  public abstract static class LongLengths<R> implements Visitor<R> {
+    public abstract R onVariableArray(long length, String name);
+
+    public abstract R onArray(long length, long tag);
+
+    public abstract R onMap(long size);
+
+    public final R onVariableArray(BigInteger length, String name) {
+      return this.onVariableArray(length.longValue(), name);
+    }
+
+    public final R onArray(BigInteger length, BigInteger tagI) {
+      return this.onArray(length.longValue(), tagI.longValue());
+    }
+
+    public final R onMap(BigInteger size) {
+      return this.onMap(size.longValue());
+    }
+  }
 }
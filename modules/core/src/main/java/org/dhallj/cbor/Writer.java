@@ -2,15 +2,15 @@ package org.dhallj.cbor;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public abstract class Writer {
   private static final int FALSE = 244;
@@ -19,6 +19,10 @@ public abstract class Writer {
   private static final BigInteger LONG_MAX_VALUE = BigInteger.valueOf(Long.MAX_VALUE);
   private static final BigInteger EIGHT_BYTES_MAX_VALUE = new BigInteger("18446744073709551616");
   private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAXIMUM_CACHED_LABEL_LENGTH = 64;
+  private static final int LABEL_CACHE_SIZE = 4096;
+  private static final ConcurrentMap<String, byte[]> LABEL_CACHE =
+      new ConcurrentHashMap<String, byte[]>();
 
   private static final class WrappedIOException extends RuntimeException {
     final IOException underlying;
@@ -28,6 +32,7 @@ public abstract class Writer {
     }
   }
 
+  /** Writes each byte directly to a stream. */
   public static class OutputStreamWriter extends Writer {
     protected final OutputStream stream;
 
@@ -50,15 +55,177 @@ public abstract class Writer {
         throw new WrappedIOException(e);
       }
     }
+
+    protected final void write(byte[] bs, int offset, int length) {
+      try {
+        this.stream.write(bs, offset, length);
+      } catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
   }
 
+  /**
+   * Writes to a stream through an internal buffer.
+   *
+   * <p>Note that {@link #flush()} must be called after writing to make sure everything has reached
+   * the underlying stream.
+   */
+  public static final class BufferedOutputStreamWriter extends Writer {
+    private static final int BUFFER_SIZE = 8192;
+    private final OutputStream stream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int size = 0;
+
+    public BufferedOutputStreamWriter(OutputStream stream) {
+      this.stream = stream;
+    }
+
+    public final void flush() {
+      this.flushBuffer();
+      try {
+        this.stream.flush();
+      } catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    protected final void write(byte b) {
+      if (this.size == BUFFER_SIZE) {
+        this.flushBuffer();
+      }
+      this.buffer[this.size++] = b;
+    }
+
+    protected final void write(byte... bs) {
+      this.write(bs, 0, bs.length);
+    }
+
+    protected final void write(byte[] bs, int offset, int length) {
+      if (length > BUFFER_SIZE - this.size) {
+        this.flushBuffer();
+        if (length > BUFFER_SIZE) {
+          try {
+            this.stream.write(bs, offset, length);
+          } catch (IOException e) {
+            throw new WrappedIOException(e);
+          }
+          return;
+        }
+      }
+      System.arraycopy(bs, offset, this.buffer, this.size, length);
+      this.size += length;
+    }
+
+    private void flushBuffer() {
+      if (this.size > 0) {
+        try {
+          this.stream.write(this.buffer, 0, this.size);
+        } catch (IOException e) {
+          throw new WrappedIOException(e);
+        }
+        this.size = 0;
+      }
+    }
+  }
+
+  /** Writes to a growable array. */
   public static final class ByteArrayWriter extends OutputStreamWriter {
+    private final Bytes bytes;
+
     public ByteArrayWriter() {
-      super(new ByteArrayOutputStream());
+      this(256);
+    }
+
+    public ByteArrayWriter(int initialCapacity) {
+      this(new Bytes(Math.max(initialCapacity, 16)));
+    }
+
+    private ByteArrayWriter(Bytes bytes) {
+      super(bytes);
+      this.bytes = bytes;
     }
 
     public final byte[] getBytes() {
-      return ((ByteArrayOutputStream) this.stream).toByteArray();
+      return Arrays.copyOf(this.bytes.array(), this.bytes.size());
+    }
+
+    /** Return a read-only view of the written bytes without copying them. */
+    public final ByteBuffer getByteBuffer() {
+      return ByteBuffer.wrap(this.bytes.array(), 0, this.bytes.size()).asReadOnlyBuffer();
+    }
+
+    public final int size() {
+      return this.bytes.size();
+    }
+
+    public final void writeTo(OutputStream stream) throws IOException {
+      stream.write(this.bytes.array(), 0, this.bytes.size());
+    }
+
+    /** A byte array stream without locking that exposes its array. */
+    private static final class Bytes extends ByteArrayOutputStream {
+      Bytes(int initialCapacity) {
+        super(initialCapacity);
+      }
+
+      final byte[] array() {
+        return this.buf;
+      }
+
+      @Override
+      public final int size() {
+        return this.count;
+      }
+
+      @Override
+      public final void write(int b) {
+        if (this.count == this.buf.length) {
+          this.grow(1);
+        }
+        this.buf[this.count++] = (byte) b;
+      }
+
+      @Override
+      public final void write(byte[] bs, int offset, int length) {
+        if (length > this.buf.length - this.count) {
+          this.grow(length);
+        }
+        System.arraycopy(bs, offset, this.buf, this.count, length);
+        this.count += length;
+      }
+
+      private void grow(int needed) {
+        int capacity = Math.max(this.buf.length * 2, this.count + needed);
+        this.buf = Arrays.copyOf(this.buf, capacity);
+      }
+    }
+  }
+
+  /**
+   * Writes directly into the given buffer (which may be direct or memory-mapped), starting at its
+   * current position.
+   *
+   * <p>Note that this will throw a {@link java.nio.BufferOverflowException} if the buffer is too
+   * small.
+   */
+  public static final class ByteBufferWriter extends Writer {
+    private final ByteBuffer buffer;
+
+    public ByteBufferWriter(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    protected final void write(byte b) {
+      this.buffer.put(b);
+    }
+
+    protected final void write(byte... bs) {
+      this.buffer.put(bs);
+    }
+
+    protected final void write(byte[] bs, int offset, int length) {
+      this.buffer.put(bs, offset, length);
     }
   }
 
@@ -87,12 +254,33 @@ public abstract class Writer {
     protected final void write(byte... bs) {
       this.messageDigest.update(bs);
     }
+
+    protected final void write(byte[] bs, int offset, int length) {
+      this.messageDigest.update(bs, offset, length);
+    }
   }
 
+  /** Scratch space for headers and floats, so that they can be written in a single call. */
+  private final byte[] scratch = new byte[9];
+
   protected abstract void write(byte b);
 
   protected abstract void write(byte... bs);
 
+  /**
+   * Write part of an array.
+   *
+   * <p>The default implementation copies the range unless it covers the whole array; subclasses
+   * should override this when they can write a range directly.
+   */
+  protected void write(byte[] bs, int offset, int length) {
+    if (offset == 0 && length == bs.length) {
+      this.write(bs);
+    } else {
+      this.write(Arrays.copyOfRange(bs, offset, offset + length));
+    }
+  }
+
   public final void writeNull() {
     this.write((byte) NULL);
   }
@@ -120,6 +308,35 @@ public abstract class Writer {
     this.write(bytes);
   }
 
+  /**
+   * Write a string that is likely to be repeated, such as a label or built-in name.
+   *
+   * <p>Note that the encoded form of short strings is cached across writers.
+   */
+  public final void writeLabel(String value) {
+    if (value.length() > MAXIMUM_CACHED_LABEL_LENGTH) {
+      this.writeString(value);
+    } else {
+      byte[] encoded = LABEL_CACHE.get(value);
+
+      if (encoded == null) {
+        ByteArrayWriter writer = new ByteArrayWriter(value.length() * 3 + 9);
+        writer.writeString(value);
+        encoded = writer.getBytes();
+
+        if (LABEL_CACHE.size() < LABEL_CACHE_SIZE) {
+          LABEL_CACHE.putIfAbsent(value, encoded);
+        }
+      }
+      this.write(encoded);
+    }
+  }
+
+  /** Write bytes that are already the CBOR encoding of one or more complete values. */
+  public final void writeEncoded(byte[] bytes, int offset, int length) {
+    this.write(bytes, offset, length);
+  }
+
   public final void writeByteString(byte[] bytes) {
     this.writeTypeAndLength(MajorType.BYTE_STRING.value, bytes.length);
     this.write(bytes);
@@ -129,41 +346,25 @@ public abstract class Writer {
     int base = MajorType.PRIMITIVE.value << 5;
 
     if (Double.isNaN(value)) {
-      this.write((byte) (base | AdditionalInfo.TWO_BYTES.value), (byte) 126, (byte) 0);
+      this.writeHeader(base | AdditionalInfo.TWO_BYTES.value, 0x7e00, 2);
     } else if (Double.isInfinite(value)) {
       if (Double.compare(value, 0) > 0) {
-        this.write((byte) (base | AdditionalInfo.TWO_BYTES.value), (byte) 124, (byte) 0);
+        this.writeHeader(base | AdditionalInfo.TWO_BYTES.value, 0x7c00, 2);
       } else {
-        this.write((byte) (base | AdditionalInfo.TWO_BYTES.value), (byte) 252, (byte) 0);
+        this.writeHeader(base | AdditionalInfo.TWO_BYTES.value, 0xfc00, 2);
       }
     } else if (Double.compare(value, 0.0) == 0) {
-      this.write((byte) (base | AdditionalInfo.TWO_BYTES.value), (byte) 0, (byte) 0);
-
+      this.writeHeader(base | AdditionalInfo.TWO_BYTES.value, 0, 2);
     } else if (Double.compare(value, -0.0) == 0) {
-      this.write((byte) (base | AdditionalInfo.TWO_BYTES.value), (byte) 128, (byte) 0);
+      this.writeHeader(base | AdditionalInfo.TWO_BYTES.value, 0x8000, 2);
     } else {
       float asFloat = (float) value;
       if (value == (double) asFloat) {
         int bits = Float.floatToRawIntBits(asFloat);
-        this.write(
-            (byte) (base | AdditionalInfo.FOUR_BYTES.value),
-            (byte) ((bits >> 24) & 0xff),
-            (byte) ((bits >> 16) & 0xff),
-            (byte) ((bits >> 8) & 0xff),
-            (byte) ((bits >> 0) & 0xff));
+        this.writeHeader(base | AdditionalInfo.FOUR_BYTES.value, bits & 0xffffffffL, 4);
       } else {
-
         long bits = Double.doubleToRawLongBits(value);
-        this.write(
-            (byte) (base | AdditionalInfo.EIGHT_BYTES.value),
-            (byte) ((bits >> 56) & 0xff),
-            (byte) ((bits >> 48) & 0xff),
-            (byte) ((bits >> 40) & 0xff),
-            (byte) ((bits >> 32) & 0xff),
-            (byte) ((bits >> 24) & 0xff),
-            (byte) ((bits >> 16) & 0xff),
-            (byte) ((bits >> 8) & 0xff),
-            (byte) ((bits >> 0) & 0xff));
+        this.writeHeader(base | AdditionalInfo.EIGHT_BYTES.value, bits, 8);
       }
     }
   }
@@ -182,31 +383,25 @@ public abstract class Writer {
     if (length <= 23L) {
       this.write((byte) (base | length));
     } else if (length < (1L << 8)) {
-      this.write((byte) (base | AdditionalInfo.ONE_BYTE.value), (byte) length);
+      this.writeHeader(base | AdditionalInfo.ONE_BYTE.value, length, 1);
     } else if (length < (1L << 16)) {
-      this.write(
-          (byte) (base | AdditionalInfo.TWO_BYTES.value),
-          (byte) (length >> 8),
-          (byte) (length & 0xff));
+      this.writeHeader(base | AdditionalInfo.TWO_BYTES.value, length, 2);
     } else if (length < (1L << 32)) {
-      this.write(
-          (byte) (base | AdditionalInfo.FOUR_BYTES.value),
-          (byte) ((length >> 24) & 0xff),
-          (byte) ((length >> 16) & 0xff),
-          (byte) ((length >> 8) & 0xff),
-          (byte) (length & 0xff));
+      this.writeHeader(base | AdditionalInfo.FOUR_BYTES.value, length, 4);
     } else {
-      this.write(
-          (byte) (base | AdditionalInfo.EIGHT_BYTES.value),
-          (byte) ((length >> 56) & 0xff),
-          (byte) ((length >> 48) & 0xff),
-          (byte) ((length >> 40) & 0xff),
-          (byte) ((length >> 32) & 0xff),
-          (byte) ((length >> 24) & 0xff),
-          (byte) ((length >> 16) & 0xff),
-          (byte) ((length >> 8) & 0xff),
-          (byte) (length & 0xff));
+      this.writeHeader(base | AdditionalInfo.EIGHT_BYTES.value, length, 8);
+    }
+  }
+
+  /** Write the initial byte followed by the low {@code count} bytes of the value (big-endian). */
+  private final void writeHeader(int initial, long value, int count) {
+    byte[] bs = this.scratch;
+    bs[0] = (byte) initial;
+    for (int i = count; i > 0; i--) {
+      bs[i] = (byte) (value & 0xff);
+      value >>>= 8;
     }
+    this.write(bs, 0, count + 1);
   }
 
   private final void writeTypeAndLength(int majorType, BigInteger length) {
@@ -214,17 +409,8 @@ public abstract class Writer {
       this.writeTypeAndLength(majorType, length.longValue());
     } else if (length.compareTo(EIGHT_BYTES_MAX_VALUE) < 0) {
       int base = majorType << 5;
-      BigInteger mask = BigInteger.valueOf(0xff);
-      this.write(
-          (byte) (base | AdditionalInfo.EIGHT_BYTES.value),
-          length.shiftRight(56).and(mask).byteValue(),
-          length.shiftRight(48).and(mask).byteValue(),
-          length.shiftRight(40).and(mask).byteValue(),
-          length.shiftRight(32).and(mask).byteValue(),
-          length.shiftRight(24).and(mask).byteValue(),
-          length.shiftRight(16).and(mask).byteValue(),
-          length.shiftRight(8).and(mask).byteValue(),
-          length.and(mask).byteValue());
+      // The low 64 bits, which is all of the value here.
+      this.writeHeader(base | AdditionalInfo.EIGHT_BYTES.value, length.longValue(), 8);
     } else {
       if (majorType == MajorType.NEGATIVE_INTEGER.value) {
         this.writeTypeAndLength(MajorType.SEMANTIC_TAG.value, 3);
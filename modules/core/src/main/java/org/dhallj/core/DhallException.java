@@ -38,4 +38,19 @@ public class DhallException extends RuntimeException {
       super(message);
     }
   }
+
+  /** Represents a failure to convert a document from another format into a Dhall expression. */
+  public static final class ConversionFailure extends DhallException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Throwable fillInStackTrace() {
+      // This is a failure type; stack traces aren't useful.
+      return this;
+    }
+
+    public ConversionFailure(String message) {
+      super(message);
+    }
+  }
 }
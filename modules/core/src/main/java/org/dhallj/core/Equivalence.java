@@ -0,0 +1,388 @@
+package org.dhallj.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+/**
+ * Checks whether two expressions are alpha-equivalent by walking them in lockstep.
+ *
+ * <p>Bound variables are compared by the position of their binders, so no renaming or encoding is
+ * necessary, and the walk stops at the first mismatch. The result agrees with comparing the
+ * encodings of the alpha-normalized expressions, except that it may be {@code UNKNOWN} for imports
+ * and for text literals whose escapes differ syntactically.
+ *
+ * <p>Note that this class does not normalize.
+ */
+final class Equivalence {
+  static final int EQUAL = 0;
+  static final int DIFFERENT = 1;
+  static final int UNKNOWN = 2;
+
+  private static final int INITIAL_SIZE = 16;
+
+  // The stack of pairs still to compare, and the number of binders each pair is under.
+  private Expr[] lefts = new Expr[INITIAL_SIZE];
+  private Expr[] rights = new Expr[INITIAL_SIZE];
+  private int[] depths = new int[INITIAL_SIZE];
+  private int size = 0;
+
+  // The binder names on each side, and whether all names below each depth are the same.
+  private String[] leftNames = new String[INITIAL_SIZE];
+  private String[] rightNames = new String[INITIAL_SIZE];
+  private boolean[] aligned = new boolean[INITIAL_SIZE + 1];
+
+  private Equivalence() {
+    this.aligned[0] = true;
+  }
+
+  static final int compare(Expr left, Expr right) {
+    if (left == right) {
+      return EQUAL;
+    } else {
+      return new Equivalence().run(left, right);
+    }
+  }
+
+  private final void push(Expr left, Expr right, int depth) {
+    if (this.size == this.lefts.length) {
+      int newSize = this.size * 2;
+      this.lefts = Arrays.copyOf(this.lefts, newSize);
+      this.rights = Arrays.copyOf(this.rights, newSize);
+      this.depths = Arrays.copyOf(this.depths, newSize);
+    }
+    this.lefts[this.size] = left;
+    this.rights[this.size] = right;
+    this.depths[this.size] = depth;
+    this.size += 1;
+  }
+
+  /**
+   * Record the binders at the given depth.
+   *
+   * <p>Note that callers must push the pair under the binder last, so that it (and everything
+   * under it) is compared before anything that could overwrite these names.
+   */
+  private final void bind(int depth, String leftName, String rightName) {
+    if (depth == this.leftNames.length) {
+      int newSize = depth * 2;
+      this.leftNames = Arrays.copyOf(this.leftNames, newSize);
+      this.rightNames = Arrays.copyOf(this.rightNames, newSize);
+      this.aligned = Arrays.copyOf(this.aligned, newSize + 1);
+    }
+    this.leftNames[depth] = leftName;
+    this.rightNames[depth] = rightName;
+    this.aligned[depth + 1] = this.aligned[depth] && leftName.equals(rightName);
+  }
+
+  /**
+   * Returns the position of the binder for the variable if it's bound, or if it's free, {@code -1
+   * - i}, where {@code i} is its index after the binders with the same name are removed.
+   */
+  private static final long resolve(String[] names, int depth, String name, long index) {
+    long count = 0;
+
+    for (int i = depth - 1; i >= 0; i--) {
+      if (names[i].equals(name)) {
+        if (count == index) {
+          return i;
+        }
+        count += 1;
+      }
+    }
+    return -1 - (index - count);
+  }
+
+  private final int run(Expr left, Expr right) {
+    boolean unknown = false;
+    this.push(left, right, 0);
+
+    while (this.size > 0) {
+      this.size -= 1;
+      Expr a = this.lefts[this.size];
+      Expr b = this.rights[this.size];
+      int depth = this.depths[this.size];
+      this.lefts[this.size] = null;
+      this.rights[this.size] = null;
+
+      while (a.tag == Tags.NOTE) {
+        a = ((Expr.Parsed) a).base;
+      }
+      while (b.tag == Tags.NOTE) {
+        b = ((Expr.Parsed) b).base;
+      }
+
+      if (a == b && this.aligned[depth]) {
+        continue;
+      } else if (a.tag != b.tag) {
+        return DIFFERENT;
+      }
+
+      int result = EQUAL;
+
+      switch (a.tag) {
+        case Tags.NATURAL:
+          if (!((Constructors.NaturalLiteral) a)
+              .value.equals(((Constructors.NaturalLiteral) b).value)) {
+            return DIFFERENT;
+          }
+          break;
+        case Tags.INTEGER:
+          if (!((Constructors.IntegerLiteral) a)
+              .value.equals(((Constructors.IntegerLiteral) b).value)) {
+            return DIFFERENT;
+          }
+          break;
+        case Tags.DOUBLE:
+          if (Double.compare(
+                  ((Constructors.DoubleLiteral) a).value, ((Constructors.DoubleLiteral) b).value)
+              != 0) {
+            return DIFFERENT;
+          }
+          break;
+        case Tags.BUILT_IN:
+          if (!((Constructors.BuiltIn) a).name.equals(((Constructors.BuiltIn) b).name)) {
+            return DIFFERENT;
+          }
+          break;
+        case Tags.IDENTIFIER:
+          Constructors.Identifier leftIdentifier = (Constructors.Identifier) a;
+          Constructors.Identifier rightIdentifier = (Constructors.Identifier) b;
+          long leftPosition =
+              resolve(this.leftNames, depth, leftIdentifier.name, leftIdentifier.index);
+          long rightPosition =
+              resolve(this.rightNames, depth, rightIdentifier.name, rightIdentifier.index);
+
+          if (leftPosition != rightPosition
+              || (leftPosition < 0 && !leftIdentifier.name.equals(rightIdentifier.name))) {
+            return DIFFERENT;
+          }
+          break;
+        case Tags.LAMBDA:
+          Constructors.Lambda leftLambda = (Constructors.Lambda) a;
+          Constructors.Lambda rightLambda = (Constructors.Lambda) b;
+          this.push(leftLambda.type, rightLambda.type, depth);
+          this.bind(depth, leftLambda.name, rightLambda.name);
+          this.push(leftLambda.result, rightLambda.result, depth + 1);
+          break;
+        case Tags.PI:
+          Constructors.Pi leftPi = (Constructors.Pi) a;
+          Constructors.Pi rightPi = (Constructors.Pi) b;
+          this.push(leftPi.type, rightPi.type, depth);
+          this.bind(depth, leftPi.name, rightPi.name);
+          this.push(leftPi.result, rightPi.result, depth + 1);
+          break;
+        case Tags.LET:
+          Constructors.Let leftLet = (Constructors.Let) a;
+          Constructors.Let rightLet = (Constructors.Let) b;
+          result = this.pushNullable(leftLet.type, rightLet.type, depth);
+          this.push(leftLet.value, rightLet.value, depth);
+          this.bind(depth, leftLet.name, rightLet.name);
+          this.push(leftLet.body, rightLet.body, depth + 1);
+          break;
+        case Tags.TEXT:
+          Constructors.TextLiteral leftText = (Constructors.TextLiteral) a;
+          Constructors.TextLiteral rightText = (Constructors.TextLiteral) b;
+
+          if (leftText.parts.length != rightText.parts.length) {
+            return DIFFERENT;
+          }
+          for (int i = 0; i < leftText.parts.length && result == EQUAL; i++) {
+            result = compareTextParts(leftText.parts[i], rightText.parts[i]);
+          }
+          this.pushAll(leftText.interpolated, rightText.interpolated, depth);
+          break;
+        case Tags.NON_EMPTY_LIST:
+          Expr[] leftValues = ((Constructors.NonEmptyListLiteral) a).values;
+          Expr[] rightValues = ((Constructors.NonEmptyListLiteral) b).values;
+
+          if (leftValues.length != rightValues.length) {
+            return DIFFERENT;
+          }
+          this.pushAll(leftValues, rightValues, depth);
+          break;
+        case Tags.EMPTY_LIST:
+          this.push(
+              ((Constructors.EmptyListLiteral) a).type,
+              ((Constructors.EmptyListLiteral) b).type,
+              depth);
+          break;
+        case Tags.RECORD:
+          result =
+              this.pushFields(
+                  ((Constructors.RecordLiteral) a).fields,
+                  ((Constructors.RecordLiteral) b).fields,
+                  depth);
+          break;
+        case Tags.RECORD_TYPE:
+          result =
+              this.pushFields(
+                  ((Constructors.RecordType) a).fields,
+                  ((Constructors.RecordType) b).fields,
+                  depth);
+          break;
+        case Tags.UNION_TYPE:
+          result =
+              this.pushFields(
+                  ((Constructors.UnionType) a).fields, ((Constructors.UnionType) b).fields, depth);
+          break;
+        case Tags.FIELD_ACCESS:
+          Constructors.FieldAccess leftFieldAccess = (Constructors.FieldAccess) a;
+          Constructors.FieldAccess rightFieldAccess = (Constructors.FieldAccess) b;
+
+          if (!leftFieldAccess.fieldName.equals(rightFieldAccess.fieldName)) {
+            return DIFFERENT;
+          }
+          this.push(leftFieldAccess.base, rightFieldAccess.base, depth);
+          break;
+        case Tags.PROJECTION:
+          Constructors.Projection leftProjection = (Constructors.Projection) a;
+          Constructors.Projection rightProjection = (Constructors.Projection) b;
+
+          if (!Arrays.equals(leftProjection.fieldNames, rightProjection.fieldNames)) {
+            return DIFFERENT;
+          }
+          this.push(leftProjection.base, rightProjection.base, depth);
+          break;
+        case Tags.PROJECTION_BY_TYPE:
+          Constructors.ProjectionByType leftProjectionByType = (Constructors.ProjectionByType) a;
+          Constructors.ProjectionByType rightProjectionByType = (Constructors.ProjectionByType) b;
+          this.push(leftProjectionByType.type, rightProjectionByType.type, depth);
+          this.push(leftProjectionByType.base, rightProjectionByType.base, depth);
+          break;
+        case Tags.APPLICATION:
+          Constructors.Application leftApplication = (Constructors.Application) a;
+          Constructors.Application rightApplication = (Constructors.Application) b;
+          this.push(leftApplication.arg, rightApplication.arg, depth);
+          this.push(leftApplication.base, rightApplication.base, depth);
+          break;
+        case Tags.OPERATOR_APPLICATION:
+          Constructors.OperatorApplication leftOperatorApplication =
+              (Constructors.OperatorApplication) a;
+          Constructors.OperatorApplication rightOperatorApplication =
+              (Constructors.OperatorApplication) b;
+
+          if (!leftOperatorApplication.operator.equals(rightOperatorApplication.operator)) {
+            return DIFFERENT;
+          }
+          this.push(leftOperatorApplication.rhs, rightOperatorApplication.rhs, depth);
+          this.push(leftOperatorApplication.lhs, rightOperatorApplication.lhs, depth);
+          break;
+        case Tags.IF:
+          Constructors.If leftIf = (Constructors.If) a;
+          Constructors.If rightIf = (Constructors.If) b;
+          this.push(leftIf.elseValue, rightIf.elseValue, depth);
+          this.push(leftIf.thenValue, rightIf.thenValue, depth);
+          this.push(leftIf.predicate, rightIf.predicate, depth);
+          break;
+        case Tags.ANNOTATED:
+          Constructors.Annotated leftAnnotated = (Constructors.Annotated) a;
+          Constructors.Annotated rightAnnotated = (Constructors.Annotated) b;
+          this.push(leftAnnotated.type, rightAnnotated.type, depth);
+          this.push(leftAnnotated.base, rightAnnotated.base, depth);
+          break;
+        case Tags.ASSERT:
+          this.push(((Constructors.Assert) a).base, ((Constructors.Assert) b).base, depth);
+          break;
+        case Tags.MERGE:
+          Constructors.Merge leftMerge = (Constructors.Merge) a;
+          Constructors.Merge rightMerge = (Constructors.Merge) b;
+          result = this.pushNullable(leftMerge.type, rightMerge.type, depth);
+          this.push(leftMerge.union, rightMerge.union, depth);
+          this.push(leftMerge.handlers, rightMerge.handlers, depth);
+          break;
+        case Tags.TO_MAP:
+          Constructors.ToMap leftToMap = (Constructors.ToMap) a;
+          Constructors.ToMap rightToMap = (Constructors.ToMap) b;
+          result = this.pushNullable(leftToMap.type, rightToMap.type, depth);
+          this.push(leftToMap.base, rightToMap.base, depth);
+          break;
+        default:
+          // Imports are rare enough in terms we compare that it's not worth handling them here.
+          result = UNKNOWN;
+      }
+
+      if (result == DIFFERENT) {
+        return DIFFERENT;
+      } else if (result == UNKNOWN) {
+        unknown = true;
+      }
+    }
+
+    return unknown ? UNKNOWN : EQUAL;
+  }
+
+  private final int pushNullable(Expr left, Expr right, int depth) {
+    if (left == null || right == null) {
+      return (left == right) ? EQUAL : DIFFERENT;
+    } else {
+      this.push(left, right, depth);
+      return EQUAL;
+    }
+  }
+
+  private final void pushAll(Expr[] lefts, Expr[] rights, int depth) {
+    for (int i = lefts.length - 1; i >= 0; i--) {
+      this.push(lefts[i], rights[i], depth);
+    }
+  }
+
+  private final int pushFields(
+      Entry<String, Expr>[] leftFields, Entry<String, Expr>[] rightFields, int depth) {
+    if (leftFields.length != rightFields.length) {
+      return DIFFERENT;
+    }
+
+    if (!sameKeys(leftFields, rightFields)) {
+      leftFields = sorted(leftFields);
+      rightFields = sorted(rightFields);
+
+      if (!sameKeys(leftFields, rightFields)) {
+        return DIFFERENT;
+      }
+    }
+
+    for (int i = leftFields.length - 1; i >= 0; i--) {
+      // Union type fields may not have types.
+      if (this.pushNullable(leftFields[i].getValue(), rightFields[i].getValue(), depth)
+          == DIFFERENT) {
+        return DIFFERENT;
+      }
+    }
+    return EQUAL;
+  }
+
+  private static final boolean sameKeys(
+      Entry<String, Expr>[] leftFields, Entry<String, Expr>[] rightFields) {
+    for (int i = 0; i < leftFields.length; i++) {
+      if (!leftFields[i].getKey().equals(rightFields[i].getKey())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final Entry<String, Expr>[] sorted(Entry<String, Expr>[] fields) {
+    Entry<String, Expr>[] result = fields.clone();
+    Arrays.sort(result, entryComparator);
+    return result;
+  }
+
+  /** Text parts are compared unescaped in the encoding, so we give up on differing escapes. */
+  private static final int compareTextParts(String left, String right) {
+    if (left.equals(right)) {
+      return EQUAL;
+    } else if (left.indexOf('\\') >= 0 || right.indexOf('\\') >= 0) {
+      return UNKNOWN;
+    } else {
+      return DIFFERENT;
+    }
+  }
+
+  private static final Comparator<Entry<String, Expr>> entryComparator =
+      new Comparator<Entry<String, Expr>>() {
+        public int compare(Entry<String, Expr> a, Entry<String, Expr> b) {
+          return a.getKey().compareTo(b.getKey());
+        }
+      };
+}
@@ -4,31 +4,34 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
 import org.dhallj.cbor.Writer;
 import org.dhallj.core.binary.Encode;
 import org.dhallj.core.normalization.AlphaNormalize;
 import org.dhallj.core.normalization.BetaNormalize;
+import org.dhallj.core.normalization.Evaluate;
+import org.dhallj.core.normalization.ParallelNormalize;
 import org.dhallj.core.normalization.Shift;
 import org.dhallj.core.normalization.Substitute;
+import org.dhallj.core.typechecking.Context;
 import org.dhallj.core.typechecking.TypeCheck;
 
 /**
@@ -40,6 +43,9 @@ import org.dhallj.core.typechecking.TypeCheck;
 public abstract class Expr {
   final int tag;
   private final AtomicReference<byte[]> cachedHashBytes = new AtomicReference<byte[]>();
+  private volatile byte[] cachedNormalFormHash = null;
+  // Only set for subexpressions of values passed to Util.precomputeEncoding.
+  private CachedEncoding cachedEncoding = null;
 
   Expr(int tag) {
     this.tag = tag;
@@ -52,11 +58,22 @@ public abstract class Expr {
    * Beta-normalize this expression.
    *
    * <p>This operation "evaluates" the expression.
+   *
+   * <p>Note that by default this uses the substitution-based {@link BetaNormalize}; setting the
+   * {@code org.dhallj.normalization} system property to {@code evaluation} selects the
+   * environment-based {@link Evaluate} instead.
    */
   public final Expr normalize() {
-    return this.accept(BetaNormalize.instance);
+    if (normalizeByEvaluation) {
+      return Evaluate.normalize(this);
+    } else {
+      return this.accept(BetaNormalize.instance);
+    }
   }
 
+  private static final boolean normalizeByEvaluation =
+      "evaluation".equals(System.getProperty("org.dhallj.normalization"));
+
   /**
    * Alpha-normalize this expression.
    *
@@ -134,38 +151,89 @@ public abstract class Expr {
    * arguments.
    */
   public final boolean sameStructure(Expr other) {
-    return this.getFirstDiff(other) == null;
+    return this == other || this.getFirstDiff(other) == null;
+  }
+
+  /**
+   * A hash code that is consistent with {@code sameStructure}.
+   *
+   * <p>Note that this method doesn't normalize, and is constant-time after the first call (it uses
+   * the cached hash of the encoding).
+   */
+  public final int structuralHashCode() {
+    return hashPrefix(this.getHashBytes());
   }
 
   /**
    * Check whether this expression is equivalent to another.
    *
-   * <p>Note that this method normalizes both expressions before comparing.
+   * <p>Note that this method first compares the expressions as they are (up to renaming of bound
+   * variables), and only normalizes both if that fails, unless the hashes of both normal forms
+   * have already been computed (e.g. by {@code equals} or {@code hashCode}).
    */
   public final boolean equivalent(Expr other) {
-    return Arrays.equals(
-        this.normalize().alphaNormalize().getEncodedBytes(),
-        other.normalize().alphaNormalize().getEncodedBytes());
+    if (this == other) {
+      return true;
+    }
+
+    byte[] thisNormalFormHash = this.cachedNormalFormHash;
+    byte[] otherNormalFormHash = other.cachedNormalFormHash;
+
+    if (thisNormalFormHash != null && otherNormalFormHash != null) {
+      return Arrays.equals(thisNormalFormHash, otherNormalFormHash);
+    } else if (Equivalence.compare(this, other) == Equivalence.EQUAL) {
+      return true;
+    } else {
+      return Util.alphaEquivalent(this.normalize(), other.normalize());
+    }
   }
 
   /**
    * Check whether this expression is equivalent to another value.
    *
-   * <p>Note that this method normalizes both expressions before comparing. Also note that in future
-   * releases this method may compare the hashes of the encoded bytes, but currently it is identical
-   * to equivalent (but with an {@code Object} argument because Java).
+   * <p>Note that this method compares the SHA-256 hashes of the encodings of the alpha-beta-normal
+   * forms of the expressions, which are computed once and cached.
    */
   public final boolean equals(Object obj) {
-    if (obj instanceof Expr) {
-      return this.equivalent((Expr) obj);
+    if (this == obj) {
+      return true;
+    } else if (obj instanceof Expr) {
+      return Arrays.equals(this.getNormalFormHash(), ((Expr) obj).getNormalFormHash());
     } else {
       return false;
     }
   }
 
-  /** Hashes the CBOR encoding of this expression. */
+  /** Hashes the CBOR encoding of the alpha-beta-normal form of this expression. */
   public final int hashCode() {
-    return Arrays.hashCode(this.normalize().alphaNormalize().getEncodedBytes());
+    return hashPrefix(this.getNormalFormHash());
+  }
+
+  /**
+   * Return the SHA-256 hash of the encoding of the alpha-beta-normal form of this expression (the
+   * hash used for semantic integrity checks).
+   *
+   * <p>Note that the result is cached, so this method only normalizes on the first call.
+   */
+  public final byte[] getNormalFormHashBytes() {
+    return this.getNormalFormHash().clone();
+  }
+
+  private final byte[] getNormalFormHash() {
+    byte[] result = this.cachedNormalFormHash;
+
+    if (result == null) {
+      result = this.normalize().alphaNormalize().getHashBytes();
+      this.cachedNormalFormHash = result;
+    }
+    return result;
+  }
+
+  private static final int hashPrefix(byte[] hash) {
+    return ((hash[0] & 0xff) << 24)
+        | ((hash[1] & 0xff) << 16)
+        | ((hash[2] & 0xff) << 8)
+        | (hash[3] & 0xff);
   }
 
   public final String toString() {
@@ -196,6 +264,53 @@ public abstract class Expr {
       return expr.accept(new TypeCheck());
     }
 
+    /**
+     * Type-check the given expression and return the inferred type, reusing and adding to the
+     * types in the given cache.
+     */
+    public static final Expr typeCheck(Expr expr, TypeCheck.Cache cache) {
+      return new TypeCheck(Context.EMPTY, cache).infer(expr);
+    }
+
+    /**
+     * Type-check the given expression and return the inferred type, checking the children of
+     * expressions with at least {@code threshold} children (such as records of many services) in
+     * parallel in the given pool.
+     *
+     * <p>The result and any failure are the same as when type-checking sequentially. The cache may
+     * be null.
+     */
+    public static final Expr typeCheck(
+        Expr expr, TypeCheck.Cache cache, ForkJoinPool pool, int threshold) {
+      return new TypeCheck(Context.EMPTY, cache, pool, threshold).infer(expr);
+    }
+
+    /**
+     * Beta-normalize the given expression, normalizing the children of record literals, record
+     * types, union types, and lists with at least {@code threshold} children in parallel in the
+     * given pool.
+     */
+    public static final Expr normalize(Expr expr, ForkJoinPool pool, int threshold) {
+      return ParallelNormalize.apply(expr, pool, threshold);
+    }
+
+    /**
+     * Check whether two expressions are the same up to renaming of bound variables.
+     *
+     * <p>Note that this method does not normalize, so it's equivalent to {@code equivalent} for
+     * expressions that are already normalized.
+     */
+    public static final boolean alphaEquivalent(Expr first, Expr second) {
+      int result = Equivalence.compare(first, second);
+
+      if (result == Equivalence.UNKNOWN) {
+        return Arrays.equals(
+            first.alphaNormalize().getEncodedBytes(), second.alphaNormalize().getEncodedBytes());
+      } else {
+        return result == Equivalence.EQUAL;
+      }
+    }
+
     /** Return the first difference between the structure of two expressions as a pair. */
     public static final Entry<Expr, Expr> getFirstDiff(Expr first, Expr second) {
       return first.getFirstDiff(second);
@@ -203,8 +318,39 @@ public abstract class Expr {
 
     /** Write an encoded expression to a stream. */
     public static final void encodeToStream(Expr expr, OutputStream stream) {
-      Writer.OutputStreamWriter writer = new Writer.OutputStreamWriter(stream);
+      Writer.BufferedOutputStreamWriter writer = new Writer.BufferedOutputStreamWriter(stream);
       expr.accept(new Encode(writer));
+      writer.flush();
+    }
+
+    /**
+     * Encode the given expression, caching the encoded bytes of its larger subexpressions, so
+     * that encoding or hashing any expression that contains them later copies their bytes instead
+     * of walking them again.
+     *
+     * <p>Note that the cached bytes are retained as long as the expression is, so this is intended
+     * for long-lived values like the Prelude.
+     */
+    public static final void precomputeEncoding(Expr expr) {
+      Writer.ByteArrayWriter writer = new Writer.ByteArrayWriter();
+      Driver driver = new Driver();
+      driver.startRecording(writer);
+      driver.run(expr, new Encode(writer));
+
+      byte[] bytes = writer.getBytes();
+      driver.finishRecording(bytes);
+
+      Writer.SHA256Writer hashWriter = new Writer.SHA256Writer();
+      hashWriter.writeEncoded(bytes, 0, bytes.length);
+      expr.cachedHashBytes.compareAndSet(null, hashWriter.getHashBytes());
+    }
+
+    /**
+     * Write an encoded expression into a buffer (which may be direct or memory-mapped), starting
+     * at its current position.
+     */
+    public static final void encodeToBuffer(Expr expr, ByteBuffer buffer) {
+      expr.accept(new Encode(new Writer.ByteBufferWriter(buffer)));
     }
 
     /** Encode an array of bytes as a hex string. */
@@ -324,6 +470,35 @@ public abstract class Expr {
       }
     }
 
+    /**
+     * If the expression is a record literal with a field with the given name, return its value.
+     *
+     * <p>Note that large records are indexed after their first lookup, so repeated lookups don't
+     * need to search the fields.
+     */
+    public static final Expr getRecordLiteralField(Expr expr, String name) {
+      Expr value = expr.getNonNote();
+
+      if (value.tag == Tags.RECORD) {
+        Constructors.RecordLiteral record = (Constructors.RecordLiteral) value;
+        return FieldIndex.lookup(record.index, record.fields, name);
+      } else {
+        return null;
+      }
+    }
+
+    /** If the expression is a record type with a field with the given name, return its type. */
+    public static final Expr getRecordTypeField(Expr expr, String name) {
+      Expr value = expr.getNonNote();
+
+      if (value.tag == Tags.RECORD_TYPE) {
+        Constructors.RecordType recordType = (Constructors.RecordType) value;
+        return FieldIndex.lookup(recordType.index, recordType.fields, name);
+      } else {
+        return null;
+      }
+    }
+
     /** If the expression is a {@code List} literal, return its contents. */
     public static final List<Expr> asListLiteral(Expr expr) {
       Expr value = expr.getNonNote();
@@ -370,6 +545,19 @@ public abstract class Expr {
       }
     }
 
+    /** If the expression is a {@code let}-expression, return its first binding and its body. */
+    public static final Entry<LetBinding<Expr>, Expr> asLet(Expr expr) {
+      Expr value = expr.getNonNote();
+
+      if (value.tag == Tags.LET) {
+        Constructors.Let let = (Constructors.Let) value;
+        return new SimpleImmutableEntry<LetBinding<Expr>, Expr>(
+            new LetBinding<Expr>(let.name, let.type, let.value), let.body);
+      } else {
+        return null;
+      }
+    }
+
     /** If the expression is a field access, return the base and field name. */
     public static final Entry<Expr, String> asFieldAccess(Expr expr) {
       Expr value = expr.getNonNote();
@@ -638,6 +826,10 @@ public abstract class Expr {
       this.source = source;
     }
 
+    public final Expr getBase() {
+      return this.base;
+    }
+
     public final Source getSource() {
       return this.source;
     }
@@ -647,20 +839,241 @@ public abstract class Expr {
     }
   }
 
+  /**
+   * A bounded table of expressions that lets structurally equal nodes share a single instance.
+   *
+   * <p>When an interner is installed (either programmatically or by setting the {@code
+   * org.dhallj.interning} system property to a capacity), the {@code make} methods return an
+   * existing instance for identifiers, literals, built-ins, and applications, field accesses,
+   * operator applications, lambdas, and function types whose children are the same instances as
+   * those of the existing one (which they usually are when the children were also interned). Since
+   * everything that builds expressions (including the decoder and the normalizers) goes through
+   * these methods, repeated nodes are stored once, and equal nodes can often be recognized by
+   * identity.
+   *
+   * <p>The table is direct-mapped and lossy: a new expression replaces whatever is in its slot,
+   * so an interner never holds more expressions than its capacity, and it can be used from
+   * multiple threads without locking.
+   */
+  public static final class Interner {
+    private final Expr[] table;
+    private final int mask;
+
+    public Interner(int capacity) {
+      int size = 1;
+      while (size < capacity && size < (1 << 30)) {
+        size <<= 1;
+      }
+      this.table = new Expr[size];
+      this.mask = size - 1;
+    }
+
+    private static volatile Interner installed = fromProperty();
+
+    private static final Interner fromProperty() {
+      String capacity = System.getProperty("org.dhallj.interning");
+
+      if (capacity == null) {
+        return null;
+      } else {
+        try {
+          return new Interner(Integer.parseInt(capacity));
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      }
+    }
+
+    /** Install the given interner for use by the {@code make} methods (or remove it if null). */
+    public static final void install(Interner interner) {
+      installed = interner;
+    }
+
+    /** Return the installed interner, or null if there isn't one. */
+    public static final Interner getInstalled() {
+      return installed;
+    }
+
+    static final Expr internIfInstalled(Expr expr) {
+      Interner interner = installed;
+      return (interner == null) ? expr : interner.intern(expr);
+    }
+
+    /** Return an existing instance that's structurally equal to the given one, if possible. */
+    public final Expr intern(Expr expr) {
+      if (!isInterned(expr)) {
+        return expr;
+      }
+
+      int hash = shallowHash(expr);
+      int slot = (hash ^ (hash >>> 16)) & this.mask;
+      Expr existing = this.table[slot];
+
+      if (existing != null && shallowEquals(existing, expr)) {
+        return existing;
+      } else {
+        this.table[slot] = expr;
+        return expr;
+      }
+    }
+
+    private static final int identityHash(Expr expr) {
+      return System.identityHashCode(expr);
+    }
+
+    /** Whether the node is interned (text literals are only if they have no interpolations). */
+    private static final boolean isInterned(Expr expr) {
+      switch (expr.tag) {
+        case Tags.NATURAL:
+        case Tags.INTEGER:
+        case Tags.DOUBLE:
+        case Tags.BUILT_IN:
+        case Tags.IDENTIFIER:
+        case Tags.LAMBDA:
+        case Tags.PI:
+        case Tags.FIELD_ACCESS:
+        case Tags.APPLICATION:
+        case Tags.OPERATOR_APPLICATION:
+          return true;
+        case Tags.TEXT:
+          return ((Constructors.TextLiteral) expr).parts.length == 1;
+        default:
+          return false;
+      }
+    }
+
+    /** A hash based on the identity of the children, for nodes that are interned. */
+    private static final int shallowHash(Expr expr) {
+      int hash;
+
+      switch (expr.tag) {
+        case Tags.NATURAL:
+          hash = ((Constructors.NaturalLiteral) expr).value.hashCode();
+          break;
+        case Tags.INTEGER:
+          hash = 17 + ((Constructors.IntegerLiteral) expr).value.hashCode();
+          break;
+        case Tags.DOUBLE:
+          long bits = Double.doubleToLongBits(((Constructors.DoubleLiteral) expr).value);
+          hash = (int) (bits ^ (bits >>> 32));
+          break;
+        case Tags.TEXT:
+          hash = ((Constructors.TextLiteral) expr).parts[0].hashCode();
+          break;
+        case Tags.BUILT_IN:
+          hash = ((Constructors.BuiltIn) expr).name.hashCode();
+          break;
+        case Tags.IDENTIFIER:
+          Constructors.Identifier identifier = (Constructors.Identifier) expr;
+          hash = 31 * identifier.name.hashCode() + (int) identifier.index;
+          break;
+        case Tags.LAMBDA:
+          Constructors.Lambda lambda = (Constructors.Lambda) expr;
+          hash =
+              31 * (31 * lambda.name.hashCode() + identityHash(lambda.type))
+                  + identityHash(lambda.result);
+          break;
+        case Tags.PI:
+          Constructors.Pi pi = (Constructors.Pi) expr;
+          hash = 31 * (31 * pi.name.hashCode() + identityHash(pi.type)) + identityHash(pi.result);
+          break;
+        case Tags.FIELD_ACCESS:
+          Constructors.FieldAccess fieldAccess = (Constructors.FieldAccess) expr;
+          hash = 31 * identityHash(fieldAccess.base) + fieldAccess.fieldName.hashCode();
+          break;
+        case Tags.APPLICATION:
+          Constructors.Application application = (Constructors.Application) expr;
+          hash = 31 * identityHash(application.base) + identityHash(application.arg);
+          break;
+        case Tags.OPERATOR_APPLICATION:
+          Constructors.OperatorApplication operatorApplication =
+              (Constructors.OperatorApplication) expr;
+          hash = 31 * operatorApplication.operator.ordinal();
+          hash = 31 * (hash + identityHash(operatorApplication.lhs));
+          hash = hash + identityHash(operatorApplication.rhs);
+          break;
+        default:
+          hash = 0;
+      }
+
+      return 31 * hash + expr.tag;
+    }
+
+    private static final boolean shallowEquals(Expr a, Expr b) {
+      if (a.tag != b.tag) {
+        return false;
+      }
+
+      switch (a.tag) {
+        case Tags.NATURAL:
+          return ((Constructors.NaturalLiteral) a)
+              .value.equals(((Constructors.NaturalLiteral) b).value);
+        case Tags.INTEGER:
+          return ((Constructors.IntegerLiteral) a)
+              .value.equals(((Constructors.IntegerLiteral) b).value);
+        case Tags.DOUBLE:
+          return Double.doubleToLongBits(((Constructors.DoubleLiteral) a).value)
+              == Double.doubleToLongBits(((Constructors.DoubleLiteral) b).value);
+        case Tags.TEXT:
+          Constructors.TextLiteral textA = (Constructors.TextLiteral) a;
+          Constructors.TextLiteral textB = (Constructors.TextLiteral) b;
+          return textA.parts.length == 1
+              && textB.parts.length == 1
+              && textA.parts[0].equals(textB.parts[0]);
+        case Tags.BUILT_IN:
+          return ((Constructors.BuiltIn) a).name.equals(((Constructors.BuiltIn) b).name);
+        case Tags.IDENTIFIER:
+          Constructors.Identifier identifierA = (Constructors.Identifier) a;
+          Constructors.Identifier identifierB = (Constructors.Identifier) b;
+          return identifierA.index == identifierB.index
+              && identifierA.name.equals(identifierB.name);
+        case Tags.LAMBDA:
+          Constructors.Lambda lambdaA = (Constructors.Lambda) a;
+          Constructors.Lambda lambdaB = (Constructors.Lambda) b;
+          return lambdaA.type == lambdaB.type
+              && lambdaA.result == lambdaB.result
+              && lambdaA.name.equals(lambdaB.name);
+        case Tags.PI:
+          Constructors.Pi piA = (Constructors.Pi) a;
+          Constructors.Pi piB = (Constructors.Pi) b;
+          return piA.type == piB.type && piA.result == piB.result && piA.name.equals(piB.name);
+        case Tags.FIELD_ACCESS:
+          Constructors.FieldAccess fieldAccessA = (Constructors.FieldAccess) a;
+          Constructors.FieldAccess fieldAccessB = (Constructors.FieldAccess) b;
+          return fieldAccessA.base == fieldAccessB.base
+              && fieldAccessA.fieldName.equals(fieldAccessB.fieldName);
+        case Tags.APPLICATION:
+          Constructors.Application applicationA = (Constructors.Application) a;
+          Constructors.Application applicationB = (Constructors.Application) b;
+          return applicationA.base == applicationB.base && applicationA.arg == applicationB.arg;
+        case Tags.OPERATOR_APPLICATION:
+          Constructors.OperatorApplication operatorApplicationA =
+              (Constructors.OperatorApplication) a;
+          Constructors.OperatorApplication operatorApplicationB =
+              (Constructors.OperatorApplication) b;
+          return operatorApplicationA.operator == operatorApplicationB.operator
+              && operatorApplicationA.lhs == operatorApplicationB.lhs
+              && operatorApplicationA.rhs == operatorApplicationB.rhs;
+        default:
+          return false;
+      }
+    }
+  }
+
   public static final Expr makeDoubleLiteral(double value) {
-    return new Constructors.DoubleLiteral(value);
+    return Interner.internIfInstalled(new Constructors.DoubleLiteral(value));
   }
 
   public static final Expr makeNaturalLiteral(BigInteger value) {
-    return new Constructors.NaturalLiteral(value);
+    return Interner.internIfInstalled(new Constructors.NaturalLiteral(value));
   }
 
   public static final Expr makeIntegerLiteral(BigInteger value) {
-    return new Constructors.IntegerLiteral(value);
+    return Interner.internIfInstalled(new Constructors.IntegerLiteral(value));
   }
 
   public static final Expr makeTextLiteral(String[] parts, Expr[] interpolated) {
-    return new Constructors.TextLiteral(parts, interpolated);
+    return Interner.internIfInstalled(new Constructors.TextLiteral(parts, interpolated));
   }
 
   public static final Expr makeTextLiteral(String[] parts, Collection<Expr> interpolated) {
@@ -671,11 +1084,11 @@ public abstract class Expr {
 
   public static final Expr makeTextLiteral(String value) {
     String[] parts = {value};
-    return new Constructors.TextLiteral(parts, emptyExprArray);
+    return Interner.internIfInstalled(new Constructors.TextLiteral(parts, emptyExprArray));
   }
 
   public static final Expr makeApplication(Expr base, Expr arg) {
-    return new Constructors.Application(base, arg);
+    return Interner.internIfInstalled(new Constructors.Application(base, arg));
   }
 
   public static final Expr makeApplication(Expr base, Expr[] args) {
@@ -695,7 +1108,8 @@ public abstract class Expr {
   }
 
   public static final Expr makeOperatorApplication(Operator operator, Expr lhs, Expr rhs) {
-    return new Constructors.OperatorApplication(operator, lhs, rhs);
+    return Interner.internIfInstalled(
+        new Constructors.OperatorApplication(operator, lhs, rhs));
   }
 
   public static final Expr makeIf(Expr cond, Expr thenValue, Expr elseValue) {
@@ -703,11 +1117,11 @@ public abstract class Expr {
   }
 
   public static final Expr makeLambda(String param, Expr input, Expr result) {
-    return new Constructors.Lambda(param, input, result);
+    return Interner.internIfInstalled(new Constructors.Lambda(param, input, result));
   }
 
   public static final Expr makePi(String param, Expr input, Expr result) {
-    return new Constructors.Pi(param, input, result);
+    return Interner.internIfInstalled(new Constructors.Pi(param, input, result));
   }
 
   public static final Expr makePi(Expr input, Expr result) {
@@ -719,7 +1133,7 @@ public abstract class Expr {
   }
 
   public static final Expr makeFieldAccess(Expr base, String fieldName) {
-    return new Constructors.FieldAccess(base, fieldName);
+    return Interner.internIfInstalled(new Constructors.FieldAccess(base, fieldName));
   }
 
   public static final Expr makeProjection(Expr base, String[] fieldNames) {
@@ -731,14 +1145,16 @@ public abstract class Expr {
   }
 
   public static final Expr makeBuiltIn(String name) {
-    if (Constants.getBuiltIn(name) == null) {
+    Expr builtIn = Constants.getBuiltIn(name);
+
+    if (builtIn == null) {
       throw new IllegalArgumentException(String.format("%s is not a built-in", name));
     }
-    return Constants.getBuiltIn(name);
+    return Interner.internIfInstalled(builtIn);
   }
 
   public static final Expr makeIdentifier(String name, long index) {
-    return new Constructors.Identifier(name, index);
+    return Interner.internIfInstalled(new Constructors.Identifier(name, index));
   }
 
   public static final Expr makeIdentifier(String name) {
@@ -846,692 +1262,836 @@ public abstract class Expr {
     return new Constructors.MissingImport(mode, hash);
   }
 
-  private static final class State {
-    final Expr expr;
-    int state;
-    int size;
-    Entry<String, Expr>[] sortedFields;
-    boolean skippedRecursion = false;
+  /**
+   * The stacks used to run an internal visitor over an expression without recursion.
+   *
+   * <p>Each frame on the stack is a node that's being visited, together with its state (how many
+   * of its children have been visited), its size, and any auxiliary data (sorted fields, gathered
+   * application arguments or let bindings). Frames are stored in parallel arrays and results in an
+   * array that may contain nulls, so visiting a node doesn't allocate anything beyond what the
+   * visitor's callbacks require.
+   *
+   * <p>Note that each thread reuses a single instance, unless a visitor runs another internal
+   * visitor from one of its callbacks, in which case the inner run gets a fresh instance.
+   */
+  /** A slice of a shared array containing the CBOR encoding of an expression. */
+  private static final class CachedEncoding {
+    final byte[] bytes;
+    final int offset;
+    final int length;
+
+    CachedEncoding(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static final class Driver {
+    private static final int INITIAL_SIZE = 64;
+    // Don't keep very large stacks around after a run over a very deep expression.
+    private static final int MAXIMUM_RETAINED_SIZE = 4096;
+
+    private Expr[] exprs = new Expr[INITIAL_SIZE];
+    private int[] states = new int[INITIAL_SIZE];
+    private int[] sizes = new int[INITIAL_SIZE];
+    private Object[] extras = new Object[INITIAL_SIZE];
+    private boolean[] skipped = new boolean[INITIAL_SIZE];
+    private int depth = 0;
+
+    private Object[] values = new Object[INITIAL_SIZE];
+    private int valueCount = 0;
+
+    private boolean inUse = false;
+
+    // Only used by Util.precomputeEncoding (never for the thread-local instances).
+    private static final int MINIMUM_CACHED_ENCODING_LENGTH = 64;
+    private Writer.ByteArrayWriter recordedWriter = null;
+    private int[] starts = null;
+    private List<Expr> recordedExprs = null;
+    private int[] recordedSpans = null;
+    private Expr pendingExpr = null;
+    private int pendingStart = 0;
+
+    private static final ThreadLocal<Driver> instances =
+        new ThreadLocal<Driver>() {
+          protected Driver initialValue() {
+            return new Driver();
+          }
+        };
+
+    static final Driver acquire() {
+      Driver driver = instances.get();
 
-    State(Expr expr, int state, int size) {
-      this.expr = expr;
-      this.state = state;
-      this.size = size;
-      this.sortedFields = null;
+      if (driver.inUse) {
+        driver = new Driver();
+      }
+      driver.inUse = true;
+      return driver;
     }
 
-    State(Expr expr, int state, Entry<String, Expr>[] fields, boolean sortFields) {
-      this.expr = expr;
-      this.state = state;
-      this.size = 0;
-      if (sortFields) {
-        this.sortedFields = fields.clone();
-        Arrays.sort(sortedFields, entryComparator);
+    final void release() {
+      if (this.exprs.length > MAXIMUM_RETAINED_SIZE) {
+        this.exprs = new Expr[INITIAL_SIZE];
+        this.states = new int[INITIAL_SIZE];
+        this.sizes = new int[INITIAL_SIZE];
+        this.extras = new Object[INITIAL_SIZE];
+        this.skipped = new boolean[INITIAL_SIZE];
       } else {
-        this.sortedFields = fields;
+        Arrays.fill(this.exprs, 0, this.depth, null);
+        Arrays.fill(this.extras, 0, this.depth, null);
       }
+
+      if (this.values.length > MAXIMUM_RETAINED_SIZE) {
+        this.values = new Object[INITIAL_SIZE];
+      } else {
+        Arrays.fill(this.values, 0, this.valueCount, null);
+      }
+
+      this.depth = 0;
+      this.valueCount = 0;
+      this.inUse = false;
     }
 
-    State(Expr expr, int state) {
-      this(expr, state, 0);
+    private final void push(Expr expr) {
+      if (this.depth == this.exprs.length) {
+        int newSize = this.depth * 2;
+        this.exprs = Arrays.copyOf(this.exprs, newSize);
+        this.states = Arrays.copyOf(this.states, newSize);
+        this.sizes = Arrays.copyOf(this.sizes, newSize);
+        this.extras = Arrays.copyOf(this.extras, newSize);
+        this.skipped = Arrays.copyOf(this.skipped, newSize);
+
+        if (this.recordedWriter != null) {
+          this.starts = Arrays.copyOf(this.starts, newSize);
+        }
+      }
+
+      this.exprs[this.depth] = expr;
+      this.states[this.depth] = 0;
+      this.sizes[this.depth] = 0;
+      this.extras[this.depth] = null;
+      this.skipped[this.depth] = false;
+
+      if (this.recordedWriter != null) {
+        this.starts[this.depth] = this.recordedWriter.size();
+      }
+      this.depth += 1;
     }
 
-    public String toString() {
-      return String.format("%s %d %d", this.expr, this.expr.tag, this.state);
+    private final void pop() {
+      this.depth -= 1;
+
+      if (this.recordedWriter != null) {
+        this.pendingExpr = this.exprs[this.depth];
+        this.pendingStart = this.starts[this.depth];
+      }
+      this.exprs[this.depth] = null;
+      this.extras[this.depth] = null;
     }
-  }
 
-  /** Run the given internal visitor on this expression. */
-  public final <A> A accept(Visitor<A> visitor) {
-    State current = new State(this, 0);
-    Deque<State> stack = new ArrayDeque<State>();
-    // Note that we have to use a linked list here because we store null values on the stack.
-    Deque<A> valueStack = new LinkedList<A>();
-
-    A v0;
-    A v1;
-    A v2;
-
-    Deque<LinkedList<Expr>> applicationStack = new ArrayDeque<>();
-    Deque<List<LetBinding<Expr>>> letBindingsStack = new ArrayDeque<>();
-    Deque<List<String>> letBindingNamesStack = new ArrayDeque<>();
-
-    while (current != null) {
-      switch (current.expr.tag) {
-        case Tags.NOTE:
-          Parsed tmpNote = (Parsed) current.expr;
-          switch (current.state) {
-            case 0:
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpNote.base, 0));
-              break;
-            case 1:
-              v0 = valueStack.poll();
-              valueStack.push(visitor.onNote(v0, tmpNote.source));
-              break;
-          }
-          break;
-        case Tags.NATURAL:
-          valueStack.push(
-              visitor.onNatural(current.expr, ((Constructors.NaturalLiteral) current.expr).value));
-          break;
-        case Tags.INTEGER:
-          valueStack.push(
-              visitor.onInteger(current.expr, ((Constructors.IntegerLiteral) current.expr).value));
-          break;
-        case Tags.DOUBLE:
-          valueStack.push(
-              visitor.onDouble(current.expr, ((Constructors.DoubleLiteral) current.expr).value));
-          break;
-        case Tags.BUILT_IN:
-          Constructors.BuiltIn tmpBuiltIn = (Constructors.BuiltIn) current.expr;
-          valueStack.push(visitor.onBuiltIn(current.expr, tmpBuiltIn.name));
-          break;
-        case Tags.IDENTIFIER:
-          Constructors.Identifier tmpIdentifier = (Constructors.Identifier) current.expr;
-          valueStack.push(
-              visitor.onIdentifier(current.expr, tmpIdentifier.name, tmpIdentifier.index));
-          break;
-        case Tags.LAMBDA:
-          Constructors.Lambda tmpLambda = (Constructors.Lambda) current.expr;
-          switch (current.state) {
-            case 0:
-              visitor.prepareLambda(tmpLambda.name, tmpLambda.type);
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpLambda.type, 0));
-              break;
-            case 1:
-              visitor.bind(tmpLambda.name, tmpLambda.type);
-              current.state = 2;
-              stack.push(current);
-              stack.push(new State(tmpLambda.result, 0));
-              break;
-            case 2:
-              v1 = valueStack.poll();
-              v0 = valueStack.poll();
-              valueStack.push(visitor.onLambda(tmpLambda.name, v0, v1));
-          }
-          break;
-        case Tags.PI:
-          Constructors.Pi tmpPi = (Constructors.Pi) current.expr;
-          switch (current.state) {
-            case 0:
-              visitor.preparePi(tmpPi.name, tmpPi.type);
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpPi.type, 0));
-              break;
-            case 1:
-              visitor.bind(tmpPi.name, tmpPi.type);
-              current.state = 2;
-              stack.push(current);
-              stack.push(new State(tmpPi.result, 0));
-              break;
-            case 2:
-              v1 = valueStack.poll();
-              v0 = valueStack.poll();
-              valueStack.push(visitor.onPi(tmpPi.name, v0, v1));
+    /**
+     * Start recording where the encoding of each subexpression begins and ends in the given
+     * writer, which must be the writer of the {@link Encode} visitor that this driver will run.
+     */
+    final void startRecording(Writer.ByteArrayWriter writer) {
+      this.recordedWriter = writer;
+      this.starts = new int[this.exprs.length];
+      this.recordedExprs = new ArrayList<Expr>();
+      this.recordedSpans = new int[INITIAL_SIZE];
+    }
+
+    /**
+     * Called after the visitor has finished with the most recently popped expression (the visitor
+     * writes any trailing bytes after the pop).
+     */
+    private final void finishRecordedExpr() {
+      if (this.pendingExpr != null) {
+        int end = this.recordedWriter.size();
+
+        if (end - this.pendingStart >= MINIMUM_CACHED_ENCODING_LENGTH
+            && this.pendingExpr.cachedEncoding == null) {
+          int i = this.recordedExprs.size() * 2;
+          if (i == this.recordedSpans.length) {
+            this.recordedSpans = Arrays.copyOf(this.recordedSpans, i * 2);
           }
-          break;
-        case Tags.LET:
-          Constructors.Let tmpLet = (Constructors.Let) current.expr;
+          this.recordedSpans[i] = this.pendingStart;
+          this.recordedSpans[i + 1] = end;
+          this.recordedExprs.add(this.pendingExpr);
+        }
+        this.pendingExpr = null;
+      }
+    }
 
-          List<LetBinding<Expr>> letBindings;
+    /** Attach the recorded encodings to their expressions, sharing the given array. */
+    final void finishRecording(byte[] bytes) {
+      for (int j = 0; j < this.recordedExprs.size(); j++) {
+        int start = this.recordedSpans[2 * j];
+        int end = this.recordedSpans[2 * j + 1];
+        this.recordedExprs.get(j).cachedEncoding = new CachedEncoding(bytes, start, end - start);
+      }
+      this.recordedWriter = null;
+      this.starts = null;
+      this.recordedExprs = null;
+      this.recordedSpans = null;
+    }
 
-          if (current.state == 0) {
-            letBindings = new ArrayList<LetBinding<Expr>>();
-            letBindings.add(new LetBinding(tmpLet.name, tmpLet.type, tmpLet.value));
+    private final void pushValue(Object value) {
+      if (this.valueCount == this.values.length) {
+        this.values = Arrays.copyOf(this.values, this.valueCount * 2);
+      }
+      this.values[this.valueCount++] = value;
+    }
 
-            gatherLetBindings(tmpLet.body, letBindings);
+    private final Object popValue() {
+      Object value = this.values[--this.valueCount];
+      this.values[this.valueCount] = null;
+      return value;
+    }
 
-            current.state = 1;
-            current.size = letBindings.size();
+    /** Pop the given number of values, returning them in the order they were pushed. */
+    private final <A> List<A> popValues(int count) {
+      List<A> result = new ArrayList<A>(count);
+      int start = this.valueCount - count;
 
-            List<String> letBindingNames = new ArrayList<>(current.size);
+      for (int i = start; i < this.valueCount; i++) {
+        result.add((A) this.values[i]);
+        this.values[i] = null;
+      }
 
-            for (LetBinding<Expr> letBinding : letBindings) {
-              letBindingNames.add(letBinding.getName());
-            }
+      this.valueCount = start;
+      return result;
+    }
 
-            letBindingNamesStack.push(letBindingNames);
+    private final <A> List<Entry<String, A>> popFieldValues(Entry<String, Expr>[] fields) {
+      List<Entry<String, A>> result = new ArrayList<Entry<String, A>>(fields.length);
+      int start = this.valueCount - fields.length;
 
-            visitor.prepareLet(letBindings.size());
-          } else {
-            letBindings = letBindingsStack.poll();
-          }
+      for (int i = 0; i < fields.length; i++) {
+        A value = (A) this.values[start + i];
+        result.add(new SimpleImmutableEntry<String, A>(fields[i].getKey(), value));
+        this.values[start + i] = null;
+      }
 
-          if (letBindings.isEmpty()) {
-            if (current.state == 1) {
-              current.state = 3;
-              stack.push(current);
-              stack.push(new State(gatherLetBindings(tmpLet.body, null), 0));
-              letBindingsStack.push(letBindings);
-            } else {
-              List<String> letBindingNames = letBindingNamesStack.poll();
-              LinkedList<LetBinding<A>> valueBindings = new LinkedList<LetBinding<A>>();
+      this.valueCount = start;
+      return result;
+    }
 
-              A body = valueStack.poll();
+    private static final Entry<String, Expr>[] prepareFields(
+        Entry<String, Expr>[] fields, boolean sortFields) {
+      if (sortFields && !isSorted(fields)) {
+        Entry<String, Expr>[] sortedFields = fields.clone();
+        Arrays.sort(sortedFields, entryComparator);
+        return sortedFields;
+      } else {
+        return fields;
+      }
+    }
 
-              for (int i = 0; i < current.size; i++) {
-                v1 = valueStack.poll();
-                v0 = valueStack.poll();
+    private static final boolean isSorted(Entry<String, Expr>[] fields) {
+      for (int i = 1; i < fields.length; i++) {
+        if (fields[i - 1].getKey().compareTo(fields[i].getKey()) > 0) {
+          return false;
+        }
+      }
+      return true;
+    }
 
-                valueBindings.push(
-                    new LetBinding(letBindingNames.get(current.size - 1 - i), v0, v1));
-              }
+    final <A> A run(Expr expr, Visitor<A> visitor) {
+      this.push(expr);
 
-              valueStack.push(visitor.onLet(valueBindings, body));
-            }
-          } else {
-            LetBinding<Expr> letBinding = letBindings.get(0);
+      A v0;
+      A v1;
+      A v2;
 
-            switch (current.state) {
+      while (this.depth > 0) {
+        if (this.recordedWriter != null) {
+          this.finishRecordedExpr();
+        }
+
+        int f = this.depth - 1;
+        Expr current = this.exprs[f];
+        int state = this.states[f];
+
+        if (state == 0 && current.cachedEncoding != null && visitor instanceof Encode) {
+          CachedEncoding encoding = current.cachedEncoding;
+          ((Encode) visitor).writeEncoded(encoding.bytes, encoding.offset, encoding.length);
+          this.pop();
+          this.pushValue(null);
+          continue;
+        }
+
+        switch (current.tag) {
+          case Tags.NOTE:
+            Parsed tmpNote = (Parsed) current;
+            if (state == 0) {
+              this.states[f] = 1;
+              this.push(tmpNote.base);
+            } else {
+              this.pop();
+              this.pushValue(visitor.onNote((A) this.popValue(), tmpNote.source));
+            }
+            break;
+          case Tags.NATURAL:
+            this.pop();
+            this.pushValue(
+                visitor.onNatural(current, ((Constructors.NaturalLiteral) current).value));
+            break;
+          case Tags.INTEGER:
+            this.pop();
+            this.pushValue(
+                visitor.onInteger(current, ((Constructors.IntegerLiteral) current).value));
+            break;
+          case Tags.DOUBLE:
+            this.pop();
+            this.pushValue(visitor.onDouble(current, ((Constructors.DoubleLiteral) current).value));
+            break;
+          case Tags.BUILT_IN:
+            this.pop();
+            this.pushValue(visitor.onBuiltIn(current, ((Constructors.BuiltIn) current).name));
+            break;
+          case Tags.IDENTIFIER:
+            Constructors.Identifier tmpIdentifier = (Constructors.Identifier) current;
+            this.pop();
+            this.pushValue(
+                visitor.onIdentifier(current, tmpIdentifier.name, tmpIdentifier.index));
+            break;
+          case Tags.LAMBDA:
+            Constructors.Lambda tmpLambda = (Constructors.Lambda) current;
+            switch (state) {
+              case 0:
+                visitor.prepareLambda(tmpLambda.name, tmpLambda.type);
+                this.states[f] = 1;
+                this.push(tmpLambda.type);
+                break;
+              case 1:
+                visitor.bind(tmpLambda.name, tmpLambda.type);
+                this.states[f] = 2;
+                this.push(tmpLambda.result);
+                break;
+              default:
+                this.pop();
+                v1 = (A) this.popValue();
+                v0 = (A) this.popValue();
+                this.pushValue(visitor.onLambda(tmpLambda.name, v0, v1));
+            }
+            break;
+          case Tags.PI:
+            Constructors.Pi tmpPi = (Constructors.Pi) current;
+            switch (state) {
+              case 0:
+                visitor.preparePi(tmpPi.name, tmpPi.type);
+                this.states[f] = 1;
+                this.push(tmpPi.type);
+                break;
               case 1:
-                current.state = 2;
+                visitor.bind(tmpPi.name, tmpPi.type);
+                this.states[f] = 2;
+                this.push(tmpPi.result);
+                break;
+              default:
+                this.pop();
+                v1 = (A) this.popValue();
+                v0 = (A) this.popValue();
+                this.pushValue(visitor.onPi(tmpPi.name, v0, v1));
+            }
+            break;
+          case Tags.LET:
+            Constructors.Let tmpLet = (Constructors.Let) current;
+            List<LetBinding<Expr>> letBindings;
+
+            if (state == 0) {
+              letBindings = new ArrayList<LetBinding<Expr>>();
+              letBindings.add(new LetBinding(tmpLet.name, tmpLet.type, tmpLet.value));
+              gatherLetBindings(tmpLet.body, letBindings);
+
+              this.extras[f] = letBindings;
+              this.sizes[f] = letBindings.size();
+              visitor.prepareLet(letBindings.size());
+              state = 1;
+            } else {
+              letBindings = (List<LetBinding<Expr>>) this.extras[f];
+            }
+
+            // Odd states start the binding at (state - 1) / 2, and even states visit the value of
+            // the binding at (state - 2) / 2 (or finish, after the body).
+            int letSize = this.sizes[f];
+            int bindingIndex = (state - 1) / 2;
+
+            if (bindingIndex == letSize) {
+              if (state % 2 == 1) {
+                this.states[f] = state + 1;
+                this.push(gatherLetBindings(tmpLet.body, null));
+              } else {
+                this.pop();
+                A body = (A) this.popValue();
+                List<LetBinding<A>> valueBindings = new ArrayList<LetBinding<A>>(letSize);
+                int start = this.valueCount - 2 * letSize;
+
+                for (int i = 0; i < letSize; i++) {
+                  valueBindings.add(
+                      new LetBinding(
+                          letBindings.get(i).getName(),
+                          this.values[start + 2 * i],
+                          this.values[start + 2 * i + 1]));
+                }
+
+                Arrays.fill(this.values, start, this.valueCount, null);
+                this.valueCount = start;
+                this.pushValue(visitor.onLet(valueBindings, body));
+              }
+            } else {
+              LetBinding<Expr> letBinding = letBindings.get(bindingIndex);
+
+              if (state % 2 == 1) {
                 visitor.prepareLetBinding(letBinding.getName(), letBinding.getType());
                 if (letBinding.hasType()) {
-                  stack.push(current);
-                  stack.push(new State(letBinding.getType(), 0));
-                  letBindingsStack.push(letBindings);
+                  this.states[f] = state + 1;
+                  this.push(letBinding.getType());
                   break;
                 } else {
-                  valueStack.push(null);
+                  this.pushValue(null);
                 }
-              case 2:
-                current.state = 1;
-                visitor.bind(letBinding.getName(), letBinding.getType());
-                stack.push(current);
-                stack.push(new State(letBinding.getValue(), 0));
-                letBindings.remove(0);
-                letBindingsStack.push(letBindings);
-                break;
-            }
-          }
-
-          break;
-        case Tags.TEXT:
-          Constructors.TextLiteral tmpText = (Constructors.TextLiteral) current.expr;
-          if (current.state == 0) {
-            visitor.prepareText(tmpText.parts.length);
-            visitor.prepareTextPart(tmpText.parts[0]);
+              }
 
-            if (tmpText.interpolated.length == 0) {
-              valueStack.push(visitor.onText(tmpText.parts, new ArrayList<A>()));
-            } else {
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpText.interpolated[current.state - 1], 0));
+              visitor.bind(letBinding.getName(), letBinding.getType());
+              this.states[f] = 2 * bindingIndex + 3;
+              this.push(letBinding.getValue());
             }
-          } else if (current.state == tmpText.interpolated.length) {
-            visitor.prepareTextPart(tmpText.parts[tmpText.parts.length - 1]);
-            List<A> results = new ArrayList<A>();
-            for (int i = 0; i < tmpText.interpolated.length; i += 1) {
-              results.add(valueStack.poll());
+            break;
+          case Tags.TEXT:
+            Constructors.TextLiteral tmpText = (Constructors.TextLiteral) current;
+            if (state == 0) {
+              visitor.prepareText(tmpText.parts.length);
+              visitor.prepareTextPart(tmpText.parts[0]);
+
+              if (tmpText.interpolated.length == 0) {
+                this.pop();
+                this.pushValue(visitor.onText(tmpText.parts, new ArrayList<A>(0)));
+              } else {
+                this.states[f] = 1;
+                this.push(tmpText.interpolated[0]);
+              }
+            } else if (state == tmpText.interpolated.length) {
+              visitor.prepareTextPart(tmpText.parts[tmpText.parts.length - 1]);
+              this.pop();
+              List<A> results = this.popValues(tmpText.interpolated.length);
+              this.pushValue(visitor.onText(tmpText.parts, results));
+            } else {
+              visitor.prepareTextPart(tmpText.parts[state]);
+              this.states[f] = state + 1;
+              this.push(tmpText.interpolated[state]);
             }
-            Collections.reverse(results);
-            valueStack.push(visitor.onText(tmpText.parts, results));
-          } else {
-            current.state += 1;
-            visitor.prepareTextPart(tmpText.parts[current.state - 1]);
-            stack.push(current);
-            stack.push(new State(tmpText.interpolated[current.state - 1], 0));
-          }
-          break;
-        case Tags.NON_EMPTY_LIST:
-          Constructors.NonEmptyListLiteral tmpNonEmptyList =
-              (Constructors.NonEmptyListLiteral) current.expr;
-          if (current.state == 0) {
-            boolean done = false;
-            if (visitor.flattenToMapLists()) {
-              Expr asRecord = flattenToMapList(tmpNonEmptyList.values);
+            break;
+          case Tags.NON_EMPTY_LIST:
+            Constructors.NonEmptyListLiteral tmpNonEmptyList =
+                (Constructors.NonEmptyListLiteral) current;
+            if (state == 0) {
+              Expr asRecord = null;
+              if (visitor.flattenToMapLists()) {
+                asRecord = flattenToMapList(tmpNonEmptyList.values);
+              }
 
               if (asRecord != null) {
-                stack.push(new State(asRecord, 0));
-                done = true;
+                this.exprs[f] = asRecord;
+              } else {
+                visitor.prepareNonEmptyList(tmpNonEmptyList.values.length);
+                visitor.prepareNonEmptyListElement(0);
+                this.states[f] = 1;
+                this.push(tmpNonEmptyList.values[0]);
               }
+            } else if (state == tmpNonEmptyList.values.length) {
+              this.pop();
+              List<A> results = this.popValues(tmpNonEmptyList.values.length);
+              this.pushValue(visitor.onNonEmptyList(results));
+            } else {
+              visitor.prepareNonEmptyListElement(state);
+              this.states[f] = state + 1;
+              this.push(tmpNonEmptyList.values[state]);
             }
-
-            if (!done) {
-              visitor.prepareNonEmptyList(tmpNonEmptyList.values.length);
-              visitor.prepareNonEmptyListElement(0);
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpNonEmptyList.values[current.state - 1], 0));
-            }
-          } else if (current.state == tmpNonEmptyList.values.length) {
-            List<A> results = new ArrayList<A>();
-            for (int i = 0; i < tmpNonEmptyList.values.length; i += 1) {
-              results.add(valueStack.poll());
+            break;
+          case Tags.EMPTY_LIST:
+            Constructors.EmptyListLiteral tmpEmptyList = (Constructors.EmptyListLiteral) current;
+            if (state == 0) {
+              if (visitor.flattenToMapLists() && isToMapListType(tmpEmptyList.type)) {
+                this.exprs[f] = Constants.EMPTY_RECORD_LITERAL;
+              } else if (visitor.prepareEmptyList(tmpEmptyList.type)) {
+                this.states[f] = 1;
+                this.push(tmpEmptyList.type);
+              } else {
+                this.pop();
+                this.pushValue(null);
+              }
+            } else {
+              this.pop();
+              this.pushValue(visitor.onEmptyList((A) this.popValue()));
             }
-            Collections.reverse(results);
-            valueStack.push(visitor.onNonEmptyList(results));
-          } else {
-            visitor.prepareNonEmptyListElement(current.state);
-            current.state += 1;
-            stack.push(current);
-            stack.push(new State(tmpNonEmptyList.values[current.state - 1], 0));
-          }
-          break;
-        case Tags.EMPTY_LIST:
-          Constructors.EmptyListLiteral tmpEmptyList = (Constructors.EmptyListLiteral) current.expr;
-          if (current.state == 0) {
-            if (visitor.flattenToMapLists() && isToMapListType(tmpEmptyList.type)) {
-              stack.push(new State(Constants.EMPTY_RECORD_LITERAL, 0));
+            break;
+
+          case Tags.RECORD:
+            Constructors.RecordLiteral tmpRecord = (Constructors.RecordLiteral) current;
+            if (state == 0) {
+              visitor.prepareRecord(tmpRecord.fields.length);
+              if (tmpRecord.fields.length == 0) {
+                this.pop();
+                this.pushValue(visitor.onRecord(new ArrayList<Entry<String, A>>(0)));
+              } else {
+                Entry<String, Expr>[] sortedFields =
+                    prepareFields(tmpRecord.fields, visitor.sortFields());
+                this.extras[f] = sortedFields;
+                this.states[f] = 1;
+
+                Entry<String, Expr> field = sortedFields[0];
+                visitor.prepareRecordField(field.getKey(), field.getValue(), 0);
+                this.push(field.getValue());
+              }
             } else {
-              if (visitor.prepareEmptyList(tmpEmptyList.type)) {
-                current.state = 1;
-                stack.push(current);
-                stack.push(new State(tmpEmptyList.type, 0));
+              Entry<String, Expr>[] sortedFields = (Entry<String, Expr>[]) this.extras[f];
+
+              if (state == sortedFields.length) {
+                this.pop();
+                List<Entry<String, A>> results = this.popFieldValues(sortedFields);
+                this.pushValue(visitor.onRecord(results));
               } else {
-                valueStack.push(null);
+                Entry<String, Expr> field = sortedFields[state];
+                visitor.prepareRecordField(field.getKey(), field.getValue(), state);
+                this.states[f] = state + 1;
+                this.push(field.getValue());
               }
             }
-          } else {
-            valueStack.push(visitor.onEmptyList(valueStack.poll()));
-          }
-          break;
-
-        case Tags.RECORD:
-          Constructors.RecordLiteral tmpRecord = (Constructors.RecordLiteral) current.expr;
-          if (current.state == 0) {
-            visitor.prepareRecord(tmpRecord.fields.length);
-            if (tmpRecord.fields.length == 0) {
-              valueStack.push(visitor.onRecord(new ArrayList<Entry<String, A>>()));
+            break;
+
+          case Tags.RECORD_TYPE:
+            Constructors.RecordType tmpRecordType = (Constructors.RecordType) current;
+            if (state == 0) {
+              visitor.prepareRecordType(tmpRecordType.fields.length);
+              if (tmpRecordType.fields.length == 0) {
+                this.pop();
+                this.pushValue(visitor.onRecordType(new ArrayList<Entry<String, A>>(0)));
+              } else {
+                Entry<String, Expr>[] sortedFields =
+                    prepareFields(tmpRecordType.fields, visitor.sortFields());
+                this.extras[f] = sortedFields;
+                this.states[f] = 1;
+
+                Entry<String, Expr> field = sortedFields[0];
+                visitor.prepareRecordTypeField(field.getKey(), field.getValue(), 0);
+                this.push(field.getValue());
+              }
             } else {
-              current = new State(current.expr, 1, tmpRecord.fields, visitor.sortFields());
-              stack.push(current);
+              Entry<String, Expr>[] sortedFields = (Entry<String, Expr>[]) this.extras[f];
 
-              Entry<String, Expr> field = current.sortedFields[current.state - 1];
-              visitor.prepareRecordField(field.getKey(), field.getValue(), current.state - 1);
-              stack.push(new State(field.getValue(), 0));
-            }
-          } else if (current.state == current.sortedFields.length) {
-            List<Entry<String, A>> results = new ArrayList<Entry<String, A>>();
-            for (int i = current.sortedFields.length - 1; i >= 0; i -= 1) {
-              results.add(
-                  new SimpleImmutableEntry(current.sortedFields[i].getKey(), valueStack.poll()));
+              if (state == sortedFields.length) {
+                this.pop();
+                List<Entry<String, A>> results = this.popFieldValues(sortedFields);
+                this.pushValue(visitor.onRecordType(results));
+              } else {
+                Entry<String, Expr> field = sortedFields[state];
+                visitor.prepareRecordTypeField(field.getKey(), field.getValue(), state);
+                this.states[f] = state + 1;
+                this.push(field.getValue());
+              }
             }
-            Collections.reverse(results);
-            valueStack.push(visitor.onRecord(results));
-          } else {
-            current.state += 1;
-            Entry<String, Expr> field = current.sortedFields[current.state - 1];
-
-            visitor.prepareRecordField(field.getKey(), field.getValue(), current.state - 1);
+            break;
 
-            stack.push(current);
-            stack.push(new State(field.getValue(), 0));
-          }
-          break;
+          case Tags.UNION_TYPE:
+            Constructors.UnionType tmpUnionType = (Constructors.UnionType) current;
+            Entry<String, Expr>[] sortedUnionFields;
 
-        case Tags.RECORD_TYPE:
-          Constructors.RecordType tmpRecordType = (Constructors.RecordType) current.expr;
-          if (current.state == 0) {
-            visitor.prepareRecordType(tmpRecordType.fields.length);
-            if (tmpRecordType.fields.length == 0) {
-              valueStack.push(visitor.onRecordType(new ArrayList<Entry<String, A>>()));
+            if (state == 0) {
+              visitor.prepareUnionType(tmpUnionType.fields.length);
+              if (tmpUnionType.fields.length == 0) {
+                this.pop();
+                this.pushValue(visitor.onUnionType(new ArrayList<Entry<String, A>>(0)));
+                break;
+              } else {
+                sortedUnionFields = prepareFields(tmpUnionType.fields, visitor.sortFields());
+                this.extras[f] = sortedUnionFields;
+              }
             } else {
-              current = new State(current.expr, 1, tmpRecordType.fields, visitor.sortFields());
-              stack.push(current);
-
-              Entry<String, Expr> field = current.sortedFields[current.state - 1];
-              visitor.prepareRecordTypeField(field.getKey(), field.getValue(), current.state - 1);
-              stack.push(new State(field.getValue(), 0));
-            }
-          } else if (current.state == current.sortedFields.length) {
-            List<Entry<String, A>> results = new ArrayList<Entry<String, A>>();
-            for (int i = current.sortedFields.length - 1; i >= 0; i -= 1) {
-              results.add(
-                  new SimpleImmutableEntry(current.sortedFields[i].getKey(), valueStack.poll()));
+              sortedUnionFields = (Entry<String, Expr>[]) this.extras[f];
             }
-            Collections.reverse(results);
-            valueStack.push(visitor.onRecordType(results));
-          } else {
-            current.state += 1;
-            Entry<String, Expr> field = current.sortedFields[current.state - 1];
-
-            visitor.prepareRecordTypeField(field.getKey(), field.getValue(), current.state - 1);
-
-            stack.push(current);
-            stack.push(new State(field.getValue(), 0));
-          }
-          break;
 
-        case Tags.UNION_TYPE:
-          Constructors.UnionType tmpUnionType = (Constructors.UnionType) current.expr;
-          if (current.state == 0) {
-            visitor.prepareUnionType(tmpUnionType.fields.length);
-            if (tmpUnionType.fields.length == 0) {
-              valueStack.push(visitor.onUnionType(new ArrayList<Entry<String, A>>()));
+            if (state == sortedUnionFields.length) {
+              this.pop();
+              List<Entry<String, A>> results = this.popFieldValues(sortedUnionFields);
+              this.pushValue(visitor.onUnionType(results));
             } else {
-              current = new State(current.expr, 1, tmpUnionType.fields, visitor.sortFields());
-              stack.push(current);
+              Entry<String, Expr> field = sortedUnionFields[state];
+              Expr type = field.getValue();
 
-              Entry<String, Expr> field = current.sortedFields[current.state - 1];
-              visitor.prepareUnionTypeField(field.getKey(), field.getValue(), current.state - 1);
+              visitor.prepareUnionTypeField(field.getKey(), type, state);
+              this.states[f] = state + 1;
 
-              Expr type = field.getValue();
               if (type == null) {
-                valueStack.push(null);
+                this.pushValue(null);
               } else {
-                stack.push(new State(type, 0));
+                this.push(type);
               }
             }
-          } else if (current.state == tmpUnionType.fields.length) {
-            List<Entry<String, A>> results = new ArrayList<Entry<String, A>>();
-            for (int i = current.sortedFields.length - 1; i >= 0; i -= 1) {
-              results.add(
-                  new SimpleImmutableEntry(current.sortedFields[i].getKey(), valueStack.poll()));
+            break;
+
+          case Tags.FIELD_ACCESS:
+            Constructors.FieldAccess tmpFieldAccess = (Constructors.FieldAccess) current;
+            if (state == 0) {
+              if (visitor.prepareFieldAccess(tmpFieldAccess.base, tmpFieldAccess.fieldName)) {
+                this.states[f] = 1;
+                this.push(tmpFieldAccess.base);
+              } else {
+                this.pop();
+                this.pushValue(visitor.onFieldAccess(null, tmpFieldAccess.fieldName));
+              }
+            } else {
+              this.pop();
+              this.pushValue(
+                  visitor.onFieldAccess((A) this.popValue(), tmpFieldAccess.fieldName));
             }
-            Collections.reverse(results);
-            valueStack.push(visitor.onUnionType(results));
-          } else {
-            current.state += 1;
-
-            Entry<String, Expr> field = current.sortedFields[current.state - 1];
-            Expr type = field.getValue();
-
-            visitor.prepareUnionTypeField(field.getKey(), type, current.state - 1);
-
-            stack.push(current);
-            if (type == null) {
-              valueStack.push(null);
+            break;
+
+          case Tags.PROJECTION:
+            Constructors.Projection tmpProjection = (Constructors.Projection) current;
+            if (state == 0) {
+              visitor.prepareProjection(tmpProjection.fieldNames.length);
+              this.states[f] = 1;
+              this.push(tmpProjection.base);
             } else {
-              stack.push(new State(type, 0));
+              this.pop();
+              this.pushValue(
+                  visitor.onProjection((A) this.popValue(), tmpProjection.fieldNames));
             }
-          }
-          break;
-
-        case Tags.FIELD_ACCESS:
-          Constructors.FieldAccess tmpFieldAccess = (Constructors.FieldAccess) current.expr;
-          if (current.state == 0) {
-            if (visitor.prepareFieldAccess(tmpFieldAccess.base, tmpFieldAccess.fieldName)) {
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpFieldAccess.base, 0));
+            break;
+
+          case Tags.PROJECTION_BY_TYPE:
+            Constructors.ProjectionByType tmpProjectionByType =
+                (Constructors.ProjectionByType) current;
+            if (state == 0) {
+              visitor.prepareProjectionByType();
+              this.states[f] = 1;
+              this.push(tmpProjectionByType.base);
+            } else if (state == 1) {
+              visitor.prepareProjectionByType(tmpProjectionByType.type);
+              this.states[f] = 2;
+              this.push(tmpProjectionByType.type);
             } else {
-              valueStack.push(visitor.onFieldAccess(null, tmpFieldAccess.fieldName));
+              this.pop();
+              v1 = (A) this.popValue();
+              v0 = (A) this.popValue();
+              this.pushValue(visitor.onProjectionByType(v0, v1));
             }
-          } else {
-            valueStack.push(visitor.onFieldAccess(valueStack.poll(), tmpFieldAccess.fieldName));
-          }
-          break;
-
-        case Tags.PROJECTION:
-          Constructors.Projection tmpProjection = (Constructors.Projection) current.expr;
-          if (current.state == 0) {
-            visitor.prepareProjection(tmpProjection.fieldNames.length);
-            current.state = 1;
-            stack.push(current);
-            stack.push(new State(tmpProjection.base, 0));
-          } else {
-            valueStack.push(visitor.onProjection(valueStack.poll(), tmpProjection.fieldNames));
-          }
-          break;
+            break;
 
-        case Tags.PROJECTION_BY_TYPE:
-          Constructors.ProjectionByType tmpProjectionByType =
-              (Constructors.ProjectionByType) current.expr;
-          if (current.state == 0) {
-            visitor.prepareProjectionByType();
-            current.state = 1;
-            stack.push(current);
-            stack.push(new State(tmpProjectionByType.base, 0));
-          } else if (current.state == 1) {
-            visitor.prepareProjectionByType(tmpProjectionByType.type);
-            current.state = 2;
-            stack.push(current);
-            stack.push(new State(tmpProjectionByType.type, 0));
-          } else {
-            v1 = valueStack.poll();
-            v0 = valueStack.poll();
-            valueStack.push(visitor.onProjectionByType(v0, v1));
-          }
-          break;
+          case Tags.APPLICATION:
+            Constructors.Application tmpApplication = (Constructors.Application) current;
 
-        case Tags.APPLICATION:
-          Constructors.Application tmpApplication = (Constructors.Application) current.expr;
+            if (state == 0) {
+              int size = 1;
+              Expr base = tmpApplication.base.getNonNote();
 
-          if (current.state == 0) {
-            LinkedList<Expr> application = new LinkedList<>();
-            application.push(tmpApplication.arg);
+              while (base.tag == Tags.APPLICATION) {
+                size += 1;
+                base = ((Constructors.Application) base).base.getNonNote();
+              }
 
-            Expr base = gatherApplicationArgs(tmpApplication.base, application);
+              Expr[] args = new Expr[size];
+              Expr application = tmpApplication;
 
-            current.state = 1;
-            current.size = application.size();
-            boolean processBase = visitor.prepareApplication(base, application.size());
-            current.skippedRecursion = !processBase;
+              for (int i = size - 1; i >= 0; i--) {
+                Constructors.Application next = (Constructors.Application) application;
+                args[i] = next.arg;
+                application = next.base.getNonNote();
+              }
 
-            stack.push(current);
+              boolean processBase = visitor.prepareApplication(base, size);
 
-            if (processBase) {
-              stack.push(new State(base, 0));
-            }
-            applicationStack.push(application);
-          } else {
-            LinkedList<Expr> application = applicationStack.poll();
+              this.extras[f] = args;
+              this.sizes[f] = size;
+              this.skipped[f] = !processBase;
+              this.states[f] = 1;
 
-            if (application.isEmpty()) {
-              List<A> args = new ArrayList<>(current.size);
-              for (int i = 0; i < current.size; i++) {
-                args.add(valueStack.poll());
+              if (processBase) {
+                this.push(base);
               }
-              Collections.reverse(args);
+            } else {
+              int size = this.sizes[f];
 
-              A base = null;
-              if (!current.skippedRecursion) {
-                base = valueStack.poll();
-              }
+              if (state > size) {
+                boolean skippedBase = this.skipped[f];
+                this.pop();
+                List<A> args = this.popValues(size);
+                A base = skippedBase ? null : (A) this.popValue();
 
-              valueStack.push(visitor.onApplication(base, args));
+                this.pushValue(visitor.onApplication(base, args));
+              } else {
+                this.states[f] = state + 1;
+                this.push(((Expr[]) this.extras[f])[state - 1]);
+              }
+            }
+            break;
+
+          case Tags.OPERATOR_APPLICATION:
+            Constructors.OperatorApplication tmpOperatorApplication =
+                (Constructors.OperatorApplication) current;
+            if (state == 0) {
+              visitor.prepareOperatorApplication(tmpOperatorApplication.operator);
+              this.states[f] = 1;
+              this.push(tmpOperatorApplication.lhs);
+            } else if (state == 1) {
+              this.states[f] = 2;
+              this.push(tmpOperatorApplication.rhs);
             } else {
-              stack.push(current);
-              stack.push(new State(application.poll(), 0));
-              applicationStack.push(application);
+              this.pop();
+              v1 = (A) this.popValue();
+              v0 = (A) this.popValue();
+              this.pushValue(
+                  visitor.onOperatorApplication(tmpOperatorApplication.operator, v0, v1));
             }
-          }
-          break;
-
-        case Tags.OPERATOR_APPLICATION:
-          Constructors.OperatorApplication tmpOperatorApplication =
-              (Constructors.OperatorApplication) current.expr;
-          if (current.state == 0) {
-            visitor.prepareOperatorApplication(tmpOperatorApplication.operator);
-            current.state = 1;
-            stack.push(current);
-            stack.push(new State(tmpOperatorApplication.lhs, 0));
-          } else if (current.state == 1) {
-            current.state = 2;
-            stack.push(current);
-            stack.push(new State(tmpOperatorApplication.rhs, 0));
-          } else {
-            v1 = valueStack.poll();
-            v0 = valueStack.poll();
-            valueStack.push(visitor.onOperatorApplication(tmpOperatorApplication.operator, v0, v1));
-          }
-          break;
-        case Tags.IF:
-          Constructors.If tmpIf = (Constructors.If) current.expr;
-          if (current.state == 0) {
-            visitor.prepareIf();
-            current.state = 1;
-            stack.push(current);
-            stack.push(new State(tmpIf.predicate, 0));
-          } else if (current.state == 1) {
-            current.state = 2;
-            stack.push(current);
-            stack.push(new State(tmpIf.thenValue, 0));
-          } else if (current.state == 2) {
-            current.state = 3;
-            stack.push(current);
-            stack.push(new State(tmpIf.elseValue, 0));
-          } else {
-            v2 = valueStack.poll();
-            v1 = valueStack.poll();
-            v0 = valueStack.poll();
-            valueStack.push(visitor.onIf(v0, v1, v2));
-          }
-          break;
-        case Tags.ANNOTATED:
-          Constructors.Annotated tmpAnnotated = (Constructors.Annotated) current.expr;
-          if (current.state == 0) {
-            visitor.prepareAnnotated(tmpAnnotated.type);
-            current.state = 1;
-            stack.push(current);
-            stack.push(new State(tmpAnnotated.base, 0));
-          } else if (current.state == 1) {
-            current.state = 2;
-            stack.push(current);
-            stack.push(new State(tmpAnnotated.type, 0));
-          } else {
-            v1 = valueStack.poll();
-            v0 = valueStack.poll();
-            valueStack.push(visitor.onAnnotated(v0, v1));
-          }
-          break;
-        case Tags.ASSERT:
-          Constructors.Assert tmpAssert = (Constructors.Assert) current.expr;
-          if (current.state == 0) {
-            visitor.prepareAssert();
-            current.state = 1;
-            stack.push(current);
-            stack.push(new State(tmpAssert.base, 0));
-          } else {
-            valueStack.push(visitor.onAssert(valueStack.poll()));
-          }
-          break;
-        case Tags.MERGE:
-          Constructors.Merge tmpMerge = (Constructors.Merge) current.expr;
-          switch (current.state) {
-            case 0:
+            break;
+          case Tags.IF:
+            Constructors.If tmpIf = (Constructors.If) current;
+            if (state == 0) {
+              visitor.prepareIf();
+              this.states[f] = 1;
+              this.push(tmpIf.predicate);
+            } else if (state == 1) {
+              this.states[f] = 2;
+              this.push(tmpIf.thenValue);
+            } else if (state == 2) {
+              this.states[f] = 3;
+              this.push(tmpIf.elseValue);
+            } else {
+              this.pop();
+              v2 = (A) this.popValue();
+              v1 = (A) this.popValue();
+              v0 = (A) this.popValue();
+              this.pushValue(visitor.onIf(v0, v1, v2));
+            }
+            break;
+          case Tags.ANNOTATED:
+            Constructors.Annotated tmpAnnotated = (Constructors.Annotated) current;
+            if (state == 0) {
+              visitor.prepareAnnotated(tmpAnnotated.type);
+              this.states[f] = 1;
+              this.push(tmpAnnotated.base);
+            } else if (state == 1) {
+              this.states[f] = 2;
+              this.push(tmpAnnotated.type);
+            } else {
+              this.pop();
+              v1 = (A) this.popValue();
+              v0 = (A) this.popValue();
+              this.pushValue(visitor.onAnnotated(v0, v1));
+            }
+            break;
+          case Tags.ASSERT:
+            Constructors.Assert tmpAssert = (Constructors.Assert) current;
+            if (state == 0) {
+              visitor.prepareAssert();
+              this.states[f] = 1;
+              this.push(tmpAssert.base);
+            } else {
+              this.pop();
+              this.pushValue(visitor.onAssert((A) this.popValue()));
+            }
+            break;
+          case Tags.MERGE:
+            Constructors.Merge tmpMerge = (Constructors.Merge) current;
+            if (state == 0) {
               visitor.prepareMerge(tmpMerge.type);
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpMerge.handlers, 0));
-              break;
-            case 1:
-              current.state = 2;
-              stack.push(current);
-              stack.push(new State(tmpMerge.union, 0));
-              break;
-            case 2:
-              current.state = 3;
-
-              if (tmpMerge.type != null) {
-                stack.push(current);
-                stack.push(new State(tmpMerge.type, 0));
-                break;
-              } else {
-                valueStack.push(null);
-              }
-            case 3:
-              v2 = valueStack.poll();
-              v1 = valueStack.poll();
-              v0 = valueStack.poll();
-              valueStack.push(visitor.onMerge(v0, v1, v2));
-
-              break;
-          }
-          break;
-        case Tags.TO_MAP:
-          Constructors.ToMap tmpToMap = (Constructors.ToMap) current.expr;
-          switch (current.state) {
-            case 0:
+              this.states[f] = 1;
+              this.push(tmpMerge.handlers);
+            } else if (state == 1) {
+              this.states[f] = 2;
+              this.push(tmpMerge.union);
+            } else if (state == 2 && tmpMerge.type != null) {
+              this.states[f] = 3;
+              this.push(tmpMerge.type);
+            } else {
+              this.pop();
+              v2 = (tmpMerge.type == null) ? null : (A) this.popValue();
+              v1 = (A) this.popValue();
+              v0 = (A) this.popValue();
+              this.pushValue(visitor.onMerge(v0, v1, v2));
+            }
+            break;
+          case Tags.TO_MAP:
+            Constructors.ToMap tmpToMap = (Constructors.ToMap) current;
+            if (state == 0) {
               visitor.prepareToMap(tmpToMap.type);
-              current.state = 1;
-              stack.push(current);
-              stack.push(new State(tmpToMap.base, 0));
-              break;
-            case 1:
-              current.state = 2;
-
-              if (tmpToMap.type != null) {
-                stack.push(current);
-                stack.push(new State(tmpToMap.type, 0));
-                break;
-              } else {
-                valueStack.push(null);
-              }
-            case 2:
-              v1 = valueStack.poll();
-              v0 = valueStack.poll();
-              valueStack.push(visitor.onToMap(v0, v1));
-
-              break;
-          }
-          break;
-
-        case Tags.MISSING_IMPORT:
-          Constructors.MissingImport tmpMissingImport = (Constructors.MissingImport) current.expr;
-
-          valueStack.push(visitor.onMissingImport(tmpMissingImport.mode, tmpMissingImport.hash));
-          break;
-
-        case Tags.ENV_IMPORT:
-          Constructors.EnvImport tmpEnvImport = (Constructors.EnvImport) current.expr;
-
-          valueStack.push(
-              visitor.onEnvImport(tmpEnvImport.name, tmpEnvImport.mode, tmpEnvImport.hash));
-          break;
-        case Tags.LOCAL_IMPORT:
-          Constructors.LocalImport tmpLocalImport = (Constructors.LocalImport) current.expr;
-
-          valueStack.push(
-              visitor.onLocalImport(tmpLocalImport.path, tmpLocalImport.mode, tmpLocalImport.hash));
-          break;
-        case Tags.REMOTE_IMPORT:
-          Constructors.RemoteImport tmpRemoteImport = (Constructors.RemoteImport) current.expr;
-
-          switch (current.state) {
-            case 0:
+              this.states[f] = 1;
+              this.push(tmpToMap.base);
+            } else if (state == 1 && tmpToMap.type != null) {
+              this.states[f] = 2;
+              this.push(tmpToMap.type);
+            } else {
+              this.pop();
+              v1 = (tmpToMap.type == null) ? null : (A) this.popValue();
+              v0 = (A) this.popValue();
+              this.pushValue(visitor.onToMap(v0, v1));
+            }
+            break;
+
+          case Tags.MISSING_IMPORT:
+            Constructors.MissingImport tmpMissingImport = (Constructors.MissingImport) current;
+            this.pop();
+            this.pushValue(visitor.onMissingImport(tmpMissingImport.mode, tmpMissingImport.hash));
+            break;
+
+          case Tags.ENV_IMPORT:
+            Constructors.EnvImport tmpEnvImport = (Constructors.EnvImport) current;
+            this.pop();
+            this.pushValue(
+                visitor.onEnvImport(tmpEnvImport.name, tmpEnvImport.mode, tmpEnvImport.hash));
+            break;
+          case Tags.LOCAL_IMPORT:
+            Constructors.LocalImport tmpLocalImport = (Constructors.LocalImport) current;
+            this.pop();
+            this.pushValue(
+                visitor.onLocalImport(
+                    tmpLocalImport.path, tmpLocalImport.mode, tmpLocalImport.hash));
+            break;
+          case Tags.REMOTE_IMPORT:
+            Constructors.RemoteImport tmpRemoteImport = (Constructors.RemoteImport) current;
+
+            if (state == 0) {
               visitor.prepareRemoteImport(
                   tmpRemoteImport.url,
                   tmpRemoteImport.using,
                   tmpRemoteImport.mode,
                   tmpRemoteImport.hash);
-              current.state = 1;
 
               if (tmpRemoteImport.using != null) {
-                stack.push(current);
-                stack.push(new State(tmpRemoteImport.using, 0));
+                this.states[f] = 1;
+                this.push(tmpRemoteImport.using);
                 break;
-              } else {
-                valueStack.push(null);
               }
-            case 1:
-              valueStack.push(
-                  visitor.onRemoteImport(
-                      tmpRemoteImport.url,
-                      valueStack.poll(),
-                      tmpRemoteImport.mode,
-                      tmpRemoteImport.hash));
-
-              break;
-          }
-          break;
+            }
+
+            this.pop();
+            v0 = (tmpRemoteImport.using == null) ? null : (A) this.popValue();
+            this.pushValue(
+                visitor.onRemoteImport(
+                    tmpRemoteImport.url, v0, tmpRemoteImport.mode, tmpRemoteImport.hash));
+            break;
+        }
       }
-      current = stack.poll();
-    }
 
-    return valueStack.poll();
-  }
+      if (this.recordedWriter != null) {
+        this.finishRecordedExpr();
+      }
 
-  private static final Expr gatherApplicationArgs(Expr candidate, Deque<Expr> args) {
-    Expr current = candidate.getNonNote();
+      return (A) this.popValue();
+    }
+  }
 
-    while (current.tag == Tags.APPLICATION) {
-      Constructors.Application currentApplication = (Constructors.Application) current;
+  /** Run the given internal visitor on this expression. */
+  public final <A> A accept(Visitor<A> visitor) {
+    Driver driver = Driver.acquire();
 
-      if (args != null) {
-        args.push(currentApplication.arg);
-      }
-      current = currentApplication.base.getNonNote();
+    try {
+      return driver.run(this, visitor);
+    } finally {
+      driver.release();
     }
-
-    return current;
   }
 
   private static final Expr gatherLetBindings(Expr candidate, List<LetBinding<Expr>> args) {
@@ -1570,7 +2130,9 @@ public abstract class Expr {
       currentA = currentA.getNonNote();
       currentB = currentB.getNonNote();
 
-      if (currentA.tag != currentB.tag) {
+      if (currentA == currentB) {
+        continue;
+      } else if (currentA.tag != currentB.tag) {
         break;
       }
 
@@ -0,0 +1,67 @@
+package org.dhallj.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A lazily-built index of the fields of a large record literal or record type.
+ *
+ * <p>Note that the first lookup is a linear search, since many records are only ever searched
+ * once, and building the index would cost more than the search.
+ */
+final class FieldIndex {
+  private static final int MINIMUM_SIZE = 16;
+
+  private final Entry<String, Expr>[] fields;
+  private volatile boolean searched = false;
+  private volatile Map<String, Expr> values = null;
+
+  private FieldIndex(Entry<String, Expr>[] fields) {
+    this.fields = fields;
+  }
+
+  /** Return an index for the given fields, or null if there are too few to need one. */
+  static final FieldIndex forFields(Entry<String, Expr>[] fields) {
+    return (fields.length < MINIMUM_SIZE) ? null : new FieldIndex(fields);
+  }
+
+  /** Return the value of the first field with the given name, or null if there isn't one. */
+  static final Expr lookup(FieldIndex index, Entry<String, Expr>[] fields, String name) {
+    if (index == null) {
+      return linearLookup(fields, name);
+    } else {
+      return index.lookup(name);
+    }
+  }
+
+  private final Expr lookup(String name) {
+    Map<String, Expr> current = this.values;
+
+    if (current == null) {
+      if (!this.searched) {
+        this.searched = true;
+        return linearLookup(this.fields, name);
+      }
+
+      current = new HashMap<String, Expr>(this.fields.length * 2);
+
+      // Go backwards so that the first field with a given name wins.
+      for (int i = this.fields.length - 1; i >= 0; i--) {
+        current.put(this.fields[i].getKey(), this.fields[i].getValue());
+      }
+      this.values = current;
+    }
+
+    return current.get(name);
+  }
+
+  private static final Expr linearLookup(Entry<String, Expr>[] fields, String name) {
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i].getKey().equals(name)) {
+        return fields[i].getValue();
+      }
+    }
+    return null;
+  }
+}
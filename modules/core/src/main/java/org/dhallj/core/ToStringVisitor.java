@@ -11,7 +11,7 @@ import java.util.Map.Entry;
 final class ToStringState {
   static final int BASE = 0;
   static final int APPLICATION = 1;
-  static final int FIELD_ACCESS = 99;
+  static final int FIELD_ACCESS = 0;
   static final int ASSERT = 100;
   static final int MERGE = 102;
   static final int TO_MAP = 102;
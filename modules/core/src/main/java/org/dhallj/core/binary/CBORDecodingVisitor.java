@@ -20,7 +20,7 @@ import java.util.Map;
  * <p>Note that e.g. a negative integer by itself is an error, but a single float by itself is
  * allowed.
  */
-final class CBORDecodingVisitor implements Visitor<Expr> {
+final class CBORDecodingVisitor extends Visitor.LongLengths<Expr> {
 
   private final Reader reader;
 
@@ -49,8 +49,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
   }
 
   @Override
-  public Expr onVariableArray(BigInteger length, String name) {
-    if (length.intValue() != 2) {
+  public Expr onVariableArray(long length, String name) {
+    if (length != 2) {
       throw new DecodingException("Variables must be encoded in an array of length 2");
     } else if (name.equals("_")) {
       throw new DecodingException("Variables cannot be explicitly named _");
@@ -61,8 +61,12 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
   }
 
   @Override
-  public Expr onArray(BigInteger length, BigInteger tagI) {
-    int tag = tagI.intValue();
+  public Expr onArray(long length, long tagL) {
+    int tag = (int) tagL;
+
+    if (tag != tagL) {
+      throw new DecodingException(String.format("Array tag %d undefined", tagL));
+    }
 
     switch (tag) {
       case Label.APPLICATION:
@@ -115,7 +119,7 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
   }
 
   @Override
-  public Expr onMap(BigInteger size) {
+  public Expr onMap(long size) {
     return notExpected("Map");
   }
 
@@ -155,21 +159,26 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     return notExpected("Tag");
   }
 
-  private Expr readFnApplication(BigInteger length) {
-    if (length.longValue() < 3) {
+  /** Note that values out of the int range are clamped, so they're reported as undefined. */
+  private int readSmallUnsignedInteger() {
+    return (int) Math.min(this.reader.readUnsignedLong(), Integer.MAX_VALUE);
+  }
+
+  private Expr readFnApplication(long length) {
+    if (length < 3) {
       throw new DecodingException("Function application must have at least one argument");
     }
     Expr fn = readExpr();
     ArrayList<Expr> args = new ArrayList<>();
-    for (int i = 0; i < length.longValue() - 2; i++) {
+    for (int i = 0; i < length - 2; i++) {
       Expr arg = readExpr();
       args.add(arg);
     }
     return Expr.makeApplication(fn, args);
   }
 
-  private Expr readFunction(BigInteger length) {
-    long len = length.longValue();
+  private Expr readFunction(long length) {
+    long len = length;
     if (len == 3) {
       Expr tpe = readExpr();
       Expr result = readExpr();
@@ -187,8 +196,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readPi(BigInteger length) {
-    long len = length.longValue();
+  private Expr readPi(long length) {
+    long len = length;
     if (len == 3) {
       Expr tpe = readExpr();
       Expr resultTpe = readExpr();
@@ -206,11 +215,11 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readOperator(BigInteger length) {
-    if (length.longValue() != 4) {
+  private Expr readOperator(long length) {
+    if (length != 4) {
       throw new DecodingException("Operator application must be encoded in an array of length 4");
     }
-    int operatorLabel = this.reader.readUnsignedInteger().intValue();
+    int operatorLabel = readSmallUnsignedInteger();
     Expr lhs = readExpr();
     Expr rhs = readExpr();
 
@@ -223,9 +232,9 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readList(BigInteger length) {
+  private Expr readList(long length) {
     Expr tpe = readExpr();
-    if (length.intValue() == 2) {
+    if (length == 2) {
       if (tpe == null) {
         throw new DecodingException("Type must be specified if list is empty");
       } else {
@@ -234,7 +243,7 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     } else {
       if (tpe == null) {
         List<Expr> exprs = new ArrayList<>();
-        for (int i = 2; i < length.longValue(); i++) {
+        for (int i = 2; i < length; i++) {
           exprs.add(readExpr());
         }
         return Expr.makeNonEmptyListLiteral(exprs);
@@ -244,9 +253,9 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readEmptyListAbstractType(BigInteger length) {
+  private Expr readEmptyListAbstractType(long length) {
     Expr tpe = readExpr();
-    if (length.intValue() == 2) {
+    if (length == 2) {
       if (tpe == null) {
         throw new DecodingException("Type must be specified if list is empty");
       } else {
@@ -257,8 +266,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readSome(BigInteger length) {
-    int len = length.intValue();
+  private Expr readSome(long length) {
+    long len = length;
     if (len != 3) {
       throw new DecodingException("Some must be encoded in an array of length 3");
     } else {
@@ -270,8 +279,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readMerge(BigInteger length) {
-    int len = length.intValue();
+  private Expr readMerge(long length) {
+    long len = length;
     if (len == 3) {
       Expr l = readExpr();
       Expr r = readExpr();
@@ -286,8 +295,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readMap(BigInteger length) {
-    int len = length.intValue();
+  private Expr readMap(long length) {
+    long len = length;
     if (len == 2) {
       Expr e = readExpr();
       return Expr.makeToMap(e);
@@ -300,8 +309,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readRecordType(BigInteger length) {
-    long len = length.longValue();
+  private Expr readRecordType(long length) {
+    long len = length;
     if (len != 2) {
       throw new DecodingException("Record literal must be encoded in an array of length 2");
     } else {
@@ -310,8 +319,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readRecordLiteral(BigInteger length) {
-    long len = length.longValue();
+  private Expr readRecordLiteral(long length) {
+    long len = length;
     if (len != 2) {
       throw new DecodingException("Record literal must be encoded in an array of length 2");
     } else {
@@ -320,8 +329,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readFieldAccess(BigInteger length) {
-    int len = length.intValue();
+  private Expr readFieldAccess(long length) {
+    long len = length;
     if (len != 3) {
       throw new DecodingException("Field access must be encoded in array of length 3");
     } else {
@@ -331,8 +340,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readProjection(BigInteger length) {
-    long len = length.longValue();
+  private Expr readProjection(long length) {
+    long len = length;
     Expr e = readExpr();
     if (len == 2) {
       return Expr.makeProjection(e, new String[0]);
@@ -349,7 +358,7 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
         return Expr.makeProjection(e, fields.toArray(new String[fields.size()]));
       } else {
         // It was actually an array
-        int innerLen = this.reader.readArrayStart().intValue();
+        long innerLen = this.reader.readArrayLength();
         if (innerLen != 1) {
           throw new DecodingException(
               "Type for type  projection must be encoded in an array of length 1");
@@ -361,8 +370,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readUnion(BigInteger length) {
-    int len = length.intValue();
+  private Expr readUnion(long length) {
+    long len = length;
     if (len != 2) {
       throw new DecodingException("Union must be encoded in array of length 2");
     } else {
@@ -371,8 +380,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readIf(BigInteger length) {
-    int len = length.intValue();
+  private Expr readIf(long length) {
+    long len = length;
     if (len != 4) {
       throw new DecodingException("If must be encoded in an array of length 4");
     } else {
@@ -383,8 +392,8 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readTypeAnnotation(BigInteger length) {
-    int len = length.intValue();
+  private Expr readTypeAnnotation(long length) {
+    long len = length;
     if (len != 3) {
       throw new DecodingException("Type annotation must be encoded in array of length 3");
     } else {
@@ -394,10 +403,6 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readLet(BigInteger length) {
-    return readLet(length.longValue());
-  }
-
   private Expr readLet(long len) {
     if (len == 5) {
       String name = this.reader.readNullableTextString();
@@ -413,10 +418,10 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readImport(BigInteger length) {
+  private Expr readImport(long length) {
     byte[] hash = this.reader.readNullableByteString();
     Expr.ImportMode mode = readMode();
-    int tag = this.reader.readUnsignedInteger().intValue();
+    int tag = readSmallUnsignedInteger();
 
     switch (tag) {
       case Label.IMPORT_TYPE_REMOTE_HTTP:
@@ -443,7 +448,7 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
   }
 
   private Expr.ImportMode readMode() {
-    int m = this.reader.readUnsignedInteger().intValue();
+    int m = readSmallUnsignedInteger();
     if (m == 0) {
       return Expr.ImportMode.CODE;
     } else if (m == 1) {
@@ -456,9 +461,9 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
   }
 
   private Expr readLocalImport(
-      BigInteger length, Expr.ImportMode mode, byte[] hash, String prefix) {
+      long length, Expr.ImportMode mode, byte[] hash, String prefix) {
     Path path = Paths.get(prefix);
-    int len = length.intValue();
+    long len = length;
     for (int i = 4; i < len; i++) {
       path = path.resolve(this.reader.readNullableTextString());
     }
@@ -466,9 +471,9 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
   }
 
   private Expr readRemoteImport(
-      BigInteger length, Expr.ImportMode mode, byte[] hash, String prefix, Expr using) {
+      long length, Expr.ImportMode mode, byte[] hash, String prefix, Expr using) {
     StringBuilder builder = new StringBuilder(prefix);
-    int len = length.intValue();
+    long len = length;
     for (int i = 5; i < len - 1; i++) {
       builder.append("/");
       builder.append(this.reader.readNullableTextString());
@@ -485,13 +490,13 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readEnvImport(BigInteger length, Expr.ImportMode mode, byte[] hash) {
+  private Expr readEnvImport(long length, Expr.ImportMode mode, byte[] hash) {
     String value = this.reader.readNullableTextString();
     return Expr.makeEnvImport(value, mode, hash);
   }
 
-  private Expr readAssert(BigInteger length) {
-    long len = length.longValue();
+  private Expr readAssert(long length) {
+    long len = length;
     if (len != 2) {
       throw new DecodingException("Assert must be encoded in array of length 2");
     } else {
@@ -500,12 +505,12 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     }
   }
 
-  private Expr readTextLiteral(BigInteger length) {
+  private Expr readTextLiteral(long length) {
     List<String> lits = new ArrayList<>();
     List<Expr> exprs = new ArrayList<>();
     String lit = this.reader.readNullableTextString();
     lits.add(lit);
-    for (int i = 2; i < length.longValue(); i += 2) {
+    for (int i = 2; i < length; i += 2) {
       Expr e = readExpr();
       exprs.add(e);
       lit = this.reader.readNullableTextString();
@@ -514,11 +519,11 @@ final class CBORDecodingVisitor implements Visitor<Expr> {
     return Expr.makeTextLiteral(lits.toArray(new String[0]), exprs.toArray(new Expr[0]));
   }
 
-  private Expr readInteger(BigInteger length) {
+  private Expr readInteger(long length) {
     return Expr.makeIntegerLiteral(this.reader.readBigNum());
   }
 
-  private Expr readNatural(BigInteger length) {
+  private Expr readNatural(long length) {
     return Expr.makeNaturalLiteral(this.reader.readPositiveBigNum());
   }
 
@@ -1,11 +1,35 @@
 package org.dhallj.core.binary;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import org.dhallj.cbor.Reader;
 import org.dhallj.core.Expr;
 
 public class Decode {
   public static Expr decode(byte[] bytes) {
-    Reader reader = new Reader.ByteArrayReader(bytes);
+    return decode(new Reader.ByteArrayReader(bytes));
+  }
+
+  /**
+   * Decode an expression from the current position of the given buffer (which may be
+   * memory-mapped) without copying it.
+   *
+   * <p>Note that the buffer's position is not changed.
+   */
+  public static Expr decode(ByteBuffer buffer) {
+    return decode(new Reader.ByteBufferReader(buffer));
+  }
+
+  /**
+   * Decode an expression from the given stream.
+   *
+   * <p>Note that the stream is not closed, and may have been read past the end of the expression.
+   */
+  public static Expr decode(InputStream input) {
+    return decode(new Reader.InputStreamReader(input));
+  }
+
+  private static Expr decode(Reader reader) {
     // TODO check: if identifier then must be builtin using Expr.Constants.isBuiltInConstant
     Expr e = reader.nextSymbol(new CBORDecodingVisitor(reader));
     return e;
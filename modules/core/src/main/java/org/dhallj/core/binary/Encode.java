@@ -20,6 +20,11 @@ public final class Encode implements Visitor<Void> {
     this.writer = writer;
   }
 
+  /** Write the previously computed encoding of a complete expression. */
+  public void writeEncoded(byte[] bytes, int offset, int length) {
+    this.writer.writeEncoded(bytes, offset, length);
+  }
+
   public boolean sortFields() {
     return true;
   }
@@ -57,7 +62,7 @@ public final class Encode implements Visitor<Void> {
     } else if (name.equals("False")) {
       this.writer.writeBoolean(false);
     } else {
-      this.writer.writeString(name);
+      this.writer.writeLabel(name);
     }
     return null;
   }
@@ -67,7 +72,7 @@ public final class Encode implements Visitor<Void> {
       this.writer.writeLong(index);
     } else {
       this.writer.writeArrayStart(2);
-      this.writer.writeString(name);
+      this.writer.writeLabel(name);
       this.writer.writeLong(index);
     }
     return null;
@@ -82,7 +87,7 @@ public final class Encode implements Visitor<Void> {
     } else {
       this.writer.writeArrayStart(4);
       this.writer.writeLong(Label.LAMBDA);
-      this.writer.writeString(name);
+      this.writer.writeLabel(name);
     }
     return true;
   }
@@ -98,7 +103,7 @@ public final class Encode implements Visitor<Void> {
     } else {
       this.writer.writeArrayStart(4);
       this.writer.writeLong(Label.PI);
-      this.writer.writeString(name);
+      this.writer.writeLabel(name);
     }
     return true;
   }
@@ -114,7 +119,7 @@ public final class Encode implements Visitor<Void> {
   }
 
   public boolean prepareLetBinding(String name, Expr type) {
-    this.writer.writeString(name);
+    this.writer.writeLabel(name);
     if (type == null) {
       this.writer.writeNull();
     }
@@ -217,7 +222,7 @@ public final class Encode implements Visitor<Void> {
   }
 
   public boolean prepareRecordField(String name, Expr type, int index) {
-    this.writer.writeString(name);
+    this.writer.writeLabel(name);
     return true;
   }
 
@@ -233,7 +238,7 @@ public final class Encode implements Visitor<Void> {
   }
 
   public boolean prepareRecordTypeField(String name, Expr type, int index) {
-    this.writer.writeString(name);
+    this.writer.writeLabel(name);
     return true;
   }
 
@@ -249,7 +254,7 @@ public final class Encode implements Visitor<Void> {
   }
 
   public boolean prepareUnionTypeField(String name, Expr type, int index) {
-    this.writer.writeString(name);
+    this.writer.writeLabel(name);
     if (type == null) {
       this.writer.writeNull();
     }
@@ -267,7 +272,7 @@ public final class Encode implements Visitor<Void> {
   }
 
   public Void onFieldAccess(Void base, final String fieldName) {
-    this.writer.writeString(fieldName);
+    this.writer.writeLabel(fieldName);
     return null;
   }
 
@@ -279,7 +284,7 @@ public final class Encode implements Visitor<Void> {
 
   public Void onProjection(Void base, final String[] fieldNames) {
     for (String fieldName : fieldNames) {
-      this.writer.writeString(fieldName);
+      this.writer.writeLabel(fieldName);
     }
     return null;
   }
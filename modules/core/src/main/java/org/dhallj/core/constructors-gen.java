@@ -239,10 +239,12 @@ final class Constructors {
 
   static final class RecordLiteral extends Expr {
     final Entry<String, Expr>[] fields;
+    final FieldIndex index;
 
     RecordLiteral(Entry<String, Expr>[] fields) {
       super(Tags.RECORD);
       this.fields = fields;
+      this.index = FieldIndex.forFields(fields);
     }
 
     public final <A> A accept(ExternalVisitor<A> visitor) {
@@ -252,10 +254,12 @@ final class Constructors {
 
   static final class RecordType extends Expr {
     final Entry<String, Expr>[] fields;
+    final FieldIndex index;
 
     RecordType(Entry<String, Expr>[] fields) {
       super(Tags.RECORD_TYPE);
       this.fields = fields;
+      this.index = FieldIndex.forFields(fields);
     }
 
     public final <A> A accept(ExternalVisitor<A> visitor) {
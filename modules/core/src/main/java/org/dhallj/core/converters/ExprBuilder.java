@@ -0,0 +1,310 @@
+package org.dhallj.core.converters;
+
+import java.math.BigInteger;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.dhallj.core.DhallException;
+import org.dhallj.core.Expr;
+
+/**
+ * Builds a Dhall expression directly from JSON-style events, so that parsers can produce an {@code
+ * Expr} without materializing their own document tree first.
+ *
+ * <p>If an expected type is given, values are converted according to it as they arrive (for
+ * example numbers become {@code Natural}, {@code Integer} or {@code Double} literals, nulls and
+ * missing record fields become {@code None}, and empty lists get the right element type), and a
+ * {@link DhallException.ConversionFailure} is thrown at the first value that doesn't fit. Union
+ * types and other non-data types aren't supported as expected types.
+ *
+ * <p>Without an expected type, the conversion is the same as the circe converter's.
+ *
+ * <p>Instances are single-use and not thread-safe.
+ */
+public final class ExprBuilder implements JsonHandler {
+  private static final Expr UNTYPED_NONE =
+      Expr.makeApplication(Expr.Constants.NONE, Expr.Constants.EMPTY_RECORD_TYPE);
+  private static final Expr UNTYPED_LIST_TYPE =
+      Expr.makeApplication(Expr.Constants.LIST, Expr.Constants.EMPTY_RECORD_TYPE);
+
+  private final Expr expectedType;
+  private final ArrayList<Frame> frames = new ArrayList<Frame>();
+  private Expr lastValue;
+  private Expr result;
+
+  public ExprBuilder() {
+    this(null);
+  }
+
+  public ExprBuilder(Expr expectedType) {
+    this.expectedType = (expectedType == null) ? null : expectedType.normalize();
+  }
+
+  /** The complete result, or null if no complete value has been built yet. */
+  public Expr getResult() {
+    return this.result;
+  }
+
+  /** The most recently completed value (at any depth). */
+  public Expr getLastValue() {
+    return this.lastValue;
+  }
+
+  /**
+   * The expected type of the next value (in normal form), or null if there's no expected type at
+   * this position.
+   */
+  public Expr getExpectedType() {
+    if (this.frames.isEmpty()) {
+      if (this.result != null) {
+        throw this.fail("Unexpected value after the end of the document");
+      }
+      return this.expectedType;
+    } else {
+      Frame frame = this.frames.get(this.frames.size() - 1);
+
+      if (frame.isObject && frame.pendingField == null) {
+        throw this.fail("Expected a field name");
+      }
+      return frame.childType;
+    }
+  }
+
+  public void onNull() {
+    Expr expected = this.getExpectedType();
+
+    if (expected == null) {
+      this.addValue(UNTYPED_NONE);
+    } else {
+      Expr optionalArg = Expr.Util.getOptionalArg(expected);
+
+      if (optionalArg == null) {
+        throw this.mismatch(expected, "null");
+      }
+      this.addValue(Expr.makeApplication(Expr.Constants.NONE, optionalArg));
+    }
+  }
+
+  public void onBoolean(boolean value) {
+    Expr expected = this.getExpectedType();
+    Expr type = unwrapOptional(expected);
+
+    if (type == null || "Bool".equals(Expr.Util.asBuiltIn(type))) {
+      this.addValue(wrap(value ? Expr.Constants.TRUE : Expr.Constants.FALSE, expected, type));
+    } else {
+      throw this.mismatch(expected, "a boolean");
+    }
+  }
+
+  public void onNumber(BigInteger value) {
+    Expr expected = this.getExpectedType();
+    Expr type = unwrapOptional(expected);
+    Expr converted;
+
+    if (type == null) {
+      if (value.signum() > 0) {
+        converted = Expr.makeNaturalLiteral(value);
+      } else {
+        converted = Expr.makeIntegerLiteral(value);
+      }
+    } else {
+      String builtIn = Expr.Util.asBuiltIn(type);
+
+      if ("Natural".equals(builtIn) && value.signum() >= 0) {
+        converted = Expr.makeNaturalLiteral(value);
+      } else if ("Integer".equals(builtIn)) {
+        converted = Expr.makeIntegerLiteral(value);
+      } else if ("Double".equals(builtIn)) {
+        converted = Expr.makeDoubleLiteral(value.doubleValue());
+      } else {
+        throw this.mismatch(expected, "the number " + value);
+      }
+    }
+    this.addValue(wrap(converted, expected, type));
+  }
+
+  public void onDouble(double value) {
+    Expr expected = this.getExpectedType();
+    Expr type = unwrapOptional(expected);
+
+    if (type == null || "Double".equals(Expr.Util.asBuiltIn(type))) {
+      this.addValue(wrap(Expr.makeDoubleLiteral(value), expected, type));
+    } else {
+      throw this.mismatch(expected, "the number " + value);
+    }
+  }
+
+  public void onString(String value) {
+    Expr expected = this.getExpectedType();
+    Expr type = unwrapOptional(expected);
+
+    if (type == null || "Text".equals(Expr.Util.asBuiltIn(type))) {
+      this.addValue(wrap(Expr.makeTextLiteral(value), expected, type));
+    } else {
+      throw this.mismatch(expected, "a string");
+    }
+  }
+
+  public void onArrayStart() {
+    Expr expected = this.getExpectedType();
+    Expr type = unwrapOptional(expected);
+    Expr elementType = null;
+
+    if (type != null) {
+      elementType = Expr.Util.getListArg(type);
+
+      if (elementType == null) {
+        throw this.mismatch(expected, "an array");
+      }
+    }
+    this.frames.add(new Frame(false, expected, type, elementType));
+  }
+
+  public void onArrayEnd() {
+    Frame frame = this.frames.remove(this.frames.size() - 1);
+    Expr list;
+
+    if (frame.values.isEmpty()) {
+      list = Expr.makeEmptyListLiteral(frame.type == null ? UNTYPED_LIST_TYPE : frame.type);
+    } else {
+      list = Expr.makeNonEmptyListLiteral(frame.values);
+    }
+    this.addValue(wrap(list, frame.expected, frame.type));
+  }
+
+  public void onArrayElementGap() {}
+
+  public void onObjectStart() {
+    Expr expected = this.getExpectedType();
+    Expr type = unwrapOptional(expected);
+
+    if (type != null && Expr.Util.asRecordType(type) == null) {
+      throw this.mismatch(expected, "an object");
+    }
+    this.frames.add(new Frame(true, expected, type, null));
+  }
+
+  public void onObjectEnd() {
+    Frame frame = this.frames.remove(this.frames.size() - 1);
+    List<Entry<String, Expr>> fields;
+
+    if (frame.type == null) {
+      fields = new ArrayList<Entry<String, Expr>>(frame.fields.entrySet());
+    } else {
+      List<Entry<String, Expr>> fieldTypes = Expr.Util.asRecordType(frame.type);
+      fields = new ArrayList<Entry<String, Expr>>(fieldTypes.size());
+
+      for (Entry<String, Expr> fieldType : fieldTypes) {
+        Expr value = frame.fields.get(fieldType.getKey());
+
+        if (value == null) {
+          Expr optionalArg = Expr.Util.getOptionalArg(fieldType.getValue());
+
+          if (optionalArg == null) {
+            this.frames.add(frame);
+            throw this.fail(String.format("Missing field %s", fieldType.getKey()));
+          }
+          value = Expr.makeApplication(Expr.Constants.NONE, optionalArg);
+        }
+        fields.add(new SimpleImmutableEntry<String, Expr>(fieldType.getKey(), value));
+      }
+    }
+    this.addValue(wrap(Expr.makeRecordLiteral(fields), frame.expected, frame.type));
+  }
+
+  public void onObjectField(String name) {
+    Frame frame = this.frames.get(this.frames.size() - 1);
+
+    if (frame.type != null) {
+      Expr fieldType = Expr.Util.getRecordTypeField(frame.type, name);
+
+      if (fieldType == null) {
+        throw this.fail(String.format("Unexpected field %s", name));
+      }
+      frame.childType = fieldType;
+    }
+    frame.pendingField = name;
+  }
+
+  public void onObjectFieldGap() {}
+
+  private void addValue(Expr value) {
+    this.lastValue = value;
+
+    if (this.frames.isEmpty()) {
+      this.result = value;
+    } else {
+      Frame frame = this.frames.get(this.frames.size() - 1);
+
+      if (frame.isObject) {
+        frame.fields.put(frame.pendingField, value);
+        frame.pendingField = null;
+      } else {
+        frame.values.add(value);
+      }
+    }
+  }
+
+  private static Expr unwrapOptional(Expr expected) {
+    if (expected == null) {
+      return null;
+    } else {
+      Expr optionalArg = Expr.Util.getOptionalArg(expected);
+      return (optionalArg == null) ? expected : optionalArg;
+    }
+  }
+
+  private static Expr wrap(Expr value, Expr expected, Expr type) {
+    if (expected == type) {
+      return value;
+    } else {
+      return Expr.makeApplication(Expr.Constants.SOME, value);
+    }
+  }
+
+  private DhallException.ConversionFailure mismatch(Expr expected, String found) {
+    return this.fail(String.format("Expected a value of type %s but found %s", expected, found));
+  }
+
+  private DhallException.ConversionFailure fail(String message) {
+    StringBuilder path = new StringBuilder();
+
+    for (Frame frame : this.frames) {
+      if (frame.isObject) {
+        if (frame.pendingField != null) {
+          path.append('.').append(frame.pendingField);
+        }
+      } else {
+        path.append('[').append(frame.values.size()).append(']');
+      }
+    }
+
+    if (path.length() == 0) {
+      return new DhallException.ConversionFailure(message);
+    } else {
+      return new DhallException.ConversionFailure(String.format("%s (at %s)", message, path));
+    }
+  }
+
+  private static final class Frame {
+    final boolean isObject;
+    final Expr expected;
+    final Expr type;
+    final List<Expr> values;
+    final Map<String, Expr> fields;
+    Expr childType;
+    String pendingField;
+
+    Frame(boolean isObject, Expr expected, Expr type, Expr elementType) {
+      this.isObject = isObject;
+      this.expected = expected;
+      this.type = type;
+      this.values = isObject ? null : new ArrayList<Expr>();
+      this.fields = isObject ? new LinkedHashMap<String, Expr>() : null;
+      this.childType = elementType;
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package org.dhallj.core.converters;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.net.URI;
 import java.nio.file.Path;
@@ -7,7 +10,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import org.dhallj.cbor.Writer;
 import org.dhallj.core.Expr;
 import org.dhallj.core.Operator;
 import org.dhallj.core.Source;
@@ -15,10 +17,16 @@ import org.dhallj.core.Visitor;
 
 public final class JsonConverter extends Visitor.Constant<Boolean> {
   private final JsonHandler handler;
+  // Set if the handler can convert Dhall escapes itself as it writes.
+  private final JsonHandler.StreamingPrinter printer;
 
   public JsonConverter(JsonHandler handler) {
     super(false);
     this.handler = handler;
+    this.printer =
+        (handler instanceof JsonHandler.StreamingPrinter)
+            ? (JsonHandler.StreamingPrinter) handler
+            : null;
   }
 
   public static final String toCompactString(Expr expr) {
@@ -31,8 +39,57 @@ public final class JsonConverter extends Visitor.Constant<Boolean> {
     }
   }
 
+  /** Check whether the expression can be converted to JSON, without producing any output. */
+  public static final boolean canConvert(Expr expr) {
+    return expr.accept(new JsonConverter(NoopHandler.INSTANCE));
+  }
+
+  /**
+   * Write the expression as JSON to the given stream or writer as it's converted, without building
+   * the document in memory.
+   *
+   * <p>Note that the expression is checked with {@link #canConvert(Expr)} before anything is
+   * written, so if it can't be converted this returns false and the output is untouched. This
+   * means the expression is traversed twice, and the check costs roughly as much as the traversal
+   * in the conversion itself (see {@code JsonBenchmark} for the comparison).
+   */
+  public static final boolean writeJson(Expr expr, OutputStream output, boolean pretty)
+      throws IOException {
+    return write(expr, new JsonHandler.StreamingPrinter(output, pretty));
+  }
+
+  public static final boolean writeJson(Expr expr, Writer output, boolean pretty)
+      throws IOException {
+    return write(expr, new JsonHandler.StreamingPrinter(output, pretty));
+  }
+
+  private static final boolean write(Expr expr, JsonHandler.StreamingPrinter printer)
+      throws IOException {
+    if (canConvert(expr)) {
+      expr.accept(new JsonConverter(printer));
+      printer.flush();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /** Whether converting the Dhall escapes in the input to JSON would change it. */
+  static final boolean needsEscaping(String input) {
+    return input.indexOf('\\') >= 0 || input.indexOf('"') >= 0;
+  }
+
+  /**
+   * Convert the Dhall escapes in the input to JSON.
+   *
+   * <p>Note that {@link JsonHandler.StreamingPrinter} does the same conversion as it writes.
+   */
   private static final String escape(String input) {
-    StringBuilder builder = new StringBuilder();
+    if (!needsEscaping(input)) {
+      return input;
+    }
+
+    StringBuilder builder = new StringBuilder(input.length() + 8);
 
     for (int i = 0; i < input.length(); i++) {
       char c = input.charAt(i);
@@ -58,6 +115,23 @@ public final class JsonConverter extends Visitor.Constant<Boolean> {
     return builder.toString();
   }
 
+  // The check in canConvert doesn't need to escape anything.
+  private final void onString(String value) {
+    if (this.printer != null) {
+      this.printer.onDhallString(value);
+    } else if (this.handler != NoopHandler.INSTANCE) {
+      this.handler.onString(escape(value));
+    }
+  }
+
+  private final void onObjectField(String name) {
+    if (this.printer != null) {
+      this.printer.onDhallObjectField(name);
+    } else if (this.handler != NoopHandler.INSTANCE) {
+      this.handler.onObjectField(escape(name));
+    }
+  }
+
   @Override
   public boolean sortFields() {
     return false;
@@ -102,7 +176,7 @@ public final class JsonConverter extends Visitor.Constant<Boolean> {
   @Override
   public Boolean onText(String[] parts, List<Boolean> interpolated) {
     if (parts.length == 1) {
-      this.handler.onString(escape(parts[0]));
+      this.onString(parts[0]);
       return true;
     } else {
       return false;
@@ -152,7 +226,7 @@ public final class JsonConverter extends Visitor.Constant<Boolean> {
     if (index > 0) {
       this.handler.onObjectFieldGap();
     }
-    this.handler.onObjectField(escape(name));
+    this.onObjectField(name);
     return true;
   }
 
@@ -174,7 +248,7 @@ public final class JsonConverter extends Visitor.Constant<Boolean> {
     if (asUnion != null) {
       for (Entry<String, Expr> field : asUnion) {
         if (field.getKey().equals(fieldName) && field.getValue() == null) {
-          this.handler.onString(escape(fieldName));
+          this.onString(fieldName);
           return false;
         }
       }
@@ -221,4 +295,32 @@ public final class JsonConverter extends Visitor.Constant<Boolean> {
   public Boolean onApplication(Boolean base, List<Boolean> args) {
     return base == null || base;
   }
+
+  private static final class NoopHandler implements JsonHandler {
+    static final JsonHandler INSTANCE = new NoopHandler();
+
+    public void onNull() {}
+
+    public void onBoolean(boolean value) {}
+
+    public void onNumber(BigInteger value) {}
+
+    public void onDouble(double value) {}
+
+    public void onString(String value) {}
+
+    public void onArrayStart() {}
+
+    public void onArrayEnd() {}
+
+    public void onArrayElementGap() {}
+
+    public void onObjectStart() {}
+
+    public void onObjectEnd() {}
+
+    public void onObjectField(String name) {}
+
+    public void onObjectFieldGap() {}
+  }
 }
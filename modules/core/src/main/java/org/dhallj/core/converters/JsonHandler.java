@@ -1,7 +1,16 @@
 package org.dhallj.core.converters;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 public interface JsonHandler {
   void onNull();
@@ -52,7 +61,9 @@ public interface JsonHandler {
     }
 
     public void onString(String value) {
-      this.writer.printf("\"%s\"", value);
+      this.writer.print('"');
+      this.writer.print(value);
+      this.writer.print('"');
     }
 
     public void onArrayStart() {
@@ -76,7 +87,9 @@ public interface JsonHandler {
     }
 
     public void onObjectField(String name) {
-      this.writer.printf("\"%s\":", name);
+      this.writer.print('"');
+      this.writer.print(name);
+      this.writer.print("\":");
     }
 
     public void onObjectFieldGap() {
@@ -112,7 +125,7 @@ public interface JsonHandler {
     }
 
     public void onString(String value) {
-      this.builder.append(String.format("\"%s\"", value));
+      this.builder.append('"').append(value).append('"');
     }
 
     public void onArrayStart() {
@@ -136,11 +149,303 @@ public interface JsonHandler {
     }
 
     public void onObjectField(String name) {
-      this.builder.append(String.format("\"%s\":", name));
+      this.builder.append('"').append(name).append("\":");
     }
 
     public void onObjectFieldGap() {
       this.builder.append(",");
     }
   }
+
+  /**
+   * Writes JSON to a stream or writer as it's received, through a reusable buffer, optionally
+   * pretty-printed with two-space indentation.
+   *
+   * <p>Note that the handler methods can't throw checked exceptions, so the first I/O error stops
+   * all further output and is rethrown by {@link #flush()}, which must be called once the document
+   * is complete.
+   */
+  public static final class StreamingPrinter implements JsonHandler {
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream stream;
+    private final Writer writer;
+    private final boolean pretty;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes;
+    private final CharsetEncoder encoder;
+    private IOException error = null;
+    private int depth = 0;
+    private boolean empty = false;
+    private boolean afterField = false;
+
+    private StreamingPrinter(OutputStream stream, Writer writer, boolean pretty) {
+      this.stream = stream;
+      this.writer = writer;
+      this.pretty = pretty;
+
+      if (stream != null) {
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+        this.encoder =
+            UTF_8
+                .newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      } else {
+        this.bytes = null;
+        this.encoder = null;
+      }
+    }
+
+    /** Write UTF-8 to the given stream. */
+    public StreamingPrinter(OutputStream stream, boolean pretty) {
+      this(stream, null, pretty);
+    }
+
+    public StreamingPrinter(OutputStream stream) {
+      this(stream, false);
+    }
+
+    public StreamingPrinter(Writer writer, boolean pretty) {
+      this(null, writer, pretty);
+    }
+
+    public StreamingPrinter(Writer writer) {
+      this(writer, false);
+    }
+
+    /** Write any buffered output and flush the underlying stream or writer. */
+    public void flush() throws IOException {
+      this.drain(true);
+      if (this.error == null) {
+        try {
+          if (this.stream != null) {
+            this.stream.flush();
+          } else {
+            this.writer.flush();
+          }
+        } catch (IOException e) {
+          this.error = e;
+        }
+      }
+      if (this.error != null) {
+        throw this.error;
+      }
+    }
+
+    public void onNull() {
+      this.beforeValue();
+      this.write("null");
+    }
+
+    public void onBoolean(boolean value) {
+      this.beforeValue();
+      this.write(value ? "true" : "false");
+    }
+
+    public void onNumber(BigInteger value) {
+      this.beforeValue();
+      this.write(value.toString());
+    }
+
+    public void onDouble(double value) {
+      this.beforeValue();
+      this.write(Double.toString(value));
+    }
+
+    public void onString(String value) {
+      this.beforeValue();
+      this.write('"');
+      this.write(value);
+      this.write('"');
+    }
+
+    /** Write a string that's still in Dhall's escaped form, converting the escapes as it goes. */
+    void onDhallString(String value) {
+      this.beforeValue();
+      this.write('"');
+      this.writeDhallEscaped(value);
+      this.write('"');
+    }
+
+    public void onArrayStart() {
+      this.beforeValue();
+      this.write('[');
+      this.open();
+    }
+
+    public void onArrayEnd() {
+      this.close(']');
+    }
+
+    public void onArrayElementGap() {
+      this.write(',');
+    }
+
+    public void onObjectStart() {
+      this.beforeValue();
+      this.write('{');
+      this.open();
+    }
+
+    public void onObjectEnd() {
+      this.close('}');
+    }
+
+    public void onObjectField(String name) {
+      this.startField();
+      this.write(name);
+      this.endField();
+    }
+
+    /** Write a field name that's still in Dhall's escaped form (see {@link #onDhallString}). */
+    void onDhallObjectField(String name) {
+      this.startField();
+      this.writeDhallEscaped(name);
+      this.endField();
+    }
+
+    public void onObjectFieldGap() {
+      this.write(',');
+    }
+
+    private void startField() {
+      this.empty = false;
+      this.newLine();
+      this.write('"');
+    }
+
+    private void endField() {
+      this.write(this.pretty ? "\": " : "\":");
+      this.afterField = true;
+    }
+
+    private void beforeValue() {
+      if (this.afterField) {
+        this.afterField = false;
+      } else if (this.depth > 0) {
+        this.newLine();
+      }
+      this.empty = false;
+    }
+
+    private void open() {
+      this.depth += 1;
+      this.empty = true;
+    }
+
+    private void close(char c) {
+      this.depth -= 1;
+      if (!this.empty) {
+        this.newLine();
+      }
+      this.empty = false;
+      this.write(c);
+    }
+
+    private void newLine() {
+      if (this.pretty) {
+        this.write('\n');
+        for (int i = 0; i < this.depth; i++) {
+          this.write("  ");
+        }
+      }
+    }
+
+    private void write(char c) {
+      if (!this.chars.hasRemaining()) {
+        this.drain(false);
+      }
+      this.chars.put(c);
+    }
+
+    private void write(String value) {
+      int length = value.length();
+      int offset = 0;
+
+      while (offset < length) {
+        if (!this.chars.hasRemaining()) {
+          this.drain(false);
+        }
+        int count = Math.min(this.chars.remaining(), length - offset);
+        int position = this.chars.position();
+        value.getChars(offset, offset + count, this.chars.array(), position);
+        this.chars.position(position + count);
+        offset += count;
+      }
+    }
+
+    /** Write the input with the same escape conversion as {@code JsonConverter}. */
+    private void writeDhallEscaped(String input) {
+      if (!JsonConverter.needsEscaping(input)) {
+        this.write(input);
+        return;
+      }
+
+      for (int i = 0; i < input.length(); i++) {
+        char c = input.charAt(i);
+
+        if (c == '\\') {
+          char next = input.charAt(++i);
+
+          if (next == '"') {
+            this.write('\\');
+            this.write('"');
+          } else if (next == '$') {
+            this.write('$');
+          } else {
+            this.write(c);
+            this.write(next);
+          }
+        } else if (c == '"') {
+          this.write('\\');
+          this.write('"');
+        } else {
+          this.write(c);
+        }
+      }
+    }
+
+    private void drain(boolean endOfInput) {
+      this.chars.flip();
+
+      if (this.error == null) {
+        try {
+          if (this.stream == null) {
+            this.writer.write(this.chars.array(), 0, this.chars.limit());
+            this.chars.position(this.chars.limit());
+          } else {
+            CoderResult result;
+            do {
+              result = this.encoder.encode(this.chars, this.bytes, endOfInput);
+              this.drainBytes();
+            } while (result.isOverflow());
+
+            if (endOfInput) {
+              while (this.encoder.flush(this.bytes).isOverflow()) {
+                this.drainBytes();
+              }
+              this.drainBytes();
+              this.encoder.reset();
+            }
+          }
+        } catch (IOException e) {
+          this.error = e;
+        }
+      }
+
+      if (this.error != null) {
+        this.chars.position(this.chars.limit());
+      }
+
+      // Keeps any unencoded high surrogate for the next call.
+      this.chars.compact();
+    }
+
+    private void drainBytes() throws IOException {
+      this.stream.write(this.bytes.array(), 0, this.bytes.position());
+      this.bytes.clear();
+    }
+  }
 }
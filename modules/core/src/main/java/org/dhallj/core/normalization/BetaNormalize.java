@@ -3,7 +3,6 @@ package org.dhallj.core.normalization;
 import java.math.BigInteger;
 import java.net.URI;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -81,17 +80,17 @@ public final class BetaNormalize extends Visitor.NoPrepareEvents<Expr> {
   }
 
   public Expr onRecord(List<Entry<String, Expr>> fields) {
-    Collections.sort(fields, NormalizationUtilities.entryComparator);
+    NormalizationUtilities.sortFields(fields);
     return Expr.makeRecordLiteral(fields);
   }
 
   public Expr onRecordType(List<Entry<String, Expr>> fields) {
-    Collections.sort(fields, NormalizationUtilities.entryComparator);
+    NormalizationUtilities.sortFields(fields);
     return Expr.makeRecordType(fields);
   }
 
   public Expr onUnionType(List<Entry<String, Expr>> fields) {
-    Collections.sort(fields, NormalizationUtilities.entryComparator);
+    NormalizationUtilities.sortFields(fields);
     return Expr.makeUnionType(fields);
   }
 
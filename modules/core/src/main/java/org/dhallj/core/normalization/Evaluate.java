@@ -0,0 +1,25 @@
+package org.dhallj.core.normalization;
+
+import org.dhallj.core.Expr;
+
+/**
+ * Performs beta normalization by evaluation.
+ *
+ * <p>The expression is evaluated into a semantic value in an environment, with functions
+ * represented as closures, and the value is then read back into an expression. Unlike {@link
+ * BetaNormalize}, applying a function never substitutes into or shifts the function body, so
+ * expressions with many nested binders or long chains of applications are much cheaper to
+ * normalize.
+ *
+ * <p>The results are the same as {@link BetaNormalize}'s (up to the types it gives to the lambdas
+ * it introduces for partially-applied folds over list and optional literals, which are correct
+ * here).
+ */
+public final class Evaluate {
+  private Evaluate() {}
+
+  /** Beta-normalize the given expression. */
+  public static final Expr normalize(Expr expr) {
+    return new Readback().readBack(new Evaluator(Env.EMPTY).eval(expr));
+  }
+}
@@ -0,0 +1,164 @@
+package org.dhallj.core.normalization;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import org.dhallj.core.Expr;
+import org.dhallj.core.ExternalVisitor;
+
+/**
+ * Performs beta normalization, normalizing the children of wide record literals, record types,
+ * union types, and lists in parallel.
+ *
+ * <p>Only the wide expressions that are reached from the root through other wide expressions, let
+ * bodies, and annotations are split up; everything else is normalized sequentially. The results are
+ * joined in order, so they're the same as {@link Expr#normalize()}'s.
+ */
+public final class ParallelNormalize {
+  private ParallelNormalize() {}
+
+  /**
+   * Beta-normalize the given expression in the given pool, splitting up expressions with at least
+   * {@code threshold} children.
+   */
+  public static final Expr apply(Expr expr, ForkJoinPool pool, int threshold) {
+    NormalizeTask task = new NormalizeTask(expr, threshold);
+
+    if (ForkJoinTask.getPool() == pool) {
+      return task.invoke();
+    } else {
+      return pool.invoke(task);
+    }
+  }
+
+  private static final Expr normalize(Expr expr, int threshold) {
+    Expr current = expr;
+    Entry<Expr.LetBinding<Expr>, Expr> asLet = Expr.Util.asLet(current);
+
+    // Let bodies are normalized after substitution, as in BetaNormalize.
+    while (asLet != null) {
+      Expr.LetBinding<Expr> binding = asLet.getKey();
+      Expr value = normalize(binding.getValue(), threshold);
+
+      current = asLet.getValue().substitute(binding.getName(), value);
+      asLet = Expr.Util.asLet(current);
+    }
+
+    Expr result = current.accept(new SplitWide(threshold));
+
+    return (result == null) ? current.normalize() : result;
+  }
+
+  private static final class NormalizeTask extends RecursiveTask<Expr> {
+    private static final long serialVersionUID = 1L;
+
+    private final Expr expr;
+    private final int threshold;
+
+    NormalizeTask(Expr expr, int threshold) {
+      this.expr = expr;
+      this.threshold = threshold;
+    }
+
+    protected Expr compute() {
+      return normalize(this.expr, this.threshold);
+    }
+  }
+
+  /** Normalizes wide expressions by splitting them up, and returns null for everything else. */
+  private static final class SplitWide extends ExternalVisitor.Constant<Expr> {
+    private final int threshold;
+
+    SplitWide(int threshold) {
+      super(null);
+      this.threshold = threshold;
+    }
+
+    /** Normalize the given expressions in parallel, returning null tasks for null expressions. */
+    private final List<NormalizeTask> invokeAll(Iterable<Expr> exprs, int size) {
+      List<NormalizeTask> tasks = new ArrayList<NormalizeTask>(size);
+      List<NormalizeTask> nonNullTasks = new ArrayList<NormalizeTask>(size);
+
+      for (Expr expr : exprs) {
+        NormalizeTask task = (expr == null) ? null : new NormalizeTask(expr, this.threshold);
+
+        tasks.add(task);
+        if (task != null) {
+          nonNullTasks.add(task);
+        }
+      }
+
+      ForkJoinTask.invokeAll(nonNullTasks);
+      return tasks;
+    }
+
+    private final List<Entry<String, Expr>> normalizeFields(
+        Iterable<Entry<String, Expr>> fields, int size) {
+      List<String> names = new ArrayList<String>(size);
+      List<Expr> values = new ArrayList<Expr>(size);
+
+      for (Entry<String, Expr> field : fields) {
+        names.add(field.getKey());
+        values.add(field.getValue());
+      }
+
+      List<NormalizeTask> tasks = this.invokeAll(values, size);
+      List<Entry<String, Expr>> result = new ArrayList<Entry<String, Expr>>(size);
+
+      for (int i = 0; i < size; i++) {
+        NormalizeTask task = tasks.get(i);
+        // Union alternatives without types are null.
+        Expr value = (task == null) ? null : task.join();
+
+        result.add(new SimpleImmutableEntry<String, Expr>(names.get(i), value));
+      }
+
+      NormalizationUtilities.sortFields(result);
+      return result;
+    }
+
+    @Override
+    public Expr onAnnotated(Expr base, Expr type) {
+      return normalize(base, this.threshold);
+    }
+
+    @Override
+    public Expr onNonEmptyList(Iterable<Expr> values, int size) {
+      if (size < this.threshold) {
+        return null;
+      }
+
+      List<Expr> result = new ArrayList<Expr>(size);
+
+      for (NormalizeTask task : this.invokeAll(values, size)) {
+        result.add(task.join());
+      }
+      return Expr.makeNonEmptyListLiteral(result);
+    }
+
+    @Override
+    public Expr onRecord(Iterable<Entry<String, Expr>> fields, int size) {
+      return (size < this.threshold)
+          ? null
+          : Expr.makeRecordLiteral(this.normalizeFields(fields, size));
+    }
+
+    @Override
+    public Expr onRecordType(Iterable<Entry<String, Expr>> fields, int size) {
+      return (size < this.threshold)
+          ? null
+          : Expr.makeRecordType(this.normalizeFields(fields, size));
+    }
+
+    @Override
+    public Expr onUnionType(Iterable<Entry<String, Expr>> fields, int size) {
+      return (size < this.threshold)
+          ? null
+          : Expr.makeUnionType(this.normalizeFields(fields, size));
+    }
+  }
+}
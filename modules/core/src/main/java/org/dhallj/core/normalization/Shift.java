@@ -24,7 +24,12 @@ public final class Shift extends Visitor.Identity {
   private int cutoff = 0;
 
   public Shift(boolean isIncrement, String name) {
-    this.change = isIncrement ? 1 : -1;
+    this(isIncrement ? 1 : -1, name);
+  }
+
+  /** Shift all instances of the variable by the given (possibly negative) amount. */
+  public Shift(int change, String name) {
+    this.change = change;
     this.name = name;
   }
 
@@ -7,6 +7,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import org.dhallj.core.Expr;
+import org.dhallj.core.ExternalVisitor;
 import org.dhallj.core.Operator;
 
 final class BetaNormalizeApplication {
@@ -239,7 +240,7 @@ final class BetaNormalizeApplication {
         }
       }
 
-      if (arg1.equivalent(arg2)) {
+      if (Expr.Util.alphaEquivalent(arg1, arg2)) {
         return Expr.Constants.ZERO;
       }
     } else if (identifier.equals("List/length")) {
@@ -342,29 +343,7 @@ final class BetaNormalizeApplication {
         newArgs.addAll(args);
       }
 
-      Expr applied = null;
-      if (firstAsNaturalLiteral.equals(BigInteger.ZERO)) {
-        applied = newArgs.get(3);
-      } else {
-        applied =
-            Expr.makeApplication(
-                    newArgs.get(2),
-                    Expr.makeApplication(
-                        Expr.makeApplication(
-                            Expr.makeApplication(
-                                Expr.makeApplication(
-                                    Expr.Constants.NATURAL_FOLD,
-                                    Expr.makeNaturalLiteral(
-                                        firstAsNaturalLiteral.subtract(BigInteger.ONE))),
-                                newArgs.get(1)),
-                            newArgs.get(2)),
-                        newArgs.get(3)))
-                .accept(BetaNormalize.instance);
-      }
-
-      if (applied == null) {
-        return null;
-      }
+      Expr applied = naturalFoldLoop(firstAsNaturalLiteral, newArgs.get(2), newArgs.get(3));
 
       if (args.size() == 1) {
         return Expr.makeLambda(
@@ -390,6 +369,95 @@ final class BetaNormalizeApplication {
     return null;
   }
 
+  /**
+   * Apply {@code succ} to {@code zero} the given number of times.
+   *
+   * <p>Note that we do this iteratively, and normalize each application without re-normalizing the
+   * accumulated result, which is already in normal form. If {@code succ} just adds a literal, we
+   * skip the iteration entirely.
+   */
+  private static final Expr naturalFoldLoop(BigInteger count, Expr succ, Expr zero) {
+    BigInteger zeroAsNaturalLiteral = Expr.Util.asNaturalLiteral(zero);
+
+    if (zeroAsNaturalLiteral != null) {
+      BigInteger increment = asAddition(succ);
+
+      if (increment != null) {
+        return Expr.makeNaturalLiteral(zeroAsNaturalLiteral.add(increment.multiply(count)));
+      }
+    }
+
+    Expr result = zero;
+
+    for (BigInteger i = BigInteger.ZERO; i.compareTo(count) < 0; i = i.add(BigInteger.ONE)) {
+      result = applyNormalized(succ, result);
+    }
+
+    return result;
+  }
+
+  /** Fold the given list from the right (iteratively, as in {@code naturalFoldLoop}). */
+  private static final Expr listFoldLoop(List<Expr> values, Expr cons, Expr nil) {
+    Expr result = nil;
+
+    for (int i = values.size() - 1; i >= 0; i--) {
+      result = applyNormalized(applyNormalized(cons, values.get(i)), result);
+    }
+
+    return result;
+  }
+
+  /** Normalize the application of a function in normal form to an argument in normal form. */
+  private static final Expr applyNormalized(Expr function, Expr arg) {
+    final List<Expr> args = new ArrayList<Expr>();
+    args.add(arg);
+    Expr current = function;
+
+    while (true) {
+      Expr base =
+          current.accept(
+              new ExternalVisitor.Constant<Expr>(null) {
+                @Override
+                public Expr onApplication(Expr base, Expr arg) {
+                  args.add(0, arg);
+                  return base;
+                }
+              });
+
+      if (base == null) {
+        return apply(current, args);
+      } else {
+        current = base;
+      }
+    }
+  }
+
+  /** If the function adds a Natural literal to its argument, return the literal. */
+  private static final BigInteger asAddition(Expr function) {
+    return function.accept(
+        new ExternalVisitor.Constant<BigInteger>(null) {
+          @Override
+          public BigInteger onLambda(final String name, Expr type, Expr result) {
+            return result.accept(
+                new ExternalVisitor.Constant<BigInteger>(null) {
+                  @Override
+                  public BigInteger onOperatorApplication(Operator operator, Expr lhs, Expr rhs) {
+                    if (operator == Operator.PLUS) {
+                      Expr param = Expr.makeIdentifier(name);
+
+                      if (lhs.sameStructure(param)) {
+                        return Expr.Util.asNaturalLiteral(rhs);
+                      } else if (rhs.sameStructure(param)) {
+                        return Expr.Util.asNaturalLiteral(lhs);
+                      }
+                    }
+                    return null;
+                  }
+                });
+          }
+        });
+  }
+
   static final Expr listFold(Expr base, final List<Expr> args) {
     List<Expr> newArgs = new ArrayList<Expr>(5);
 
@@ -419,36 +487,7 @@ final class BetaNormalizeApplication {
 
     if (listArg != null) {
 
-      Expr applied = null;
-      if (!listArg.isEmpty()) {
-        Expr head = listArg.get(0);
-
-        Expr tail;
-        if (listArg.size() == 1) {
-          tail = Expr.makeEmptyListLiteral(newArgs.get(0));
-
-        } else {
-          List<Expr> listArgTail = new ArrayList<>(listArg);
-          listArgTail.remove(0);
-
-          tail = Expr.makeNonEmptyListLiteral(listArgTail);
-        }
-        applied =
-            Expr.makeApplication(
-                    Expr.makeApplication(newArgs.get(3), head),
-                    Expr.makeApplication(
-                        Expr.makeApplication(
-                            Expr.makeApplication(
-                                Expr.makeApplication(
-                                    Expr.makeApplication(Expr.Constants.LIST_FOLD, newArgs.get(0)),
-                                    tail),
-                                newArgs.get(2)),
-                            newArgs.get(3)),
-                        newArgs.get(4)))
-                .accept(BetaNormalize.instance);
-      } else {
-        applied = newArgs.get(4);
-      }
+      Expr applied = listFoldLoop(listArg, newArgs.get(3), newArgs.get(4));
 
       if (args.size() == 2) {
         return Expr.makeLambda(
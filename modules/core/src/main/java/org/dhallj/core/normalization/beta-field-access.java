@@ -9,14 +9,15 @@ import org.dhallj.core.Operator;
 
 final class BetaNormalizeFieldAccess {
   static final Expr apply(Expr base, final String fieldName) {
+    Expr fromRecord = Expr.Util.getRecordLiteralField(base, fieldName);
+
+    if (fromRecord != null) {
+      return fromRecord;
+    }
+
     Expr result =
         base.accept(
             new ExternalVisitor.Constant<Expr>(null) {
-              @Override
-              public Expr onRecord(Iterable<Entry<String, Expr>> fields, int size) {
-                return NormalizationUtilities.lookup(fields, fieldName);
-              }
-
               @Override
               public Expr onProjection(Expr base0, String[] fieldNames0) {
                 return Expr.makeFieldAccess(base0, fieldName).accept(BetaNormalize.instance);
@@ -44,7 +45,7 @@ final class BetaNormalizeFieldAccess {
                   } else {
                     Iterable<Entry<String, Expr>> rhsFields = Expr.Util.asRecordLiteral(rhs);
                     if (rhsFields != null) {
-                      Expr rhsFound = NormalizationUtilities.lookup(rhsFields, fieldName);
+                      Expr rhsFound = Expr.Util.getRecordLiteralField(rhs, fieldName);
 
                       if (rhsFound != null) {
                         return rhsFound;
@@ -14,7 +14,7 @@ final class BetaNormalizeIf {
 
       if (thenAsBool != null && elseAsBool != null && thenAsBool && !elseAsBool) {
         return predicate;
-      } else if (thenValue.equivalent(elseValue)) {
+      } else if (Expr.Util.alphaEquivalent(thenValue, elseValue)) {
         return thenValue;
       } else {
         return Expr.makeIf(predicate, thenValue, elseValue);
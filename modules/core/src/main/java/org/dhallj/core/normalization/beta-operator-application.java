@@ -20,7 +20,7 @@ final class BetaNormalizeOperatorApplication {
           return lhsAsBool ? lhs : rhs;
         } else if (rhsAsBool != null) {
           return rhsAsBool ? rhs : lhs;
-        } else if (lhs.equivalent(rhs)) {
+        } else if (Expr.Util.alphaEquivalent(lhs, rhs)) {
           return lhs;
         }
       } else if (operator.equals(Operator.AND)) {
@@ -28,7 +28,7 @@ final class BetaNormalizeOperatorApplication {
           return lhsAsBool ? rhs : lhs;
         } else if (rhsAsBool != null) {
           return rhsAsBool ? lhs : rhs;
-        } else if (lhs.equivalent(rhs)) {
+        } else if (Expr.Util.alphaEquivalent(lhs, rhs)) {
           return lhs;
         }
       } else if (operator.equals(Operator.EQUALS)) {
@@ -36,7 +36,7 @@ final class BetaNormalizeOperatorApplication {
           return rhs;
         } else if (rhsAsBool != null && rhsAsBool) {
           return lhs;
-        } else if (lhs.equivalent(rhs)) {
+        } else if (Expr.Util.alphaEquivalent(lhs, rhs)) {
           return Expr.Constants.TRUE;
         }
       } else if (operator.equals(Operator.NOT_EQUALS)) {
@@ -44,7 +44,7 @@ final class BetaNormalizeOperatorApplication {
           return rhs;
         } else if (rhsAsBool != null && !rhsAsBool) {
           return lhs;
-        } else if (lhs.equivalent(rhs)) {
+        } else if (Expr.Util.alphaEquivalent(lhs, rhs)) {
           return Expr.Constants.FALSE;
         }
       }
@@ -126,7 +126,7 @@ final class BetaNormalizeOperatorApplication {
 
       } else if (rhsAsRecordLiteral != null && !rhsAsRecordLiteral.iterator().hasNext()) {
         return lhs;
-      } else if (lhs.equivalent(rhs)) {
+      } else if (Expr.Util.alphaEquivalent(lhs, rhs)) {
         return rhs;
       }
     } else if (operator.equals(Operator.COMPLETE)) {
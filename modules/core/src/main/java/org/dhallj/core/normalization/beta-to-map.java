@@ -28,7 +28,7 @@ final class BetaNormalizeToMap {
     }
   }
 
-  private static final String escape(String input) {
+  static final String escape(String input) {
     StringBuilder builder = new StringBuilder();
 
     for (int i = 0; i < input.length(); i++) {
@@ -0,0 +1,1054 @@
+package org.dhallj.core.normalization;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.dhallj.core.Expr;
+import org.dhallj.core.ExternalVisitor;
+import org.dhallj.core.Operator;
+import org.dhallj.core.Source;
+
+/**
+ * Evaluates an expression in an environment.
+ *
+ * <p>The reduction rules mirror the ones in {@link BetaNormalize} (including its handling of
+ * partially-applied folds), but work on values instead of expressions, so function application
+ * never needs substitution or shifting.
+ *
+ * <p>Note that this visitor maintains internal state and instances should not be reused.
+ */
+final class Evaluator implements ExternalVisitor<Value> {
+  private Env env;
+
+  Evaluator(Env env) {
+    this.env = env;
+  }
+
+  final Value eval(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private final Value evalOrNull(Expr expr) {
+    return (expr == null) ? null : expr.accept(this);
+  }
+
+  public Value onNote(Expr base, Source source) {
+    return base.accept(this);
+  }
+
+  public Value onNatural(BigInteger value) {
+    return new VConstant(Expr.makeNaturalLiteral(value));
+  }
+
+  public Value onInteger(BigInteger value) {
+    return new VConstant(Expr.makeIntegerLiteral(value));
+  }
+
+  public Value onDouble(double value) {
+    return new VConstant(Expr.makeDoubleLiteral(value));
+  }
+
+  public Value onBuiltIn(String name) {
+    return new VBuiltIn(name);
+  }
+
+  public Value onIdentifier(String name, long index) {
+    return this.env.lookup(name, index);
+  }
+
+  public Value onLambda(String name, Expr type, Expr result) {
+    return new VLambda(name, type.accept(this), Closure.of(this.env, name, result));
+  }
+
+  public Value onPi(String name, Expr type, Expr result) {
+    return new VPi(name, type.accept(this), Closure.of(this.env, name, result));
+  }
+
+  public Value onLet(String name, Expr type, Expr value, Expr body) {
+    Env previous = this.env;
+    this.env = this.env.extend(name, value.accept(this));
+    Value result = body.accept(this);
+    this.env = previous;
+    return result;
+  }
+
+  public Value onText(String[] parts, Iterable<Expr> interpolated) {
+    Value[] values = new Value[parts.length - 1];
+    int i = 0;
+
+    for (Expr expr : interpolated) {
+      values[i++] = expr.accept(this);
+    }
+
+    return text(parts, values);
+  }
+
+  public Value onNonEmptyList(Iterable<Expr> values, int size) {
+    Value[] result = new Value[size];
+    int i = 0;
+
+    for (Expr expr : values) {
+      result[i++] = expr.accept(this);
+    }
+
+    return new VNonEmptyList(result);
+  }
+
+  public Value onEmptyList(Expr type) {
+    return new VEmptyList(type.accept(this));
+  }
+
+  private final VFields evalFields(Iterable<Entry<String, Expr>> fields, int size) {
+    List<Entry<String, Value>> result = new ArrayList<Entry<String, Value>>(size);
+
+    for (Entry<String, Expr> field : fields) {
+      result.add(
+          new SimpleImmutableEntry<String, Value>(field.getKey(), evalOrNull(field.getValue())));
+    }
+
+    return VFields.sorted(result);
+  }
+
+  public Value onRecord(Iterable<Entry<String, Expr>> fields, int size) {
+    return new VRecord(evalFields(fields, size));
+  }
+
+  public Value onRecordType(Iterable<Entry<String, Expr>> fields, int size) {
+    return new VRecordType(evalFields(fields, size));
+  }
+
+  public Value onUnionType(Iterable<Entry<String, Expr>> fields, int size) {
+    return new VUnionType(evalFields(fields, size));
+  }
+
+  public Value onFieldAccess(Expr base, String fieldName) {
+    return fieldAccess(base.accept(this), fieldName);
+  }
+
+  public Value onProjection(Expr base, String[] fieldNames) {
+    return projection(base.accept(this), fieldNames);
+  }
+
+  public Value onProjectionByType(Expr base, Expr type) {
+    Value baseValue = base.accept(this);
+    Value typeValue = type.accept(this);
+
+    if (typeValue instanceof VRecordType) {
+      return projection(baseValue, ((VRecordType) typeValue).fields.names);
+    } else {
+      return new VProjectionByType(baseValue, typeValue);
+    }
+  }
+
+  public Value onApplication(Expr base, Expr arg) {
+    return apply(base.accept(this), arg.accept(this));
+  }
+
+  public Value onOperatorApplication(Operator operator, Expr lhs, Expr rhs) {
+    return operatorApplication(operator, lhs.accept(this), rhs.accept(this));
+  }
+
+  public Value onIf(Expr predicate, Expr thenValue, Expr elseValue) {
+    Value predicateValue = predicate.accept(this);
+    Boolean predicateAsBool = asBool(predicateValue);
+
+    // We only evaluate the branch we need when the predicate is known.
+    if (predicateAsBool != null) {
+      return predicateAsBool ? thenValue.accept(this) : elseValue.accept(this);
+    } else {
+      Value thenResult = thenValue.accept(this);
+      Value elseResult = elseValue.accept(this);
+      Boolean thenAsBool = asBool(thenResult);
+      Boolean elseAsBool = asBool(elseResult);
+
+      if (thenAsBool != null && elseAsBool != null && thenAsBool && !elseAsBool) {
+        return predicateValue;
+      } else if (Conversion.equivalent(thenResult, elseResult)) {
+        return thenResult;
+      } else {
+        return new VIf(predicateValue, thenResult, elseResult);
+      }
+    }
+  }
+
+  public Value onAnnotated(Expr base, Expr type) {
+    return base.accept(this);
+  }
+
+  public Value onAssert(Expr base) {
+    return new VAssert(base.accept(this));
+  }
+
+  public Value onMerge(Expr handlers, Expr union, Expr type) {
+    return merge(handlers.accept(this), union.accept(this), evalOrNull(type));
+  }
+
+  public Value onToMap(Expr base, Expr type) {
+    return toMap(base.accept(this), evalOrNull(type));
+  }
+
+  public Value onMissingImport(Expr.ImportMode mode, byte[] hash) {
+    return new VConstant(Expr.makeMissingImport(mode, hash));
+  }
+
+  public Value onEnvImport(String value, Expr.ImportMode mode, byte[] hash) {
+    return new VConstant(Expr.makeEnvImport(value, mode, hash));
+  }
+
+  public Value onLocalImport(Path path, Expr.ImportMode mode, byte[] hash) {
+    return new VConstant(Expr.makeLocalImport(path, mode, hash));
+  }
+
+  public Value onRemoteImport(URI url, Expr using, Expr.ImportMode mode, byte[] hash) {
+    return new VRemoteImport(url, evalOrNull(using), mode, hash);
+  }
+
+  private static final Boolean asBool(Value value) {
+    if (value instanceof VBuiltIn) {
+      VBuiltIn builtIn = (VBuiltIn) value;
+
+      if (builtIn.args.length == 0) {
+        if (builtIn.name.equals("True")) {
+          return true;
+        } else if (builtIn.name.equals("False")) {
+          return false;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static final Value fromBool(boolean value) {
+    return value ? VBuiltIn.TRUE : VBuiltIn.FALSE;
+  }
+
+  private static final BigInteger asNatural(Value value) {
+    return (value instanceof VConstant)
+        ? Expr.Util.asNaturalLiteral(((VConstant) value).expr)
+        : null;
+  }
+
+  private static final BigInteger asInteger(Value value) {
+    return (value instanceof VConstant)
+        ? Expr.Util.asIntegerLiteral(((VConstant) value).expr)
+        : null;
+  }
+
+  private static final Double asDouble(Value value) {
+    return (value instanceof VConstant)
+        ? Expr.Util.asDoubleLiteral(((VConstant) value).expr)
+        : null;
+  }
+
+  private static final String asSimpleText(Value value) {
+    if (value instanceof VText) {
+      VText text = (VText) value;
+
+      if (text.isSimple()) {
+        return text.parts[0];
+      }
+    }
+    return null;
+  }
+
+  private static final Value[] asList(Value value) {
+    if (value instanceof VNonEmptyList) {
+      return ((VNonEmptyList) value).values;
+    } else if (value instanceof VEmptyList) {
+      return Value.EMPTY_ARRAY;
+    } else {
+      return null;
+    }
+  }
+
+  private static final VFields asRecord(Value value) {
+    return (value instanceof VRecord) ? ((VRecord) value).fields : null;
+  }
+
+  private static final VFields asRecordType(Value value) {
+    return (value instanceof VRecordType) ? ((VRecordType) value).fields : null;
+  }
+
+  private static final Value natural(BigInteger value) {
+    return new VConstant(Expr.makeNaturalLiteral(value));
+  }
+
+  private static final VConstant ZERO = new VConstant(Expr.Constants.ZERO);
+
+  static final Value apply(Value base, Value arg) {
+    if (base instanceof VLambda) {
+      return ((VLambda) base).result.apply(arg);
+    } else if (base instanceof VBuiltIn) {
+      return applyBuiltIn(((VBuiltIn) base).withArg(arg));
+    } else {
+      return new VApplication(base, arg);
+    }
+  }
+
+  private static final Value applyBuiltIn(VBuiltIn value) {
+    String name = value.name;
+    Value[] args = value.args;
+
+    if (name.equals("Natural/fold")) {
+      BigInteger firstAsNatural = asNatural(args[0]);
+
+      if (firstAsNatural != null) {
+        if (args.length < 4) {
+          return etaExpandFold(value, 4);
+        } else {
+          return naturalFold(firstAsNatural, args[2], args[3]);
+        }
+      }
+    } else if (name.equals("List/fold") && args.length > 1) {
+      Value[] listArg = asList(args[1]);
+
+      if (listArg != null) {
+        if (args.length < 5) {
+          return etaExpandFold(value, 5);
+        } else {
+          Value result = args[4];
+
+          for (int i = listArg.length - 1; i >= 0; i--) {
+            result = apply(apply(args[3], listArg[i]), result);
+          }
+          return result;
+        }
+      }
+    } else if (name.equals("Optional/fold") && args.length > 1) {
+      if (args[1] instanceof VBuiltIn) {
+        VBuiltIn optionalArg = (VBuiltIn) args[1];
+
+        if (optionalArg.args.length == 1
+            && (optionalArg.name.equals("Some") || optionalArg.name.equals("None"))) {
+          if (args.length < 5) {
+            return etaExpandFold(value, 5);
+          } else if (optionalArg.name.equals("Some")) {
+            return apply(args[3], optionalArg.args[0]);
+          } else {
+            return args[4];
+          }
+        }
+      }
+    } else if (args.length == 1) {
+      Value result = arity1(name, args[0]);
+
+      if (result != null) {
+        return result;
+      }
+    } else if (args.length == 2) {
+      Value result = arity2(name, args[0], args[1]);
+
+      if (result != null) {
+        return result;
+      }
+    }
+    return value;
+  }
+
+  private static final Value naturalFold(BigInteger count, Value succ, Value zero) {
+    Value result = zero;
+
+    if (count.bitLength() < 63) {
+      for (long i = count.longValue(); i > 0; i--) {
+        result = apply(succ, result);
+      }
+    } else {
+      for (BigInteger i = count; i.signum() > 0; i = i.subtract(BigInteger.ONE)) {
+        result = apply(succ, result);
+      }
+    }
+    return result;
+  }
+
+  private static final Value arity1(String name, Value arg) {
+    if (name.equals("Natural/isZero")) {
+      BigInteger argAsNatural = asNatural(arg);
+
+      if (argAsNatural != null) {
+        return fromBool(argAsNatural.signum() == 0);
+      }
+    } else if (name.equals("Natural/even")) {
+      BigInteger argAsNatural = asNatural(arg);
+
+      if (argAsNatural != null) {
+        return fromBool(!argAsNatural.testBit(0));
+      }
+    } else if (name.equals("Natural/odd")) {
+      BigInteger argAsNatural = asNatural(arg);
+
+      if (argAsNatural != null) {
+        return fromBool(argAsNatural.testBit(0));
+      }
+    } else if (name.equals("Natural/toInteger")) {
+      BigInteger argAsNatural = asNatural(arg);
+
+      if (argAsNatural != null) {
+        return new VConstant(Expr.makeIntegerLiteral(argAsNatural));
+      }
+    } else if (name.equals("Natural/show")) {
+      BigInteger argAsNatural = asNatural(arg);
+
+      if (argAsNatural != null) {
+        return new VText(argAsNatural.toString());
+      }
+    } else if (name.equals("Integer/negate")) {
+      BigInteger argAsInteger = asInteger(arg);
+
+      if (argAsInteger != null) {
+        return new VConstant(Expr.makeIntegerLiteral(argAsInteger.negate()));
+      }
+    } else if (name.equals("Integer/clamp")) {
+      BigInteger argAsInteger = asInteger(arg);
+
+      if (argAsInteger != null) {
+        return (argAsInteger.signum() >= 0) ? natural(argAsInteger) : ZERO;
+      }
+    } else if (name.equals("Integer/toDouble")) {
+      BigInteger argAsInteger = asInteger(arg);
+
+      if (argAsInteger != null) {
+        return new VConstant(Expr.makeDoubleLiteral(argAsInteger.doubleValue()));
+      }
+    } else if (name.equals("Integer/show")) {
+      BigInteger argAsInteger = asInteger(arg);
+
+      if (argAsInteger != null) {
+        String sign = (argAsInteger.signum() >= 0) ? "+" : "";
+        return new VText(sign + argAsInteger.toString());
+      }
+    } else if (name.equals("Double/show")) {
+      Double argAsDouble = asDouble(arg);
+
+      if (argAsDouble != null) {
+        return new VText(argAsDouble.toString());
+      }
+    } else if (name.equals("Text/show")) {
+      String argAsSimpleText = asSimpleText(arg);
+
+      if (argAsSimpleText != null) {
+        return new VText(Expr.Util.escapeText(argAsSimpleText, true));
+      }
+    } else if (name.equals("Natural/build")) {
+      return new Evaluator(Env.EMPTY.extend("g", arg)).eval(naturalBuildTemplate);
+    }
+    // None matched, so we can't simplify.
+    return null;
+  }
+
+  private static final Value arity2(String name, Value arg1, Value arg2) {
+    if (name.equals("List/build")) {
+      return new Evaluator(Env.EMPTY.extend("A", arg1).extend("g", arg2)).eval(listBuildTemplate);
+    } else if (name.equals("Optional/build")) {
+      return new Evaluator(Env.EMPTY.extend("A", arg1).extend("g", arg2))
+          .eval(optionalBuildTemplate);
+    } else if (name.equals("Natural/subtract")) {
+      BigInteger firstAsNatural = asNatural(arg1);
+      BigInteger secondAsNatural = asNatural(arg2);
+
+      if (firstAsNatural != null) {
+        if (secondAsNatural != null) {
+          if (firstAsNatural.compareTo(secondAsNatural) < 0) {
+            return natural(secondAsNatural.subtract(firstAsNatural));
+          } else {
+            return ZERO;
+          }
+        } else if (firstAsNatural.signum() == 0) {
+          return arg2;
+        }
+      } else if (secondAsNatural != null && secondAsNatural.signum() == 0) {
+        return ZERO;
+      }
+
+      if (Conversion.equivalent(arg1, arg2)) {
+        return ZERO;
+      }
+    } else if (name.equals("List/length")) {
+      Value[] argAsList = asList(arg2);
+
+      if (argAsList != null) {
+        return natural(BigInteger.valueOf(argAsList.length));
+      }
+    } else if (name.equals("List/reverse")) {
+      Value[] argAsList = asList(arg2);
+
+      if (argAsList != null) {
+        if (argAsList.length == 0) {
+          return arg2;
+        } else {
+          Value[] result = new Value[argAsList.length];
+
+          for (int i = 0; i < result.length; i++) {
+            result[i] = argAsList[argAsList.length - 1 - i];
+          }
+          return new VNonEmptyList(result);
+        }
+      }
+    } else if (name.equals("List/head")) {
+      Value[] argAsList = asList(arg2);
+
+      if (argAsList != null) {
+        if (argAsList.length == 0) {
+          return VBuiltIn.NONE.withArg(arg1);
+        } else {
+          return VBuiltIn.SOME.withArg(argAsList[0]);
+        }
+      }
+    } else if (name.equals("List/last")) {
+      Value[] argAsList = asList(arg2);
+
+      if (argAsList != null) {
+        if (argAsList.length == 0) {
+          return VBuiltIn.NONE.withArg(arg1);
+        } else {
+          return VBuiltIn.SOME.withArg(argAsList[argAsList.length - 1]);
+        }
+      }
+    } else if (name.equals("List/indexed")) {
+      Value[] argAsList = asList(arg2);
+
+      if (argAsList != null) {
+        if (argAsList.length == 0) {
+          Value[] indexedTypes = {VBuiltIn.NATURAL, arg1};
+          return new VEmptyList(
+              VBuiltIn.LIST.withArg(new VRecordType(new VFields(indexedNames, indexedTypes))));
+        } else {
+          Value[] result = new Value[argAsList.length];
+
+          for (int i = 0; i < result.length; i++) {
+            Value[] indexedValues = {natural(BigInteger.valueOf(i)), argAsList[i]};
+            result[i] = new VRecord(new VFields(indexedNames, indexedValues));
+          }
+          return new VNonEmptyList(result);
+        }
+      }
+    }
+    // None matched, so we can't simplify.
+    return null;
+  }
+
+  private static final String[] indexedNames = {"index", "value"};
+
+  private static final Expr identifier(String name) {
+    return Expr.makeIdentifier(name);
+  }
+
+  /**
+   * Expand a fold over a literal that's missing some of its arguments into a lambda for each
+   * missing argument, to match the behavior of {@link BetaNormalize}.
+   */
+  private static final Value etaExpandFold(final VBuiltIn value, final int arity) {
+    Value[] args = value.args;
+    int i = args.length;
+    Closure result =
+        new Closure() {
+          final Value apply(Value arg) {
+            VBuiltIn applied = value.withArg(arg);
+
+            if (applied.args.length < arity) {
+              return etaExpandFold(applied, arity);
+            } else {
+              return applyBuiltIn(applied);
+            }
+          }
+        };
+
+    if (value.name.equals("Natural/fold")) {
+      if (i == 1) {
+        return new VLambda("natural", VBuiltIn.TYPE, result);
+      } else if (i == 2) {
+        return new VLambda("succ", new VPi("_", args[1], Closure.constant(args[1])), result);
+      } else {
+        return new VLambda("zero", args[1], result);
+      }
+    } else {
+      String[] names = value.name.equals("List/fold") ? listFoldNames : optionalFoldNames;
+
+      if (i == 2) {
+        return new VLambda(names[0], VBuiltIn.TYPE, result);
+      } else if (i == 3) {
+        Closure resultType = Closure.constant(args[2]);
+        Value functionType =
+            value.name.equals("List/fold")
+                ? new VPi("_", args[0], Closure.constant(new VPi("_", args[2], resultType)))
+                : new VPi("_", args[0], resultType);
+
+        return new VLambda(names[1], functionType, result);
+      } else {
+        return new VLambda(names[2], args[2], result);
+      }
+    }
+  }
+
+  private static final String[] listFoldNames = {"list", "cons", "nil"};
+  private static final String[] optionalFoldNames = {"optional", "some", "none"};
+
+  private static final Expr naturalBuildTemplate =
+      Expr.makeApplication(
+          identifier("g"),
+          new Expr[] {
+            Expr.Constants.NATURAL,
+            Expr.makeLambda(
+                "x",
+                Expr.Constants.NATURAL,
+                Expr.makeOperatorApplication(
+                    Operator.PLUS, identifier("x"), Expr.makeNaturalLiteral(BigInteger.ONE))),
+            Expr.Constants.ZERO
+          });
+
+  private static final Expr listBuildTemplate =
+      Expr.makeApplication(
+          identifier("g"),
+          new Expr[] {
+            Expr.makeApplication(Expr.Constants.LIST, identifier("A")),
+            Expr.makeLambda(
+                "a",
+                identifier("A"),
+                Expr.makeLambda(
+                    "as",
+                    Expr.makeApplication(Expr.Constants.LIST, identifier("A")),
+                    NormalizationUtilities.prependExpr)),
+            Expr.makeEmptyListLiteral(Expr.makeApplication(Expr.Constants.LIST, identifier("A")))
+          });
+
+  private static final Expr optionalBuildTemplate =
+      Expr.makeApplication(
+          identifier("g"),
+          new Expr[] {
+            Expr.makeApplication(Expr.Constants.OPTIONAL, identifier("A")),
+            Expr.makeLambda(
+                "a", identifier("A"), Expr.makeApplication(Expr.Constants.SOME, identifier("a"))),
+            Expr.makeApplication(Expr.Constants.NONE, identifier("A"))
+          });
+
+  static final Value text(String[] parts, Value[] interpolated) {
+    if (parts.length == 1) {
+      return new VText(parts[0]);
+    }
+
+    int partsSize = 0;
+    for (String part : parts) {
+      partsSize += part.length();
+    }
+
+    if (partsSize == 0) {
+      Value notEmptyString = null;
+      boolean tooMany = false;
+
+      for (int i = 0; i < interpolated.length && !tooMany; i++) {
+        String asSimpleText = asSimpleText(interpolated[i]);
+
+        if (asSimpleText == null || asSimpleText.length() != 0) {
+          if (notEmptyString == null) {
+            notEmptyString = interpolated[i];
+          } else {
+            tooMany = true;
+          }
+        }
+      }
+
+      if (!tooMany && notEmptyString != null) {
+        return notEmptyString;
+      }
+    }
+
+    List<String> newParts = new ArrayList<String>(parts.length);
+    List<Value> newInterpolated = new ArrayList<Value>(parts.length - 1);
+    StringBuilder current = new StringBuilder(parts[0]);
+
+    for (int i = 0; i < interpolated.length; i++) {
+      Value value = interpolated[i];
+
+      if (value instanceof VText) {
+        VText text = (VText) value;
+        current.append(text.parts[0]);
+
+        for (int j = 1; j < text.parts.length; j++) {
+          newParts.add(current.toString());
+          newInterpolated.add(text.interpolated[j - 1]);
+          current.setLength(0);
+          current.append(text.parts[j]);
+        }
+      } else {
+        newParts.add(current.toString());
+        newInterpolated.add(value);
+        current.setLength(0);
+      }
+      current.append(parts[i + 1]);
+    }
+    newParts.add(current.toString());
+
+    return new VText(
+        newParts.toArray(new String[newParts.size()]),
+        newInterpolated.toArray(new Value[newInterpolated.size()]));
+  }
+
+  static final Value operatorApplication(Operator operator, Value lhs, Value rhs) {
+    if (operator.isBoolOperator()) {
+      Boolean lhsAsBool = asBool(lhs);
+      Boolean rhsAsBool = asBool(rhs);
+
+      if (operator.equals(Operator.OR)) {
+        if (lhsAsBool != null) {
+          return lhsAsBool ? lhs : rhs;
+        } else if (rhsAsBool != null) {
+          return rhsAsBool ? rhs : lhs;
+        } else if (Conversion.equivalent(lhs, rhs)) {
+          return lhs;
+        }
+      } else if (operator.equals(Operator.AND)) {
+        if (lhsAsBool != null) {
+          return lhsAsBool ? rhs : lhs;
+        } else if (rhsAsBool != null) {
+          return rhsAsBool ? lhs : rhs;
+        } else if (Conversion.equivalent(lhs, rhs)) {
+          return lhs;
+        }
+      } else if (operator.equals(Operator.EQUALS)) {
+        if (lhsAsBool != null && lhsAsBool) {
+          return rhs;
+        } else if (rhsAsBool != null && rhsAsBool) {
+          return lhs;
+        } else if (Conversion.equivalent(lhs, rhs)) {
+          return VBuiltIn.TRUE;
+        }
+      } else if (operator.equals(Operator.NOT_EQUALS)) {
+        if (lhsAsBool != null && !lhsAsBool) {
+          return rhs;
+        } else if (rhsAsBool != null && !rhsAsBool) {
+          return lhs;
+        } else if (Conversion.equivalent(lhs, rhs)) {
+          return VBuiltIn.FALSE;
+        }
+      }
+    } else if (operator.equals(Operator.PLUS)) {
+      BigInteger lhsAsNatural = asNatural(lhs);
+      BigInteger rhsAsNatural = asNatural(rhs);
+
+      if (lhsAsNatural != null) {
+        if (rhsAsNatural != null) {
+          return natural(lhsAsNatural.add(rhsAsNatural));
+        } else if (lhsAsNatural.signum() == 0) {
+          return rhs;
+        }
+      } else if (rhsAsNatural != null && rhsAsNatural.signum() == 0) {
+        return lhs;
+      }
+    } else if (operator.equals(Operator.TIMES)) {
+      BigInteger lhsAsNatural = asNatural(lhs);
+      BigInteger rhsAsNatural = asNatural(rhs);
+
+      if (lhsAsNatural != null) {
+        if (rhsAsNatural != null) {
+          return natural(lhsAsNatural.multiply(rhsAsNatural));
+        } else if (lhsAsNatural.signum() == 0) {
+          return lhs;
+        } else if (lhsAsNatural.equals(BigInteger.ONE)) {
+          return rhs;
+        }
+      } else if (rhsAsNatural != null) {
+        if (rhsAsNatural.signum() == 0) {
+          return rhs;
+        } else if (rhsAsNatural.equals(BigInteger.ONE)) {
+          return lhs;
+        }
+      }
+    } else if (operator.equals(Operator.TEXT_APPEND)) {
+      return text(new String[] {"", "", ""}, new Value[] {lhs, rhs});
+    } else if (operator.equals(Operator.LIST_APPEND)) {
+      Value[] lhsAsList = asList(lhs);
+      Value[] rhsAsList = asList(rhs);
+
+      if (lhsAsList != null) {
+        if (lhsAsList.length == 0) {
+          return rhs;
+        } else if (rhsAsList != null) {
+          Value[] result = Arrays.copyOf(lhsAsList, lhsAsList.length + rhsAsList.length);
+          System.arraycopy(rhsAsList, 0, result, lhsAsList.length, rhsAsList.length);
+          return new VNonEmptyList(result);
+        }
+      } else if (rhsAsList != null && rhsAsList.length == 0) {
+        return lhs;
+      }
+    } else if (operator.equals(Operator.PREFER)) {
+      VFields lhsAsRecord = asRecord(lhs);
+      VFields rhsAsRecord = asRecord(rhs);
+
+      if (lhsAsRecord != null) {
+        if (rhsAsRecord != null) {
+          Map<String, Value> asMap = new TreeMap<String, Value>();
+          putAll(asMap, lhsAsRecord);
+          putAll(asMap, rhsAsRecord);
+
+          return new VRecord(fromMap(asMap));
+        } else if (lhsAsRecord.size() == 0) {
+          return rhs;
+        }
+      } else if (rhsAsRecord != null && rhsAsRecord.size() == 0) {
+        return lhs;
+      } else if (Conversion.equivalent(lhs, rhs)) {
+        return rhs;
+      }
+    } else if (operator.equals(Operator.COMPLETE)) {
+      return operatorApplication(Operator.PREFER, fieldAccess(lhs, "default"), rhs);
+    } else if (operator.equals(Operator.COMBINE)) {
+      VFields lhsAsRecord = asRecord(lhs);
+      VFields rhsAsRecord = asRecord(rhs);
+
+      if (lhsAsRecord != null) {
+        if (rhsAsRecord != null) {
+          return new VRecord(combine(operator, lhsAsRecord, rhsAsRecord));
+        } else if (lhsAsRecord.size() == 0) {
+          return rhs;
+        }
+      } else if (rhsAsRecord != null && rhsAsRecord.size() == 0) {
+        return lhs;
+      }
+    } else if (operator.equals(Operator.COMBINE_TYPES)) {
+      VFields lhsAsRecordType = asRecordType(lhs);
+      VFields rhsAsRecordType = asRecordType(rhs);
+
+      if (lhsAsRecordType != null) {
+        if (rhsAsRecordType != null) {
+          return new VRecordType(combine(operator, lhsAsRecordType, rhsAsRecordType));
+        } else if (lhsAsRecordType.size() == 0) {
+          return rhs;
+        }
+      } else if (rhsAsRecordType != null && rhsAsRecordType.size() == 0) {
+        return lhs;
+      }
+    }
+
+    return new VOperatorApplication(operator, lhs, rhs);
+  }
+
+  private static final void putAll(Map<String, Value> map, VFields fields) {
+    for (int i = 0; i < fields.size(); i++) {
+      map.put(fields.names[i], fields.values[i]);
+    }
+  }
+
+  private static final VFields fromMap(Map<String, Value> map) {
+    String[] names = new String[map.size()];
+    Value[] values = new Value[map.size()];
+    int i = 0;
+
+    for (Entry<String, Value> entry : map.entrySet()) {
+      names[i] = entry.getKey();
+      values[i++] = entry.getValue();
+    }
+
+    return new VFields(names, values);
+  }
+
+  /** Merge two records (or record types) recursively, combining the values of shared fields. */
+  private static final VFields combine(Operator operator, VFields lhs, VFields rhs) {
+    Map<String, Value> asMap = new TreeMap<String, Value>();
+    putAll(asMap, lhs);
+
+    for (int i = 0; i < rhs.size(); i++) {
+      String key = rhs.names[i];
+      Value value = rhs.values[i];
+      Value currentValue = asMap.get(key);
+
+      if (currentValue == null) {
+        asMap.put(key, value);
+      } else {
+        asMap.put(key, operatorApplication(operator, currentValue, value));
+      }
+    }
+
+    return fromMap(asMap);
+  }
+
+  private static final VRecord singleton(String name, Value value) {
+    return new VRecord(new VFields(new String[] {name}, new Value[] {value}));
+  }
+
+  static final Value fieldAccess(Value base, String fieldName) {
+    if (base instanceof VRecord) {
+      Value result = ((VRecord) base).fields.get(fieldName);
+
+      if (result != null) {
+        return result;
+      }
+    } else if (base instanceof VProjection) {
+      return fieldAccess(((VProjection) base).base, fieldName);
+    } else if (base instanceof VOperatorApplication) {
+      VOperatorApplication operatorApplication = (VOperatorApplication) base;
+      Operator operator = operatorApplication.operator;
+      Value lhs = operatorApplication.lhs;
+      Value rhs = operatorApplication.rhs;
+
+      if (operator.equals(Operator.PREFER) || operator.equals(Operator.COMBINE)) {
+        VFields lhsFields = asRecord(lhs);
+
+        if (lhsFields != null) {
+          Value lhsFound = lhsFields.get(fieldName);
+
+          if (lhsFound != null) {
+            return new VFieldAccess(
+                new VOperatorApplication(operator, singleton(fieldName, lhsFound), rhs), fieldName);
+          } else {
+            return new VFieldAccess(rhs, fieldName);
+          }
+        } else {
+          VFields rhsFields = asRecord(rhs);
+
+          if (rhsFields != null) {
+            Value rhsFound = rhsFields.get(fieldName);
+
+            if (rhsFound == null) {
+              return fieldAccess(lhs, fieldName);
+            } else if (operator.equals(Operator.PREFER)) {
+              return rhsFound;
+            } else {
+              return new VFieldAccess(
+                  new VOperatorApplication(operator, lhs, singleton(fieldName, rhsFound)),
+                  fieldName);
+            }
+          }
+        }
+      }
+    }
+
+    return new VFieldAccess(base, fieldName);
+  }
+
+  static final Value projection(Value base, String[] fieldNames) {
+    if (fieldNames.length == 0) {
+      return new VRecord(VFields.EMPTY);
+    }
+
+    if (base instanceof VRecord) {
+      Set<String> fieldNameSet = new HashSet<String>(Arrays.asList(fieldNames));
+      VFields fields = ((VRecord) base).fields;
+      Map<String, Value> selected = new TreeMap<String, Value>();
+
+      for (int i = 0; i < fields.size(); i++) {
+        if (fieldNameSet.contains(fields.names[i])) {
+          selected.put(fields.names[i], fields.values[i]);
+        }
+      }
+      return new VRecord(fromMap(selected));
+    } else if (base instanceof VProjection) {
+      return projection(((VProjection) base).base, fieldNames);
+    } else if (base instanceof VOperatorApplication) {
+      VOperatorApplication operatorApplication = (VOperatorApplication) base;
+
+      if (operatorApplication.operator.equals(Operator.PREFER)) {
+        VFields rhsFields = asRecord(operatorApplication.rhs);
+
+        if (rhsFields != null) {
+          Set<String> leftFields = new TreeSet<String>();
+          Set<String> rightFields = new TreeSet<String>();
+
+          for (String fieldName : fieldNames) {
+            if (rhsFields.indexOf(fieldName) >= 0) {
+              rightFields.add(fieldName);
+            } else {
+              leftFields.add(fieldName);
+            }
+          }
+
+          return operatorApplication(
+              Operator.PREFER,
+              projection(
+                  operatorApplication.lhs, leftFields.toArray(new String[leftFields.size()])),
+              projection(
+                  operatorApplication.rhs, rightFields.toArray(new String[rightFields.size()])));
+        }
+      }
+    }
+
+    String[] newFieldNames = Arrays.copyOf(fieldNames, fieldNames.length);
+    Arrays.sort(newFieldNames);
+    return new VProjection(base, newFieldNames);
+  }
+
+  static final Value merge(Value handlers, Value union, Value type) {
+    VFields handlersAsRecord = asRecord(handlers);
+
+    if (handlersAsRecord != null) {
+      if (union instanceof VFieldAccess) {
+        VFieldAccess fieldAccess = (VFieldAccess) union;
+
+        if (fieldAccess.base instanceof VUnionType) {
+          Value handler = handlersAsRecord.get(fieldAccess.fieldName);
+
+          if (handler != null) {
+            return handler;
+          }
+        }
+      } else if (union instanceof VApplication) {
+        VApplication application = (VApplication) union;
+
+        if (application.base instanceof VFieldAccess) {
+          VFieldAccess fieldAccess = (VFieldAccess) application.base;
+
+          if (fieldAccess.base instanceof VUnionType) {
+            Value handler = handlersAsRecord.get(fieldAccess.fieldName);
+
+            if (handler != null) {
+              return apply(handler, application.arg);
+            }
+          }
+        }
+      } else if (union instanceof VBuiltIn) {
+        VBuiltIn builtIn = (VBuiltIn) union;
+
+        if (builtIn.args.length == 1) {
+          if (builtIn.name.equals("Some")) {
+            Value handler = handlersAsRecord.get("Some");
+
+            if (handler != null) {
+              return apply(handler, builtIn.args[0]);
+            }
+          } else if (builtIn.name.equals("None")) {
+            Value handler = handlersAsRecord.get("None");
+
+            if (handler != null) {
+              return handler;
+            }
+          }
+        }
+      }
+    }
+    return new VMerge(handlers, union, type);
+  }
+
+  static final Value toMap(Value base, Value type) {
+    VFields baseAsRecord = asRecord(base);
+
+    if (baseAsRecord != null) {
+      if (baseAsRecord.size() == 0) {
+        return new VEmptyList(type);
+      } else {
+        Value[] result = new Value[baseAsRecord.size()];
+
+        for (int i = 0; i < result.length; i++) {
+          Value[] values = {
+            new VText(BetaNormalizeToMap.escape(baseAsRecord.names[i])), baseAsRecord.values[i]
+          };
+          result[i] = new VRecord(new VFields(toMapNames, values));
+        }
+        return new VNonEmptyList(result);
+      }
+    } else {
+      return new VToMap(base, type);
+    }
+  }
+
+  private static final String[] toMapNames = {
+    Expr.Constants.MAP_KEY_FIELD_NAME, Expr.Constants.MAP_VALUE_FIELD_NAME
+  };
+}
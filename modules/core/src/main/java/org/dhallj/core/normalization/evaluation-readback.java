@@ -0,0 +1,326 @@
+package org.dhallj.core.normalization;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import org.dhallj.core.Expr;
+
+/**
+ * Reads a value back into an expression in normal form.
+ *
+ * <p>Bound variables are tracked by de Bruijn level while reading back, and are converted to
+ * named de Bruijn indices when they're found.
+ *
+ * <p>Note that this class maintains internal state and instances should not be reused.
+ */
+final class Readback {
+  private String[] names = new String[16];
+  private int depth = 0;
+
+  final Expr readBack(Value value) {
+    if (value instanceof VConstant) {
+      return ((VConstant) value).expr;
+    } else if (value instanceof VVariable) {
+      VVariable variable = (VVariable) value;
+      long index = 0;
+
+      for (int i = this.depth - 1; i > variable.level; i--) {
+        if (this.names[i].equals(variable.name)) {
+          index += 1;
+        }
+      }
+      return Expr.makeIdentifier(variable.name, index);
+    } else if (value instanceof VFreeVariable) {
+      VFreeVariable variable = (VFreeVariable) value;
+      long index = variable.index;
+
+      for (int i = 0; i < this.depth; i++) {
+        if (this.names[i].equals(variable.name)) {
+          index += 1;
+        }
+      }
+      return Expr.makeIdentifier(variable.name, index);
+    } else if (value instanceof VBuiltIn) {
+      VBuiltIn builtIn = (VBuiltIn) value;
+
+      if (builtIn.args.length == 0) {
+        return builtIn.builtIn;
+      } else {
+        return Expr.makeApplication(builtIn.builtIn, readBackAll(builtIn.args));
+      }
+    } else if (value instanceof VLambda) {
+      VLambda lambda = (VLambda) value;
+
+      return Expr.makeLambda(
+          lambda.name, readBack(lambda.type), readBackUnder(lambda.name, lambda.result));
+    } else if (value instanceof VPi) {
+      VPi pi = (VPi) value;
+
+      return Expr.makePi(pi.name, readBack(pi.type), readBackUnder(pi.name, pi.result));
+    } else if (value instanceof VApplication) {
+      VApplication application = (VApplication) value;
+
+      return Expr.makeApplication(readBack(application.base), readBack(application.arg));
+    } else if (value instanceof VText) {
+      VText text = (VText) value;
+
+      return Expr.makeTextLiteral(text.parts, readBackAll(text.interpolated));
+    } else if (value instanceof VNonEmptyList) {
+      return Expr.makeNonEmptyListLiteral(readBackAll(((VNonEmptyList) value).values));
+    } else if (value instanceof VEmptyList) {
+      return Expr.makeEmptyListLiteral(readBackOrNull(((VEmptyList) value).type));
+    } else if (value instanceof VRecord) {
+      return Expr.makeRecordLiteral(readBackFields(((VRecord) value).fields));
+    } else if (value instanceof VRecordType) {
+      return Expr.makeRecordType(readBackFields(((VRecordType) value).fields));
+    } else if (value instanceof VUnionType) {
+      return Expr.makeUnionType(readBackFields(((VUnionType) value).fields));
+    } else if (value instanceof VFieldAccess) {
+      VFieldAccess fieldAccess = (VFieldAccess) value;
+
+      return Expr.makeFieldAccess(readBack(fieldAccess.base), fieldAccess.fieldName);
+    } else if (value instanceof VProjection) {
+      VProjection projection = (VProjection) value;
+
+      return Expr.makeProjection(readBack(projection.base), projection.fieldNames);
+    } else if (value instanceof VProjectionByType) {
+      VProjectionByType projection = (VProjectionByType) value;
+
+      return Expr.makeProjectionByType(readBack(projection.base), readBack(projection.type));
+    } else if (value instanceof VOperatorApplication) {
+      VOperatorApplication operatorApplication = (VOperatorApplication) value;
+
+      return Expr.makeOperatorApplication(
+          operatorApplication.operator,
+          readBack(operatorApplication.lhs),
+          readBack(operatorApplication.rhs));
+    } else if (value instanceof VIf) {
+      VIf ifValue = (VIf) value;
+
+      return Expr.makeIf(
+          readBack(ifValue.predicate), readBack(ifValue.thenValue), readBack(ifValue.elseValue));
+    } else if (value instanceof VAssert) {
+      return Expr.makeAssert(readBack(((VAssert) value).type));
+    } else if (value instanceof VMerge) {
+      VMerge merge = (VMerge) value;
+
+      return Expr.makeMerge(
+          readBack(merge.handlers), readBack(merge.union), readBackOrNull(merge.type));
+    } else if (value instanceof VToMap) {
+      VToMap toMap = (VToMap) value;
+
+      return Expr.makeToMap(readBack(toMap.base), readBackOrNull(toMap.type));
+    } else if (value instanceof VRemoteImport) {
+      VRemoteImport remoteImport = (VRemoteImport) value;
+
+      return Expr.makeRemoteImport(
+          remoteImport.url,
+          readBackOrNull(remoteImport.using),
+          remoteImport.mode,
+          remoteImport.hash);
+    } else {
+      throw new IllegalArgumentException("Unknown value");
+    }
+  }
+
+  private final Expr readBackOrNull(Value value) {
+    return (value == null) ? null : readBack(value);
+  }
+
+  private final Expr[] readBackAll(Value[] values) {
+    Expr[] result = new Expr[values.length];
+
+    for (int i = 0; i < values.length; i++) {
+      result[i] = readBack(values[i]);
+    }
+    return result;
+  }
+
+  private final Entry<String, Expr>[] readBackFields(VFields fields) {
+    Entry<String, Expr>[] result = new Entry[fields.size()];
+
+    for (int i = 0; i < result.length; i++) {
+      result[i] =
+          new SimpleImmutableEntry<String, Expr>(fields.names[i], readBackOrNull(fields.values[i]));
+    }
+    return result;
+  }
+
+  private final Expr readBackUnder(String name, Closure closure) {
+    if (this.depth == this.names.length) {
+      this.names = Arrays.copyOf(this.names, this.depth * 2);
+    }
+
+    Value body = closure.apply(new VVariable(name, this.depth));
+    this.names[this.depth++] = name;
+    Expr result = readBack(body);
+    this.depth -= 1;
+
+    return result;
+  }
+}
+
+/**
+ * Checks whether two values are alpha-equivalent.
+ *
+ * <p>Both values are already normalized, so this is a structural comparison that ignores binder
+ * names. Function bodies are compared by applying both closures to the same fresh variable.
+ */
+final class Conversion {
+  static final boolean equivalent(Value a, Value b) {
+    return equivalent(a, b, 0);
+  }
+
+  private static final boolean equivalentAll(Value[] as, Value[] bs, int fresh) {
+    if (as.length != bs.length) {
+      return false;
+    }
+
+    for (int i = 0; i < as.length; i++) {
+      if (!equivalent(as[i], bs[i], fresh)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final boolean equivalentOrNull(Value a, Value b, int fresh) {
+    return (a == null) ? (b == null) : (b != null && equivalent(a, b, fresh));
+  }
+
+  private static final boolean equivalentFields(VFields a, VFields b, int fresh) {
+    if (!Arrays.equals(a.names, b.names)) {
+      return false;
+    }
+
+    for (int i = 0; i < a.values.length; i++) {
+      if (!equivalentOrNull(a.values[i], b.values[i], fresh)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final boolean equivalentClosures(
+      Closure a, Closure b, String name, int fresh) {
+    // Negative levels can't collide with the levels of variables introduced while reading back.
+    Value variable = new VVariable(name, -1 - fresh);
+
+    return equivalent(a.apply(variable), b.apply(variable), fresh + 1);
+  }
+
+  private static final boolean equivalent(Value a, Value b, int fresh) {
+    if (a == b) {
+      return true;
+    } else if (a.getClass() != b.getClass()) {
+      return false;
+    } else if (a instanceof VConstant) {
+      return Arrays.equals(
+          ((VConstant) a).expr.getEncodedBytes(), ((VConstant) b).expr.getEncodedBytes());
+    } else if (a instanceof VVariable) {
+      return ((VVariable) a).level == ((VVariable) b).level;
+    } else if (a instanceof VFreeVariable) {
+      VFreeVariable freeA = (VFreeVariable) a;
+      VFreeVariable freeB = (VFreeVariable) b;
+
+      return freeA.index == freeB.index && freeA.name.equals(freeB.name);
+    } else if (a instanceof VBuiltIn) {
+      VBuiltIn builtInA = (VBuiltIn) a;
+      VBuiltIn builtInB = (VBuiltIn) b;
+
+      return builtInA.name.equals(builtInB.name)
+          && equivalentAll(builtInA.args, builtInB.args, fresh);
+    } else if (a instanceof VLambda) {
+      VLambda lambdaA = (VLambda) a;
+      VLambda lambdaB = (VLambda) b;
+
+      return equivalent(lambdaA.type, lambdaB.type, fresh)
+          && equivalentClosures(lambdaA.result, lambdaB.result, lambdaA.name, fresh);
+    } else if (a instanceof VPi) {
+      VPi piA = (VPi) a;
+      VPi piB = (VPi) b;
+
+      return equivalent(piA.type, piB.type, fresh)
+          && equivalentClosures(piA.result, piB.result, piA.name, fresh);
+    } else if (a instanceof VApplication) {
+      VApplication applicationA = (VApplication) a;
+      VApplication applicationB = (VApplication) b;
+
+      return equivalent(applicationA.base, applicationB.base, fresh)
+          && equivalent(applicationA.arg, applicationB.arg, fresh);
+    } else if (a instanceof VText) {
+      VText textA = (VText) a;
+      VText textB = (VText) b;
+
+      return Arrays.equals(textA.parts, textB.parts)
+          && equivalentAll(textA.interpolated, textB.interpolated, fresh);
+    } else if (a instanceof VNonEmptyList) {
+      return equivalentAll(((VNonEmptyList) a).values, ((VNonEmptyList) b).values, fresh);
+    } else if (a instanceof VEmptyList) {
+      return equivalentOrNull(((VEmptyList) a).type, ((VEmptyList) b).type, fresh);
+    } else if (a instanceof VRecord) {
+      return equivalentFields(((VRecord) a).fields, ((VRecord) b).fields, fresh);
+    } else if (a instanceof VRecordType) {
+      return equivalentFields(((VRecordType) a).fields, ((VRecordType) b).fields, fresh);
+    } else if (a instanceof VUnionType) {
+      return equivalentFields(((VUnionType) a).fields, ((VUnionType) b).fields, fresh);
+    } else if (a instanceof VFieldAccess) {
+      VFieldAccess fieldAccessA = (VFieldAccess) a;
+      VFieldAccess fieldAccessB = (VFieldAccess) b;
+
+      return fieldAccessA.fieldName.equals(fieldAccessB.fieldName)
+          && equivalent(fieldAccessA.base, fieldAccessB.base, fresh);
+    } else if (a instanceof VProjection) {
+      VProjection projectionA = (VProjection) a;
+      VProjection projectionB = (VProjection) b;
+
+      return Arrays.equals(projectionA.fieldNames, projectionB.fieldNames)
+          && equivalent(projectionA.base, projectionB.base, fresh);
+    } else if (a instanceof VProjectionByType) {
+      VProjectionByType projectionA = (VProjectionByType) a;
+      VProjectionByType projectionB = (VProjectionByType) b;
+
+      return equivalent(projectionA.base, projectionB.base, fresh)
+          && equivalent(projectionA.type, projectionB.type, fresh);
+    } else if (a instanceof VOperatorApplication) {
+      VOperatorApplication operatorA = (VOperatorApplication) a;
+      VOperatorApplication operatorB = (VOperatorApplication) b;
+
+      return operatorA.operator.equals(operatorB.operator)
+          && equivalent(operatorA.lhs, operatorB.lhs, fresh)
+          && equivalent(operatorA.rhs, operatorB.rhs, fresh);
+    } else if (a instanceof VIf) {
+      VIf ifA = (VIf) a;
+      VIf ifB = (VIf) b;
+
+      return equivalent(ifA.predicate, ifB.predicate, fresh)
+          && equivalent(ifA.thenValue, ifB.thenValue, fresh)
+          && equivalent(ifA.elseValue, ifB.elseValue, fresh);
+    } else if (a instanceof VAssert) {
+      return equivalent(((VAssert) a).type, ((VAssert) b).type, fresh);
+    } else if (a instanceof VMerge) {
+      VMerge mergeA = (VMerge) a;
+      VMerge mergeB = (VMerge) b;
+
+      return equivalent(mergeA.handlers, mergeB.handlers, fresh)
+          && equivalent(mergeA.union, mergeB.union, fresh)
+          && equivalentOrNull(mergeA.type, mergeB.type, fresh);
+    } else if (a instanceof VToMap) {
+      VToMap toMapA = (VToMap) a;
+      VToMap toMapB = (VToMap) b;
+
+      return equivalent(toMapA.base, toMapB.base, fresh)
+          && equivalentOrNull(toMapA.type, toMapB.type, fresh);
+    } else if (a instanceof VRemoteImport) {
+      VRemoteImport importA = (VRemoteImport) a;
+      VRemoteImport importB = (VRemoteImport) b;
+
+      return importA.url.equals(importB.url)
+          && importA.mode.equals(importB.mode)
+          && Arrays.equals(importA.hash, importB.hash)
+          && equivalentOrNull(importA.using, importB.using, fresh);
+    } else {
+      return false;
+    }
+  }
+}
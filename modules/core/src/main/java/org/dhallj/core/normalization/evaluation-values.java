@@ -0,0 +1,414 @@
+package org.dhallj.core.normalization;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import org.dhallj.core.Expr;
+import org.dhallj.core.Operator;
+
+/**
+ * Represents the semantic value of a Dhall expression during normalization by evaluation.
+ *
+ * <p>Values are always in normal form, except that the bodies of functions and function types are
+ * represented as closures that are only evaluated when they're applied or read back.
+ */
+abstract class Value {
+  static final Value[] EMPTY_ARRAY = {};
+}
+
+/** A variable bound by a binder that's being read back, identified by its de Bruijn level. */
+final class VVariable extends Value {
+  final String name;
+  final int level;
+
+  VVariable(String name, int level) {
+    this.name = name;
+    this.level = level;
+  }
+}
+
+/** A variable that isn't bound anywhere in the expression being normalized. */
+final class VFreeVariable extends Value {
+  final String name;
+  final long index;
+
+  VFreeVariable(String name, long index) {
+    this.name = name;
+    this.index = index;
+  }
+}
+
+/** A closed expression that can't be reduced any further (literals and local imports). */
+final class VConstant extends Value {
+  final Expr expr;
+
+  VConstant(Expr expr) {
+    this.expr = expr;
+  }
+}
+
+/** A built-in function or constant applied to zero or more arguments that can't be reduced. */
+final class VBuiltIn extends Value {
+  final Expr builtIn;
+  final String name;
+  final Value[] args;
+
+  VBuiltIn(Expr builtIn, String name, Value[] args) {
+    this.builtIn = builtIn;
+    this.name = name;
+    this.args = args;
+  }
+
+  VBuiltIn(String name) {
+    this(Expr.makeBuiltIn(name), name, Value.EMPTY_ARRAY);
+  }
+
+  final VBuiltIn withArg(Value arg) {
+    Value[] newArgs = Arrays.copyOf(this.args, this.args.length + 1);
+    newArgs[this.args.length] = arg;
+    return new VBuiltIn(this.builtIn, this.name, newArgs);
+  }
+
+  static final VBuiltIn TRUE = new VBuiltIn("True");
+  static final VBuiltIn FALSE = new VBuiltIn("False");
+  static final VBuiltIn NATURAL = new VBuiltIn("Natural");
+  static final VBuiltIn TYPE = new VBuiltIn("Type");
+  static final VBuiltIn LIST = new VBuiltIn("List");
+  static final VBuiltIn OPTIONAL = new VBuiltIn("Optional");
+  static final VBuiltIn SOME = new VBuiltIn("Some");
+  static final VBuiltIn NONE = new VBuiltIn("None");
+}
+
+final class VLambda extends Value {
+  final String name;
+  final Value type;
+  final Closure result;
+
+  VLambda(String name, Value type, Closure result) {
+    this.name = name;
+    this.type = type;
+    this.result = result;
+  }
+}
+
+final class VPi extends Value {
+  final String name;
+  final Value type;
+  final Closure result;
+
+  VPi(String name, Value type, Closure result) {
+    this.name = name;
+    this.type = type;
+    this.result = result;
+  }
+}
+
+/** An application whose base is neutral. */
+final class VApplication extends Value {
+  final Value base;
+  final Value arg;
+
+  VApplication(Value base, Value arg) {
+    this.base = base;
+    this.arg = arg;
+  }
+}
+
+/** A text literal with at least one interpolated value (or a simple literal if there are none). */
+final class VText extends Value {
+  final String[] parts;
+  final Value[] interpolated;
+
+  VText(String[] parts, Value[] interpolated) {
+    this.parts = parts;
+    this.interpolated = interpolated;
+  }
+
+  VText(String value) {
+    this(new String[] {value}, Value.EMPTY_ARRAY);
+  }
+
+  final boolean isSimple() {
+    return this.parts.length == 1;
+  }
+}
+
+final class VNonEmptyList extends Value {
+  final Value[] values;
+
+  VNonEmptyList(Value[] values) {
+    this.values = values;
+  }
+}
+
+final class VEmptyList extends Value {
+  final Value type;
+
+  VEmptyList(Value type) {
+    this.type = type;
+  }
+}
+
+/**
+ * The fields of a record literal, record type, or union type, sorted by name.
+ *
+ * <p>Note that values may be null for union types.
+ */
+final class VFields {
+  final String[] names;
+  final Value[] values;
+
+  VFields(String[] names, Value[] values) {
+    this.names = names;
+    this.values = values;
+  }
+
+  final int size() {
+    return this.names.length;
+  }
+
+  final int indexOf(String name) {
+    int i = Arrays.binarySearch(this.names, name);
+
+    if (i < 0) {
+      return -1;
+    }
+
+    // Find the first of any duplicates.
+    while (i > 0 && this.names[i - 1].equals(name)) {
+      i -= 1;
+    }
+    return i;
+  }
+
+  final Value get(String name) {
+    int i = this.indexOf(name);
+    return (i < 0) ? null : this.values[i];
+  }
+
+  static final VFields EMPTY = new VFields(new String[0], Value.EMPTY_ARRAY);
+
+  private static final Comparator<Entry<String, Value>> entryComparator =
+      new Comparator<Entry<String, Value>>() {
+        public int compare(Entry<String, Value> a, Entry<String, Value> b) {
+          return a.getKey().compareTo(b.getKey());
+        }
+      };
+
+  /** Sort the given entries by name (the sort is stable, so duplicates keep their order). */
+  static final VFields sorted(List<Entry<String, Value>> entries) {
+    boolean isSorted = true;
+
+    for (int i = 1; i < entries.size() && isSorted; i++) {
+      isSorted = entries.get(i - 1).getKey().compareTo(entries.get(i).getKey()) <= 0;
+    }
+
+    if (!isSorted) {
+      entries = new ArrayList<Entry<String, Value>>(entries);
+      Collections.sort(entries, entryComparator);
+    }
+
+    String[] names = new String[entries.size()];
+    Value[] values = new Value[entries.size()];
+
+    for (int i = 0; i < names.length; i++) {
+      Entry<String, Value> entry = entries.get(i);
+      names[i] = entry.getKey();
+      values[i] = entry.getValue();
+    }
+    return new VFields(names, values);
+  }
+}
+
+final class VRecord extends Value {
+  final VFields fields;
+
+  VRecord(VFields fields) {
+    this.fields = fields;
+  }
+}
+
+final class VRecordType extends Value {
+  final VFields fields;
+
+  VRecordType(VFields fields) {
+    this.fields = fields;
+  }
+}
+
+final class VUnionType extends Value {
+  final VFields fields;
+
+  VUnionType(VFields fields) {
+    this.fields = fields;
+  }
+}
+
+final class VFieldAccess extends Value {
+  final Value base;
+  final String fieldName;
+
+  VFieldAccess(Value base, String fieldName) {
+    this.base = base;
+    this.fieldName = fieldName;
+  }
+}
+
+final class VProjection extends Value {
+  final Value base;
+  final String[] fieldNames;
+
+  VProjection(Value base, String[] fieldNames) {
+    this.base = base;
+    this.fieldNames = fieldNames;
+  }
+}
+
+/** A projection by a type that isn't a record type literal. */
+final class VProjectionByType extends Value {
+  final Value base;
+  final Value type;
+
+  VProjectionByType(Value base, Value type) {
+    this.base = base;
+    this.type = type;
+  }
+}
+
+final class VOperatorApplication extends Value {
+  final Operator operator;
+  final Value lhs;
+  final Value rhs;
+
+  VOperatorApplication(Operator operator, Value lhs, Value rhs) {
+    this.operator = operator;
+    this.lhs = lhs;
+    this.rhs = rhs;
+  }
+}
+
+final class VIf extends Value {
+  final Value predicate;
+  final Value thenValue;
+  final Value elseValue;
+
+  VIf(Value predicate, Value thenValue, Value elseValue) {
+    this.predicate = predicate;
+    this.thenValue = thenValue;
+    this.elseValue = elseValue;
+  }
+}
+
+final class VAssert extends Value {
+  final Value type;
+
+  VAssert(Value type) {
+    this.type = type;
+  }
+}
+
+/** A merge; note that the type may be null. */
+final class VMerge extends Value {
+  final Value handlers;
+  final Value union;
+  final Value type;
+
+  VMerge(Value handlers, Value union, Value type) {
+    this.handlers = handlers;
+    this.union = union;
+    this.type = type;
+  }
+}
+
+/** A {@code toMap}; note that the type may be null. */
+final class VToMap extends Value {
+  final Value base;
+  final Value type;
+
+  VToMap(Value base, Value type) {
+    this.base = base;
+    this.type = type;
+  }
+}
+
+/** A remote import; note that the {@code using} value may be null. */
+final class VRemoteImport extends Value {
+  final URI url;
+  final Value using;
+  final Expr.ImportMode mode;
+  final byte[] hash;
+
+  VRemoteImport(URI url, Value using, Expr.ImportMode mode, byte[] hash) {
+    this.url = url;
+    this.using = using;
+    this.mode = mode;
+    this.hash = hash;
+  }
+}
+
+/**
+ * An evaluation environment, mapping names (with de Bruijn indices) to values.
+ *
+ * <p>Environments are persistent, so closures can safely capture them.
+ */
+final class Env {
+  private final String name;
+  private final Value value;
+  private final Env tail;
+
+  private Env(String name, Value value, Env tail) {
+    this.name = name;
+    this.value = value;
+    this.tail = tail;
+  }
+
+  static final Env EMPTY = new Env(null, null, null);
+
+  final Env extend(String name, Value value) {
+    return new Env(name, value, this);
+  }
+
+  final Value lookup(String name, long index) {
+    Env current = this;
+
+    while (current.tail != null) {
+      if (current.name.equals(name)) {
+        if (index == 0) {
+          return current.value;
+        } else {
+          index -= 1;
+        }
+      }
+      current = current.tail;
+    }
+
+    return new VFreeVariable(name, index);
+  }
+}
+
+/** The body of a function or function type. */
+abstract class Closure {
+  abstract Value apply(Value arg);
+
+  /** A closure for an expression body, together with the environment it was defined in. */
+  static final Closure of(final Env env, final String name, final Expr body) {
+    return new Closure() {
+      final Value apply(Value arg) {
+        return new Evaluator(env.extend(name, arg)).eval(body);
+      }
+    };
+  }
+
+  /** A closure that ignores its argument (for non-dependent function types). */
+  static final Closure constant(final Value value) {
+    return new Closure() {
+      final Value apply(Value arg) {
+        return value;
+      }
+    };
+  }
+}
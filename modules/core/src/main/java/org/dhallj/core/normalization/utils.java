@@ -2,6 +2,7 @@ package org.dhallj.core.normalization;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -48,6 +49,16 @@ final class NormalizationUtilities {
     return null;
   }
 
+  /** Sort the given fields by name, unless they're already sorted. */
+  static final void sortFields(List<Entry<String, Expr>> fields) {
+    for (int i = 1; i < fields.size(); i++) {
+      if (fields.get(i - 1).getKey().compareTo(fields.get(i).getKey()) > 0) {
+        Collections.sort(fields, entryComparator);
+        return;
+      }
+    }
+  }
+
   static final Comparator<Entry<String, Expr>> entryComparator =
       new Comparator<Entry<String, Expr>>() {
         public int compare(Entry<String, Expr> a, Entry<String, Expr> b) {
@@ -1,57 +1,267 @@
 package org.dhallj.core.typechecking;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.dhallj.core.Expr;
+import org.dhallj.core.normalization.Shift;
 
+/**
+ * Represents a type-checking context: a persistent map from variables to their types.
+ *
+ * <p>Shifting is lazy: {@code increment} and {@code decrement} only record the shift, which is
+ * applied to a type when it's looked up. Every context derived from the same root shares an index
+ * of the entries on its current path by position, so inserting, shifting, and looking up a
+ * variable are amortized constant-time operations (plus the cost of shifting the type that's
+ * returned, if it has free variables that were actually shifted) when the context is used like a
+ * stack, as it is during type checking.
+ */
 public final class Context {
   private final String key;
   private final Expr value;
+  private final int change;
   private final Context tail;
+  private final int position;
+  private final Index index;
+  private Set<String> freeVariableNames;
 
-  Context(String key, Expr value, Context tail) {
+  private Context(String key, Expr value, int change, Context tail, Index index) {
     this.key = key;
     this.value = value;
+    this.change = change;
     this.tail = tail;
+    this.position = (tail == null) ? -1 : tail.position + 1;
+    this.index = index;
+  }
+
+  Context(String key, Expr value, Context tail) {
+    this(key, value, 0, tail, (tail.index == null) ? new Index() : tail.index);
   }
 
   public Expr lookup(String targetKey, long index) {
-    if (this.key != null && this.key.equals(targetKey)) {
-      if (index == 0) {
-        return this.value;
-      } else {
-        if (this.tail == null) {
-          return null;
-        } else {
-          return this.tail.lookup(targetKey, index - 1);
-        }
+    if (this.index == null) {
+      return null;
+    } else {
+      synchronized (this.index) {
+        return this.index.lookup(this, targetKey, index);
       }
+    }
+  }
+
+  /**
+   * The position of the entry for the given variable in this context (where the first entry or
+   * shift has position zero), or -1 if there is no such entry.
+   */
+  final int lookupPosition(String targetKey, long index) {
+    if (this.index == null) {
+      return -1;
     } else {
-      if (this.tail == null) {
-        return null;
-      } else {
-        return this.tail.lookup(targetKey, index);
+      synchronized (this.index) {
+        return this.index.lookupPosition(this, targetKey, index);
       }
     }
   }
 
+  /** The number of entries and shifts in this context. */
+  final int size() {
+    return this.position + 1;
+  }
+
   public Context insert(String key, Expr value) {
     return new Context(key, value, this);
   }
 
   public Context increment(String name) {
-    if (this.key == null) {
+    return this.shift(name, 1);
+  }
+
+  public Context decrement(String name) {
+    return this.shift(name, -1);
+  }
+
+  private Context shift(String name, int change) {
+    if (this.index == null) {
       return this;
     } else {
-      return new Context(this.key, this.value.increment(name), this.tail.increment(name));
+      return new Context(name, null, change, this, this.index);
     }
   }
 
-  public Context decrement(String name) {
-    if (this.key == null) {
+  /**
+   * A context with the same entries and shifts that doesn't share this one's index, so that it can
+   * be used on another thread without contending for it.
+   */
+  final Context copy() {
+    if (this.index == null) {
       return this;
-    } else {
-      return new Context(this.key, this.value.decrement(name), this.tail.decrement(name));
+    }
+
+    Context[] entries = new Context[this.position + 1];
+    Context current = this;
+
+    while (current.position >= 0) {
+      entries[current.position] = current;
+      current = current.tail;
+    }
+
+    Index index = new Index();
+
+    for (Context entry : entries) {
+      current = new Context(entry.key, entry.value, entry.change, current, index);
+    }
+    return current;
+  }
+
+  public static final Context EMPTY = new Context(null, null, 0, null, null);
+
+  /**
+   * The entries and shifts on the path to the most recently used context, by position.
+   *
+   * <p>Note that instances are mutable and must only be accessed while holding their lock.
+   */
+  private static final class Index {
+    private Context[] path = new Context[16];
+    private int size = 0;
+    private final Map<String, Positions> positions = new HashMap<String, Positions>();
+
+    /** Make the path end at the given context. */
+    private final void moveTo(Context target) {
+      if (target.position < this.size && this.path[target.position] == target) {
+        while (this.size > target.position + 1) {
+          this.pop();
+        }
+      } else {
+        List<Context> missing = new ArrayList<Context>();
+        Context current = target;
+
+        while (current.position >= 0
+            && !(current.position < this.size && this.path[current.position] == current)) {
+          missing.add(current);
+          current = current.tail;
+        }
+
+        while (this.size > current.position + 1) {
+          this.pop();
+        }
+
+        for (int i = missing.size() - 1; i >= 0; i--) {
+          this.push(missing.get(i));
+        }
+      }
+    }
+
+    private final void push(Context context) {
+      if (this.size == this.path.length) {
+        this.path = Arrays.copyOf(this.path, this.size * 2);
+      }
+      this.path[this.size++] = context;
+
+      Positions forKey = this.positions.get(context.key);
+      if (forKey == null) {
+        forKey = new Positions();
+        this.positions.put(context.key, forKey);
+      }
+      forKey.push(context);
+    }
+
+    private final void pop() {
+      Context context = this.path[--this.size];
+      this.path[this.size] = null;
+      this.positions.get(context.key).pop(context);
+    }
+
+    final int lookupPosition(Context context, String key, long index) {
+      this.moveTo(context);
+      Positions forKey = this.positions.get(key);
+
+      if (forKey == null || index >= forKey.entryCount) {
+        return -1;
+      }
+
+      return forKey.entries[forKey.entryCount - 1 - (int) index];
+    }
+
+    final Expr lookup(Context context, String key, long index) {
+      this.moveTo(context);
+      Positions forKey = this.positions.get(key);
+
+      if (forKey == null || index >= forKey.entryCount) {
+        return null;
+      }
+
+      Context entry = this.path[forKey.entries[forKey.entryCount - 1 - (int) index]];
+
+      if (entry.freeVariableNames == null) {
+        entry.freeVariableNames = FreeVariableNames.apply(entry.value);
+      }
+
+      Expr result = entry.value;
+
+      for (String name : entry.freeVariableNames) {
+        Positions forName = this.positions.get(name);
+
+        if (forName != null) {
+          int change = forName.changeSince(entry.position);
+
+          if (change != 0) {
+            result = result.accept(new Shift(change, name));
+          }
+        }
+      }
+
+      return result;
     }
   }
 
-  public static final Context EMPTY = new Context(null, null, null);
+  /** The positions of the entries and shifts for a single name on the current path. */
+  private static final class Positions {
+    private int[] entries = new int[4];
+    private int entryCount = 0;
+    private int[] shifts = new int[4];
+    // The sum of all changes up to and including the shift at the same index.
+    private int[] shiftTotals = new int[4];
+    private int shiftCount = 0;
+
+    final void push(Context context) {
+      if (context.change == 0) {
+        if (this.entryCount == this.entries.length) {
+          this.entries = Arrays.copyOf(this.entries, this.entryCount * 2);
+        }
+        this.entries[this.entryCount++] = context.position;
+      } else {
+        if (this.shiftCount == this.shifts.length) {
+          this.shifts = Arrays.copyOf(this.shifts, this.shiftCount * 2);
+          this.shiftTotals = Arrays.copyOf(this.shiftTotals, this.shiftCount * 2);
+        }
+        int previousTotal = (this.shiftCount == 0) ? 0 : this.shiftTotals[this.shiftCount - 1];
+        this.shifts[this.shiftCount] = context.position;
+        this.shiftTotals[this.shiftCount++] = previousTotal + context.change;
+      }
+    }
+
+    final void pop(Context context) {
+      if (context.change == 0) {
+        this.entryCount -= 1;
+      } else {
+        this.shiftCount -= 1;
+      }
+    }
+
+    /** The total change of all shifts after the given position. */
+    final int changeSince(int position) {
+      if (this.shiftCount == 0) {
+        return 0;
+      }
+
+      int total = this.shiftTotals[this.shiftCount - 1];
+      // Find the last shift before the given position.
+      int i = Arrays.binarySearch(this.shifts, 0, this.shiftCount, position);
+      int before = (i >= 0) ? i - 1 : -i - 2;
+
+      return (before < 0) ? total : total - this.shiftTotals[before];
+    }
+  }
 }
@@ -0,0 +1,69 @@
+package org.dhallj.core.typechecking;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.dhallj.core.Expr;
+import org.dhallj.core.Visitor;
+
+/**
+ * Collects the names of all variables that occur free in an expression.
+ *
+ * <p>Note that this visitor maintains internal state and instances should not be reused.
+ */
+final class FreeVariableNames extends Visitor.Constant<Void> {
+  private final Map<String, Integer> bound = new HashMap<String, Integer>();
+  private final Set<String> names = new HashSet<String>();
+
+  FreeVariableNames() {
+    super(null);
+  }
+
+  static final Set<String> apply(Expr expr) {
+    FreeVariableNames visitor = new FreeVariableNames();
+    expr.accept(visitor);
+    return visitor.names;
+  }
+
+  private final void unbind(String name) {
+    this.bound.put(name, this.bound.get(name) - 1);
+  }
+
+  @Override
+  public void bind(String name, Expr type) {
+    Integer count = this.bound.get(name);
+    this.bound.put(name, (count == null) ? 1 : count + 1);
+  }
+
+  @Override
+  public Void onIdentifier(Expr self, String name, long index) {
+    Integer count = this.bound.get(name);
+
+    if (count == null || index >= count) {
+      this.names.add(name);
+    }
+    return null;
+  }
+
+  @Override
+  public Void onLambda(String name, Void type, Void result) {
+    this.unbind(name);
+    return null;
+  }
+
+  @Override
+  public Void onPi(String name, Void type, Void result) {
+    this.unbind(name);
+    return null;
+  }
+
+  @Override
+  public Void onLet(List<Expr.LetBinding<Void>> bindings, Void body) {
+    for (Expr.LetBinding<Void> binding : bindings) {
+      this.unbind(binding.getName());
+    }
+    return null;
+  }
+}
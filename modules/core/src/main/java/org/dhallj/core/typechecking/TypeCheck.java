@@ -10,6 +10,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -17,6 +18,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import org.dhallj.core.Expr;
 import org.dhallj.core.ExternalVisitor;
 import org.dhallj.core.Operator;
@@ -26,15 +30,291 @@ import org.dhallj.core.normalization.BetaNormalize;
 
 public final class TypeCheck implements ExternalVisitor<Expr> {
   private Context context;
+  private final Cache cache;
+  // The smallest context position looked up while inferring the current subexpression.
+  private int minLookupPosition = Integer.MAX_VALUE;
+  // The types (or failures) of subexpressions inferred in memoContext, keyed by identity.
+  private Context memoContext = null;
+  private Map<Expr, Inferred> memo = null;
+  // Record types built by onRecord from normalized field types, which are already in normal form.
+  private final Map<Expr, Boolean> normalTypes = new IdentityHashMap<Expr, Boolean>();
+  // The pool in which the children of wide expressions are checked, or null if there isn't one.
+  private final ForkJoinPool pool;
+  private final int parallelThreshold;
+
+  /**
+   * Create a checker that infers the types of the children of expressions with at least {@code
+   * parallelThreshold} same-context children (in practice record literals, record types, union
+   * types, and lists) in parallel in the given pool.
+   *
+   * <p>Only children that aren't literals, built-ins, or variables are counted and checked in
+   * parallel, since the others are cheaper to check than to schedule.
+   *
+   * <p>The results are joined in order before the parent is checked, so the inferred types and any
+   * failures are the same as when checking sequentially. Only the children of a single expression
+   * are checked together, so small thresholds aren't useful: each child should be worth a task.
+   */
+  public TypeCheck(Context context, Cache cache, ForkJoinPool pool, int parallelThreshold) {
+    this.context = context;
+    this.cache = cache;
+    this.pool = pool;
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  public TypeCheck(Context context, Cache cache) {
+    this(context, cache, null, Integer.MAX_VALUE);
+  }
 
   public TypeCheck(Context context) {
-    this.context = context;
+    this(context, null);
   }
 
   public TypeCheck() {
     this(Context.EMPTY);
   }
 
+  /**
+   * A cache of the inferred types of subexpressions that don't refer to any variables bound
+   * outside of them, keyed by identity.
+   *
+   * <p>This is useful when the same expression instances appear in many places (as in the
+   * heavily-shared trees built by {@code Prelude}), or when many expressions that share
+   * subexpressions are type-checked with the same cache. Note that the cache holds strong
+   * references to both the expressions and their types, and is never cleared automatically.
+   */
+  public static final class Cache {
+    private final Map<Expr, Expr> types = new IdentityHashMap<Expr, Expr>();
+    private long hits = 0;
+    private long misses = 0;
+
+    final synchronized Expr get(Expr expr) {
+      Expr type = this.types.get(expr);
+
+      if (type != null) {
+        this.hits += 1;
+      } else {
+        this.misses += 1;
+      }
+      return type;
+    }
+
+    final synchronized void put(Expr expr, Expr type) {
+      this.types.put(expr, type);
+    }
+
+    /** The number of lookups that found a cached type. */
+    public final synchronized long getHits() {
+      return this.hits;
+    }
+
+    /** The number of lookups that didn't find a cached type. */
+    public final synchronized long getMisses() {
+      return this.misses;
+    }
+
+    public final synchronized int size() {
+      return this.types.size();
+    }
+
+    /** Remove all cached types and reset the counters. */
+    public final synchronized void clear() {
+      this.types.clear();
+      this.hits = 0;
+      this.misses = 0;
+    }
+  }
+
+  /**
+   * Infer the type of the given expression, using the cache if there is one.
+   *
+   * <p>This doesn't recurse on the Java stack for subexpressions that are checked in the same
+   * context as their parent (operands, arguments, record fields, list elements, etc.). They're
+   * visited in post-order from an explicit work stack and their types are remembered by identity,
+   * so that when a node's callback infers the types of its children they're already known. Only the
+   * bodies of lambdas and Pi types (which are checked in an extended context) use the Java stack.
+   */
+  public final Expr infer(Expr expr) {
+    if (this.memoContext == this.context) {
+      return this.inferInContext(expr);
+    }
+
+    Context outerMemoContext = this.memoContext;
+    Map<Expr, Inferred> outerMemo = this.memo;
+    this.memoContext = this.context;
+    this.memo = new IdentityHashMap<Expr, Inferred>();
+
+    try {
+      return this.inferInContext(expr);
+    } finally {
+      this.memoContext = outerMemoContext;
+      this.memo = outerMemo;
+    }
+  }
+
+  private final Expr inferInContext(Expr expr) {
+    Inferred inferred = this.memo.get(expr);
+
+    if (inferred == null) {
+      this.run(expr);
+      inferred = this.memo.get(expr);
+    }
+
+    this.minLookupPosition = Math.min(this.minLookupPosition, inferred.minLookupPosition);
+
+    if (inferred.failure != null) {
+      throw inferred.failure;
+    }
+    return inferred.type;
+  }
+
+  /** Infer the types of the expression and its same-context subexpressions, deepest first. */
+  private final void run(Expr root) {
+    WorkStack stack = new WorkStack();
+    stack.push(root);
+
+    while (stack.size > 0) {
+      Expr expr = stack.exprs[stack.size - 1];
+
+      if (!stack.expanded[stack.size - 1]) {
+        stack.expanded[stack.size - 1] = true;
+
+        // The shared cache is consulted for every occurrence, before this run's memo.
+        if (this.cache != null) {
+          Expr cached = this.cache.get(expr);
+
+          if (cached != null) {
+            this.memo.put(expr, new Inferred(cached, null, Integer.MAX_VALUE));
+            stack.pop();
+            continue;
+          }
+        }
+
+        if (this.memo.containsKey(expr)) {
+          // This node also appeared earlier in the walk.
+          stack.pop();
+        } else {
+          int childStart = stack.size;
+          expr.accept(stack);
+          // Reversed so that children are visited in the order the callbacks look at them.
+          stack.reverse(childStart);
+
+          if (this.pool != null
+              && stack.size - childStart >= this.parallelThreshold
+              && stack.countNonTrivial(childStart) >= this.parallelThreshold) {
+            this.inferInParallel(stack, childStart);
+          }
+        }
+      } else {
+        stack.pop();
+        Inferred inferred = this.compute(expr);
+        this.memo.put(expr, inferred);
+
+        if (inferred.failure != null) {
+          // The parent will usually fail on this child without looking at its later siblings, so
+          // they're left to be inferred on demand (if the parent's callback does ask for them).
+          stack.popUnexpanded();
+        }
+      }
+    }
+  }
+
+  /**
+   * Infer the types of the non-trivial children on the stack above the given position in parallel,
+   * and remember them in place of visiting them (the trivial ones are left on the stack).
+   */
+  private final void inferInParallel(WorkStack stack, int childStart) {
+    List<InferTask> tasks = new ArrayList<InferTask>(stack.size - childStart);
+    List<Expr> trivial = new ArrayList<Expr>();
+    Map<Expr, Boolean> seen = new IdentityHashMap<Expr, Boolean>();
+
+    for (int i = childStart; i < stack.size; i++) {
+      Expr child = stack.exprs[i];
+
+      if (child.accept(Trivial.instance)) {
+        trivial.add(child);
+      } else if (!this.memo.containsKey(child) && seen.put(child, Boolean.TRUE) == null) {
+        // Each task gets its own copy of the context so that lookups don't contend for its index.
+        TypeCheck checker =
+            new TypeCheck(this.context.copy(), this.cache, this.pool, this.parallelThreshold);
+        tasks.add(new InferTask(checker, child));
+      }
+    }
+
+    while (stack.size > childStart) {
+      stack.pop();
+    }
+    for (Expr child : trivial) {
+      stack.push(child);
+    }
+
+    if (ForkJoinTask.getPool() == this.pool) {
+      ForkJoinTask.invokeAll(tasks);
+    } else {
+      final List<InferTask> allTasks = tasks;
+      this.pool.invoke(
+          new RecursiveAction() {
+            protected void compute() {
+              invokeAll(allTasks);
+            }
+          });
+    }
+
+    for (InferTask task : tasks) {
+      this.memo.put(task.expr, task.result);
+      this.normalTypes.putAll(task.checker.normalTypes);
+    }
+  }
+
+  /** Infers the type of an expression with a new checker, without throwing on failure. */
+  private static final class InferTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final TypeCheck checker;
+    final Expr expr;
+    Inferred result;
+
+    InferTask(TypeCheck checker, Expr expr) {
+      this.checker = checker;
+      this.expr = expr;
+    }
+
+    protected void compute() {
+      this.checker.memoContext = this.checker.context;
+      this.checker.memo = new IdentityHashMap<Expr, Inferred>();
+      this.checker.run(this.expr);
+      this.result = this.checker.memo.get(this.expr);
+    }
+  }
+
+  private final Inferred compute(Expr expr) {
+    int outerMinLookupPosition = this.minLookupPosition;
+    this.minLookupPosition = Integer.MAX_VALUE;
+
+    try {
+      Expr type = expr.accept(this);
+
+      // If nothing in the current context was looked up, the type doesn't depend on it.
+      if (this.cache != null && this.minLookupPosition >= this.context.size()) {
+        this.cache.put(expr, type);
+      }
+      return new Inferred(type, null, this.minLookupPosition);
+    } catch (RuntimeException failure) {
+      // The failure is reported if and when a parent's callback asks for this type.
+      return new Inferred(null, failure, this.minLookupPosition);
+    } finally {
+      this.minLookupPosition = outerMinLookupPosition;
+    }
+  }
+
+  /** Beta-normalize a type, unless it's one that was built in normal form by this checker. */
+  private final Expr normalizeType(Expr type) {
+    if (this.normalTypes.containsKey(type)) {
+      return type;
+    } else {
+      return type.accept(BetaNormalize.instance);
+    }
+  }
+
   public final Expr onBuiltIn(String name) {
     if (name.equals("Sort")) {
       throw TypeCheckFailure.makeSortError();
@@ -52,6 +332,10 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
     Expr fromContext = this.context.lookup(name, index);
 
     if (fromContext != null) {
+      if (this.cache != null) {
+        this.minLookupPosition =
+            Math.min(this.minLookupPosition, this.context.lookupPosition(name, index));
+      }
       return fromContext;
     } else {
       throw TypeCheckFailure.makeUnboundVariableError(name);
@@ -59,8 +343,8 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onOperatorApplication(Operator operator, Expr lhs, Expr rhs) {
-    Expr lhsType = lhs.accept(this);
-    Expr rhsType = rhs.accept(this);
+    Expr lhsType = this.infer(lhs);
+    Expr rhsType = this.infer(rhs);
     switch (operator) {
       case OR:
       case AND:
@@ -103,7 +387,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
 
         // Type-check the type-level version, although we don't use the result;
         try {
-          combineTypes.accept(this);
+          this.infer(combineTypes);
         } catch (TypeCheckFailure e) {
           throw TypeCheckFailure.makeOperatorError(operator);
         }
@@ -145,10 +429,10 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
         }
       case IMPORT_ALT:
         // TODO: Confirm that this is correct.
-        return lhsType.accept(this);
+        return this.infer(lhsType);
       case EQUIVALENT:
-        Expr lhsTypeType = lhsType.accept(this);
-        Expr rhsTypeType = rhsType.accept(this);
+        Expr lhsTypeType = this.infer(lhsType);
+        Expr rhsTypeType = this.infer(rhsType);
 
         if (lhsTypeType != null
             && rhsTypeType != null
@@ -164,7 +448,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
         }
 
       case COMPLETE:
-        return Expr.Util.desugarComplete(lhs, rhs).accept(this);
+        return this.infer(Expr.Util.desugarComplete(lhs, rhs));
       default:
         return null;
     }
@@ -184,7 +468,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
 
   public final Expr onText(String[] parts, Iterable<Expr> interpolated) {
     for (Expr expr : interpolated) {
-      Expr exprType = expr.accept(this);
+      Expr exprType = this.infer(expr);
       if (!isText(exprType)) {
         throw TypeCheckFailure.makeInterpolationError(expr, exprType);
       }
@@ -194,8 +478,8 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onApplication(Expr base, final Expr arg) {
-    Expr baseType = base.accept(this);
-    final Expr argType = arg.accept(this);
+    Expr baseType = this.infer(base);
+    final Expr argType = this.infer(arg);
 
     Expr result =
         baseType.accept(
@@ -231,13 +515,13 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onIf(Expr predicate, Expr thenValue, Expr elseValue) {
-    Expr predicateType = predicate.accept(this);
+    Expr predicateType = this.infer(predicate);
     if (isBool(predicateType)) {
-      Expr thenType = thenValue.accept(this);
-      Expr elseType = elseValue.accept(this);
+      Expr thenType = this.infer(thenValue);
+      Expr elseType = this.infer(elseValue);
 
-      boolean thenValueIsTerm = isType(thenType.accept(this));
-      boolean elseValueIsTerm = isType(elseType.accept(this));
+      boolean thenValueIsTerm = isType(this.infer(thenType));
+      boolean elseValueIsTerm = isType(this.infer(elseType));
 
       if (thenValueIsTerm && elseValueIsTerm) {
         if (thenType.equivalent(elseType)) {
@@ -258,13 +542,17 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onLambda(String param, Expr input, Expr result) {
-    Expr inputType = input.accept(this);
+    Expr inputType = this.infer(input);
     if (Universe.fromExpr(inputType) != null) {
       Context unshiftedContext = this.context;
       Expr inputNormalized = input.accept(BetaNormalize.instance);
       this.context = this.context.insert(param, inputNormalized).increment(param);
-      Expr resultType = result.accept(this);
-      this.context = unshiftedContext;
+      Expr resultType;
+      try {
+        resultType = this.infer(result);
+      } finally {
+        this.context = unshiftedContext;
+      }
       return Expr.makePi(param, inputNormalized, resultType);
     } else {
       throw TypeCheckFailure.makeLambdaInputError(inputType);
@@ -272,11 +560,15 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onPi(String param, Expr input, Expr result) {
-    Expr inputType = input.accept(this);
+    Expr inputType = this.infer(input);
     Context unshiftedContext = this.context;
     this.context = this.context.insert(param, input).increment(param);
-    Expr resultType = result.accept(this);
-    this.context = unshiftedContext;
+    Expr resultType;
+    try {
+      resultType = this.infer(result);
+    } finally {
+      this.context = unshiftedContext;
+    }
 
     Universe inputTypeUniverse = Universe.fromExpr(inputType);
     Universe resultTypeUniverse = Universe.fromExpr(resultType);
@@ -285,7 +577,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onAssert(Expr base) {
-    Expr baseType = base.accept(this);
+    Expr baseType = this.infer(base);
 
     if (isType(baseType)) {
       Expr normalized = base.accept(BetaNormalize.instance);
@@ -298,14 +590,14 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onFieldAccess(Expr base, String fieldName) {
-    Expr baseType = base.accept(this);
+    Expr baseType = this.infer(base);
     List<Entry<String, Expr>> fields = Expr.Util.asRecordType(baseType);
 
     if (fields != null) {
-      for (Entry<String, Expr> field : fields) {
-        if (field.getKey().equals(fieldName)) {
-          return field.getValue();
-        }
+      Expr fieldType = Expr.Util.getRecordTypeField(baseType, fieldName);
+
+      if (fieldType != null) {
+        return fieldType;
       }
       throw TypeCheckFailure.makeFieldAccessRecordMissingError(fieldName);
     } else {
@@ -329,7 +621,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onProjection(Expr base, String[] fieldNames) {
-    List<Entry<String, Expr>> fields = Expr.Util.asRecordType(base.accept(this));
+    List<Entry<String, Expr>> fields = Expr.Util.asRecordType(this.infer(base));
 
     if (fields != null) {
       Map<String, Expr> fieldMap = new HashMap();
@@ -365,7 +657,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onProjectionByType(Expr base, Expr type) {
-    List<Entry<String, Expr>> fields = Expr.Util.asRecordType(base.accept(this));
+    List<Entry<String, Expr>> fields = Expr.Util.asRecordType(this.infer(base));
 
     if (fields == null) {
       throw TypeCheckFailure.makeProjectionError();
@@ -404,14 +696,14 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
       Map<String, Expr> fieldTypes = new TreeMap();
 
       for (Entry<String, Expr> field : fields) {
-        fieldTypes.put(
-            field.getKey(), field.getValue().accept(this).accept(BetaNormalize.instance));
+        fieldTypes.put(field.getKey(), this.normalizeType(this.infer(field.getValue())));
       }
 
       Expr recordType = Expr.makeRecordType(fieldTypes.entrySet());
+      this.normalTypes.put(recordType, Boolean.TRUE);
 
       // The inferred type must also be well-typed.
-      recordType.accept(this);
+      this.infer(recordType);
       return recordType;
     }
   }
@@ -429,7 +721,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
         throw TypeCheckFailure.makeFieldDuplicateError(fieldName);
       }
 
-      Universe universe = Universe.fromExpr(field.getValue().accept(this));
+      Universe universe = Universe.fromExpr(this.infer(field.getValue()));
 
       if (universe != null) {
         max = max.max(universe);
@@ -457,7 +749,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
           Expr alternativeType = field.getValue();
 
           if (alternativeType != null) {
-            Universe universe = Universe.fromExpr(alternativeType.accept(this));
+            Universe universe = Universe.fromExpr(this.infer(alternativeType));
 
             if (universe != null) {
               if (firstUniverse == null) {
@@ -486,13 +778,24 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
 
   public final Expr onNonEmptyList(Iterable<Expr> values, int size) {
     Iterator<Expr> it = values.iterator();
-    Expr firstType = it.next().accept(this);
+    Expr firstType = this.infer(it.next());
+
+    if (isType(this.infer(firstType))) {
+      // Most element types are either the same instance as the first (e.g. constants like
+      // Natural) or have the same structure, so we only normalize when a lockstep comparison
+      // fails, and then we normalize the first type at most once.
+      Expr firstTypeNormalized = null;
 
-    if (isType(firstType.accept(this))) {
       while (it.hasNext()) {
-        Expr elementType = it.next().accept(this);
-        if (!elementType.equivalent(firstType)) {
-          throw TypeCheckFailure.makeListTypeMismatchError(firstType, elementType);
+        Expr elementType = this.infer(it.next());
+
+        if (elementType != firstType && !Expr.Util.alphaEquivalent(elementType, firstType)) {
+          if (firstTypeNormalized == null) {
+            firstTypeNormalized = this.normalizeType(firstType);
+          }
+          if (!Expr.Util.alphaEquivalent(this.normalizeType(elementType), firstTypeNormalized)) {
+            throw TypeCheckFailure.makeListTypeMismatchError(firstType, elementType);
+          }
         }
       }
 
@@ -504,32 +807,117 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
 
   public final Expr onEmptyList(Expr type) {
     // We verify that the type is well-typed.
-    type.accept(this);
+    this.infer(type);
 
     Expr typeNormalized = type.accept(BetaNormalize.instance);
     Expr elementType = Expr.Util.getListArg(typeNormalized);
 
-    if (elementType != null && isType(elementType.accept(this))) {
+    if (elementType != null && isType(this.infer(elementType))) {
       return Expr.makeApplication(Constants.LIST, elementType);
     } else {
       throw TypeCheckFailure.makeListTypeError(elementType);
     }
   }
 
+  /**
+   * Check a chain of {@code let}-bindings.
+   *
+   * <p>Bindings of terms are checked like lambdas: the context is extended with the type of the
+   * value, and the value is only substituted into the type of the body at the end (if it appears
+   * there at all). This keeps long chains linear, since the body isn't rewritten and re-checked
+   * for each binding. Bindings of types and kinds are still substituted into the body, since
+   * checking the body may need their values, and so are terms whose names appear anywhere their
+   * values could end up in a type (see {@link TypeLevelNames}).
+   */
   public final Expr onLet(String name, Expr type, Expr value, Expr body) {
-    Expr valueType = value.accept(this);
+    Set<String> typeLevelNames = TypeLevelNames.apply(body);
+    Context outerContext = this.context;
+    List<String> boundNames = new ArrayList<String>();
+    List<Expr> boundValues = new ArrayList<Expr>();
+    Expr bodyType;
+
+    try {
+      while (true) {
+        Expr valueType = this.infer(value);
+
+        if (type != null) {
+          if (!type.equivalent(valueType)) {
+            throw TypeCheckFailure.makeAnnotationError(type, valueType);
+          }
+        }
+
+        if (!typeLevelNames.contains(name) && isType(this.infer(valueType))) {
+          this.context = this.context.insert(name, this.normalizeType(valueType)).increment(name);
+          boundNames.add(name);
+          boundValues.add(value);
+        } else {
+          // The value may refer to terms bound as variables above, which we have to unfold here.
+          body = body.substitute(name, rebind(value, boundNames, boundValues));
+        }
+
+        Entry<Expr.LetBinding<Expr>, Expr> next = Expr.Util.asLet(body);
+
+        if (next == null) {
+          break;
+        } else {
+          name = next.getKey().getName();
+          type = next.getKey().getType();
+          value = next.getKey().getValue();
+          body = next.getValue();
+        }
+      }
+
+      bodyType = this.infer(body);
+    } finally {
+      this.context = outerContext;
+    }
+
+    return unbind(bodyType, boundNames, boundValues);
+  }
+
+  /** Substitute the bound values (innermost first) into an expression if they appear. */
+  private static final Expr unbind(Expr type, List<String> names, List<Expr> values) {
+    if (names.isEmpty()) {
+      return type;
+    }
+
+    Set<String> freeNames = FreeVariableNames.apply(type);
+    boolean substituted = false;
+
+    for (int i = names.size() - 1; i >= 0; i--) {
+      String name = names.get(i);
+
+      if (freeNames.contains(name)) {
+        type = type.substitute(name, values.get(i).accept(BetaNormalize.instance));
+        freeNames = FreeVariableNames.apply(type);
+        substituted = true;
+      }
+    }
 
-    if (type != null) {
-      if (!type.equivalent(valueType)) {
-        throw TypeCheckFailure.makeAnnotationError(type, valueType);
+    return substituted ? type.accept(BetaNormalize.instance) : type;
+  }
+
+  /**
+   * Unfold the bound values in a let-bound value, and shift it back into the scope of the bound
+   * names (which only matters if it refers to outer variables that they shadow).
+   */
+  private static final Expr rebind(Expr value, List<String> names, List<Expr> values) {
+    Expr result = unbind(value, names, values);
+    Set<String> freeNames = FreeVariableNames.apply(result);
+
+    if (!freeNames.isEmpty()) {
+      for (String name : names) {
+        if (freeNames.contains(name)) {
+          result = result.increment(name);
+        }
       }
     }
 
-    return body.substitute(name, value.accept(BetaNormalize.instance)).accept(this);
+    return result.accept(BetaNormalize.instance);
   }
 
   public final Expr onAnnotated(Expr base, Expr type) {
-    Expr inferredType = base.accept(this);
+    Expr inferredType = this.infer(base);
     if (inferredType.equivalent(type)) {
       return inferredType;
     } else {
@@ -538,7 +926,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onToMap(Expr base, Expr type) {
-    Expr baseType = base.accept(this);
+    Expr baseType = this.infer(base);
     List<Entry<String, Expr>> baseAsRecord = Expr.Util.asRecordType(baseType);
 
     if (baseAsRecord == null) {
@@ -549,7 +937,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
       for (Entry<String, Expr> entry : baseAsRecord) {
         Expr fieldType = entry.getValue();
 
-        if (!isType(fieldType.accept(this))) {
+        if (!isType(this.infer(fieldType))) {
           throw TypeCheckFailure.makeToMapRecordKindError(fieldType);
         } else {
           if (firstType == null) {
@@ -581,7 +969,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
         if (type == null) {
           throw TypeCheckFailure.makeToMapMissingAnnotationError();
         } else {
-          Expr typeType = type.accept(this);
+          Expr typeType = this.infer(type);
 
           if (!isType(typeType)) {
             throw TypeCheckFailure.makeToMapInvalidAnnotationError(type);
@@ -632,14 +1020,14 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onMerge(Expr handlers, Expr union, Expr type) {
-    Expr handlersType = handlers.accept(this);
+    Expr handlersType = this.infer(handlers);
     List<Entry<String, Expr>> handlersTypeFields = Expr.Util.asRecordType(handlersType);
 
     if (handlersTypeFields == null) {
       // The handlers argument is not a record.
       throw TypeCheckFailure.makeMergeHandlersTypeError(handlersType);
     } else {
-      Expr unionType = union.accept(this);
+      Expr unionType = this.infer(union);
       List<Entry<String, Expr>> unionTypeFields = Expr.Util.asUnionType(unionType);
 
       if (unionTypeFields != null) {
@@ -684,7 +1072,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
   }
 
   public final Expr onNote(Expr base, Source source) {
-    return base.accept(this);
+    return this.infer(base);
   }
 
   public final Expr onMissingImport(Expr.ImportMode mode, byte[] hash) {
@@ -747,7 +1135,7 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
       Expr lhsValue = lhsMap.get(entry.getKey());
 
       if (lhsValue != null) {
-        Expr.makeOperatorApplication(Operator.COMBINE_TYPES, lhsValue, rhsValue).accept(this);
+        this.infer(Expr.makeOperatorApplication(Operator.COMBINE_TYPES, lhsValue, rhsValue));
       }
     }
   }
@@ -874,4 +1262,251 @@ public final class TypeCheck implements ExternalVisitor<Expr> {
           return a.getKey().compareTo(b.getKey());
         }
       };
+
+  /** The result of inferring the type of a subexpression. */
+  private static final class Inferred {
+    final Expr type;
+    // Usually a TypeCheckFailure, but any other exception is also deferred to the parent.
+    final RuntimeException failure;
+    final int minLookupPosition;
+
+    Inferred(Expr type, RuntimeException failure, int minLookupPosition) {
+      this.type = type;
+      this.failure = failure;
+      this.minLookupPosition = minLookupPosition;
+    }
+  }
+
+  /** Identifies literals, built-ins, and variables, which aren't worth checking in parallel. */
+  private static final class Trivial extends ExternalVisitor.Constant<Boolean> {
+    static final ExternalVisitor<Boolean> instance = new Trivial();
+
+    Trivial() {
+      super(false);
+    }
+
+    @Override
+    public Boolean onNatural(BigInteger value) {
+      return true;
+    }
+
+    @Override
+    public Boolean onInteger(BigInteger value) {
+      return true;
+    }
+
+    @Override
+    public Boolean onDouble(double value) {
+      return true;
+    }
+
+    @Override
+    public Boolean onBuiltIn(String name) {
+      return true;
+    }
+
+    @Override
+    public Boolean onIdentifier(String name, long index) {
+      return true;
+    }
+
+    @Override
+    public Boolean onText(String[] parts, Iterable<Expr> interpolated) {
+      return parts.length == 1;
+    }
+  }
+
+  /**
+   * The work stack for a single run, which also pushes the children of each node that are checked
+   * in the same context as it.
+   */
+  private static final class WorkStack extends ExternalVisitor.Constant<Void> {
+    Expr[] exprs = new Expr[16];
+    boolean[] expanded = new boolean[16];
+    int size = 0;
+
+    WorkStack() {
+      super(null);
+    }
+
+    final void push(Expr expr) {
+      if (expr == null) {
+        return;
+      }
+      if (this.size == this.exprs.length) {
+        this.exprs = Arrays.copyOf(this.exprs, this.size * 2);
+        this.expanded = Arrays.copyOf(this.expanded, this.size * 2);
+      }
+      this.exprs[this.size] = expr;
+      this.expanded[this.size] = false;
+      this.size += 1;
+    }
+
+    final void pop() {
+      this.size -= 1;
+      this.exprs[this.size] = null;
+    }
+
+    /** Count the expressions on the stack above the given position that aren't trivial. */
+    final int countNonTrivial(int start) {
+      int count = 0;
+
+      for (int i = start; i < this.size; i++) {
+        if (!this.exprs[i].accept(Trivial.instance)) {
+          count += 1;
+        }
+      }
+      return count;
+    }
+
+    /** Reverse the order of the expressions on the stack above the given position. */
+    final void reverse(int start) {
+      for (int i = start, j = this.size - 1; i < j; i++, j--) {
+        Expr expr = this.exprs[i];
+        this.exprs[i] = this.exprs[j];
+        this.exprs[j] = expr;
+      }
+    }
+
+    /** Pop the expressions that haven't been expanded yet, down to the nearest one that has. */
+    final void popUnexpanded() {
+      while (this.size > 0 && !this.expanded[this.size - 1]) {
+        this.pop();
+      }
+    }
+
+    private final Void pushFields(Iterable<Entry<String, Expr>> fields) {
+      for (Entry<String, Expr> field : fields) {
+        this.push(field.getValue());
+      }
+      return null;
+    }
+
+    @Override
+    public Void onNote(Expr base, Source source) {
+      this.push(base);
+      return null;
+    }
+
+    @Override
+    public Void onLambda(String name, Expr input, Expr result) {
+      this.push(input);
+      return null;
+    }
+
+    @Override
+    public Void onPi(String name, Expr input, Expr result) {
+      this.push(input);
+      return null;
+    }
+
+    @Override
+    public Void onLet(String name, Expr type, Expr value, Expr body) {
+      this.push(value);
+      return null;
+    }
+
+    @Override
+    public Void onText(String[] parts, Iterable<Expr> interpolated) {
+      for (Expr expr : interpolated) {
+        this.push(expr);
+      }
+      return null;
+    }
+
+    @Override
+    public Void onNonEmptyList(Iterable<Expr> values, int size) {
+      for (Expr expr : values) {
+        this.push(expr);
+      }
+      return null;
+    }
+
+    @Override
+    public Void onEmptyList(Expr type) {
+      this.push(type);
+      return null;
+    }
+
+    @Override
+    public Void onRecord(Iterable<Entry<String, Expr>> fields, int size) {
+      return this.pushFields(fields);
+    }
+
+    @Override
+    public Void onRecordType(Iterable<Entry<String, Expr>> fields, int size) {
+      return this.pushFields(fields);
+    }
+
+    @Override
+    public Void onUnionType(Iterable<Entry<String, Expr>> fields, int size) {
+      // Alternatives without types are null, and are skipped by push.
+      return this.pushFields(fields);
+    }
+
+    @Override
+    public Void onFieldAccess(Expr base, String fieldName) {
+      this.push(base);
+      return null;
+    }
+
+    @Override
+    public Void onProjection(Expr base, String[] fieldNames) {
+      this.push(base);
+      return null;
+    }
+
+    @Override
+    public Void onProjectionByType(Expr base, Expr type) {
+      this.push(base);
+      return null;
+    }
+
+    @Override
+    public Void onApplication(Expr base, Expr arg) {
+      this.push(base);
+      this.push(arg);
+      return null;
+    }
+
+    @Override
+    public Void onOperatorApplication(Operator operator, Expr lhs, Expr rhs) {
+      this.push(lhs);
+      this.push(rhs);
+      return null;
+    }
+
+    @Override
+    public Void onIf(Expr predicate, Expr thenValue, Expr elseValue) {
+      this.push(predicate);
+      this.push(thenValue);
+      this.push(elseValue);
+      return null;
+    }
+
+    @Override
+    public Void onAnnotated(Expr base, Expr type) {
+      this.push(base);
+      return null;
+    }
+
+    @Override
+    public Void onAssert(Expr base) {
+      this.push(base);
+      return null;
+    }
+
+    @Override
+    public Void onMerge(Expr handlers, Expr union, Expr type) {
+      this.push(handlers);
+      this.push(union);
+      return null;
+    }
+
+    @Override
+    public Void onToMap(Expr base, Expr type) {
+      this.push(base);
+      return null;
+    }
+  }
 }
@@ -0,0 +1,247 @@
+package org.dhallj.core.typechecking;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.dhallj.core.Expr;
+import org.dhallj.core.ExternalVisitor;
+import org.dhallj.core.Operator;
+import org.dhallj.core.Source;
+
+/**
+ * Collects the names of the variables that appear where their values could end up in a type.
+ *
+ * <p>These are type annotations, function input types, function types, empty list types, record
+ * and union types, equivalences and assertions, and anything under {@code merge} or {@code if}
+ * (since they can compute types from values). Arguments of functions other than built-ins are
+ * also included, since the function's type may depend on them. A let-bound term whose name doesn't
+ * appear in these positions can be checked as a variable of its type, without substituting its
+ * value.
+ *
+ * <p>This is conservative: binders and indices are ignored, so a name is collected if any variable
+ * with that name appears in one of these positions. The walk uses an explicit stack.
+ */
+final class TypeLevelNames extends ExternalVisitor.Constant<Void> {
+  private final Set<String> names = new HashSet<String>();
+  private Expr[] exprs = new Expr[16];
+  private boolean[] typeLevel = new boolean[16];
+  private int size = 0;
+  // Whether the expression currently being expanded is in a type-level position.
+  private boolean current = false;
+
+  private TypeLevelNames() {
+    super(null);
+  }
+
+  static final Set<String> apply(Expr expr) {
+    TypeLevelNames visitor = new TypeLevelNames();
+    visitor.push(expr, false);
+
+    while (visitor.size > 0) {
+      visitor.size -= 1;
+      Expr next = visitor.exprs[visitor.size];
+      visitor.current = visitor.typeLevel[visitor.size];
+      visitor.exprs[visitor.size] = null;
+      next.accept(visitor);
+    }
+
+    return visitor.names;
+  }
+
+  private final void push(Expr expr, boolean isTypeLevel) {
+    if (expr == null) {
+      return;
+    }
+    if (this.size == this.exprs.length) {
+      this.exprs = Arrays.copyOf(this.exprs, this.size * 2);
+      this.typeLevel = Arrays.copyOf(this.typeLevel, this.size * 2);
+    }
+    this.exprs[this.size] = expr;
+    this.typeLevel[this.size] = this.current || isTypeLevel;
+    this.size += 1;
+  }
+
+  private final Void pushFields(Iterable<Entry<String, Expr>> fields, boolean isTypeLevel) {
+    for (Entry<String, Expr> field : fields) {
+      this.push(field.getValue(), isTypeLevel);
+    }
+    return null;
+  }
+
+  @Override
+  public Void onNote(Expr base, Source source) {
+    this.push(base, false);
+    return null;
+  }
+
+  @Override
+  public Void onIdentifier(String name, long index) {
+    if (this.current) {
+      this.names.add(name);
+    }
+    return null;
+  }
+
+  @Override
+  public Void onLambda(String name, Expr type, Expr result) {
+    this.push(type, true);
+    this.push(result, false);
+    return null;
+  }
+
+  @Override
+  public Void onPi(String name, Expr type, Expr result) {
+    this.push(type, true);
+    this.push(result, true);
+    return null;
+  }
+
+  @Override
+  public Void onLet(String name, Expr type, Expr value, Expr body) {
+    this.push(type, true);
+    this.push(value, false);
+    this.push(body, false);
+    return null;
+  }
+
+  @Override
+  public Void onText(String[] parts, Iterable<Expr> interpolated) {
+    for (Expr expr : interpolated) {
+      this.push(expr, false);
+    }
+    return null;
+  }
+
+  @Override
+  public Void onNonEmptyList(Iterable<Expr> values, int size) {
+    for (Expr expr : values) {
+      this.push(expr, false);
+    }
+    return null;
+  }
+
+  @Override
+  public Void onEmptyList(Expr type) {
+    this.push(type, true);
+    return null;
+  }
+
+  @Override
+  public Void onRecord(Iterable<Entry<String, Expr>> fields, int size) {
+    return this.pushFields(fields, false);
+  }
+
+  @Override
+  public Void onRecordType(Iterable<Entry<String, Expr>> fields, int size) {
+    return this.pushFields(fields, true);
+  }
+
+  @Override
+  public Void onUnionType(Iterable<Entry<String, Expr>> fields, int size) {
+    return this.pushFields(fields, true);
+  }
+
+  @Override
+  public Void onFieldAccess(Expr base, String fieldName) {
+    this.push(base, false);
+    return null;
+  }
+
+  @Override
+  public Void onProjection(Expr base, String[] fieldNames) {
+    this.push(base, false);
+    return null;
+  }
+
+  @Override
+  public Void onProjectionByType(Expr base, Expr type) {
+    this.push(base, false);
+    this.push(type, true);
+    return null;
+  }
+
+  @Override
+  public Void onApplication(Expr base, Expr arg) {
+    this.push(base, false);
+    // The types of built-ins never depend on the values of their arguments.
+    this.push(arg, !isBuiltInApplication(base));
+    return null;
+  }
+
+  private static final boolean isBuiltInApplication(Expr base) {
+    Expr current = base;
+    Expr next = current.accept(ApplicationBase.instance);
+
+    while (next != null) {
+      current = next;
+      next = current.accept(ApplicationBase.instance);
+    }
+    return Expr.Util.asBuiltIn(current) != null;
+  }
+
+  /** Returns the function of an application, or null for anything else. */
+  private static final class ApplicationBase extends ExternalVisitor.Constant<Expr> {
+    static final ExternalVisitor<Expr> instance = new ApplicationBase();
+
+    ApplicationBase() {
+      super(null);
+    }
+
+    @Override
+    public Expr onApplication(Expr base, Expr arg) {
+      return base;
+    }
+  }
+
+  @Override
+  public Void onOperatorApplication(Operator operator, Expr lhs, Expr rhs) {
+    boolean isTypeLevel = operator.equals(Operator.EQUIVALENT);
+    this.push(lhs, isTypeLevel);
+    this.push(rhs, isTypeLevel);
+    return null;
+  }
+
+  @Override
+  public Void onIf(Expr predicate, Expr thenValue, Expr elseValue) {
+    this.push(predicate, true);
+    this.push(thenValue, true);
+    this.push(elseValue, true);
+    return null;
+  }
+
+  @Override
+  public Void onAnnotated(Expr base, Expr type) {
+    this.push(base, false);
+    this.push(type, true);
+    return null;
+  }
+
+  @Override
+  public Void onAssert(Expr base) {
+    this.push(base, true);
+    return null;
+  }
+
+  @Override
+  public Void onMerge(Expr handlers, Expr union, Expr type) {
+    this.push(handlers, true);
+    this.push(union, true);
+    this.push(type, true);
+    return null;
+  }
+
+  @Override
+  public Void onToMap(Expr base, Expr type) {
+    this.push(base, false);
+    this.push(type, true);
+    return null;
+  }
+
+  @Override
+  public Void onRemoteImport(URI url, Expr using, Expr.ImportMode mode, byte[] hash) {
+    this.push(using, false);
+    return null;
+  }
+}
@@ -0,0 +1,435 @@
+package org.dhallj.imports.mini;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dhallj.core.DhallException.ParsingFailure;
+import org.dhallj.core.Expr;
+import org.dhallj.core.Visitor;
+import org.dhallj.parser.DhallParser;
+
+/**
+ * Resolves imports by first fetching every file the expression needs concurrently, and then
+ * substituting the fetched expressions in a single synchronous pass.
+ *
+ * <p>Local files are read with {@link AsynchronousFileChannel}, and remote imports are fetched on
+ * the given executor, which bounds the number of requests in flight. Each file is fetched and
+ * parsed once, however many times it's imported.
+ */
+final class AsyncResolution implements Future<Expr> {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int TIMEOUT_MILLIS = 30000;
+
+  private final Expr expr;
+  private final boolean integrityChecks;
+  private final Path currentPath;
+  private final ExecutorService executor;
+  private final ConcurrentHashMap<Object, Fetch> fetches = new ConcurrentHashMap<Object, Fetch>();
+  // Starts at one so that the result can't be computed before the root has been scanned.
+  private final AtomicInteger pending = new AtomicInteger(1);
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile Expr result;
+  private volatile Throwable failure;
+
+  private AsyncResolution(
+      Expr expr, boolean integrityChecks, Path currentPath, ExecutorService executor) {
+    this.expr = expr;
+    this.integrityChecks = integrityChecks;
+    this.currentPath = currentPath;
+    this.executor = executor;
+  }
+
+  static Future<Expr> start(
+      Expr expr, boolean integrityChecks, Path currentPath, ExecutorService executor) {
+    AsyncResolution resolution = new AsyncResolution(expr, integrityChecks, currentPath, executor);
+    resolution.scan(expr, currentPath, null);
+    resolution.finishOne();
+    return resolution;
+  }
+
+  static Object key(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+
+  static Object key(URI url) {
+    return url.normalize();
+  }
+
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  public boolean isCancelled() {
+    return false;
+  }
+
+  public boolean isDone() {
+    return this.done.getCount() == 0;
+  }
+
+  public Expr get() throws InterruptedException, ExecutionException {
+    this.done.await();
+    return this.getResult();
+  }
+
+  public Expr get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!this.done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return this.getResult();
+  }
+
+  private Expr getResult() throws ExecutionException {
+    if (this.failure != null) {
+      throw new ExecutionException(this.failure);
+    }
+    return this.result;
+  }
+
+  private void finishOne() {
+    if (this.pending.decrementAndGet() == 0) {
+      try {
+        this.result =
+            Resolver.resolveWithVisitor(
+                this.expr,
+                new Prefetched(
+                    this.currentPath,
+                    null,
+                    this.integrityChecks,
+                    this.fetches,
+                    Collections.<Object>emptyList()));
+      } catch (Throwable e) {
+        this.failure = e;
+      }
+      this.done.countDown();
+    }
+  }
+
+  /** Start fetching every import in the given expression that isn't already being fetched. */
+  private void scan(Expr expr, final Path currentPath, final URI currentUrl) {
+    expr.accept(
+        new Visitor.Identity() {
+          @Override
+          public Expr onLocalImport(Path path, Expr.ImportMode mode, byte[] hash) {
+            if (currentUrl != null) {
+              try {
+                requestRemote(ResolutionVisitor.resolveAgainst(currentUrl, path), mode);
+              } catch (ResolutionVisitor.ReferentialSanityViolation e) {
+                // Reported by the final pass.
+              }
+            } else if (!mode.equals(Expr.ImportMode.LOCATION)) {
+              requestLocal((currentPath == null) ? path : currentPath.resolveSibling(path), mode);
+            }
+            return Expr.makeLocalImport(path, mode, hash);
+          }
+
+          @Override
+          public Expr onRemoteImport(URI url, Expr using, Expr.ImportMode mode, byte[] hash) {
+            requestRemote(url, mode);
+            return Expr.makeRemoteImport(url, using, mode, hash);
+          }
+
+          @Override
+          public Expr onEnvImport(String name, Expr.ImportMode mode, byte[] hash) {
+            if (mode.equals(Expr.ImportMode.CODE)) {
+              String value = System.getenv(name);
+              if (value != null) {
+                try {
+                  scan(DhallParser.parse(value), currentPath, currentUrl);
+                } catch (ParsingFailure e) {
+                  // Reported by the final pass.
+                }
+              }
+            }
+            return Expr.makeEnvImport(name, mode, hash);
+          }
+        });
+  }
+
+  private void requestLocal(final Path path, Expr.ImportMode mode) {
+    Fetch fetch = this.request(key(path), mode, path, null);
+
+    if (fetch != null) {
+      this.readLocal(fetch, path);
+    }
+  }
+
+  private void requestRemote(final URI url, Expr.ImportMode mode) {
+    if (mode.equals(Expr.ImportMode.LOCATION)) {
+      return;
+    }
+
+    final Fetch fetch = this.request(key(url), mode, null, url);
+
+    if (fetch != null) {
+      try {
+        this.executor.execute(
+            new Runnable() {
+              public void run() {
+                String contents;
+                try {
+                  contents = fetchRemote(url);
+                } catch (IOException e) {
+                  fetch.complete(null, e);
+                  return;
+                } catch (RuntimeException e) {
+                  fetch.complete(null, new IOException(e));
+                  return;
+                }
+                fetch.complete(contents, null);
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        fetch.complete(null, new IOException("Executor rejected fetch", e));
+      }
+    }
+  }
+
+  /**
+   * Returns a new fetch that the caller must start, or null if the location is already being
+   * fetched (in which case it will be parsed if this import needs it to be).
+   */
+  private Fetch request(Object key, Expr.ImportMode mode, Path path, URI url) {
+    boolean needsParse = mode.equals(Expr.ImportMode.CODE);
+    Fetch fetch = new Fetch(path, url);
+    Fetch existing = this.fetches.putIfAbsent(key, fetch);
+
+    if (existing == null) {
+      this.pending.incrementAndGet();
+      if (needsParse) {
+        fetch.parseRequested.set(true);
+      }
+      return fetch;
+    } else {
+      if (needsParse && existing.parseRequested.compareAndSet(false, true) && existing.isDone()) {
+        existing.parse();
+      }
+      return null;
+    }
+  }
+
+  private void readLocal(final Fetch fetch, Path path) {
+    final AsynchronousFileChannel channel;
+    final ByteBuffer buffer;
+
+    try {
+      channel =
+          AsynchronousFileChannel.open(
+              path,
+              Collections.singleton(StandardOpenOption.READ),
+              this.executor);
+      buffer = ByteBuffer.allocate((int) channel.size());
+    } catch (IOException e) {
+      fetch.complete(null, e);
+      return;
+    } catch (RejectedExecutionException e) {
+      fetch.complete(null, new IOException("Executor rejected read", e));
+      return;
+    }
+
+    channel.read(
+        buffer,
+        0,
+        null,
+        new CompletionHandler<Integer, Void>() {
+          public void completed(Integer read, Void attachment) {
+            if (read >= 0 && buffer.hasRemaining()) {
+              channel.read(buffer, buffer.position(), null, this);
+            } else {
+              close();
+              buffer.flip();
+              fetch.complete(UTF_8.decode(buffer).toString(), null);
+            }
+          }
+
+          public void failed(Throwable e, Void attachment) {
+            close();
+            fetch.complete(null, (e instanceof IOException) ? (IOException) e : new IOException(e));
+          }
+
+          private void close() {
+            try {
+              channel.close();
+            } catch (IOException e) {
+              // The contents have already been read.
+            }
+          }
+        });
+  }
+
+  private static String fetchRemote(URI url) throws IOException {
+    URLConnection connection = url.toURL().openConnection();
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+
+    if (connection instanceof HttpURLConnection) {
+      int status = ((HttpURLConnection) connection).getResponseCode();
+      if (status < 200 || status >= 300) {
+        ((HttpURLConnection) connection).disconnect();
+        throw new IOException(String.format("Unexpected status %d", status));
+      }
+    }
+
+    InputStream input = connection.getInputStream();
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] chunk = new byte[8192];
+      int read;
+      while ((read = input.read(chunk)) >= 0) {
+        output.write(chunk, 0, read);
+      }
+      return new String(output.toByteArray(), UTF_8);
+    } finally {
+      input.close();
+    }
+  }
+
+  private final class Fetch {
+    final Path path;
+    final URI url;
+    final AtomicBoolean parseRequested = new AtomicBoolean(false);
+    private final AtomicBoolean parseStarted = new AtomicBoolean(false);
+    private volatile boolean done = false;
+    volatile String contents;
+    volatile IOException error;
+    volatile Expr parsed;
+    volatile ParsingFailure parsingFailure;
+
+    Fetch(Path path, URI url) {
+      this.path = path;
+      this.url = url;
+    }
+
+    boolean isDone() {
+      return this.done;
+    }
+
+    void complete(String contents, IOException error) {
+      this.contents = contents;
+      this.error = error;
+      this.done = true;
+
+      try {
+        if (this.parseRequested.get()) {
+          this.parse();
+        }
+      } finally {
+        finishOne();
+      }
+    }
+
+    /** Parse the contents and start fetching their imports, at most once. */
+    void parse() {
+      if (this.contents != null && this.parseStarted.compareAndSet(false, true)) {
+        Expr parsed;
+        try {
+          parsed = DhallParser.parse(this.contents);
+        } catch (ParsingFailure e) {
+          this.parsingFailure = e;
+          return;
+        }
+        scan(parsed, this.path, this.url);
+        this.parsed = parsed;
+      }
+    }
+  }
+
+  /** The final pass, which substitutes fetched expressions without blocking. */
+  private static final class Prefetched extends ResolutionVisitor {
+    private final Path currentPath;
+    private final URI currentUrl;
+    private final ConcurrentHashMap<Object, Fetch> fetches;
+    private final List<Object> chain;
+
+    Prefetched(
+        Path currentPath,
+        URI currentUrl,
+        boolean integrityChecks,
+        ConcurrentHashMap<Object, Fetch> fetches,
+        List<Object> chain) {
+      super(currentPath, currentUrl, integrityChecks);
+      this.currentPath = currentPath;
+      this.currentUrl = currentUrl;
+      this.fetches = fetches;
+      this.chain = chain;
+    }
+
+    protected String readContents(Path path) throws IOException, URISyntaxException {
+      return this.contents(key(path));
+    }
+
+    protected String readRemoteContents(URI url) throws IOException {
+      return this.contents(key(url));
+    }
+
+    protected Expr parse(Object location, String contents) {
+      Object key = (location instanceof Path) ? key((Path) location) : key((URI) location);
+      Fetch fetch = this.fetches.get(key);
+
+      if (fetch != null && fetch.parsingFailure != null) {
+        throw fetch.parsingFailure;
+      } else if (fetch != null && fetch.parsed != null) {
+        return fetch.parsed;
+      } else {
+        return DhallParser.parse(contents);
+      }
+    }
+
+    protected ResolutionVisitor withCurrentPath(Path newCurrentPath) {
+      return new Prefetched(
+          newCurrentPath, null, this.integrityChecks, this.fetches, this.extend(key(newCurrentPath)));
+    }
+
+    protected ResolutionVisitor withCurrentUrl(URI newCurrentUrl) {
+      return new Prefetched(
+          null, newCurrentUrl, this.integrityChecks, this.fetches, this.extend(key(newCurrentUrl)));
+    }
+
+    private List<Object> extend(Object key) {
+      if (this.chain.contains(key)) {
+        throw new CyclicImport(key);
+      }
+      List<Object> extended = new ArrayList<Object>(this.chain.size() + 1);
+      extended.addAll(this.chain);
+      extended.add(key);
+      return extended;
+    }
+
+    private String contents(Object key) throws IOException {
+      Fetch fetch = this.fetches.get(key);
+
+      if (fetch == null) {
+        throw new NoSuchFileException(key.toString());
+      } else if (fetch.error != null) {
+        throw fetch.error;
+      } else {
+        return fetch.contents;
+      }
+    }
+  }
+}
@@ -15,17 +15,46 @@ import org.dhallj.parser.DhallParser;
 
 abstract class ResolutionVisitor extends Visitor.Identity {
   private final Path currentPath;
+  private final URI currentUrl;
   protected final boolean integrityChecks;
 
-  ResolutionVisitor(Path currentPath, boolean integrityChecks) {
+  ResolutionVisitor(Path currentPath, URI currentUrl, boolean integrityChecks) {
     this.currentPath = currentPath;
+    this.currentUrl = currentUrl;
     this.integrityChecks = integrityChecks;
   }
 
+  ResolutionVisitor(Path currentPath, boolean integrityChecks) {
+    this(currentPath, null, integrityChecks);
+  }
+
   protected abstract String readContents(Path path) throws IOException, URISyntaxException;
 
   protected abstract ResolutionVisitor withCurrentPath(Path newCurrentPath);
 
+  protected String readRemoteContents(URI url) throws IOException {
+    throw new UnsupportedOperationException("Remote import resolution not currently supported");
+  }
+
+  protected ResolutionVisitor withCurrentUrl(URI newCurrentUrl) {
+    throw new UnsupportedOperationException("Remote import resolution not currently supported");
+  }
+
+  protected Expr parse(Object location, String contents) {
+    return DhallParser.parse(contents);
+  }
+
+  /** Resolve a local import found in a remote file against that file's URL. */
+  static URI resolveAgainst(URI currentUrl, Path path) {
+    String value = path.toString();
+
+    if (path.isAbsolute() || value.startsWith("~")) {
+      throw new ReferentialSanityViolation(currentUrl, value);
+    } else {
+      return currentUrl.resolve(value.replace('\\', '/'));
+    }
+  }
+
   public void bind(String name, Expr type) {}
 
   @Override
@@ -82,6 +111,10 @@ abstract class ResolutionVisitor extends Visitor.Identity {
 
   @Override
   public Expr onLocalImport(Path path, Expr.ImportMode mode, byte[] hash) {
+    if (this.currentUrl != null) {
+      return this.onRemoteImport(resolveAgainst(this.currentUrl, path), null, mode, hash);
+    }
+
     Expr result;
 
     if (mode.equals(Expr.ImportMode.LOCATION)) {
@@ -105,7 +138,7 @@ abstract class ResolutionVisitor extends Visitor.Identity {
         result = Expr.makeTextLiteral(contents);
       } else {
         try {
-          result = DhallParser.parse(contents).accept(this.withCurrentPath(resolvedPath));
+          result = this.parse(resolvedPath, contents).accept(this.withCurrentPath(resolvedPath));
         } catch (ParsingFailure underlying) {
           throw new WrappedParsingFailure(path.toString(), underlying);
         }
@@ -125,7 +158,23 @@ abstract class ResolutionVisitor extends Visitor.Identity {
               Expr.makeFieldAccess(Expr.Constants.LOCATION_TYPE, "Remote"),
               Expr.makeTextLiteral(url.toString()));
     } else {
-      throw new UnsupportedOperationException("Remote import resolution not currently supported");
+      String contents;
+
+      try {
+        contents = this.readRemoteContents(url);
+      } catch (IOException underlying) {
+        throw new WrappedIOException(url, underlying);
+      }
+
+      if (mode.equals(Expr.ImportMode.RAW_TEXT)) {
+        result = Expr.makeTextLiteral(contents);
+      } else {
+        try {
+          result = this.parse(url, contents).accept(this.withCurrentUrl(url));
+        } catch (ParsingFailure underlying) {
+          throw new WrappedParsingFailure(url.toString(), underlying);
+        }
+      }
     }
 
     return checkHash(result, hash);
@@ -186,6 +235,7 @@ abstract class ResolutionVisitor extends Visitor.Identity {
 
   static final class WrappedIOException extends RuntimeException {
     Path path;
+    URI url;
     Exception underlying;
 
     WrappedIOException(Path path, Exception underlying) {
@@ -193,6 +243,24 @@ abstract class ResolutionVisitor extends Visitor.Identity {
       this.path = path;
       this.underlying = underlying;
     }
+
+    WrappedIOException(URI url, Exception underlying) {
+      super(String.format("Missing remote import %s", url), underlying);
+      this.url = url;
+      this.underlying = underlying;
+    }
+  }
+
+  static final class ReferentialSanityViolation extends RuntimeException {
+    ReferentialSanityViolation(URI url, String path) {
+      super(String.format("Remote import %s can't import local path %s", url, path));
+    }
+  }
+
+  static final class CyclicImport extends RuntimeException {
+    CyclicImport(Object location) {
+      super(String.format("Cyclic import of %s", location));
+    }
   }
 
   static final class Missing extends RuntimeException {
@@ -3,6 +3,10 @@ package org.dhallj.imports.mini;
 import org.dhallj.core.DhallException.ResolutionFailure;
 import org.dhallj.core.Expr;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public final class Resolver {
   public static final Expr resolve(Expr expr, boolean integrityChecks, Path currentPath)
@@ -40,7 +44,49 @@ public final class Resolver {
     return resolveFromResources(expr, true);
   }
 
-  private static final Expr resolveWithVisitor(Expr expr, ResolutionVisitor visitor)
+  /**
+   * Resolve imports from the filesystem and the network without blocking the calling thread.
+   *
+   * <p>Every imported file is fetched concurrently (and only once), with local files read
+   * asynchronously and remote imports fetched as tasks on the given executor, so the size of its
+   * pool bounds the number of requests in flight. Failures are reported as a {@link
+   * ResolutionFailure} wrapped in an {@code ExecutionException}.
+   *
+   * <p>Note that custom headers on remote imports aren't currently supported.
+   */
+  public static final Future<Expr> resolveAsync(
+      Expr expr, boolean integrityChecks, Path currentPath, ExecutorService executor) {
+    return AsyncResolution.start(expr, integrityChecks, currentPath, executor);
+  }
+
+  public static final Future<Expr> resolveAsync(Expr expr, ExecutorService executor) {
+    return resolveAsync(expr, true, null, executor);
+  }
+
+  /**
+   * Resolve imports without blocking, using a shared pool that fetches at most {@link
+   * #DEFAULT_MAX_CONCURRENT_FETCHES} imports at a time.
+   */
+  public static final Future<Expr> resolveAsync(Expr expr) {
+    return resolveAsync(expr, DefaultExecutor.INSTANCE);
+  }
+
+  public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 8;
+
+  private static final class DefaultExecutor {
+    static final ExecutorService INSTANCE =
+        Executors.newFixedThreadPool(
+            DEFAULT_MAX_CONCURRENT_FETCHES,
+            new ThreadFactory() {
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dhallj-imports-mini");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+  }
+
+  static final Expr resolveWithVisitor(Expr expr, ResolutionVisitor visitor)
       throws ResolutionFailure {
     Expr result;
     try {
@@ -55,6 +101,10 @@ public final class Resolver {
       throw new ResolutionFailure(e.getMessage());
     } catch (ResolutionVisitor.IntegrityCheckException e) {
       throw new ResolutionFailure(e.getMessage());
+    } catch (ResolutionVisitor.ReferentialSanityViolation e) {
+      throw new ResolutionFailure(e.getMessage());
+    } catch (ResolutionVisitor.CyclicImport e) {
+      throw new ResolutionFailure(e.getMessage());
     } catch (UnsupportedOperationException e) {
       throw new ResolutionFailure(e.getMessage());
     }
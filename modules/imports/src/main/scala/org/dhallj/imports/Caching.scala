@@ -1,16 +1,39 @@
 package org.dhallj.imports
 
-import java.nio.file.{Files, Path, Paths}
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.{
+  AtomicMoveNotSupportedException,
+  Files,
+  NoSuchFileException,
+  Path,
+  Paths,
+  StandardCopyOption,
+  StandardOpenOption
+}
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.atomic.AtomicLong
 
+import cats.Functor
 import cats.effect.Sync
 import cats.implicits._
 
+import scala.collection.JavaConverters._
+
 private[dhallj] object Caching {
 
   trait ImportsCache[F[_]] {
     def get(key: Array[Byte]): F[Option[Array[Byte]]]
 
     def put(key: Array[Byte], value: Array[Byte]): F[Unit]
+
+    /**
+     * Returns the cached bytes as a read-only buffer, which implementations
+     * may back with a memory-mapped file.
+     */
+    def getBuffer(key: Array[Byte])(implicit F: Functor[F]): F[Option[ByteBuffer]] =
+      get(key).map(_.map(ByteBuffer.wrap(_).asReadOnlyBuffer))
   }
 
   /*
@@ -48,12 +71,189 @@ private[dhallj] object Caching {
     }
   }
 
+  /*
+   * An imports cache that can be shared by many processes.
+   *
+   * Entries are spread over subdirectories named for the first byte of their
+   * hash, and are written to a temporary file that is atomically renamed into
+   * place, so readers never see partial entries. Large entries are read by
+   * mapping them into memory. Once the entries take up more than `maxBytes`,
+   * the least recently used are deleted, using modification times (which are
+   * updated on every hit) so that recency is shared across processes.
+   *
+   * Note that this layout isn't the one specified for the standard Dhall
+   * cache, so the root directory shouldn't be shared with other tools.
+   */
+  final class ShardedImportsCache[F[_]] private[Caching] (rootDir: Path, maxBytes: Long)(implicit F: Sync[F])
+      extends ImportsCache[F] {
+    private[this] val approximateSize: AtomicLong = new AtomicLong(-1)
+
+    override def get(key: Array[Byte]): F[Option[Array[Byte]]] =
+      read(key).map(_.map { buffer =>
+        val bytes = new Array[Byte](buffer.remaining)
+        buffer.get(bytes)
+        bytes
+      })
+
+    override def getBuffer(key: Array[Byte])(implicit Functor: Functor[F]): F[Option[ByteBuffer]] = read(key)
+
+    override def put(key: Array[Byte], value: Array[Byte]): F[Unit] = F.delay {
+      val target = path(key)
+
+      if (Files.exists(target)) touch(target)
+      else {
+        val dir = target.getParent
+        Files.createDirectories(dir)
+        val temp = Files.createTempFile(dir, ".tmp-", "")
+
+        try {
+          Files.write(temp, value)
+          try Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE)
+          catch {
+            case _: AtomicMoveNotSupportedException => Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING)
+          }
+        } finally Files.deleteIfExists(temp)
+
+        if (currentSize().addAndGet(value.length.toLong) > maxBytes) trim()
+      }
+    }
+
+    private[this] def read(key: Array[Byte]): F[Option[ByteBuffer]] = F.delay {
+      val p = path(key)
+
+      try {
+        val channel = FileChannel.open(p, StandardOpenOption.READ)
+        val buffer =
+          try {
+            val size = channel.size
+            if (size >= ShardedImportsCache.MappingThreshold) channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+            else {
+              val buffer = ByteBuffer.allocate(size.toInt)
+              while (buffer.hasRemaining && channel.read(buffer) >= 0) {}
+              buffer.flip()
+              buffer.asReadOnlyBuffer
+            }
+          } finally channel.close()
+
+        touch(p)
+        Some(buffer)
+      } catch {
+        case _: NoSuchFileException => None
+      }
+    }
+
+    // Another process may have trimmed the entry in the meantime, which is fine.
+    private[this] def touch(p: Path): Unit =
+      try Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis))
+      catch {
+        case _: IOException => ()
+      }
+
+    private[this] def currentSize(): AtomicLong = {
+      if (approximateSize.get < 0) approximateSize.compareAndSet(-1, entries().map(_._3).sum)
+      approximateSize
+    }
+
+    // Other processes write to the same directory, so rescan rather than trusting our own count.
+    private[this] def trim(): Unit = synchronized {
+      removeAbandonedTempFiles()
+
+      val all = entries().sortBy(_._2)
+      var total = all.map(_._3).sum
+      val it = all.iterator
+
+      while (total > maxBytes && it.hasNext) {
+        val (p, _, size) = it.next()
+        try {
+          if (Files.deleteIfExists(p)) total -= size
+        } catch {
+          case _: IOException => ()
+        }
+      }
+
+      approximateSize.set(total)
+    }
+
+    // Temporary files are renamed within moments unless their writer died.
+    private[this] def removeAbandonedTempFiles(): Unit = {
+      val cutoff = System.currentTimeMillis - ShardedImportsCache.AbandonedTempFileAge
+
+      shardDirectories().foreach { shard =>
+        val files = Files.newDirectoryStream(shard, ".tmp-*")
+        try files.asScala.foreach { p =>
+          try {
+            if (Files.getLastModifiedTime(p).toMillis < cutoff) Files.deleteIfExists(p)
+          } catch {
+            case _: IOException => ()
+          }
+        } finally files.close()
+      }
+    }
+
+    private[this] def shardDirectories(): List[Path] =
+      if (!Files.isDirectory(rootDir)) Nil
+      else {
+        val shards = Files.newDirectoryStream(rootDir)
+        try shards.asScala.toList.filter(Files.isDirectory(_))
+        finally shards.close()
+      }
+
+    private[this] def entries(): List[(Path, Long, Long)] =
+      shardDirectories().flatMap { shard =>
+        val files = Files.newDirectoryStream(shard, "1220*")
+        try files.asScala.toList.flatMap { p =>
+          try {
+            Some((p, Files.getLastModifiedTime(p).toMillis, Files.size(p)))
+          } catch {
+            case _: IOException => None
+          }
+        } finally files.close()
+      }
+
+    private[this] def path(key: Array[Byte]): Path = {
+      val hex = ShardedImportsCache.toHex(key)
+      rootDir.resolve(hex.substring(0, 2)).resolve(s"1220$hex")
+    }
+  }
+
+  object ShardedImportsCache {
+    // Below this size reading into the heap is cheaper than setting up a mapping.
+    private val MappingThreshold: Long = 64 * 1024
+
+    private val AbandonedTempFileAge: Long = 60 * 60 * 1000
+
+    private[this] val HexDigits: Array[Char] = "0123456789abcdef".toCharArray
+
+    private def toHex(bs: Array[Byte]): String = {
+      val chars = new Array[Char](bs.length * 2)
+      var i = 0
+      while (i < bs.length) {
+        chars(2 * i) = HexDigits((bs(i) >> 4) & 0xf)
+        chars(2 * i + 1) = HexDigits(bs(i) & 0xf)
+        i += 1
+      }
+      new String(chars)
+    }
+  }
+
   def mkImportsCache[F[_] <: AnyRef](rootDir: Path)(implicit F: Sync[F]): F[Option[ImportsCache[F]]] =
     for {
       _ <- if (!Files.exists(rootDir)) F.delay(Files.createDirectories(rootDir)) else F.unit
       perms <- F.delay(Files.isReadable(rootDir) && Files.isWritable(rootDir))
     } yield (if (perms) Some(new ImportsCacheImpl[F](rootDir)) else None)
 
+  /**
+   * Creates a sharded cache in the given directory that trims the least
+   * recently used entries once they take up more than `maxBytes`.
+   */
+  def mkShardedImportsCache[F[_] <: AnyRef](rootDir: Path, maxBytes: Long)(
+    implicit F: Sync[F]
+  ): F[Option[ImportsCache[F]]] =
+    for {
+      _ <- if (!Files.exists(rootDir)) F.delay(Files.createDirectories(rootDir)) else F.unit
+      perms <- F.delay(Files.isReadable(rootDir) && Files.isWritable(rootDir))
+    } yield (if (perms) Some(new ShardedImportsCache[F](rootDir, maxBytes)) else None)
+
   def mkImportsCache[F[_] <: AnyRef](implicit F: Sync[F]): F[ImportsCache[F]] = {
     def makeCacheFromEnvVar(env: String, relativePath: String): F[Option[ImportsCache[F]]] =
       for {
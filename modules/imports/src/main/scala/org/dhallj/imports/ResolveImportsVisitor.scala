@@ -6,7 +6,9 @@ import java.nio.file.Path
 import java.security.MessageDigest
 import java.util.{List => JList, Map => JMap}
 
-import cats.effect.Sync
+import cats.{Applicative, Parallel}
+import cats.effect.{Concurrent, Sync}
+import cats.effect.concurrent.Semaphore
 import cats.implicits._
 import org.dhallj.cats.LiftVisitor
 import org.dhallj.core._
@@ -23,23 +25,25 @@ import org.http4s.Uri.unsafeFromString
 import org.http4s.client.Client
 import org.http4s.{EntityDecoder, Headers, Request}
 
-import scala.collection.mutable.{Map => MMap}
+import scala.collection.concurrent.{Map => CMap, TrieMap}
 
 //TODO quoted path components?
 //TODO proper error handling
 private[dhallj] case class ResolveImportsVisitor[F[_] <: AnyRef](resolutionConfig: ResolutionConfig,
                                                                  cache: ImportsCache[F],
-                                                                 parents: List[ImportContext])(
+                                                                 parents: List[ImportContext],
+                                                                 strategy: Strategy[F],
+                                                                 resolvedCache: ResolvedImportsCache[F])(
   implicit Client: Client[F],
   F: Sync[F]
-) extends LiftVisitor[F](F) {
-  private var duplicateImportsCache: MMap[ImportContext, String] = MMap.empty
+) extends LiftVisitor[F](strategy.applicative) {
+  private var duplicateImportsCache: CMap[ImportContext, String] = TrieMap.empty
 
   override def onOperatorApplication(operator: Operator, lhs: F[Expr], rhs: F[Expr]): F[Expr] =
     if (operator == Operator.IMPORT_ALT)
       lhs.handleErrorWith(_ => rhs)
     else {
-      F.map2(lhs, rhs)(Expr.makeOperatorApplication(operator, _, _))
+      super.onOperatorApplication(operator, lhs, rhs)
     }
 
   override def onLocalImport(path: Path, mode: Expr.ImportMode, hash: Array[Byte]): F[Expr] =
@@ -56,13 +60,13 @@ private[dhallj] case class ResolveImportsVisitor[F[_] <: AnyRef](resolutionConfi
     onImport(Missing, mode, hash)
 
   private def onImport(i: ImportContext, mode: Expr.ImportMode, hash: Array[Byte]): F[Expr] = {
-    def resolve(i: ImportContext, mode: Expr.ImportMode, hash: Array[Byte]): F[(Expr, Headers)] = {
+    def resolve(i: ImportContext, mode: Expr.ImportMode): F[(Expr, Headers)] = {
       def makeLocation(field: String, value: String): F[Expr] =
         F.pure(
           Expr.makeApplication(Expr.makeFieldAccess(Expr.Constants.LOCATION_TYPE, field), Expr.makeTextLiteral(value))
         )
 
-      def resolve(i: ImportContext, hash: Array[Byte]): F[(String, Headers)] = {
+      def resolve(i: ImportContext): F[(String, Headers)] = {
 
         def resolve(i: ImportContext): F[(String, Headers)] =
           for {
@@ -71,7 +75,7 @@ private[dhallj] case class ResolveImportsVisitor[F[_] <: AnyRef](resolutionConfi
               case Some(v) => F.pure(v -> Headers.empty)
               case None =>
                 for {
-                  v <- i match {
+                  v <- strategy.limit(i match {
                     case Env(value) =>
                       for {
                         vO <- F.delay(sys.env.get(value))
@@ -105,42 +109,26 @@ private[dhallj] case class ResolveImportsVisitor[F[_] <: AnyRef](resolutionConfi
                         }
                       } yield resp
                     case Missing => F.raiseError(new ResolutionFailure("Missing import - cannot resolve missing"))
-                  }
+                  })
                   _ <- F.delay(duplicateImportsCache.put(i, v._1))
                 } yield v
             }
           } yield result
 
-        def checkHashesMatch(encoded: Array[Byte], expected: Array[Byte]): F[Unit] = {
-          val hashed = MessageDigest.getInstance("SHA-256").digest(encoded)
-          if (hashed.sameElements(expected)) F.unit
-          else F.raiseError(new ResolutionFailure("Cached expression does not match its hash"))
-        }
-
-        if (hash eq null) resolve(i)
-        else
-          for {
-            bytesO <- cache.get(hash)
-            result <- bytesO.fold(resolve(i))(bs =>
-              for {
-                _ <- checkHashesMatch(bs, hash)
-                r <- F.delay(Decode.decode(bs).toString() -> Headers.empty)
-              } yield r
-            )
-          } yield result
+        resolve(i)
       }
 
       mode match {
         case Expr.ImportMode.CODE =>
           for {
-            v <- resolve(i, hash)
+            v <- resolve(i)
             (s, headers) = v
             e <- F.delay(DhallParser.parse(s))
           } yield e -> headers
         //TODO check if this can be interpolated? The spec isn't very clear
         case Expr.ImportMode.RAW_TEXT =>
           for {
-            v <- resolve(i, hash)
+            v <- resolve(i)
             (s, headers) = v
             e <- F.pure(Expr.makeTextLiteral(s))
           } yield e -> headers
@@ -162,33 +150,57 @@ private[dhallj] case class ResolveImportsVisitor[F[_] <: AnyRef](resolutionConfi
         F.raiseError[Unit](new ResolutionFailure(s"Cyclic import - $imp is already imported in chain $parents"))
       else F.unit
 
-    def validateHash(imp: ImportContext, e: Expr, expected: Array[Byte]): F[Unit] =
-      if (expected eq null) F.unit
+    def validateHash(imp: ImportContext, e: Expr, expected: Array[Byte]): F[Option[Array[Byte]]] =
+      if (expected eq null) F.pure(None)
       else
         for {
           bytes <- F.pure(e.normalize().getEncodedBytes())
           encoded <- F.delay(MessageDigest.getInstance("SHA-256").digest(bytes))
           _ <- if (encoded.sameElements(expected)) F.unit
           else F.raiseError(new ResolutionFailure(s"SHA256 validation exception for ${imp}"))
-          _ <- cache.put(encoded, bytes)
-        } yield ()
+        } yield Some(bytes)
+
+    // Only resolved, type-checked expressions are written to the cache, so a hit can skip
+    // parsing, resolution, and type-checking and only needs its hash validated.
+    def fromCache(expected: Array[Byte]): F[Option[Expr]] =
+      if ((expected eq null) || mode == Expr.ImportMode.LOCATION) F.pure(None)
+      else
+        cache.getBuffer(expected).flatMap {
+          case None => F.pure(None)
+          case Some(buffer) =>
+            val digest = MessageDigest.getInstance("SHA-256")
+            digest.update(buffer.duplicate)
+            if (digest.digest.sameElements(expected)) F.delay(Some(Decode.decode(buffer)))
+            else F.raiseError(new ResolutionFailure("Cached expression does not match its hash"))
+        }
+
+    def resolveAndCheck(imp: ImportContext): F[(Expr, Headers)] =
+      fromCache(hash).flatMap {
+        case Some(cached) => F.pure(cached -> Headers.empty)
+        case None =>
+          for {
+            r <- resolve(imp, mode)
+            (e, headers) = r
+            result <- {
+              val v = ResolveImportsVisitor[F](resolutionConfig, cache, imp :: parents, strategy, resolvedCache)
+              v.duplicateImportsCache = this.duplicateImportsCache
+              e.accept(v)
+            }
+            bytes <- validateHash(imp, result, hash)
+            _ <- F.delay(typeCheck(result))
+            _ <- bytes.fold(F.unit)(cache.put(hash, _))
+          } yield result -> headers
+      }
 
     for {
       imp <- if (parents.isEmpty) canonicalize(resolutionConfig, i)
       else canonicalize(resolutionConfig, parents.head, i)
       _ <- if (parents.nonEmpty) ReferentialSanityCheck(parents.head, imp) else F.unit
-      r <- resolve(imp, mode, hash)
-      (e, headers) = r
-      _ <- if (parents.nonEmpty) CORSComplianceCheck(parents.head, imp, headers) else F.unit
       //TODO do we need to do this based on sha256 instead or something instead? Although parents won't be fully resolved
       _ <- rejectCyclicImports(imp, parents)
-      result <- {
-        val v = ResolveImportsVisitor[F](resolutionConfig, cache, imp :: parents)
-        v.duplicateImportsCache = this.duplicateImportsCache
-        e.accept(v)
-      }
-      _ <- validateHash(imp, result, hash)
-      _ <- F.delay(typeCheck(result))
+      r <- resolvedCache.getOrResolve(parents.headOption, ResolvedImportsCache.Key(imp, mode, hash), resolveAndCheck(imp))
+      (result, headers) = r
+      _ <- if (parents.nonEmpty) CORSComplianceCheck(parents.head, imp, headers) else F.unit
     } yield result
   }
 }
@@ -200,7 +212,82 @@ object ResolveImportsVisitor {
 
   def mkVisitor[F[_] <: AnyRef: Sync: Client](resolutionConfig: ResolutionConfig,
                                               cache: ImportsCache[F]): ResolveImportsVisitor[F] =
-    ResolveImportsVisitor(resolutionConfig, cache, Nil)
+    ResolveImportsVisitor(resolutionConfig, cache, Nil, Strategy.sequential[F], ResolvedImportsCache.Noop[F]())
+
+  def mkVisitor[F[_] <: AnyRef: Sync: Client](resolutionConfig: ResolutionConfig,
+                                              cache: ImportsCache[F],
+                                              resolvedCache: ResolvedImportsCache[F]): ResolveImportsVisitor[F] =
+    ResolveImportsVisitor(resolutionConfig, cache, Nil, Strategy.sequential[F], resolvedCache)
+
+  /**
+   * Creates a visitor that resolves independent sibling imports concurrently.
+   *
+   * At most `parallelism` imports are read or fetched at the same time. The
+   * resolved expression is the same as for sequential resolution, and when
+   * several siblings fail the error reported is the one from the leftmost
+   * import.
+   */
+  def mkParallelVisitor[F[_] <: AnyRef: Concurrent: Parallel: Client](resolutionConfig: ResolutionConfig,
+                                                                      parallelism: Int): F[ResolveImportsVisitor[F]] =
+    Caching.mkImportsCache[F] >>= (c => mkParallelVisitor(resolutionConfig, c, parallelism))
+
+  def mkParallelVisitor[F[_] <: AnyRef: Concurrent: Parallel: Client](resolutionConfig: ResolutionConfig,
+                                                                      cache: ImportsCache[F],
+                                                                      parallelism: Int): F[ResolveImportsVisitor[F]] =
+    mkParallelVisitor(resolutionConfig, cache, parallelism, ResolvedImportsCache.Noop[F]())
+
+  def mkParallelVisitor[F[_] <: AnyRef: Concurrent: Parallel: Client](
+    resolutionConfig: ResolutionConfig,
+    cache: ImportsCache[F],
+    parallelism: Int,
+    resolvedCache: ResolvedImportsCache[F]
+  ): F[ResolveImportsVisitor[F]] =
+    if (parallelism < 1)
+      Concurrent[F].raiseError(new IllegalArgumentException(s"Parallelism must be positive, got $parallelism"))
+    else
+      Semaphore[F](parallelism.toLong).map(s =>
+        ResolveImportsVisitor(resolutionConfig, cache, Nil, Strategy.parallel(s), resolvedCache)
+      )
+
+  /**
+   * Determines how sibling imports are combined and how many reads may be in
+   * flight at once.
+   */
+  sealed abstract class Strategy[F[_]] {
+    def applicative: Applicative[F]
+    def limit[A](fa: F[A]): F[A]
+  }
+
+  object Strategy {
+    def sequential[F[_]](implicit F: Sync[F]): Strategy[F] = new Strategy[F] {
+      def applicative: Applicative[F] = F
+      def limit[A](fa: F[A]): F[A] = fa
+    }
+
+    /**
+     * Note that only the read or fetch of each import holds a permit, never the
+     * resolution of its own imports, so nested imports can't starve their
+     * parents.
+     */
+    def parallel[F[_]](semaphore: Semaphore[F])(implicit F: Concurrent[F], P: Parallel[F]): Strategy[F] =
+      new Strategy[F] {
+        val applicative: Applicative[F] = new Applicative[F] {
+          def pure[A](x: A): F[A] = F.pure(x)
+          def ap[A, B](ff: F[A => B])(fa: F[A]): F[B] = map2(ff, fa)(_(_))
+          override def map[A, B](fa: F[A])(f: A => B): F[B] = F.map(fa)(f)
+          override def map2[A, B, Z](fa: F[A], fb: F[B])(f: (A, B) => Z): F[Z] =
+            F.rethrow(
+              Parallel.parMap2(F.attempt(fa), F.attempt(fb)) { (a, b) =>
+                for {
+                  x <- a
+                  y <- b
+                } yield f(x, y)
+              }
+            )
+        }
+        def limit[A](fa: F[A]): F[A] = semaphore.withPermit(fa)
+      }
+  }
 
   sealed trait ImportContext
   case class Env(value: String) extends ImportContext
@@ -0,0 +1,167 @@
+package org.dhallj.imports
+
+import java.util.{LinkedHashMap, Map => JMap}
+import java.util.concurrent.ConcurrentHashMap
+
+import cats.effect.{Concurrent, ExitCase, Sync}
+import cats.effect.concurrent.Deferred
+import cats.implicits._
+import org.dhallj.core.DhallException.ResolutionFailure
+import org.dhallj.core.Expr
+import org.dhallj.imports.ResolveImportsVisitor.ImportContext
+import org.http4s.Headers
+
+import scala.collection.mutable.{Map => MMap}
+
+/**
+ * A cache of resolved and type-checked imports that can be shared across
+ * resolutions, for example by every request handled by a server.
+ *
+ * Entries are keyed by canonical import location, import mode, and expected
+ * hash. Concurrent requests for the same import are coalesced, so that each
+ * one is fetched, parsed, and type-checked once. Failures aren't cached.
+ *
+ * Note that local and environment imports are cached as well, so changes to
+ * those sources won't be seen until their entries are evicted or the cache is
+ * cleared.
+ */
+sealed abstract class ResolvedImportsCache[F[_]] {
+  private[imports] def getOrResolve(
+    parent: Option[ImportContext],
+    key: ResolvedImportsCache.Key,
+    resolve: F[(Expr, Headers)]
+  ): F[(Expr, Headers)]
+
+  def size: F[Int]
+
+  def clear: F[Unit]
+}
+
+object ResolvedImportsCache {
+
+  /**
+   * Creates a cache that evicts the least recently used entries once it
+   * holds more than `maxEntries` expressions.
+   */
+  def apply[F[_]](maxEntries: Int)(implicit F: Concurrent[F]): F[ResolvedImportsCache[F]] =
+    if (maxEntries < 1)
+      F.raiseError(new IllegalArgumentException(s"Maximum number of entries must be positive, got $maxEntries"))
+    else F.delay(new Impl[F](maxEntries))
+
+  private[imports] case class Key(context: ImportContext, mode: Expr.ImportMode, hash: Option[Vector[Byte]])
+
+  private[imports] object Key {
+    def apply(context: ImportContext, mode: Expr.ImportMode, hash: Array[Byte]): Key =
+      Key(context, mode, Option(hash).map(_.toVector))
+  }
+
+  private[imports] case class Noop[F[_]]()(implicit F: Sync[F]) extends ResolvedImportsCache[F] {
+    private[imports] def getOrResolve(
+      parent: Option[ImportContext],
+      key: Key,
+      resolve: F[(Expr, Headers)]
+    ): F[(Expr, Headers)] = resolve
+
+    def size: F[Int] = F.pure(0)
+
+    def clear: F[Unit] = F.unit
+  }
+
+  private[this] type Result = Either[Throwable, (Expr, Headers)]
+
+  final private class Impl[F[_]](maxEntries: Int)(implicit F: Concurrent[F]) extends ResolvedImportsCache[F] {
+    private[this] val entries: LinkedHashMap[Key, (Expr, Headers)] =
+      new LinkedHashMap[Key, (Expr, Headers)](16, 0.75f, true) {
+        override def removeEldestEntry(eldest: JMap.Entry[Key, (Expr, Headers)]): Boolean = size > maxEntries
+      }
+    private[this] val inFlight: ConcurrentHashMap[Key, Deferred[F, Result]] = new ConcurrentHashMap()
+
+    // Counts the in-progress resolutions in which one import is waiting on another. A coalesced
+    // request that would close a loop in this graph is a cyclic import that the per-resolution
+    // check can't see, and waiting for it would never finish. Only code imports resolve their
+    // own imports, so only they can wait on each other.
+    private[this] val waits: MMap[ImportContext, MMap[ImportContext, Int]] = MMap.empty
+
+    private[imports] def getOrResolve(
+      parent: Option[ImportContext],
+      key: Key,
+      resolve: F[(Expr, Headers)]
+    ): F[(Expr, Headers)] =
+      parent match {
+        case Some(p) if key.mode == Expr.ImportMode.CODE =>
+          F.bracket(addWait(p, key.context))(_ => lookup(key, resolve))(_ => F.delay(removeWait(p, key.context)))
+        case _ => lookup(key, resolve)
+      }
+
+    def size: F[Int] = F.delay(entries.synchronized(entries.size))
+
+    def clear: F[Unit] = F.delay(entries.synchronized(entries.clear()))
+
+    private[this] def lookup(key: Key, resolve: F[(Expr, Headers)]): F[(Expr, Headers)] = F.suspend {
+      val cached = entries.synchronized(entries.get(key))
+
+      if (cached.ne(null)) F.pure(cached)
+      else {
+        val deferred = Deferred.unsafe[F, Result]
+        val existing = inFlight.putIfAbsent(key, deferred)
+
+        if (existing.ne(null)) existing.get.rethrow
+        else {
+          val result = F.guaranteeCase(resolve.attempt) {
+            case ExitCase.Canceled =>
+              F.delay(inFlight.remove(key, deferred)) >>
+                deferred.complete(Left(new ResolutionFailure(s"Resolution of ${key.context} was canceled")))
+            case _ => F.unit
+          }
+
+          result.flatMap { r =>
+            F.delay {
+              r.foreach(value => entries.synchronized(entries.put(key, value)))
+              inFlight.remove(key, deferred)
+            } >> deferred.complete(r) >> F.fromEither(r)
+          }
+        }
+      }
+    }
+
+    private[this] def addWait(from: ImportContext, to: ImportContext): F[Unit] = F.suspend {
+      val cyclic = waits.synchronized {
+        val targets = waits.getOrElseUpdate(from, MMap.empty)
+        targets.update(to, targets.getOrElse(to, 0) + 1)
+        reaches(to, from)
+      }
+
+      if (cyclic) {
+        removeWait(from, to)
+        F.raiseError(new ResolutionFailure(s"Cyclic import - $to is already being imported by $from"))
+      } else F.unit
+    }
+
+    private[this] def removeWait(from: ImportContext, to: ImportContext): Unit = waits.synchronized {
+      waits.get(from).foreach { targets =>
+        targets.get(to).foreach { count =>
+          if (count > 1) targets.update(to, count - 1) else targets.remove(to)
+        }
+        if (targets.isEmpty) waits.remove(from)
+      }
+    }
+
+    private[this] def reaches(start: ImportContext, target: ImportContext): Boolean = {
+      var seen = Set.empty[ImportContext]
+      var stack = List(start)
+
+      while (stack.nonEmpty) {
+        val current = stack.head
+        stack = stack.tail
+
+        if (current == target) return true
+        if (!seen(current)) {
+          seen += current
+          waits.get(current).foreach(targets => stack = targets.keys.toList ::: stack)
+        }
+      }
+
+      false
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.dhallj
 
-import _root_.cats.effect.Sync
+import _root_.cats.Parallel
+import _root_.cats.effect.{Concurrent, Sync}
 import _root_.cats.implicits._
 import org.dhallj.core.Expr
 import org.dhallj.imports.ResolutionConfig.FromFileSystem
@@ -13,6 +14,26 @@ package object imports {
       resolutionConfig: ResolutionConfig = ResolutionConfig(FromFileSystem)
     )(implicit Client: Client[F], F: Sync[F]): F[Expr] =
       ResolveImportsVisitor.mkVisitor(resolutionConfig) >>= (v => e.accept(v))
+
+    /**
+     * Resolves imports, reusing and adding to the resolved expressions in a
+     * cache that may be shared with other resolutions.
+     */
+    def resolveImportsCached[F[_] <: AnyRef](
+      resolvedCache: ResolvedImportsCache[F],
+      resolutionConfig: ResolutionConfig = ResolutionConfig(FromFileSystem)
+    )(implicit Client: Client[F], F: Sync[F]): F[Expr] =
+      Caching.mkImportsCache[F] >>= (c => e.accept(ResolveImportsVisitor.mkVisitor(resolutionConfig, c, resolvedCache)))
+
+    /**
+     * Resolves imports, fetching independent sibling imports concurrently with
+     * at most `parallelism` reads in flight at once.
+     */
+    def resolveImportsInParallel[F[_] <: AnyRef](
+      parallelism: Int,
+      resolutionConfig: ResolutionConfig = ResolutionConfig(FromFileSystem)
+    )(implicit Client: Client[F], F: Concurrent[F], P: Parallel[F]): F[Expr] =
+      ResolveImportsVisitor.mkParallelVisitor(resolutionConfig, parallelism) >>= (v => e.accept(v))
   }
 
 }
@@ -1,11 +1,13 @@
 package org.dhallj.imports
 
 import java.nio.file.{Files, Path, Paths}
+import java.nio.file.attribute.FileTime
 
 import cats.effect.IO
 import cats.implicits._
 import munit.FunSuite
 import org.dhallj.imports.Caching.{ImportsCache, ImportsCacheImpl}
+import scala.collection.JavaConverters._
 import scala.reflect.io.Directory
 
 class CachingSuite extends FunSuite {
@@ -39,4 +41,67 @@ class CachingSuite extends FunSuite {
       assertEquals(prog.unsafeRunSync, Some(bytes))
   }
 
+  val shardedRootDir = new FunFixture[(ImportsCache[IO], Path)](
+    setup = { test =>
+      val rootDir = Files.createTempDirectory(test.name.replace(' ', '-')).resolve("dhall")
+      Caching.mkShardedImportsCache[IO](rootDir, 1000).unsafeRunSync.get -> rootDir
+    },
+    teardown = {
+      case (_, rootDir) =>
+        new Directory(rootDir.toFile).deleteRecursively()
+    }
+  )
+
+  shardedRootDir.test("Sharded get-if-absent") {
+    case (cache, _) =>
+      assertEquals(cache.get(key).unsafeRunSync, None)
+  }
+
+  shardedRootDir.test("Sharded get-if-present") {
+    case (cache, rootDir) =>
+      val prog = cache.put(key, bytes) >> cache.get(key)
+
+      assert(prog.unsafeRunSync.exists(_.sameElements(bytes)))
+      assert(Files.exists(rootDir.resolve("30").resolve("12203066383664")))
+      assertEquals(Files.list(rootDir.resolve("30")).iterator.asScala.size, 1)
+  }
+
+  shardedRootDir.test("Sharded get-buffer maps large entries") {
+    case (_, rootDir) =>
+      val large = Array.tabulate[Byte](100000)(_.toByte)
+      val sharded = Caching.mkShardedImportsCache[IO](rootDir.resolve("large"), 1000000).unsafeRunSync.get
+      val prog = sharded.put(key, large) >> sharded.getBuffer(key)
+
+      val Some(buffer) = prog.unsafeRunSync
+      val read = new Array[Byte](buffer.remaining)
+      buffer.get(read)
+
+      assert(buffer.isDirect)
+      assert(read.sameElements(large))
+  }
+
+  shardedRootDir.test("Sharded cache trims the least recently used entries") {
+    case (cache, rootDir) =>
+      val value = new Array[Byte](400)
+      def keyFor(i: Int): Array[Byte] = Array(i.toByte, 1, 2, 3)
+      def entry(i: Int): Path = {
+        val hex = keyFor(i).map(b => f"$b%02x").mkString
+        rootDir.resolve(hex.take(2)).resolve(s"1220$hex")
+      }
+      def age(i: Int, millis: Long): IO[Unit] =
+        IO(Files.setLastModifiedTime(entry(i), FileTime.fromMillis(System.currentTimeMillis - millis))).void
+
+      val prog = for {
+        _ <- cache.put(keyFor(0), value) >> age(0, 30000)
+        _ <- cache.put(keyFor(1), value) >> age(1, 20000)
+        _ <- cache.get(keyFor(0))
+        _ <- cache.put(keyFor(2), value)
+      } yield ()
+
+      prog.unsafeRunSync
+
+      assert(Files.exists(entry(0)))
+      assert(!Files.exists(entry(1)))
+      assert(Files.exists(entry(2)))
+  }
 }
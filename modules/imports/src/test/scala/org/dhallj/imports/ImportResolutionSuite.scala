@@ -160,6 +160,19 @@ class ImportResolutionSuite extends FunSuite {
     assert((cache.put(hash, encoded) >> resolveWithCustomCache(cache, expr)).unsafeRunSync == expected)
   }
 
+  test("Read from cache, cached value used directly for text imports") {
+    val cache = InMemoryCache()
+
+    val expected = parse("\"let x = 1 in x\"")
+    val encoded = expected.getEncodedBytes
+    val hash = MessageDigest.getInstance("SHA-256").digest(encoded)
+    val hex = hash.map(b => f"$b%02x").mkString
+
+    val expr = parse(s"/does-not-exist sha256:$hex as Text")
+
+    assert((cache.put(hash, encoded) >> resolveWithCustomCache(cache, expr)).unsafeRunSync == expected)
+  }
+
   test("Read from cache, incorrect hash".fail) {
     val cache = InMemoryCache()
 
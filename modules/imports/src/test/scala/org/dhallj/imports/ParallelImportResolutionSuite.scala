@@ -0,0 +1,112 @@
+package org.dhallj.imports
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import cats.effect.{ContextShift, IO, Timer}
+import cats.implicits._
+import munit.FunSuite
+import org.dhallj.core.Expr
+import org.dhallj.imports.Caching.NoopImportsCache
+import org.dhallj.imports.ResolutionConfig._
+import org.dhallj.parser.DhallParser.parse
+import org.http4s.{HttpApp, Response, Status}
+import org.http4s.client._
+
+import scala.concurrent.ExecutionContext.global
+import scala.concurrent.duration._
+
+class ParallelImportResolutionSuite extends FunSuite {
+
+  implicit val cs: ContextShift[IO] = IO.contextShift(global)
+  implicit val timer: Timer[IO] = IO.timer(global)
+
+  private val latency = 200.millis
+
+  private val files = Map(
+    "/a.dhall" -> "1",
+    "/b.dhall" -> "2",
+    "/c.dhall" -> "3",
+    "/d.dhall" -> "4",
+    "/nested.dhall" -> "[ ./a.dhall, ./b.dhall, ./c.dhall, ./d.dhall ]",
+    "/cycle-a.dhall" -> "./cycle-b.dhall",
+    "/cycle-b.dhall" -> "./cycle-a.dhall"
+  )
+
+  private val siblings = parse(
+    "[ https://example.com/a.dhall, https://example.com/b.dhall, https://example.com/c.dhall, https://example.com/d.dhall ]"
+  )
+
+  test("Parallel resolution gives the same result as sequential resolution") {
+    val expr = parse("{ x = https://example.com/nested.dhall, y = https://example.com/a.dhall }")
+
+    val (sequential, _) = withServer(implicit c => expr.resolveImports[IO](ResolutionConfig(FromResources)))
+    val (parallel, _) = withServer(implicit c => resolveInParallel(expr, 4))
+
+    assert(parallel == sequential)
+    assert(parallel.normalize == parse("{ x = [1, 2, 3, 4], y = 1 }").normalize)
+  }
+
+  test("Parallel resolution fetches sibling imports concurrently") {
+    val start = System.nanoTime
+    val (result, maxInFlight) = withServer(implicit c => resolveInParallel(siblings, 4))
+    val elapsed = (System.nanoTime - start).nanos
+
+    assert(result.normalize == parse("[1, 2, 3, 4]").normalize)
+    assert(maxInFlight > 1)
+    assert(elapsed < latency * 4)
+  }
+
+  test("Parallel resolution respects the parallelism limit") {
+    val (result, maxInFlight) = withServer(implicit c => resolveInParallel(siblings, 2))
+
+    assert(result.normalize == parse("[1, 2, 3, 4]").normalize)
+    assert(maxInFlight <= 2)
+  }
+
+  test("Parallel resolution reports the leftmost failure") {
+    val expr = parse("[ https://example.com/a.dhall, https://example.com/missing-1, https://example.com/missing-2 ]")
+
+    val result = intercept[Exception](withServer(implicit c => resolveInParallel(expr, 4)))
+
+    assert(result.getMessage.contains("missing-1"))
+  }
+
+  test("Parallel resolution rejects cyclic imports".fail) {
+    withServer(implicit c => resolveInParallel(parse("https://example.com/cycle-a.dhall"), 4))
+  }
+
+  test("Parallel resolution rejects a non-positive parallelism".fail) {
+    withServer(implicit c => resolveInParallel(siblings, 0))
+  }
+
+  private def resolveInParallel(e: Expr, parallelism: Int)(implicit c: Client[IO]): IO[Expr] =
+    ResolveImportsVisitor
+      .mkParallelVisitor[IO](ResolutionConfig(FromResources), NoopImportsCache[IO](), parallelism)
+      .flatMap(v => e.accept(v))
+
+  /**
+   * Runs the program against an in-process server that serves `files` after a
+   * fixed delay, returning the result and the maximum number of concurrent
+   * requests observed.
+   */
+  private def withServer(program: Client[IO] => IO[Expr]): (Expr, Int) = {
+    val inFlight = new AtomicInteger(0)
+    val maxInFlight = new AtomicInteger(0)
+
+    val app = HttpApp[IO] { req =>
+      val enter = IO {
+        val current = inFlight.incrementAndGet()
+        maxInFlight.accumulateAndGet(current, Math.max(_, _))
+      }
+      val leave = IO(inFlight.decrementAndGet()).void
+
+      (enter >> timer.sleep(latency) >> IO(files.get(req.uri.path))).guarantee(leave).map {
+        case Some(body) => Response[IO](Status.Ok).withEntity(body)
+        case None       => Response[IO](Status.NotFound)
+      }
+    }
+
+    val result = program(Client.fromHttpApp(app)).unsafeRunSync
+    (result, maxInFlight.get)
+  }
+}
@@ -0,0 +1,146 @@
+package org.dhallj.imports
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+import cats.effect.{ContextShift, IO, Timer}
+import cats.implicits._
+import munit.FunSuite
+import org.dhallj.core.DhallException.ResolutionFailure
+import org.dhallj.core.Expr
+import org.dhallj.imports.Caching.NoopImportsCache
+import org.dhallj.imports.ResolutionConfig._
+import org.dhallj.parser.DhallParser.parse
+import org.http4s.{HttpApp, Response, Status}
+import org.http4s.client._
+
+import scala.concurrent.ExecutionContext.global
+import scala.concurrent.duration._
+
+class ResolvedImportsCacheSuite extends FunSuite {
+
+  implicit val cs: ContextShift[IO] = IO.contextShift(global)
+  implicit val timer: Timer[IO] = IO.timer(global)
+
+  private val files = Map(
+    "/package.dhall" -> "{ a = ./a.dhall, b = ./b.dhall }",
+    "/a.dhall" -> "1",
+    "/b.dhall" -> "2",
+    "/cycle-a.dhall" -> "./cycle-b.dhall",
+    "/cycle-b.dhall" -> "./cycle-a.dhall"
+  )
+
+  test("Concurrent resolutions of the same import fetch it once") {
+    val server = new Server(files)
+    val expr = parse("https://example.com/package.dhall")
+
+    val results = (for {
+      cache <- ResolvedImportsCache[IO](16)
+      results <- List.fill(8)(resolve(expr, cache, server)).parSequence
+    } yield results).unsafeRunSync
+
+    assert(results.forall(_.normalize == parse("{ a = 1, b = 2 }").normalize))
+    assertEquals(server.fetches("/package.dhall"), 1)
+    assertEquals(server.fetches("/a.dhall"), 1)
+    assertEquals(server.fetches("/b.dhall"), 1)
+  }
+
+  test("Later resolutions are served from the cache") {
+    val server = new Server(files)
+    val expr = parse("[ https://example.com/a.dhall, https://example.com/package.dhall ]")
+
+    val (first, second, size) = (for {
+      cache <- ResolvedImportsCache[IO](16)
+      first <- resolve(expr, cache, server)
+      second <- resolve(expr, cache, server)
+      size <- cache.size
+    } yield (first, second, size)).unsafeRunSync
+
+    assert(first == second)
+    assertEquals(size, 3)
+    assertEquals(server.fetches("/a.dhall"), 1)
+  }
+
+  test("Least recently used entries are evicted") {
+    val server = new Server(files)
+    val a = parse("https://example.com/a.dhall")
+    val b = parse("https://example.com/b.dhall")
+
+    val size = (for {
+      cache <- ResolvedImportsCache[IO](1)
+      _ <- resolve(a, cache, server)
+      _ <- resolve(b, cache, server)
+      _ <- resolve(a, cache, server)
+      size <- cache.size
+    } yield size).unsafeRunSync
+
+    assertEquals(size, 1)
+    assertEquals(server.fetches("/a.dhall"), 2)
+    assertEquals(server.fetches("/b.dhall"), 1)
+  }
+
+  test("Failures aren't cached") {
+    val server = new Server(Map.empty)
+    val expr = parse("https://example.com/late.dhall")
+
+    val result = (for {
+      cache <- ResolvedImportsCache[IO](16)
+      failed <- resolve(expr, cache, server).attempt
+      _ <- IO(server.add("/late.dhall", "3"))
+      result <- resolve(expr, cache, server)
+    } yield (failed.isLeft, result)).unsafeRunSync
+
+    assertEquals(result, (true, parse("3")))
+  }
+
+  test("Concurrent cyclic imports fail instead of waiting on each other") {
+    val server = new Server(files)
+
+    val results = (for {
+      cache <- ResolvedImportsCache[IO](16)
+      results <- List("cycle-a", "cycle-b")
+        .map(name => resolve(parse(s"https://example.com/$name.dhall"), cache, server).attempt)
+        .parSequence
+    } yield results).timeout(10.seconds).unsafeRunSync
+
+    assert(results.forall {
+      case Left(_: ResolutionFailure) => true
+      case _                          => false
+    })
+  }
+
+  test("Non-positive maximum size".fail) {
+    ResolvedImportsCache[IO](0).unsafeRunSync
+  }
+
+  private def resolve(e: Expr, cache: ResolvedImportsCache[IO], server: Server): IO[Expr] = {
+    implicit val client: Client[IO] = server.client
+
+    e.accept(ResolveImportsVisitor.mkVisitor(ResolutionConfig(FromResources), NoopImportsCache[IO](), cache))
+  }
+
+  /**
+   * An in-process server that serves files after a short delay and counts the
+   * requests for each path.
+   */
+  private class Server(initial: Map[String, String]) {
+    private val contents = new ConcurrentHashMap[String, String]()
+    private val counts = new ConcurrentHashMap[String, AtomicInteger]()
+    initial.foreach { case (path, body) => contents.put(path, body) }
+
+    def add(path: String, body: String): Unit = contents.put(path, body)
+
+    def fetches(path: String): Int = Option(counts.get(path)).fold(0)(_.get)
+
+    val client: Client[IO] = Client.fromHttpApp(HttpApp[IO] { req =>
+      val path = req.uri.path
+
+      IO(counts.computeIfAbsent(path, _ => new AtomicInteger(0)).incrementAndGet()) >>
+        timer.sleep(50.millis) >>
+        IO(Option(contents.get(path))).map {
+          case Some(body) => Response[IO](Status.Ok).withEntity(body)
+          case None       => Response[IO](Status.NotFound)
+        }
+    })
+  }
+}
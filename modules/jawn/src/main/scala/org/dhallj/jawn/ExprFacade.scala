@@ -0,0 +1,106 @@
+package org.dhallj.jawn
+
+import java.math.BigInteger
+import org.dhallj.core.Expr
+import org.dhallj.core.converters.ExprBuilder
+import org.typelevel.jawn.{FContext, Facade, Parser}
+import scala.util.Try
+
+/**
+ * A Jawn facade that builds Dhall expressions directly from parse events.
+ *
+ * If an expected type is given, values are converted according to it as they're parsed, and
+ * parsing fails at the first value that doesn't fit.
+ *
+ * Note that unlike most facades this one is stateful, so a new instance is needed for each parse.
+ */
+final class ExprFacade(expectedType: Option[Expr]) extends Facade[Expr] {
+  def this() = this(None)
+
+  private[this] val builder = new ExprBuilder(expectedType.orNull)
+
+  def jnull(index: Int): Expr = {
+    builder.onNull()
+    builder.getLastValue
+  }
+
+  def jfalse(index: Int): Expr = {
+    builder.onBoolean(false)
+    builder.getLastValue
+  }
+
+  def jtrue(index: Int): Expr = {
+    builder.onBoolean(true)
+    builder.getLastValue
+  }
+
+  def jnum(s: CharSequence, decIndex: Int, expIndex: Int, index: Int): Expr = {
+    if (decIndex < 0 && expIndex < 0) {
+      builder.onNumber(new BigInteger(s.toString))
+    } else {
+      builder.onDouble(java.lang.Double.parseDouble(s.toString))
+    }
+    builder.getLastValue
+  }
+
+  def jstring(s: CharSequence, index: Int): Expr = {
+    builder.onString(s.toString)
+    builder.getLastValue
+  }
+
+  // Values are collected by the builder as they're reported, so the contexts only need to report
+  // strings (which Jawn passes to them directly) and the ends of arrays and objects.
+  def singleContext(index: Int): FContext[Expr] = new FContext[Expr] {
+    def add(s: CharSequence, index: Int): Unit = builder.onString(s.toString)
+    def add(v: Expr, index: Int): Unit = ()
+    def finish(index: Int): Expr = builder.getLastValue
+    def isObj: Boolean = false
+  }
+
+  def arrayContext(index: Int): FContext[Expr] = {
+    builder.onArrayStart()
+
+    new FContext[Expr] {
+      def add(s: CharSequence, index: Int): Unit = builder.onString(s.toString)
+      def add(v: Expr, index: Int): Unit = ()
+      def finish(index: Int): Expr = {
+        builder.onArrayEnd()
+        builder.getLastValue
+      }
+      def isObj: Boolean = false
+    }
+  }
+
+  def objectContext(index: Int): FContext[Expr] = {
+    builder.onObjectStart()
+
+    new FContext[Expr] {
+      private[this] var isKey: Boolean = true
+
+      def add(s: CharSequence, index: Int): Unit = {
+        if (isKey) {
+          builder.onObjectField(s.toString)
+        } else {
+          builder.onString(s.toString)
+        }
+        isKey = !isKey
+      }
+      def add(v: Expr, index: Int): Unit = isKey = true
+      def finish(index: Int): Expr = {
+        builder.onObjectEnd()
+        builder.getLastValue
+      }
+      def isObj: Boolean = true
+    }
+  }
+}
+
+object ExprFacade {
+
+  /**
+   * Parse JSON text directly into a Dhall expression, checking it against the expected type (if
+   * given) as it's parsed.
+   */
+  def parse(input: String, expectedType: Option[Expr] = None): Try[Expr] =
+    Parser.parseFromString(input)(new ExprFacade(expectedType))
+}
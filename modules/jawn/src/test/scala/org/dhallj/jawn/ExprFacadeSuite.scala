@@ -0,0 +1,50 @@
+package org.dhallj.jawn
+
+import munit.ScalaCheckSuite
+import org.dhallj.core.{DhallException, Expr}
+import org.dhallj.parser.DhallParser
+import org.scalacheck.Prop
+
+class ExprFacadeSuite extends ScalaCheckSuite {
+  property("round-trip lists of integers") {
+    Prop.forAll { (values: Vector[BigInt]) =>
+      val tpe = DhallParser.parse("List Integer")
+      val json = values.mkString("[", ",", "]")
+      val code =
+        if (values.isEmpty) "[] : List Integer"
+        else values.map(v => if (v >= 0) s"+$v" else v.toString).mkString("[", ",", "]")
+      val expected = DhallParser.parse(code)
+
+      ExprFacade.parse(json, Some(tpe)).toOption == Some(expected)
+    }
+  }
+
+  test("parse untyped documents like the circe converter") {
+    val expected = DhallParser.parse("{ foo = [{ bar = [1] }, { bar = [] : List {} }], baz = None {}, qux = -1 }")
+    val json = """{"foo": [{"bar": [1]}, {"bar": []}], "baz": null, "qux": -1}"""
+
+    assertEquals(ExprFacade.parse(json).get, expected)
+  }
+
+  test("parse top-level scalars") {
+    assertEquals(ExprFacade.parse("\"foo\"").get, Expr.makeTextLiteral("foo"))
+    assertEquals(ExprFacade.parse("1.5").get, Expr.makeDoubleLiteral(1.5))
+    assertEquals(ExprFacade.parse("true").get, Expr.Constants.TRUE)
+  }
+
+  test("convert according to the expected type") {
+    val tpe = DhallParser.parse("{ name : Text, port : Optional Natural, weight : Double, tags : List Text }")
+    val expected = DhallParser.parse("""{ name = "x", port = None Natural, weight = 1.0, tags = [] : List Text }""")
+    val result = ExprFacade.parse("""{"tags": [], "weight": 1, "name": "x"}""", Some(tpe)).get
+
+    assertEquals(result, expected)
+    assertEquals(Expr.Util.typeCheck(result), tpe.normalize())
+  }
+
+  test("fail on values that don't match the expected type") {
+    val tpe = DhallParser.parse("List { port : Natural }")
+    val result = ExprFacade.parse("""[{"port": 1}, {"port": "80"}]""", Some(tpe))
+
+    assert(result.failed.toOption.exists(_.isInstanceOf[DhallException.ConversionFailure]))
+  }
+}
@@ -7,6 +7,16 @@ import org.dhallj.parser.support.Parser;
 
 /** Parses text input into Dhall expressions. */
 public final class DhallParser {
+  /** The source information attached to parsed expressions. */
+  public enum SourceMode {
+    /** Every subexpression is wrapped in a note with its position and the text it spans. */
+    TEXT,
+    /** Every subexpression is wrapped in a note with only its position. */
+    POSITIONS,
+    /** There are no notes, so the result is the same as an expression built directly. */
+    NONE
+  }
+
   public static Expr.Parsed parse(String input) {
     return Parser.parse(input);
   }
@@ -14,4 +24,22 @@ public final class DhallParser {
   public static Expr.Parsed parse(InputStream input) throws IOException {
     return Parser.parse(input);
   }
+
+  /**
+   * Parse the input, attaching the given source information.
+   *
+   * <p>Notes without text or no notes at all make the parsed expression smaller and faster to
+   * build, which is useful when parsing many (or large, generated) inputs whose text isn't needed.
+   */
+  public static Expr parse(String input, SourceMode mode) {
+    return withMode(Parser.parse(input, mode), mode);
+  }
+
+  public static Expr parse(InputStream input, SourceMode mode) throws IOException {
+    return withMode(Parser.parse(input, mode), mode);
+  }
+
+  private static Expr withMode(Expr.Parsed parsed, SourceMode mode) {
+    return (mode == SourceMode.NONE) ? parsed.getBase() : parsed;
+  }
 }
@@ -4,20 +4,46 @@ import java.io.IOException;
 import java.io.InputStream;
 import org.dhallj.core.DhallException.ParsingFailure;
 import org.dhallj.core.Expr;
+import org.dhallj.parser.DhallParser.SourceMode;
 
 /** Wrapper for the JavaCC-generated parser. */
 public final class Parser {
   public static Expr.Parsed parse(String input) {
-    try {
-      return new JavaCCParser(new StringProvider(input)).TOP_LEVEL();
-    } catch (ParseException underlying) {
-      throw new ParsingFailure(underlying.getMessage(), underlying);
-    }
+    return parse(input, SourceMode.TEXT);
   }
 
   public static Expr.Parsed parse(InputStream input) throws IOException {
+    return parse(input, SourceMode.TEXT);
+  }
+
+  /**
+   * Parse the input, attaching the given kind of source information.
+   *
+   * <p>Note that with {@code SourceMode.NONE} only the root is wrapped in a note.
+   */
+  public static Expr.Parsed parse(String input, SourceMode mode) {
+    return parse(new JavaCCParser(new StringProvider(input)), mode);
+  }
+
+  public static Expr.Parsed parse(InputStream input, SourceMode mode) throws IOException {
+    return parse(new JavaCCParser(new StreamProvider(input)), mode);
+  }
+
+  private static Expr.Parsed parse(JavaCCParser parser, SourceMode mode) {
+    switch (mode) {
+      case POSITIONS:
+        parser.helpers = ParsingHelpers.WITH_POSITIONS;
+        break;
+      case NONE:
+        parser.helpers = ParsingHelpers.WITHOUT_NOTES;
+        break;
+      default:
+        parser.helpers = ParsingHelpers.WITH_TEXT;
+        break;
+    }
+
     try {
-      return new JavaCCParser(new StreamProvider(input)).TOP_LEVEL();
+      return parser.TOP_LEVEL();
     } catch (ParseException underlying) {
       throw new ParsingFailure(underlying.getMessage(), underlying);
     }
@@ -18,27 +18,96 @@ import org.dhallj.core.Operator;
 import org.dhallj.core.Source;
 
 final class ParsingHelpers {
+  static final ParsingHelpers WITH_TEXT = new ParsingHelpers(true, true);
+  static final ParsingHelpers WITH_POSITIONS = new ParsingHelpers(false, true);
+  static final ParsingHelpers WITHOUT_NOTES = new ParsingHelpers(false, false);
 
-  private static Source sourceFromToken(Token token) {
-    return Source.fromString(
-        token.image, token.beginLine, token.beginColumn, token.endLine, token.endColumn);
+  // Whether sources include the text they span, and whether subexpressions keep their notes (if
+  // they don't, only the root is wrapped in a note).
+  private final boolean keepText;
+  private final boolean keepNotes;
+
+  private ParsingHelpers(boolean keepText, boolean keepNotes) {
+    this.keepText = keepText;
+    this.keepNotes = keepNotes;
+  }
+
+  private final Source sourceFromToken(Token token) {
+    if (this.keepText) {
+      return Source.fromString(
+          token.image, token.beginLine, token.beginColumn, token.endLine, token.endColumn);
+    } else {
+      return new PositionSource(token.beginLine, token.beginColumn, token.endLine, token.endColumn);
+    }
+  }
+
+  /** A source without text (used when the text isn't kept, or isn't known). */
+  private final Source sourceFromPositions(
+      int beginLine, int beginColumn, int endLine, int endColumn) {
+    if (this.keepText) {
+      return Source.fromString("", beginLine, beginColumn, endLine, endColumn);
+    } else {
+      return new PositionSource(beginLine, beginColumn, endLine, endColumn);
+    }
+  }
+
+  private final Source sourceFromPositions(Expr.Parsed first, Expr.Parsed last) {
+    return this.sourceFromPositions(
+        first.getSource().getBeginLine(),
+        first.getSource().getBeginColumn(),
+        last.getSource().getEndLine(),
+        last.getSource().getEndColumn());
+  }
+
+  private final Source sourceFromPositions(Token first, Expr.Parsed last) {
+    return this.sourceFromPositions(
+        first.beginLine,
+        first.beginColumn,
+        last.getSource().getEndLine(),
+        last.getSource().getEndColumn());
+  }
+
+  /** The expression to use as a subexpression of a new node. */
+  private final Expr child(Expr expr) {
+    if (this.keepNotes || !(expr instanceof Expr.Parsed)) {
+      return expr;
+    } else {
+      return ((Expr.Parsed) expr).getBase();
+    }
+  }
+
+  private final List<Expr> children(List<? extends Expr> exprs) {
+    List<Expr> result = new ArrayList<>(exprs.size());
+    for (Expr expr : exprs) {
+      result.add(this.child(expr));
+    }
+    return result;
+  }
+
+  private final List<Entry<String, Expr>> childFields(List<Entry<String, Expr.Parsed>> fields) {
+    List<Entry<String, Expr>> result = new ArrayList<>(fields.size());
+    for (Entry<String, Expr.Parsed> field : fields) {
+      Expr value = this.child(field.getValue());
+      result.add(new SimpleImmutableEntry<String, Expr>(field.getKey(), value));
+    }
+    return result;
   }
 
-  static final Expr.Parsed makeDoubleLiteral(Token token) {
+  final Expr.Parsed makeDoubleLiteral(Token token) {
     return new Expr.Parsed(
-        Expr.makeDoubleLiteral(Double.parseDouble(token.image)), sourceFromToken(token));
+        Expr.makeDoubleLiteral(Double.parseDouble(token.image)), this.sourceFromToken(token));
   }
 
-  static final Expr.Parsed makeNaturalLiteral(Token token) {
+  final Expr.Parsed makeNaturalLiteral(Token token) {
     BigInteger value =
         token.image.startsWith("0x")
             ? new BigInteger(token.image.substring(2), 16)
             : new BigInteger(token.image);
 
-    return new Expr.Parsed(Expr.makeNaturalLiteral(value), sourceFromToken(token));
+    return new Expr.Parsed(Expr.makeNaturalLiteral(value), this.sourceFromToken(token));
   }
 
-  static final Expr.Parsed makeIntegerLiteral(Token token) {
+  final Expr.Parsed makeIntegerLiteral(Token token) {
     BigInteger value;
 
     if (token.image.startsWith("0x")) {
@@ -49,7 +118,7 @@ final class ParsingHelpers {
       value = new BigInteger(token.image);
     }
 
-    return new Expr.Parsed(Expr.makeIntegerLiteral(value), sourceFromToken(token));
+    return new Expr.Parsed(Expr.makeIntegerLiteral(value), this.sourceFromToken(token));
   }
 
   private static String unescapeText(String in) {
@@ -76,11 +145,11 @@ final class ParsingHelpers {
     return builder.toString();
   }
 
-  static final Expr.Parsed makeTextLiteral(
+  final Expr.Parsed makeTextLiteral(
       List<Entry<String, Expr.Parsed>> chunks, Token first, Token last) {
     // TODO: fix source.
     Source source =
-        Source.fromString("", first.beginLine, first.beginColumn, last.endLine, last.endColumn);
+        this.sourceFromPositions(first.beginLine, first.beginColumn, last.endLine, last.endColumn);
 
     List<String> parts = new ArrayList<>(1);
     List<Expr> interpolated = new ArrayList<>();
@@ -91,7 +160,7 @@ final class ParsingHelpers {
         if (lastWasInterpolated) {
           parts.add("");
         }
-        interpolated.add(chunk.getValue());
+        interpolated.add(this.child(chunk.getValue()));
         lastWasInterpolated = true;
       } else {
         parts.add(unescapeText(chunk.getKey()));
@@ -104,7 +173,7 @@ final class ParsingHelpers {
     }
 
     return new Expr.Parsed(
-        Expr.makeTextLiteral(parts.toArray(new String[parts.size()]), (List) interpolated), source);
+        Expr.makeTextLiteral(parts.toArray(new String[parts.size()]), interpolated), source);
   }
 
   static final void dedent(String[] input) {
@@ -171,10 +240,10 @@ final class ParsingHelpers {
         .replace("''${", "\\${");
   }
 
-  static final Expr.Parsed makeSingleQuotedTextLiteral(
+  final Expr.Parsed makeSingleQuotedTextLiteral(
       List<Entry<String, Expr.Parsed>> chunks, Token first) {
     // TODO: fix source.
-    Source source = sourceFromToken(first);
+    Source source = this.sourceFromToken(first);
 
     Collections.reverse(chunks);
 
@@ -186,7 +255,7 @@ final class ParsingHelpers {
         if (parts.isEmpty()) {
           parts.add("");
         }
-        interpolated.add(chunk.getValue());
+        interpolated.add(this.child(chunk.getValue()));
       } else {
         if (parts.size() > interpolated.size()) {
           parts.set(parts.size() - 1, parts.get(parts.size() - 1) + chunk.getKey());
@@ -203,49 +272,64 @@ final class ParsingHelpers {
     String[] partArray = parts.toArray(new String[parts.size()]);
     dedent(partArray);
 
-    return new Expr.Parsed(Expr.makeTextLiteral(partArray, (List) interpolated), source);
+    return new Expr.Parsed(Expr.makeTextLiteral(partArray, interpolated), source);
   }
 
-  static final Expr.Parsed makeApplication(Expr.Parsed base, Expr.Parsed arg, Token whsp) {
-    return new Expr.Parsed(Expr.makeApplication(base, arg), new ESESource(base, whsp.image, arg));
+  final Expr.Parsed makeApplication(Expr.Parsed base, Expr.Parsed arg, Token whsp) {
+    Source source =
+        this.keepText
+            ? new ESESource(base, whsp.image, arg)
+            : this.sourceFromPositions(base, arg);
+
+    return new Expr.Parsed(Expr.makeApplication(this.child(base), this.child(arg)), source);
   }
 
-  static final Expr.Parsed makeOperatorApplication(
+  final Expr.Parsed makeOperatorApplication(
       Operator operator,
       Expr.Parsed lhs,
       Expr.Parsed rhs,
       Token operatorToken,
       Token whsp0,
       Token whsp1) {
-    StringBuilder builder = new StringBuilder();
-    if (whsp0 != null) {
-      builder.append(whsp0.image);
-    }
-    builder.append(operatorToken.image);
-    if (whsp1 != null) {
-      builder.append(whsp1.image);
-    }
+    Source source;
 
-    Source source = new ESESource(lhs, builder.toString(), rhs);
+    if (this.keepText) {
+      StringBuilder builder = new StringBuilder();
+      if (whsp0 != null) {
+        builder.append(whsp0.image);
+      }
+      builder.append(operatorToken.image);
+      if (whsp1 != null) {
+        builder.append(whsp1.image);
+      }
+      source = new ESESource(lhs, builder.toString(), rhs);
+    } else {
+      source = this.sourceFromPositions(lhs, rhs);
+    }
 
-    return new Expr.Parsed(Expr.makeOperatorApplication(operator, lhs, rhs), source);
+    return new Expr.Parsed(
+        Expr.makeOperatorApplication(operator, this.child(lhs), this.child(rhs)), source);
   }
 
-  static final Expr.Parsed makeAnnotated(
-      Expr.Parsed base, Expr.Parsed tpe, Token whsp0, Token whsp1) {
-    StringBuilder builder = new StringBuilder();
-    if (whsp0 != null) {
-      builder.append(whsp0.image);
-    }
-    builder.append(':');
-    builder.append(whsp1.image);
+  final Expr.Parsed makeAnnotated(Expr.Parsed base, Expr.Parsed tpe, Token whsp0, Token whsp1) {
+    Source source;
 
-    Source source = new ESESource(base, builder.toString(), tpe);
+    if (this.keepText) {
+      StringBuilder builder = new StringBuilder();
+      if (whsp0 != null) {
+        builder.append(whsp0.image);
+      }
+      builder.append(':');
+      builder.append(whsp1.image);
+      source = new ESESource(base, builder.toString(), tpe);
+    } else {
+      source = this.sourceFromPositions(base, tpe);
+    }
 
-    return new Expr.Parsed(Expr.makeAnnotated(base, tpe), source);
+    return new Expr.Parsed(Expr.makeAnnotated(this.child(base), this.child(tpe)), source);
   }
 
-  static final Expr.Parsed makeToMap(
+  final Expr.Parsed makeToMap(
       Expr.Parsed base, Expr.Parsed tpe, Token first, Token whsp0, Token whsp1, Token whsp2) {
     StringBuilder builder = new StringBuilder();
     if (whsp1 != null) {
@@ -257,7 +341,9 @@ final class ParsingHelpers {
     }
     Source source;
 
-    if (tpe != null) {
+    if (!this.keepText) {
+      source = this.sourceFromPositions(first, (tpe != null) ? tpe : base);
+    } else if (tpe != null) {
       source =
           new SESESource(
               first.image + whsp0.image,
@@ -270,17 +356,19 @@ final class ParsingHelpers {
       source = new SESource(first.image + whsp0.image, base, first.beginLine, first.beginColumn);
     }
 
-    return new Expr.Parsed(Expr.makeToMap(base, tpe), source);
+    return new Expr.Parsed(Expr.makeToMap(this.child(base), this.child(tpe)), source);
   }
 
-  static final Expr.Parsed makeToMap(Expr.Parsed base, Token first, Token whsp) {
+  final Expr.Parsed makeToMap(Expr.Parsed base, Token first, Token whsp) {
     Source source =
-        new SESource(first.image + whsp.image, base, first.beginLine, first.beginColumn);
+        this.keepText
+            ? new SESource(first.image + whsp.image, base, first.beginLine, first.beginColumn)
+            : this.sourceFromPositions(first, base);
 
-    return new Expr.Parsed(Expr.makeToMap(base), source);
+    return new Expr.Parsed(Expr.makeToMap(this.child(base)), source);
   }
 
-  static final Expr.Parsed makeMerge(
+  final Expr.Parsed makeMerge(
       Expr.Parsed left,
       Expr.Parsed right,
       Expr.Parsed tpe,
@@ -291,7 +379,9 @@ final class ParsingHelpers {
       Token whsp3) {
     Source source;
 
-    if (tpe != null) {
+    if (!this.keepText) {
+      source = this.sourceFromPositions(first, (tpe != null) ? tpe : right);
+    } else if (tpe != null) {
       StringBuilder builder = new StringBuilder();
       if (whsp2 != null) {
         builder.append(whsp2.image);
@@ -319,72 +409,56 @@ final class ParsingHelpers {
               first.beginColumn);
     }
 
-    return new Expr.Parsed(Expr.makeMerge(left, right, tpe), source);
+    return new Expr.Parsed(
+        Expr.makeMerge(this.child(left), this.child(right), this.child(tpe)), source);
   }
 
-  static final Expr.Parsed makeLambda(
-      String param, Expr.Parsed input, Expr.Parsed result, Token first) {
+  final Expr.Parsed makeLambda(String param, Expr.Parsed input, Expr.Parsed result, Token first) {
     // TODO: text is empty.
-    Source source =
-        Source.fromString(
-            "",
-            first.beginLine,
-            first.beginColumn,
-            result.getSource().getEndLine(),
-            result.getSource().getEndColumn());
+    Source source = this.sourceFromPositions(first, result);
 
-    return new Expr.Parsed(Expr.makeLambda(param, input, result), source);
+    return new Expr.Parsed(
+        Expr.makeLambda(param, this.child(input), this.child(result)), source);
   }
 
-  static final Expr.Parsed makePi(
-      String param, Expr.Parsed input, Expr.Parsed result, Token first) {
+  final Expr.Parsed makePi(String param, Expr.Parsed input, Expr.Parsed result, Token first) {
     // TODO: text is empty.
-    Source source =
-        Source.fromString(
-            "",
-            first.beginLine,
-            first.beginColumn,
-            result.getSource().getEndLine(),
-            result.getSource().getEndColumn());
+    Source source = this.sourceFromPositions(first, result);
 
-    return new Expr.Parsed(Expr.makePi(param, input, result), source);
+    return new Expr.Parsed(Expr.makePi(param, this.child(input), this.child(result)), source);
   }
 
-  static final Expr.Parsed makePi(Expr.Parsed input, Expr.Parsed result) {
+  final Expr.Parsed makePi(Expr.Parsed input, Expr.Parsed result) {
     // TODO: text is empty.
-    Source source =
-        Source.fromString(
-            "",
-            input.getSource().getBeginLine(),
-            input.getSource().getBeginColumn(),
-            result.getSource().getEndLine(),
-            result.getSource().getEndColumn());
+    Source source = this.sourceFromPositions(input, result);
 
-    return new Expr.Parsed(Expr.makePi(input, result), source);
+    return new Expr.Parsed(Expr.makePi(this.child(input), this.child(result)), source);
   }
 
-  static final Expr.Parsed makeIf(
+  final Expr.Parsed makeIf(
       Expr.Parsed cond, Expr.Parsed thenValue, Expr.Parsed elseValue, Token first) {
     // TODO: text is empty.
-    Source source =
-        Source.fromString(
-            "",
-            first.beginLine,
-            first.beginColumn,
-            elseValue.getSource().getEndLine(),
-            elseValue.getSource().getEndColumn());
+    Source source = this.sourceFromPositions(first, elseValue);
 
-    return new Expr.Parsed(Expr.makeIf(cond, thenValue, elseValue), source);
+    return new Expr.Parsed(
+        Expr.makeIf(this.child(cond), this.child(thenValue), this.child(elseValue)), source);
   }
 
-  static final Expr.Parsed makeLet(List<LetBinding> bindings, Expr.Parsed body, String whsp) {
+  final Expr.Parsed makeLet(List<LetBinding> bindings, Expr.Parsed body, String whsp) {
     Collections.reverse(bindings);
     Expr.Parsed current = body;
     String extraText2 = whsp;
 
     for (LetBinding binding : bindings) {
       Source source;
-      if (binding.type == null) {
+      if (!this.keepText) {
+        source =
+            this.sourceFromPositions(
+                binding.beginLine,
+                binding.beginColumn,
+                current.getSource().getEndLine(),
+                current.getSource().getEndColumn());
+      } else if (binding.type == null) {
         source =
             new SESESource(
                 binding.text1,
@@ -408,67 +482,82 @@ final class ParsingHelpers {
       }
 
       current =
-          new Expr.Parsed(Expr.makeLet(binding.name, binding.type, binding.value, current), source);
+          new Expr.Parsed(
+              Expr.makeLet(
+                  binding.name,
+                  this.child(binding.type),
+                  this.child(binding.value),
+                  this.child(current)),
+              source);
       extraText2 = "";
     }
 
     return current;
   }
 
-  static Expr.Parsed makeAssert(Expr.Parsed base, Token first, Token whsp0, Token whsp1) {
-    StringBuilder builder = new StringBuilder("assert");
-    if (whsp0 != null) {
-      builder.append(whsp0.image);
+  Expr.Parsed makeAssert(Expr.Parsed base, Token first, Token whsp0, Token whsp1) {
+    Source source;
+
+    if (this.keepText) {
+      StringBuilder builder = new StringBuilder("assert");
+      if (whsp0 != null) {
+        builder.append(whsp0.image);
+      }
+      builder.append(':');
+      builder.append(whsp1.image);
+      source = new SESource(builder.toString(), base, first.beginLine, first.beginColumn);
+    } else {
+      source = this.sourceFromPositions(first, base);
     }
-    builder.append(':');
-    builder.append(whsp1.image);
-    Source source = new SESource(builder.toString(), base, first.beginLine, first.beginColumn);
 
-    return new Expr.Parsed(Expr.makeAssert(base), source);
+    return new Expr.Parsed(Expr.makeAssert(this.child(base)), source);
   }
 
-  static Expr.Parsed makeFieldAccess(
+  Expr.Parsed makeFieldAccess(
       Expr.Parsed base, Positioned.Wrapped<String> fieldName, Token whsp0, Token whsp1) {
-    StringBuilder builder = new StringBuilder();
-    if (whsp0 != null) {
-      builder.append(whsp0.image);
-    }
-    builder.append(':');
-    if (whsp1 != null) {
-      builder.append(whsp1.image);
+    Source source;
+
+    if (this.keepText) {
+      StringBuilder builder = new StringBuilder();
+      if (whsp0 != null) {
+        builder.append(whsp0.image);
+      }
+      builder.append(':');
+      if (whsp1 != null) {
+        builder.append(whsp1.image);
+      }
+      source = new ESSource(base, builder.toString(), fieldName.endLine, fieldName.endColumn);
+    } else {
+      source =
+          this.sourceFromPositions(
+              base.getSource().getBeginLine(),
+              base.getSource().getBeginColumn(),
+              fieldName.endLine,
+              fieldName.endColumn);
     }
-    Source source = new ESSource(base, builder.toString(), fieldName.endLine, fieldName.endColumn);
 
-    return new Expr.Parsed(Expr.makeFieldAccess(base, fieldName.value), source);
+    return new Expr.Parsed(Expr.makeFieldAccess(this.child(base), fieldName.value), source);
   }
 
-  static Expr.Parsed makeProjection(
+  Expr.Parsed makeProjection(
       Expr.Parsed base, List<String> fieldNames, int endLine, int endColumn) {
     // TODO: text is empty.
     Source source =
-        Source.fromString(
-            "",
-            base.getSource().getBeginLine(),
-            base.getSource().getBeginColumn(),
-            endLine,
-            endColumn);
+        this.sourceFromPositions(
+            base.getSource().getBeginLine(), base.getSource().getBeginColumn(), endLine, endColumn);
 
     return new Expr.Parsed(
-        Expr.makeProjection(base, fieldNames.toArray(new String[fieldNames.size()])), source);
+        Expr.makeProjection(this.child(base), fieldNames.toArray(new String[fieldNames.size()])),
+        source);
   }
 
-  static Expr.Parsed makeProjectionByType(
-      Expr.Parsed base, Expr.Parsed tpe, int endLine, int endColumn) {
+  Expr.Parsed makeProjectionByType(Expr.Parsed base, Expr.Parsed tpe, int endLine, int endColumn) {
     // TODO: text is empty.
     Source source =
-        Source.fromString(
-            "",
-            base.getSource().getBeginLine(),
-            base.getSource().getBeginColumn(),
-            endLine,
-            endColumn);
+        this.sourceFromPositions(
+            base.getSource().getBeginLine(), base.getSource().getBeginColumn(), endLine, endColumn);
 
-    return new Expr.Parsed(Expr.makeProjectionByType(base, tpe), source);
+    return new Expr.Parsed(Expr.makeProjectionByType(this.child(base), this.child(tpe)), source);
   }
 
   private static final boolean isBuiltIn(String input) {
@@ -479,29 +568,40 @@ final class ParsingHelpers {
     return (input.charAt(0) != '`') ? input : input.substring(1, input.length() - 1);
   }
 
-  static final Expr.Parsed makeBuiltInOrIdentifier(Token value) {
+  final Expr.Parsed makeBuiltInOrIdentifier(Token value) {
     if (isBuiltIn(value.image)) {
-      return new Expr.Parsed(Expr.makeBuiltIn(value.image), sourceFromToken(value));
+      return new Expr.Parsed(Expr.makeBuiltIn(value.image), this.sourceFromToken(value));
     } else {
       return new Expr.Parsed(
-          Expr.makeIdentifier(unescapeLabel(value.image)), sourceFromToken(value));
+          Expr.makeIdentifier(unescapeLabel(value.image)), this.sourceFromToken(value));
     }
   }
 
-  static final Expr.Parsed makeIdentifier(Token value, Token whsp0, Token whsp1, Token index) {
-    StringBuilder builder = new StringBuilder();
-    builder.append(value.image);
-    if (whsp0 != null) {
-      builder.append(whsp0.image);
-    }
-    builder.append("@");
-    if (whsp1 != null) {
-      builder.append(whsp1.image);
+  final Expr.Parsed makeIdentifier(Token value, Token whsp0, Token whsp1, Token index) {
+    Source source;
+
+    if (this.keepText) {
+      StringBuilder builder = new StringBuilder();
+      builder.append(value.image);
+      if (whsp0 != null) {
+        builder.append(whsp0.image);
+      }
+      builder.append("@");
+      if (whsp1 != null) {
+        builder.append(whsp1.image);
+      }
+      builder.append(index.image);
+      source =
+          Source.fromString(
+              builder.toString(),
+              value.beginLine,
+              value.beginColumn,
+              index.endLine,
+              index.endColumn);
+    } else {
+      source =
+          new PositionSource(value.beginLine, value.beginColumn, index.endLine, index.endColumn);
     }
-    builder.append(index.image);
-    Source source =
-        Source.fromString(
-            builder.toString(), value.beginLine, value.beginColumn, index.endLine, index.endColumn);
 
     long indexValue =
         index.image.startsWith("0x")
@@ -511,14 +611,15 @@ final class ParsingHelpers {
     return new Expr.Parsed(Expr.makeIdentifier(unescapeLabel(value.image), indexValue), source);
   }
 
-  static final Expr.Parsed makeRecordLiteral(
+  final Expr.Parsed makeRecordLiteral(
       List<Entry<List<String>, Expr.Parsed>> fields, Token first, Token last) {
     // TODO: Get actual last token in all cases.
     int endLine = (last == null) ? first.endLine : last.endLine;
     int endColumn = (last == null) ? first.endColumn : last.endColumn;
 
     // TODO: text is empty.
-    Source source = Source.fromString("", first.beginLine, first.beginColumn, endLine, endColumn);
+    Source source =
+        this.sourceFromPositions(first.beginLine, first.beginColumn, endLine, endColumn);
 
     List<Entry<String, Expr>> dedotted = new ArrayList<>(fields.size());
 
@@ -526,7 +627,7 @@ final class ParsingHelpers {
       List<String> parts = entry.getKey();
       String firstPart = parts.remove(0);
 
-      Expr maybePunnedValue = entry.getValue();
+      Expr maybePunnedValue = this.child(entry.getValue());
       Expr value;
       if (maybePunnedValue == null) {
         // Record puns can't be dotted.
@@ -575,40 +676,43 @@ final class ParsingHelpers {
     return new Expr.Parsed(Expr.makeRecordLiteral(desugared), source);
   }
 
-  static final Expr.Parsed makeRecordType(
+  final Expr.Parsed makeRecordType(
       List<Entry<String, Expr.Parsed>> fields, Token first, Token last) {
     // TODO: Get actual last token in all cases.
     int endLine = (last == null) ? first.endLine : last.endLine;
     int endColumn = (last == null) ? first.endColumn : last.endColumn;
 
     // TODO: text is empty.
-    Source source = Source.fromString("", first.beginLine, first.beginColumn, endLine, endColumn);
+    Source source =
+        this.sourceFromPositions(first.beginLine, first.beginColumn, endLine, endColumn);
 
-    return new Expr.Parsed(Expr.makeRecordType((List) fields), source);
+    return new Expr.Parsed(Expr.makeRecordType(this.childFields(fields)), source);
   }
 
-  static final Expr.Parsed makeUnionType(
+  final Expr.Parsed makeUnionType(
       List<Entry<String, Expr.Parsed>> fields, Token first, Token last) {
     // TODO: Get actual last token in all cases.
     int endLine = (last == null) ? first.endLine : last.endLine;
     int endColumn = (last == null) ? first.endColumn : last.endColumn;
 
     // TODO: text is empty.
-    Source source = Source.fromString("", first.beginLine, first.beginColumn, endLine, endColumn);
+    Source source =
+        this.sourceFromPositions(first.beginLine, first.beginColumn, endLine, endColumn);
 
-    return new Expr.Parsed(Expr.makeUnionType((List) fields), source);
+    return new Expr.Parsed(Expr.makeUnionType(this.childFields(fields)), source);
   }
 
-  static final Expr.Parsed makeWith(Expr base, List<String> path, Expr.Parsed arg, Token first) {
+  final Expr.Parsed makeWith(Expr base, List<String> path, Expr.Parsed arg, Token first) {
     // TODO: source isn't correct.
-    Source source = sourceFromToken(first);
+    Source source = this.sourceFromToken(first);
 
-    Expr current = arg;
+    Expr target = this.child(base);
+    Expr current = this.child(arg);
 
     for (int i = path.size() - 1; i >= 0; i--) {
       String pathPart = path.get(i);
 
-      Expr selector = base;
+      Expr selector = target;
 
       for (int j = 0; j < i; j++) {
         selector = Expr.makeFieldAccess(selector, path.get(j));
@@ -622,31 +726,36 @@ final class ParsingHelpers {
     return new Expr.Parsed(current, source);
   }
 
-  static final Expr.Parsed makeNonEmptyListLiteral(
+  final Expr.Parsed makeNonEmptyListLiteral(
       List<Expr.Parsed> values, List<String> other, Token first, Token last) {
     Source source =
-        new InterspersedSource(
-            other, values, first.beginLine, first.beginColumn, last.endLine, last.endColumn);
-    return new Expr.Parsed(
-        Expr.makeNonEmptyListLiteral(values.toArray(new Expr.Parsed[values.size()])), source);
+        this.keepText
+            ? new InterspersedSource(
+                other, values, first.beginLine, first.beginColumn, last.endLine, last.endColumn)
+            : new PositionSource(first.beginLine, first.beginColumn, last.endLine, last.endColumn);
+    return new Expr.Parsed(Expr.makeNonEmptyListLiteral(this.children(values)), source);
   }
 
-  static final Expr.Parsed makeEmptyListLiteral(Expr.Parsed tpe, String other, Token first) {
-    Source source = new SESource(other, tpe, first.beginLine, first.beginColumn);
-    return new Expr.Parsed(Expr.makeEmptyListLiteral(tpe), source);
+  final Expr.Parsed makeEmptyListLiteral(Expr.Parsed tpe, String other, Token first) {
+    Source source =
+        this.keepText
+            ? new SESource(other, tpe, first.beginLine, first.beginColumn)
+            : this.sourceFromPositions(first, tpe);
+    return new Expr.Parsed(Expr.makeEmptyListLiteral(this.child(tpe)), source);
   }
 
-  static final Expr.Parsed makeParenthesized(Expr.Parsed value, Token first, Token last) {
+  final Expr.Parsed makeParenthesized(Expr.Parsed value, Token first, Token last) {
     Source source =
-        new SESSource(
-            "(", value, ")", first.beginLine, first.beginColumn, last.endLine, last.endColumn);
-    return new Expr.Parsed(value, source);
+        this.keepText
+            ? new SESSource(
+                "(", value, ")", first.beginLine, first.beginColumn, last.endLine, last.endColumn)
+            : new PositionSource(first.beginLine, first.beginColumn, last.endLine, last.endColumn);
+    return new Expr.Parsed(this.child(value), source);
   }
 
-  static final Expr.Parsed makeImport(
-      Token type, Token hashToken, Token modeToken, Expr.Parsed using) {
+  final Expr.Parsed makeImport(Token type, Token hashToken, Token modeToken, Expr.Parsed using) {
     // TODO: fix.
-    Source source = sourceFromToken(type);
+    Source source = this.sourceFromToken(type);
     byte[] hash =
         (hashToken == null) ? null : Expr.Util.decodeHashBytes(hashToken.image.substring(7));
     Expr value = null;
@@ -661,7 +770,7 @@ final class ParsingHelpers {
       value = Expr.makeMissingImport(mode, hash);
     } else if (type.image.startsWith("http")) {
       try {
-        value = Expr.makeRemoteImport(new URI(type.image), using, mode, hash);
+        value = Expr.makeRemoteImport(new URI(type.image), this.child(using), mode, hash);
       } catch (java.net.URISyntaxException e) {
         System.out.println(e);
       }
@@ -678,6 +787,15 @@ final class ParsingHelpers {
     return new Expr.Parsed(value, source);
   }
 
+  /** A source that only records where the expression is, without its text. */
+  private static final class PositionSource extends Source {
+    PositionSource(int beginLine, int beginColumn, int endLine, int endColumn) {
+      super(beginLine, beginColumn, endLine, endColumn);
+    }
+
+    public final void printText(StringBuilder builder) {}
+  }
+
   private static final class ESESource extends Source {
     private final Expr.Parsed i0;
     private final String i1;
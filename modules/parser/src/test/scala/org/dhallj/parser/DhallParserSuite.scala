@@ -30,4 +30,20 @@ class DhallParserSuite extends FunSuite() {
 
     assert(DhallParser.parse(""""# # # $ % ^ #"""") == expected)
   }
+
+  test("parse with positions only or without notes") {
+    val input = """let f = λ(x : Natural) → x + 1 in { a = [f 1, (f 2)], b = f@0 3, c = "x${Natural/show 1}" }"""
+    val withText = DhallParser.parse(input)
+    val withPositions = DhallParser.parse(input, DhallParser.SourceMode.POSITIONS)
+    val withoutNotes = DhallParser.parse(input, DhallParser.SourceMode.NONE)
+
+    assert(withPositions.sameStructure(withText))
+    assert(withoutNotes.sameStructure(withText))
+    assert(!withoutNotes.isInstanceOf[Expr.Parsed])
+
+    val positions = withPositions.asInstanceOf[Expr.Parsed].getSource
+    assertEquals(positions.getText, "")
+    assertEquals(positions.getBeginColumn, withText.getSource.getBeginColumn)
+    assertEquals(positions.getEndColumn, withText.getSource.getEndColumn)
+  }
 }
@@ -0,0 +1,337 @@
+package org.dhallj.yaml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.dhallj.core.converters.JsonHandler;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.emitter.Emitter;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ImplicitTuple;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+/**
+ * Writes YAML by passing events directly to a SnakeYAML emitter, without building the intermediate
+ * maps and lists that {@link YamlHandler} produces.
+ *
+ * <p>The output is the same as dumping the result of a {@link YamlHandler} with the same options.
+ * If {@code multiDocument} is set and the value is a list, each element is written as a separate
+ * document. Call {@link #finish()} once the value has been converted to end the stream.
+ */
+public final class StreamingYamlHandler implements JsonHandler {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Pattern MULTILINE_PATTERN = Pattern.compile("\n|\u0085|\u2028|\u2029");
+
+  private final Writer writer;
+  private final Emitter emitter;
+  private final DumperOptions options;
+  private final boolean skipNulls;
+  private final boolean multiDocument;
+  private final Resolver resolver = new Resolver();
+  private final Deque<Container> stack = new ArrayDeque<>();
+  private boolean started = false;
+  private boolean splittingRoot = false;
+  private String pendingKey = null;
+  private IOException error = null;
+
+  public StreamingYamlHandler(
+      Writer writer, DumperOptions options, boolean skipNulls, boolean multiDocument) {
+    this.writer = writer;
+    this.emitter = new Emitter(writer, options);
+    this.options = options;
+    this.skipNulls = skipNulls;
+    this.multiDocument = multiDocument;
+  }
+
+  /** Write UTF-8 to the given stream. */
+  public StreamingYamlHandler(
+      OutputStream stream, DumperOptions options, boolean skipNulls, boolean multiDocument) {
+    this(
+        new BufferedWriter(new OutputStreamWriter(stream, UTF_8)),
+        options,
+        skipNulls,
+        multiDocument);
+  }
+
+  /** End the YAML stream and flush the underlying writer. */
+  public void finish() throws IOException {
+    this.startStream();
+    this.emit(new StreamEndEvent(null, null));
+
+    if (this.error == null) {
+      try {
+        this.writer.flush();
+      } catch (IOException e) {
+        this.error = e;
+      }
+    }
+
+    if (this.error != null) {
+      throw this.error;
+    }
+  }
+
+  public void onNull() {
+    if (this.startValue(true)) {
+      this.addScalar(Tag.NULL, "null", this.options.getDefaultScalarStyle());
+      this.endValue();
+    }
+  }
+
+  public void onBoolean(boolean value) {
+    if (this.startValue(false)) {
+      this.addScalar(Tag.BOOL, value ? "true" : "false", this.options.getDefaultScalarStyle());
+      this.endValue();
+    }
+  }
+
+  public void onNumber(BigInteger value) {
+    if (this.startValue(false)) {
+      this.addScalar(Tag.INT, value.toString(), this.options.getDefaultScalarStyle());
+      this.endValue();
+    }
+  }
+
+  public void onDouble(double value) {
+    if (this.startValue(false)) {
+      String asString;
+
+      if (Double.isNaN(value)) {
+        asString = ".NaN";
+      } else if (value == Double.POSITIVE_INFINITY) {
+        asString = ".inf";
+      } else if (value == Double.NEGATIVE_INFINITY) {
+        asString = "-.inf";
+      } else {
+        asString = Double.toString(value);
+      }
+
+      this.addScalar(Tag.FLOAT, asString, this.options.getDefaultScalarStyle());
+      this.endValue();
+    }
+  }
+
+  public void onString(String value) {
+    if (this.startValue(false)) {
+      this.addString(value);
+      this.endValue();
+    }
+  }
+
+  public void onArrayStart() {
+    if (this.multiDocument && this.stack.isEmpty() && !this.splittingRoot) {
+      this.startStream();
+      this.splittingRoot = true;
+    } else if (this.startValue(false)) {
+      this.push(new Container(false));
+    }
+  }
+
+  public void onArrayEnd() {
+    if (this.stack.isEmpty()) {
+      this.splittingRoot = false;
+    } else {
+      this.pop(new SequenceEndEvent(null, null));
+    }
+  }
+
+  public void onArrayElementGap() {}
+
+  public void onObjectStart() {
+    if (this.startValue(false)) {
+      this.push(new Container(true));
+    }
+  }
+
+  public void onObjectEnd() {
+    this.pop(new MappingEndEvent(null, null));
+  }
+
+  public void onObjectField(String name) {
+    this.pendingKey = name;
+  }
+
+  public void onObjectFieldGap() {}
+
+  /**
+   * Returns false if the value should be skipped. Object keys are written here, since whether they
+   * are needed depends on the value.
+   */
+  private boolean startValue(boolean isNull) {
+    if (this.pendingKey != null) {
+      String key = this.pendingKey;
+      this.pendingKey = null;
+
+      if (isNull && this.skipNulls) {
+        return false;
+      }
+
+      this.addString(key);
+    } else if (this.stack.isEmpty()) {
+      this.startStream();
+      this.emit(
+          new DocumentStartEvent(
+              null,
+              null,
+              this.options.isExplicitStart(),
+              this.options.getVersion(),
+              this.options.getTags()));
+    }
+    return true;
+  }
+
+  private void endValue() {
+    if (this.stack.isEmpty()) {
+      this.emit(new DocumentEndEvent(null, null, this.options.isExplicitEnd()));
+    }
+  }
+
+  private void startStream() {
+    if (!this.started) {
+      this.started = true;
+      this.emit(new StreamStartEvent(null, null));
+    }
+  }
+
+  private void addString(String value) {
+    Tag tag = Tag.STR;
+    DumperOptions.ScalarStyle style = this.options.getDefaultScalarStyle();
+
+    if (this.options.getNonPrintableStyle() == DumperOptions.NonPrintableStyle.BINARY
+        && !StreamReader.isPrintable(value)) {
+      try {
+        byte[] bytes = value.getBytes("UTF-8");
+
+        if (!new String(bytes, "UTF-8").equals(value)) {
+          throw new YAMLException("invalid string value has occurred");
+        }
+        tag = Tag.BINARY;
+        value = String.valueOf(Base64Coder.encode(bytes));
+        style = DumperOptions.ScalarStyle.LITERAL;
+      } catch (UnsupportedEncodingException e) {
+        throw new YAMLException(e);
+      }
+    }
+
+    if (this.options.getDefaultScalarStyle() == DumperOptions.ScalarStyle.PLAIN
+        && MULTILINE_PATTERN.matcher(value).find()) {
+      style = DumperOptions.ScalarStyle.LITERAL;
+    }
+
+    this.addScalar(tag, value, style);
+  }
+
+  private void addScalar(Tag tag, String value, DumperOptions.ScalarStyle style) {
+    ImplicitTuple implicit =
+        new ImplicitTuple(
+            tag.equals(this.resolver.resolve(NodeId.scalar, value, true)),
+            tag.equals(this.resolver.resolve(NodeId.scalar, value, false)));
+    Event event = new ScalarEvent(null, tag.getValue(), implicit, value, null, null, style);
+
+    if (this.stack.isEmpty()) {
+      this.emit(event);
+    } else {
+      this.stack.peek().add(event, style == DumperOptions.ScalarStyle.PLAIN);
+    }
+  }
+
+  private void push(Container container) {
+    if (!this.stack.isEmpty()) {
+      this.stack.peek().decide(DumperOptions.FlowStyle.BLOCK);
+    }
+
+    DumperOptions.FlowStyle flowStyle = this.options.getDefaultFlowStyle();
+
+    if (flowStyle != DumperOptions.FlowStyle.AUTO) {
+      container.decide(flowStyle);
+    }
+
+    this.stack.push(container);
+  }
+
+  private void pop(Event end) {
+    this.stack.pop().end(end);
+    this.endValue();
+  }
+
+  private void emit(Event event) {
+    if (this.error == null) {
+      try {
+        this.emitter.emit(event);
+      } catch (IOException e) {
+        this.error = e;
+      }
+    }
+  }
+
+  /**
+   * An open mapping or sequence. If the flow style is {@code AUTO}, plain scalar children are
+   * buffered until either another kind of child appears (in which case the container is written in
+   * block style) or the container ends (in which case it's written in flow style).
+   */
+  private final class Container {
+    private final boolean isMapping;
+    private List<Event> buffered = new ArrayList<>();
+
+    Container(boolean isMapping) {
+      this.isMapping = isMapping;
+    }
+
+    void add(Event event, boolean isPlain) {
+      if (this.buffered != null) {
+        if (isPlain) {
+          this.buffered.add(event);
+          return;
+        }
+        this.decide(DumperOptions.FlowStyle.BLOCK);
+      }
+      emit(event);
+    }
+
+    void decide(DumperOptions.FlowStyle flowStyle) {
+      if (this.buffered != null) {
+        List<Event> events = this.buffered;
+        this.buffered = null;
+
+        if (this.isMapping) {
+          emit(new MappingStartEvent(null, Tag.MAP.getValue(), true, null, null, flowStyle));
+        } else {
+          emit(new SequenceStartEvent(null, Tag.SEQ.getValue(), true, null, null, flowStyle));
+        }
+
+        for (Event event : events) {
+          emit(event);
+        }
+      }
+    }
+
+    void end(Event event) {
+      this.decide(DumperOptions.FlowStyle.FLOW);
+      emit(event);
+    }
+  }
+}
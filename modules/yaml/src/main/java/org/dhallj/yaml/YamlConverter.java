@@ -1,5 +1,10 @@
 package org.dhallj.yaml;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import org.dhallj.core.Expr;
 import org.dhallj.core.converters.JsonConverter;
 import org.yaml.snakeyaml.Yaml;
@@ -28,4 +33,73 @@ public class YamlConverter {
       return null;
     }
   }
+
+  /**
+   * Write the expression as YAML without building an intermediate object tree.
+   *
+   * <p>Returns false (and writes nothing) if the expression can't be converted, which is checked
+   * with {@link JsonConverter#canConvert(Expr)} before anything is written. If {@code
+   * multiDocument} is set and the expression is a list, each element is written as a separate
+   * document.
+   */
+  public static final boolean writeYaml(
+      Expr expr,
+      OutputStream output,
+      DumperOptions options,
+      boolean skipNulls,
+      boolean multiDocument)
+      throws IOException {
+    return write(expr, new StreamingYamlHandler(output, options, skipNulls, multiDocument));
+  }
+
+  public static final boolean writeYaml(
+      Expr expr,
+      Writer output,
+      DumperOptions options,
+      boolean skipNulls,
+      boolean multiDocument)
+      throws IOException {
+    return write(expr, new StreamingYamlHandler(output, options, skipNulls, multiDocument));
+  }
+
+  public static final boolean writeYaml(Expr expr, OutputStream output) throws IOException {
+    return writeYaml(expr, output, defaultOptions, true, false);
+  }
+
+  public static final boolean writeYaml(Expr expr, Writer output) throws IOException {
+    return writeYaml(expr, output, defaultOptions, true, false);
+  }
+
+  /**
+   * Read a YAML document directly into a Dhall expression, converting it according to the expected
+   * type (if it isn't null) as it's parsed.
+   *
+   * <p>Throws {@code DhallException.ConversionFailure} if the document doesn't fit the expected
+   * type or can't be represented in Dhall.
+   */
+  public static final Expr fromYaml(Reader input, Expr expectedType) {
+    return YamlExprBuilder.build(input, expectedType);
+  }
+
+  public static final Expr fromYaml(Reader input) {
+    return fromYaml(input, null);
+  }
+
+  public static final Expr fromYamlString(String input, Expr expectedType) {
+    return fromYaml(new StringReader(input), expectedType);
+  }
+
+  public static final Expr fromYamlString(String input) {
+    return fromYaml(new StringReader(input), null);
+  }
+
+  private static final boolean write(Expr expr, StreamingYamlHandler handler) throws IOException {
+    if (JsonConverter.canConvert(expr)) {
+      expr.accept(new JsonConverter(handler));
+      handler.finish();
+      return true;
+    } else {
+      return false;
+    }
+  }
 }
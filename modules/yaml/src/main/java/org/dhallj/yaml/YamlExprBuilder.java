@@ -0,0 +1,196 @@
+package org.dhallj.yaml;
+
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import org.dhallj.core.DhallException;
+import org.dhallj.core.Expr;
+import org.dhallj.core.converters.ExprBuilder;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+/**
+ * Builds a Dhall expression from SnakeYAML parse events, without composing a node tree or
+ * constructing Java objects.
+ *
+ * <p>Scalars are resolved with SnakeYAML's implicit resolver, except that any scalar is read as
+ * {@code Text} where the expected type calls for it. Anchors and aliases aren't supported.
+ */
+final class YamlExprBuilder {
+  private static final byte SEQUENCE = 0;
+  private static final byte MAPPING_KEY = 1;
+  private static final byte MAPPING_VALUE = 2;
+
+  private final ExprBuilder builder;
+  private final Resolver resolver = new Resolver();
+  private final ArrayList<Byte> states = new ArrayList<Byte>();
+
+  YamlExprBuilder(Expr expectedType) {
+    this.builder = new ExprBuilder(expectedType);
+  }
+
+  static Expr build(Reader input, Expr expectedType) {
+    YamlExprBuilder yamlBuilder = new YamlExprBuilder(expectedType);
+
+    try {
+      for (Event event : new Yaml().parse(input)) {
+        yamlBuilder.onEvent(event);
+      }
+    } catch (YAMLException e) {
+      throw new DhallException.ParsingFailure(e.getMessage(), e);
+    }
+
+    Expr result = yamlBuilder.builder.getResult();
+
+    if (result == null) {
+      throw new DhallException.ConversionFailure("Empty YAML document");
+    }
+    return result;
+  }
+
+  private void onEvent(Event event) {
+    switch (event.getEventId()) {
+      case Scalar:
+        if (this.getState() == MAPPING_KEY) {
+          this.builder.onObjectField(((ScalarEvent) event).getValue());
+          this.setState(MAPPING_VALUE);
+        } else {
+          this.onScalar((ScalarEvent) event);
+          this.onValueEnd();
+        }
+        break;
+      case MappingStart:
+        this.checkNotKey();
+        this.builder.onObjectStart();
+        this.states.add(MAPPING_KEY);
+        break;
+      case MappingEnd:
+        this.states.remove(this.states.size() - 1);
+        this.builder.onObjectEnd();
+        this.onValueEnd();
+        break;
+      case SequenceStart:
+        this.checkNotKey();
+        this.builder.onArrayStart();
+        this.states.add(SEQUENCE);
+        break;
+      case SequenceEnd:
+        this.states.remove(this.states.size() - 1);
+        this.builder.onArrayEnd();
+        this.onValueEnd();
+        break;
+      case Alias:
+        throw new DhallException.ConversionFailure("YAML aliases are not supported");
+      default:
+        break;
+    }
+  }
+
+  private void onScalar(ScalarEvent event) {
+    String value = event.getValue();
+    Tag tag;
+
+    if (event.getTag() == null || event.getTag().equals("!")) {
+      boolean isImplicit = event.getImplicit().canOmitTagInPlainScalar();
+      tag = this.resolver.resolve(NodeId.scalar, value, isImplicit);
+    } else {
+      tag = new Tag(event.getTag());
+    }
+
+    Expr expected = this.builder.getExpectedType();
+
+    if (expected != null) {
+      Expr optionalArg = Expr.Util.getOptionalArg(expected);
+      Expr type = (optionalArg == null) ? expected : optionalArg;
+
+      if ("Text".equals(Expr.Util.asBuiltIn(type))
+          && !(optionalArg != null && tag.equals(Tag.NULL))) {
+        this.builder.onString(value);
+        return;
+      }
+    }
+
+    if (tag.equals(Tag.NULL)) {
+      this.builder.onNull();
+    } else if (tag.equals(Tag.BOOL)) {
+      String lower = value.toLowerCase();
+      this.builder.onBoolean(lower.equals("true") || lower.equals("yes") || lower.equals("on"));
+    } else if (tag.equals(Tag.INT)) {
+      this.builder.onNumber(parseInteger(value));
+    } else if (tag.equals(Tag.FLOAT)) {
+      this.builder.onDouble(parseFloat(value));
+    } else {
+      this.builder.onString(value);
+    }
+  }
+
+  private byte getState() {
+    return this.states.isEmpty() ? SEQUENCE : this.states.get(this.states.size() - 1);
+  }
+
+  private void setState(byte state) {
+    this.states.set(this.states.size() - 1, state);
+  }
+
+  private void checkNotKey() {
+    if (this.getState() == MAPPING_KEY) {
+      throw new DhallException.ConversionFailure("YAML mapping keys must be scalars");
+    }
+  }
+
+  private void onValueEnd() {
+    if (this.getState() == MAPPING_VALUE) {
+      this.setState(MAPPING_KEY);
+    }
+  }
+
+  private static BigInteger parseInteger(String value) {
+    String digits = value.replace("_", "");
+    boolean negative = false;
+
+    if (digits.startsWith("-") || digits.startsWith("+")) {
+      negative = digits.charAt(0) == '-';
+      digits = digits.substring(1);
+    }
+
+    BigInteger result;
+
+    if (digits.startsWith("0x")) {
+      result = new BigInteger(digits.substring(2), 16);
+    } else if (digits.startsWith("0b")) {
+      result = new BigInteger(digits.substring(2), 2);
+    } else if (digits.startsWith("0o")) {
+      result = new BigInteger(digits.substring(2), 8);
+    } else if (digits.length() > 1 && digits.startsWith("0")) {
+      result = new BigInteger(digits.substring(1), 8);
+    } else if (digits.indexOf(':') >= 0) {
+      result = BigInteger.ZERO;
+      for (String part : digits.split(":")) {
+        result = result.multiply(BigInteger.valueOf(60)).add(new BigInteger(part));
+      }
+    } else {
+      result = new BigInteger(digits);
+    }
+
+    return negative ? result.negate() : result;
+  }
+
+  private static double parseFloat(String value) {
+    String lower = value.replace("_", "").toLowerCase();
+
+    if (lower.equals(".nan")) {
+      return Double.NaN;
+    } else if (lower.equals(".inf") || lower.equals("+.inf")) {
+      return Double.POSITIVE_INFINITY;
+    } else if (lower.equals("-.inf")) {
+      return Double.NEGATIVE_INFINITY;
+    } else {
+      return Double.parseDouble(lower);
+    }
+  }
+}
@@ -1,10 +1,13 @@
 package org.dhallj.yaml
 
+import java.io.{ByteArrayOutputStream, StringWriter}
+import java.nio.charset.StandardCharsets
 import munit.ScalaCheckSuite
 import org.dhallj.ast._
-import org.dhallj.core.Expr
+import org.dhallj.core.{DhallException, Expr}
 import org.dhallj.parser.DhallParser
 import org.scalacheck.Prop
+import org.yaml.snakeyaml.DumperOptions
 
 class JawnConverterSuite extends ScalaCheckSuite {
   property("convert integers") {
@@ -64,4 +67,100 @@ class JawnConverterSuite extends ScalaCheckSuite {
 
     assert(Option(YamlConverter.toYamlString(expr1)) == None)
   }
+
+  private val streamingExamples = List(
+    "1",
+    "-1.5",
+    "True",
+    "None Natural",
+    "\"\"",
+    "\"true\"",
+    "\"x: y\"",
+    "\"a\\nb\"",
+    "[1, 2, 3]",
+    "[[]: List Bool]",
+    "[{=}, {a = 1}]",
+    "{ foo = [{bar = [1]}, {bar = [1, 2, 3]}], baz = None Text, qux = Some \"12\" }",
+    "{ a = { b = { c = [None Natural, Some 1] } }, d = \"e\" }",
+    "toMap { a = 1.0, b = -2.5 }"
+  )
+
+  private def streamed(expr: Expr, options: DumperOptions, skipNulls: Boolean): Option[String] = {
+    val writer = new StringWriter()
+    if (YamlConverter.writeYaml(expr, writer, options, skipNulls, false)) Some(writer.toString) else None
+  }
+
+  private def options(flowStyle: DumperOptions.FlowStyle, scalarStyle: DumperOptions.ScalarStyle) = {
+    val options = new DumperOptions()
+    options.setDefaultFlowStyle(flowStyle)
+    options.setDefaultScalarStyle(scalarStyle)
+    options
+  }
+
+  test("writeYaml matches toYamlString") {
+    for {
+      flowStyle <- DumperOptions.FlowStyle.values.toList
+      scalarStyle <- List(DumperOptions.ScalarStyle.PLAIN, DumperOptions.ScalarStyle.DOUBLE_QUOTED)
+      skipNulls <- List(true, false)
+      code <- streamingExamples
+    } {
+      val expr = DhallParser.parse(code).normalize()
+      val dumperOptions = options(flowStyle, scalarStyle)
+      val expected = Option(YamlConverter.toYamlString(expr, dumperOptions, skipNulls))
+
+      assertEquals(streamed(expr, dumperOptions, skipNulls), expected, clue(code))
+    }
+  }
+
+  test("writeYaml writes UTF-8 to an output stream") {
+    val expr = DhallParser.parse("{ name = \"\u00e9t\u00e9\", values = [1, 2] }")
+    val stream = new ByteArrayOutputStream()
+
+    assert(YamlConverter.writeYaml(expr, stream))
+    assertEquals(new String(stream.toByteArray, StandardCharsets.UTF_8), YamlConverter.toYamlString(expr))
+  }
+
+  test("writeYaml writes top-level list elements as separate documents") {
+    val expr = DhallParser.parse("[{ a = 1 }, { a = 2, b = None Natural }]")
+    val writer = new StringWriter()
+    val dumperOptions = options(DumperOptions.FlowStyle.BLOCK, DumperOptions.ScalarStyle.PLAIN)
+
+    assert(YamlConverter.writeYaml(expr, writer, dumperOptions, true, true))
+    assertEquals(writer.toString, "a: 1\n---\na: 2\n")
+  }
+
+  test("writeYaml writes nothing for unconvertible expressions") {
+    val expr = DhallParser.parse("{ a = 1, b = \\(x: Natural) -> x }")
+    val writer = new StringWriter()
+
+    assert(!YamlConverter.writeYaml(expr, writer))
+    assertEquals(writer.toString, "")
+  }
+
+  test("fromYamlString reads untyped documents") {
+    val expected = DhallParser.parse("{ a = 1, b = [\"x\", -2], c = { d = None {} } }")
+
+    assertEquals(YamlConverter.fromYamlString("a: 1\nb: [x, -2]\nc:\n  d: null\n"), expected)
+  }
+
+  test("fromYamlString converts according to the expected type") {
+    val tpe = DhallParser.parse("List { name : Text, port : Optional Natural, tags : List Text }")
+    val yaml = "- name: 123\n  tags: [yes, 1]\n- name: x\n  port: 8080\n  tags: []\n"
+    val expected = DhallParser.parse(
+      """[{ name = "123", port = None Natural, tags = ["yes", "1"] },
+        |{ name = "x", port = Some 8080, tags = [] : List Text }]""".stripMargin
+    )
+    val result = YamlConverter.fromYamlString(yaml, tpe)
+
+    assertEquals(result, expected)
+    assertEquals(Expr.Util.typeCheck(result), tpe.normalize())
+  }
+
+  test("fromYamlString fails on values that don't match the expected type") {
+    val tpe = DhallParser.parse("{ port : Natural }")
+
+    intercept[DhallException.ConversionFailure](YamlConverter.fromYamlString("port: -1\n", tpe))
+    intercept[DhallException.ConversionFailure](YamlConverter.fromYamlString("other: 1\n", tpe))
+    intercept[DhallException.ConversionFailure](YamlConverter.fromYamlString("{}\n", tpe))
+  }
 }
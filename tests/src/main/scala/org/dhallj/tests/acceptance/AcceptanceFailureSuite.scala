@@ -2,6 +2,7 @@ package org.dhallj.tests.acceptance
 
 import org.dhallj.core.Expr
 import org.dhallj.core.binary.Decode.decode
+import org.dhallj.core.typechecking.TypeCheck
 import org.dhallj.parser.DhallParser
 import scala.reflect.ClassTag
 
@@ -28,6 +29,11 @@ class TypeCheckingFailureSuite(val base: String) extends AcceptanceFailureSuite[
   def loadInput(input: Array[Byte]): Expr = Expr.Util.typeCheck(DhallParser.parse(new String(input)))
 }
 
+class MemoizedTypeCheckingFailureSuite(val base: String, val cache: TypeCheck.Cache = new TypeCheck.Cache())
+    extends AcceptanceFailureSuite[Expr, RuntimeException] {
+  def loadInput(input: Array[Byte]): Expr = Expr.Util.typeCheck(DhallParser.parse(new String(input)), cache)
+}
+
 class BinaryDecodingFailureSuite(val base: String) extends AcceptanceFailureSuite[Expr, RuntimeException] {
   override def isInputFileName(fileName: String): Boolean = fileName.endsWith(".dhallb")
 
@@ -5,6 +5,8 @@ import cats.effect.{ContextShift, IO}
 import java.nio.file.{Files, Paths}
 import org.dhallj.core.Expr
 import org.dhallj.core.binary.Decode.decode
+import org.dhallj.core.normalization.Evaluate
+import org.dhallj.core.typechecking.TypeCheck
 import org.dhallj.imports.mini.Resolver
 import org.dhallj.parser.DhallParser
 
@@ -102,9 +104,16 @@ class CachingTypeCheckingSuite(val base: String)
 class TypeCheckingSuite(val base: String)
     extends ExprOperationAcceptanceSuite(Expr.Util.typeCheck(_))
     with ResolvingInput
+class MemoizedTypeCheckingSuite(val base: String, val cache: TypeCheck.Cache = new TypeCheck.Cache())
+    extends ExprOperationAcceptanceSuite(Expr.Util.typeCheck(_, cache))
+    with CachedResolvingInput
 class AlphaNormalizationSuite(val base: String) extends ExprOperationAcceptanceSuite(_.alphaNormalize) with ParsingInput
 class NormalizationSuite(val base: String) extends ExprOperationAcceptanceSuite(_.normalize) with CachedResolvingInput
 class NormalizationUSuite(val base: String) extends ExprOperationAcceptanceSuite(_.normalize) with ParsingInput
+class EvaluationSuite(val base: String)
+    extends ExprOperationAcceptanceSuite(Evaluate.normalize(_))
+    with CachedResolvingInput
+class EvaluationUSuite(val base: String) extends ExprOperationAcceptanceSuite(Evaluate.normalize(_)) with ParsingInput
 
 class HashingSuite(val base: String) extends SuccessSuite[Expr, String] with CachedResolvingInput {
   def makeExpectedPath(inputPath: String): String = inputPath.dropRight(7) + "B.hash"
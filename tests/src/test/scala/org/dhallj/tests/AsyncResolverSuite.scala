@@ -0,0 +1,148 @@
+package org.dhallj.tests
+
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import java.net.InetSocketAddress
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.util.concurrent.{ExecutionException, Executors, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import munit.FunSuite
+import org.dhallj.core.DhallException.ResolutionFailure
+import org.dhallj.core.Expr
+import org.dhallj.imports.mini.Resolver
+import org.dhallj.parser.DhallParser
+
+class AsyncResolverSuite extends FunSuite() {
+  private val files = Map(
+    "/package.dhall" -> "{ a = ./a.dhall, b = ./nested/b.dhall, c = ./a.dhall as Text }",
+    "/a.dhall" -> "1",
+    "/nested/b.dhall" -> "[ ../a.dhall, 2 ]",
+    "/1.dhall" -> "1",
+    "/2.dhall" -> "2",
+    "/3.dhall" -> "3",
+    "/4.dhall" -> "4",
+    "/local.dhall" -> "/etc/passwd as Text",
+    "/cycle.dhall" -> "./cycle.dhall"
+  )
+
+  /**
+   * A stub server that serves `files` after a short delay, recording how many requests it sees and
+   * how many it handles at once.
+   */
+  private class StubServer {
+    val requests = new AtomicInteger(0)
+    val maxInFlight = new AtomicInteger(0)
+    private val inFlight = new AtomicInteger(0)
+
+    private val server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    server.setExecutor(Executors.newCachedThreadPool())
+    server.createContext(
+      "/",
+      new HttpHandler {
+        def handle(exchange: HttpExchange): Unit = {
+          requests.incrementAndGet()
+          val current = inFlight.incrementAndGet()
+          maxInFlight.accumulateAndGet(current, Math.max(_, _))
+
+          try {
+            Thread.sleep(100)
+            files.get(exchange.getRequestURI.getPath) match {
+              case Some(body) =>
+                val bytes = body.getBytes(StandardCharsets.UTF_8)
+                exchange.sendResponseHeaders(200, bytes.length.toLong)
+                exchange.getResponseBody.write(bytes)
+              case None =>
+                exchange.sendResponseHeaders(404, -1)
+            }
+          } finally {
+            inFlight.decrementAndGet()
+            exchange.close()
+          }
+        }
+      }
+    )
+    server.start()
+
+    def url(path: String): String = s"http://localhost:${server.getAddress.getPort}$path"
+
+    def stop(): Unit = server.stop(0)
+  }
+
+  private def withServer[A](f: StubServer => A): A = {
+    val server = new StubServer
+    try f(server)
+    finally server.stop()
+  }
+
+  private def resolve(code: String, threads: Int): Expr = {
+    val executor = Executors.newFixedThreadPool(threads)
+    try Resolver.resolveAsync(DhallParser.parse(code), executor).get(30, TimeUnit.SECONDS)
+    finally executor.shutdown()
+  }
+
+  test("resolveAsync resolves remote imports relative to their URLs") {
+    withServer { server =>
+      val result = resolve(server.url("/package.dhall"), 4)
+
+      assert(result.normalize.sameStructure(DhallParser.parse("{ a = 1, b = [1, 2], c = \"1\" }")))
+      assertEquals(server.requests.get, 3)
+    }
+  }
+
+  test("resolveAsync fetches sibling imports concurrently within the pool's bound") {
+    withServer { server =>
+      val code = (1 to 4).map(i => server.url(s"/$i.dhall")).mkString("[", ", ", "]")
+
+      assert(resolve(code, 4).normalize.sameStructure(DhallParser.parse("[1, 2, 3, 4]")))
+      assert(server.maxInFlight.get > 1)
+    }
+
+    withServer { server =>
+      val code = (1 to 4).map(i => server.url(s"/$i.dhall")).mkString("[", ", ", "]")
+
+      assert(resolve(code, 2).normalize.sameStructure(DhallParser.parse("[1, 2, 3, 4]")))
+      assert(server.maxInFlight.get <= 2)
+    }
+  }
+
+  test("resolveAsync reads local files") {
+    val dir = Files.createTempDirectory("async-resolver")
+    Files.write(dir.resolve("a.dhall"), "./b.dhall + 1".getBytes(StandardCharsets.UTF_8))
+    Files.write(dir.resolve("b.dhall"), "41".getBytes(StandardCharsets.UTF_8))
+
+    val expr = DhallParser.parse(s"${dir.resolve("a.dhall")}")
+    val executor = Executors.newFixedThreadPool(2)
+
+    try {
+      val result = Resolver.resolveAsync(expr, true, null, executor).get(30, TimeUnit.SECONDS)
+
+      assert(result.sameStructure(Resolver.resolve(expr)))
+      assert(result.normalize.sameStructure(DhallParser.parse("42")))
+    } finally executor.shutdown()
+  }
+
+  test("resolveAsync reports missing remote imports") {
+    withServer { server =>
+      val failure = intercept[ExecutionException](resolve(server.url("/missing.dhall"), 2))
+
+      assert(failure.getCause.isInstanceOf[ResolutionFailure])
+    }
+  }
+
+  test("resolveAsync rejects local imports from remote files") {
+    withServer { server =>
+      val failure = intercept[ExecutionException](resolve(server.url("/local.dhall"), 2))
+
+      assert(failure.getCause.isInstanceOf[ResolutionFailure])
+    }
+  }
+
+  test("resolveAsync rejects cyclic imports") {
+    withServer { server =>
+      val failure = intercept[ExecutionException](resolve(server.url("/cycle.dhall"), 2))
+
+      assert(failure.getCause.isInstanceOf[ResolutionFailure])
+      assertEquals(server.requests.get, 1)
+    }
+  }
+}
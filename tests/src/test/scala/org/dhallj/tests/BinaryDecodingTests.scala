@@ -1,5 +1,7 @@
 package org.dhallj.tests
 
+import java.io.{ByteArrayInputStream, InputStream}
+import java.nio.ByteBuffer
 import java.nio.file.{Files, Paths}
 
 import munit.FunSuite
@@ -298,6 +300,37 @@ class BinaryDecodingTests extends FunSuite {
     assert(decoded.equivalent(expected))
   }
 
+  test("Decode from an input stream") {
+    val expected = parse(
+      s"""{ a = "${"x" * 20000}", b = 18446744073709551616, c = -9223372036854775809, d = [1, 2, 3] }"""
+    )
+    val bytes = expected.getEncodedBytes
+
+    // Returns at most a few bytes per read to exercise refilling the reader's buffer.
+    val stream = new InputStream {
+      private val underlying = new ByteArrayInputStream(bytes)
+      def read(): Int = underlying.read()
+      override def read(b: Array[Byte], off: Int, len: Int): Int = underlying.read(b, off, len.min(7))
+    }
+
+    val decoded = decode(stream)
+
+    assert(decoded.equivalent(expected))
+  }
+
+  test("Decode from a byte buffer") {
+    val expected = parse("\\(x: Natural) -> { a = x + 9223372036854775808, b = \"foo\" }")
+    val bytes = expected.getEncodedBytes
+    val heap = ByteBuffer.wrap(Array[Byte](1, 2) ++ bytes)
+    heap.position(2)
+    val direct = ByteBuffer.allocateDirect(bytes.length)
+    direct.put(bytes).flip()
+
+    assert(decode(heap).equivalent(expected))
+    assert(decode(direct).equivalent(expected))
+    assertEquals(heap.position(), 2)
+  }
+
   private def load(resource: String): Array[Byte] =
     Files.readAllBytes(Paths.get(getClass.getResource(s"/binary/$resource").toURI))
 
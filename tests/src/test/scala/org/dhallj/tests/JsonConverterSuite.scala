@@ -1,6 +1,8 @@
 package org.dhallj.tests
 
 import munit.FunSuite
+import java.io.{ByteArrayOutputStream, StringWriter}
+import java.nio.charset.StandardCharsets
 import org.dhallj.core.converters.JsonConverter
 import org.dhallj.parser.DhallParser
 
@@ -56,4 +58,59 @@ class JsonConverterSuite extends FunSuite() {
 
     assert(clue(JsonConverter.toCompactString(expr)) == clue(expected))
   }
+
+  private def writeToBytes(code: String, pretty: Boolean): Option[String] = {
+    val output = new ByteArrayOutputStream()
+    if (JsonConverter.writeJson(DhallParser.parse(code), output, pretty)) {
+      Some(new String(output.toByteArray, StandardCharsets.UTF_8))
+    } else {
+      assert(output.size == 0)
+      None
+    }
+  }
+
+  test("writeJson matches toCompactString") {
+    val codes = List(
+      """{ a = [1, -2, 3.5], b = {=}, c = [] : List Natural, d = " \n $ \" é" }""",
+      """[{ mapKey = "foo", mapValue = Some 1 }, { mapKey = "bar", mapValue = None Natural }]""",
+      """< A | B : Bool >.B True"""
+    )
+
+    codes.foreach { code =>
+      assertEquals(writeToBytes(code, false), Option(JsonConverter.toCompactString(DhallParser.parse(code))))
+
+      val writer = new StringWriter()
+      assert(JsonConverter.writeJson(DhallParser.parse(code), writer, false))
+      assertEquals(writer.toString, JsonConverter.toCompactString(DhallParser.parse(code)))
+    }
+  }
+
+  test("writeJson pretty-prints") {
+    val expected = """{
+                     |  "a": [
+                     |    1,
+                     |    {
+                     |      "b": []
+                     |    }
+                     |  ],
+                     |  "c": {}
+                     |}""".stripMargin
+
+    assertEquals(writeToBytes("{ a = [1, { b = [] : List Bool }], c = {=} }", true), Some(expected))
+  }
+
+  test("writeJson encodes text longer than its buffer") {
+    val text = "a😀" * 10000
+
+    assertEquals(writeToBytes(s"""{ x = "$text" }""", false), Some(s"""{"x":"$text"}"""))
+  }
+
+  test("writeJson writes nothing for expressions that can't be converted") {
+    assertEquals(writeToBytes("""{ a = "x", b = \(x : Bool) -> x }""", false), None)
+  }
+
+  test("canConvert checks for expressions that can be converted") {
+    assert(JsonConverter.canConvert(DhallParser.parse("""{ a = "x", b = [1, 2] }""")))
+    assert(!JsonConverter.canConvert(DhallParser.parse("""{ a = "x", b = \(x : Bool) -> x }""")))
+  }
 }
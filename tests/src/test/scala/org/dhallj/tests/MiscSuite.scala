@@ -1,8 +1,14 @@
 package org.dhallj.tests
 
+import java.math.BigInteger
+import java.util.concurrent.{ForkJoinPool, ForkJoinWorkerThread}
+import java.util.concurrent.atomic.AtomicInteger
 import munit.FunSuite
 import org.dhallj.ast._
-import org.dhallj.core.Expr
+import org.dhallj.core.{Expr, Operator}
+import org.dhallj.core.binary.Decode
+import org.dhallj.core.normalization.Evaluate
+import org.dhallj.core.typechecking.{TypeCheck, TypeCheckFailure}
 import org.dhallj.parser.DhallParser
 import org.scalacheck.{Arbitrary, Gen}
 
@@ -15,8 +21,13 @@ class MiscSuite extends CheckersFunSuite() {
   def checkParse(name: String, input: String, expected: Expr)(implicit loc: munit.Location): Unit =
     test(name)(assert(clue(DhallParser.parse(input)).equivalent(clue(expected))))
 
-  def checkBetaNormalization(name: String, input: String, expected: Expr)(implicit loc: munit.Location): Unit =
+  def checkBetaNormalization(name: String, input: String, expected: Expr)(implicit loc: munit.Location): Unit = {
     test(name)(assert(clue(DhallParser.parse(input).normalize).equivalent(clue(expected))))
+    checkEvaluation(s"$name (by evaluation)", input, expected)
+  }
+
+  def checkEvaluation(name: String, input: String, expected: Expr)(implicit loc: munit.Location): Unit =
+    test(name)(assert(clue(Evaluate.normalize(DhallParser.parse(input))).sameStructure(clue(expected))))
 
   def parsesTo(input: String, expected: Expr): Boolean = DhallParser.parse(input).equivalent(expected)
 
@@ -76,4 +87,316 @@ class MiscSuite extends CheckersFunSuite() {
       "λ(cons : Natural) → λ(list : Type) → λ(cons : Natural → list → list) → λ(nil : list) → cons cons@1 nil"
     )
   )
+
+  checkEvaluation(
+    "Normalize partially-applied List/fold with three arguments by evaluation",
+    "List/fold Natural [0] Bool",
+    DhallParser.parse("λ(cons : Natural → Bool → Bool) → λ(nil : Bool) → cons 0 nil")
+  )
+
+  checkEvaluation(
+    "Normalize nested let-bindings by evaluation",
+    "λ(x : Natural) → let y = x in λ(x : Natural) → let x = y + x in x@1 + x",
+    DhallParser.parse("λ(x : Natural) → λ(x : Natural) → x + (x@1 + x)")
+  )
+
+  test("Memoized type-checking reuses the types of shared closed subexpressions") {
+    val shared = DhallParser.parse("λ(a : Type) → λ(x : a) → x")
+    val open: Expr = DhallParser.parse("λ(x : Natural) → x + y")
+    val input = Expr.makeLambda(
+      "y",
+      Expr.Constants.NATURAL,
+      Expr.makeNonEmptyListLiteral(Array(Expr.makeRecordLiteral("a", shared), Expr.makeRecordLiteral("a", shared)))
+    )
+    val inputWithOpen = Expr.makeLambda(
+      "y",
+      Expr.Constants.NATURAL,
+      Expr.makeNonEmptyListLiteral(Array(open, open))
+    )
+    val cache = new TypeCheck.Cache()
+
+    assert(Expr.Util.typeCheck(input, cache).equivalent(Expr.Util.typeCheck(input)))
+    assert(clue(cache.getHits) > 0L)
+    assert(Expr.Util.typeCheck(inputWithOpen, cache).equivalent(Expr.Util.typeCheck(inputWithOpen)))
+
+    val misses = cache.getMisses
+    Expr.Util.typeCheck(input, cache)
+    assertEquals(cache.getMisses, misses)
+  }
+
+  test("Interning shares structurally equal nodes") {
+    val previous = Expr.Interner.getInstalled
+    Expr.Interner.install(new Expr.Interner(1024))
+
+    try {
+      val normalized = DhallParser.parse("[x + 1, x + 1]").normalize
+      val decoded = Decode.decode(normalized.getEncodedBytes)
+      val elements = Expr.Util.asListLiteral(decoded)
+
+      assert(Expr.makeIdentifier("x", 1) eq Expr.makeIdentifier("x", 1))
+      assert(Expr.makeApplication(Expr.Constants.NATURAL, Expr.makeIdentifier("x")).eq(
+        Expr.makeApplication(Expr.Constants.NATURAL, Expr.makeIdentifier("x"))))
+      assert(!(Expr.makeIdentifier("x", 1) eq Expr.makeIdentifier("x", 2)))
+      // These literals have zero hash codes.
+      assert(Expr.makeNaturalLiteral(BigInteger.ZERO) eq Expr.makeNaturalLiteral(BigInteger.ZERO))
+      assert(Expr.makeDoubleLiteral(0.0) eq Expr.makeDoubleLiteral(0.0))
+      assert(Expr.makeTextLiteral("") eq Expr.makeTextLiteral(""))
+      assert(Expr.makeApplication(Expr.makeBuiltIn("List"), Expr.makeBuiltIn("Natural")).eq(
+        Expr.makeApplication(Expr.Constants.LIST, Expr.Constants.NATURAL)))
+      assert(elements.get(0) eq elements.get(1))
+      assert(normalized.sameStructure(decoded))
+    } finally {
+      Expr.Interner.install(previous)
+    }
+  }
+
+  test("Field access on large records") {
+    val record = (0 until 100).map(i => s"f$i = $i").mkString("{ ", ", ", " }")
+    val input = DhallParser.parse(s"let r = $record in [r.f0, r.f42, r.f99, r.f42]")
+    val expected = DhallParser.parse("[0, 42, 99, 42]")
+
+    assert(input.normalize.sameStructure(expected))
+    assert(Evaluate.normalize(input).sameStructure(expected))
+    assert(Expr.Util.typeCheck(input).sameStructure(DhallParser.parse("List Natural")))
+
+    val normalizedRecord = DhallParser.parse(record).normalize
+    (0 until 100).foreach { i =>
+      assert(Expr.Util.getRecordLiteralField(normalizedRecord, s"f$i").sameStructure(NaturalLiteral(i).get))
+    }
+    assert(Expr.Util.getRecordLiteralField(normalizedRecord, "f100") == null)
+  }
+
+  checkBetaNormalization(
+    "Normalize large Natural/fold with addition",
+    "Natural/fold 1000000 Natural (λ(x : Natural) → x + 3) 1",
+    NaturalLiteral(3000001).get
+  )
+
+  checkBetaNormalization(
+    "Normalize large Natural/fold without recursion",
+    "Natural/fold 100001 Bool (λ(b : Bool) → b == False) True",
+    DhallParser.parse("False")
+  )
+
+  test("Normalize large List/fold without recursion") {
+    val values = (1 to 10000).mkString("[", ", ", "]")
+    val input = s"List/fold Natural $values Natural (λ(x : Natural) → λ(acc : Natural) → x + acc) 0"
+
+    assert(DhallParser.parse(input).normalize.sameStructure(NaturalLiteral(50005000).get))
+  }
+
+  test("Encoding to a stream or buffer matches encoding to bytes") {
+    val input = DhallParser.parse(
+      s"""{ `${"long label " * 10}` = "${"x" * 10000}", b = [1.5, -0.0, 1e300], c = λ(x : Natural) → x + 18446744073709551616 }"""
+    )
+    val expected = input.getEncodedBytes
+
+    val stream = new java.io.ByteArrayOutputStream()
+    Expr.Util.encodeToStream(input, stream)
+
+    val buffer = java.nio.ByteBuffer.allocateDirect(expected.length)
+    Expr.Util.encodeToBuffer(input, buffer)
+    buffer.flip()
+    val fromBuffer = new Array[Byte](buffer.remaining)
+    buffer.get(fromBuffer)
+
+    assertEquals(stream.toByteArray.toList, expected.toList)
+    assertEquals(fromBuffer.toList, expected.toList)
+    assert(Decode.decode(expected).equivalent(input))
+  }
+
+  test("Precomputed encodings are reused when encoding containing expressions") {
+    val input =
+      s"""{ f = λ(x : Natural) → [x, x + 1, x * 2], t = "${"y" * 100}", xs = [{ a = 1.5, b = True }] }"""
+    val shared = DhallParser.parse(input)
+    val expected = DhallParser.parse(input)
+    def wrap(expr: Expr): Expr =
+      Expr.makeApplication(Expr.makeFieldAccess(expr, "f"), NaturalLiteral(1).get)
+
+    Expr.Util.precomputeEncoding(shared)
+
+    assertEquals(shared.getEncodedBytes.toList, expected.getEncodedBytes.toList)
+    assertEquals(wrap(shared).getEncodedBytes.toList, wrap(expected).getEncodedBytes.toList)
+    assertEquals(wrap(shared).hash, wrap(expected).hash)
+    assertEquals(shared.hash, expected.hash)
+  }
+
+  test("equals and hashCode use the normal form while structural hashing doesn't") {
+    val a = DhallParser.parse("λ(x : Natural) → x + (1 + 1)")
+    val b = DhallParser.parse("λ(y : Natural) → y + 2")
+    val c = DhallParser.parse("λ(y : Natural) → y + 3")
+    val map = new java.util.HashMap[Expr, String]()
+    map.put(a, "a")
+
+    assertEquals(a, b)
+    assertEquals(a.hashCode, b.hashCode)
+    assertNotEquals(a, c)
+    assert(a.equivalent(b))
+    assert(!c.equivalent(a))
+    assertEquals(map.get(b), "a")
+    assertEquals(map.get(c), null)
+    assertEquals(a.getNormalFormHashBytes.toList, b.getNormalFormHashBytes.toList)
+
+    assert(!a.sameStructure(b))
+    assert(a.sameStructure(DhallParser.parse("λ(x : Natural) → x + (1 + 1)")))
+    assertEquals(a.structuralHashCode, DhallParser.parse("λ(x : Natural) → x + (1 + 1)").structuralHashCode)
+  }
+
+  test("alphaEquivalent compares bound variables by binder position") {
+    def check(first: String, second: String, expected: Boolean)(implicit loc: munit.Location): Unit = {
+      val a = DhallParser.parse(first)
+      val b = DhallParser.parse(second)
+      assertEquals(Expr.Util.alphaEquivalent(a, b), expected, s"$first vs $second")
+      assertEquals(a.equivalent(b), expected, s"$first vs $second")
+    }
+
+    check("λ(x : Type) → λ(x : Type) → x@1", "λ(y : Type) → λ(x : Type) → y", true)
+    check("λ(x : Type) → λ(y : Type) → x", "λ(y : Type) → λ(x : Type) → x", false)
+    check("λ(_ : Type) → _@1", "λ(y : Type) → _", true)
+    check("λ(x : Type) → y@1", "λ(y : Type) → y@2", true)
+    check("let x = 1 in λ(x : Natural) → x@1", "let y = 1 in λ(x : Natural) → y", true)
+    check("{ a = λ(x : Bool) → x, b = 2 }", "{ b = 2, a = λ(y : Bool) → y }", true)
+    check("\"a\\\"b\"", "''\na\"b''", true)
+    check("< A | B : Natural >", "< B | A : Natural >", false)
+  }
+
+  private def onDefaultStack[A](f: => A): A = {
+    var result: Either[Throwable, A] = null
+    val thread = new Thread(new Runnable {
+      def run(): Unit =
+        result =
+          try Right(f)
+          catch { case e: Throwable => Left(e) }
+    })
+    thread.start()
+    thread.join()
+    result.fold(throw _, identity)
+  }
+
+  test("Type-check deeply nested expressions without overflowing the stack") {
+    val deepRecord = (0 to 100000).foldLeft(Expr.makeDoubleLiteral(0)) {
+      case (acc, i) => Expr.makeRecordLiteral(s"a$i", acc)
+    }
+    val deepAppend = (0 to 100000)
+      .map(i => Expr.makeNonEmptyListLiteral(Array(Expr.makeNaturalLiteral(BigInteger.valueOf(i)))))
+      .reduce((acc, list) => Expr.makeOperatorApplication(Operator.LIST_APPEND, acc, list))
+
+    val recordType = onDefaultStack(Expr.Util.typeCheck(deepRecord))
+    assert(Expr.Util.getRecordTypeField(recordType, "a100000") != null)
+    assertEquals(onDefaultStack(Expr.Util.typeCheck(deepAppend)), DhallParser.parse("List Natural"))
+  }
+
+  test("Type-checking doesn't infer the children after one that fails") {
+    val elements = Expr.makeOperatorApplication(Operator.PLUS, Expr.Constants.TRUE, Expr.Constants.TRUE) +:
+      (0 until 1000).map(i => Expr.makeNaturalLiteral(BigInteger.valueOf(i)))
+    val cache = new TypeCheck.Cache()
+
+    intercept[TypeCheckFailure](Expr.Util.typeCheck(Expr.makeNonEmptyListLiteral(elements.toArray), cache))
+    assert(clue(cache.getMisses) < 10)
+  }
+
+  test("Type-check nested lambdas with failing bodies in linear time") {
+    val lambdas = (1 to 20).foldLeft("λ(v0 : Natural) → v0 && v0") {
+      case (inner, i) => s"λ(v$i : Natural) → Natural/subtract (($inner) v$i) v$i"
+    }
+    val expr = DhallParser.parse(s"($lambdas) 1")
+    val start = System.nanoTime()
+
+    intercept[TypeCheckFailure](Expr.Util.typeCheck(expr))
+    assert(clue((System.nanoTime() - start) / 1000000L) < 5000L)
+  }
+
+  test("Type-check let-bindings without substituting terms into the body") {
+    def typeOf(code: String): Expr = Expr.Util.typeCheck(DhallParser.parse(code))
+
+    assertEquals(
+      typeOf("let x = 1 let x = x + 1 in { a = x, b = x@1 }"),
+      DhallParser.parse("{ a : Natural, b : Natural }")
+    )
+    assertEquals(typeOf("let T = Natural let f = λ(y : T) → y + 1 in f 2"), Expr.Constants.NATURAL)
+    assertEquals(typeOf("let r = { a = 1, T = Natural } in [] : List r.T"), DhallParser.parse("List Natural"))
+    assertEquals(typeOf("let x = 1 in λ(p : x === 1) → p"), DhallParser.parse("∀(p : 1 === 1) → 1 === 1"))
+    assertEquals(typeOf("let x = 1 in assert : x === 1"), DhallParser.parse("1 === 1"))
+    intercept[TypeCheckFailure](typeOf("let x = True in x + 1"))
+  }
+
+  test("Type-check let-bound terms whose values are needed in types") {
+    def typeOf(code: String): Expr = Expr.Util.typeCheck(DhallParser.parse(code))
+
+    assertEquals(typeOf("let u = <A|B>.A in let T = merge {A=Natural,B=Bool} u in 1 : T"), Expr.Constants.NATURAL)
+    assertEquals(typeOf("let u = <A|B>.A in (1 : merge {A=Natural,B=Bool} u)"), Expr.Constants.NATURAL)
+    assertEquals(
+      typeOf("let b = True in (λ(x : merge {A=Natural,B=Bool} (if b then <A|B>.A else <A|B>.B)) → x) 1"),
+      Expr.Constants.NATURAL
+    )
+    assertEquals(
+      typeOf(
+        "λ(F : Bool → Type) → λ(g : ∀(c : Bool) → F c) → λ(h : F True → Natural) → let b = True in h (g b)"
+      ),
+      DhallParser.parse("∀(F : Bool → Type) → ∀(g : ∀(c : Bool) → F c) → ∀(h : F True → Natural) → Natural")
+    )
+  }
+
+  test("Type-check long let chains on the default thread stack") {
+    val one = Expr.makeNaturalLiteral(BigInteger.ONE)
+    val chain = (99999 to 1 by -1).foldLeft(Expr.makeIdentifier("x99999")) {
+      case (body, i) =>
+        Expr.makeLet(s"x$i", Expr.makeOperatorApplication(Operator.PLUS, Expr.makeIdentifier(s"x${i - 1}"), one), body)
+    }
+    val expr = Expr.makeLet("x0", Expr.makeNaturalLiteral(BigInteger.ZERO), chain)
+
+    assertEquals(onDefaultStack(Expr.Util.typeCheck(expr)), Expr.Constants.NATURAL)
+  }
+
+  test("Type-check list elements whose types are only equivalent after normalization") {
+    def typeOf(code: String): Expr = Expr.Util.typeCheck(DhallParser.parse(code))
+
+    assertEquals(typeOf("[1, 2 : (λ(t : Type) → t) Natural, 3]"), DhallParser.parse("List Natural"))
+    assertEquals(
+      typeOf("[{ a = 1 }, { a = 2 } : { a : (λ(t : Type) → t) Natural }, { a = 3 }]"),
+      DhallParser.parse("List { a : Natural }")
+    )
+    intercept[TypeCheckFailure](typeOf("[1, 2 : (λ(t : Type) → t) Natural, True]"))
+  }
+
+  test("Parallel type-checking and normalization agree with sequential") {
+    val pool = new ForkJoinPool(4)
+    def service(i: Int, port: String): String =
+      s"""s$i = { port = f $port, tags = ["a", "b"], check = λ(y : Natural) → y + n, kind = < A : Natural | B > }"""
+    def config(port: Int => String): Expr = {
+      val services = (0 until 100).map(i => service(i, port(i))).mkString(", ")
+      DhallParser.parse(s"λ(n : Natural) → let f = λ(x : Natural) → x + n in { $services }")
+    }
+    def typeOf(expr: Expr, parallel: Boolean): Either[String, Expr] =
+      try Right(if (parallel) Expr.Util.typeCheck(expr, null, pool, 8) else Expr.Util.typeCheck(expr))
+      catch { case e: TypeCheckFailure => Left(e.getMessage) }
+
+    try {
+      val valid = config(_.toString)
+      val invalid = config(i => if (i == 20) "True" else if (i == 80) "\"x\"" else i.toString)
+
+      assertEquals(typeOf(valid, true), typeOf(valid, false))
+      assertEquals(typeOf(invalid, true), typeOf(invalid, false))
+      assert(typeOf(invalid, false).isLeft)
+      assert(Expr.Util.normalize(valid, pool, 8).sameStructure(valid.normalize()))
+    } finally pool.shutdown()
+  }
+
+  test("Parallel type-checking doesn't schedule literals") {
+    val threads = new AtomicInteger(0)
+    val factory = new ForkJoinPool.ForkJoinWorkerThreadFactory {
+      def newThread(pool: ForkJoinPool): ForkJoinWorkerThread = {
+        threads.incrementAndGet()
+        ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool)
+      }
+    }
+    val pool = new ForkJoinPool(4, factory, null, false)
+    val literals =
+      Expr.makeNonEmptyListLiteral((0 until 10000).map(i => Expr.makeNaturalLiteral(BigInteger.valueOf(i))).toArray)
+
+    try {
+      assertEquals(Expr.Util.typeCheck(literals, null, pool, 8), DhallParser.parse("List Natural"))
+      assertEquals(threads.get, 0)
+    } finally pool.shutdown()
+  }
 }
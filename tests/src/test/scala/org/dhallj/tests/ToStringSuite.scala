@@ -16,6 +16,15 @@ class ToStringSuite extends ScalaCheckSuite() {
     Prop.forAll((expr: Expr) => DhallParser.parse(clue(expr.toString)) == expr)
   }
 
+  test("toString parenthesizes applications and operators under field access") {
+    val exprs = List("(f x).a", "({ a = 1 } ∧ r).a", "f { a = 1 }.a", "(f x).{ a }")
+
+    exprs.foreach { code =>
+      val expr = DhallParser.parse(code)
+      assert(DhallParser.parse(clue(expr.toString)).sameStructure(expr))
+    }
+  }
+
   test("Unnormalized Prelude should round-trip through toString".tag(Slow)) {
     import org.dhallj.syntax._
 
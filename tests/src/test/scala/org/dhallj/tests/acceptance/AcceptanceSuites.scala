@@ -10,6 +10,16 @@ class NormalizationHTCombineTypesSuite extends NormalizationSuite("normalization
 class NormalizationHTPreferSuite extends NormalizationSuite("normalization/success/haskell-tutorial/prefer")
 class NormalizationHTProjectionSuite extends NormalizationSuite("normalization/success/haskell-tutorial/projection")
 
+class EvaluationSimpleSuite extends EvaluationUSuite("normalization/success/simple")
+class EvaluationRegressionSuite extends EvaluationSuite("normalization/success/regression")
+class EvaluationUnitSuite extends EvaluationUSuite("normalization/success/unit")
+class EvaluationSimplificationsSuite extends EvaluationSuite("normalization/success/simplifications")
+class EvaluationOtherSuite extends EvaluationSuite("normalization/success")
+class EvaluationHTAccessSuite extends EvaluationSuite("normalization/success/haskell-tutorial/access")
+class EvaluationHTCombineTypesSuite extends EvaluationSuite("normalization/success/haskell-tutorial/combineTypes")
+class EvaluationHTPreferSuite extends EvaluationSuite("normalization/success/haskell-tutorial/prefer")
+class EvaluationHTProjectionSuite extends EvaluationSuite("normalization/success/haskell-tutorial/projection")
+
 class HashingSimpleSuite extends HashingSuite("semantic-hash/success/simple")
 class HashingSimplificationsSuite extends HashingSuite("semantic-hash/success/simplifications")
 class HashingOtherSuite extends HashingSuite("semantic-hash/success")
@@ -32,6 +42,11 @@ class TypeCheckingOtherSuite extends TypeCheckingSuite("type-inference/success")
 }
 class TypeCheckingFailureUnitSuite extends TypeCheckingFailureSuite("type-inference/failure/unit")
 
+class MemoizedTypeCheckingSimpleSuite extends MemoizedTypeCheckingSuite("type-inference/success/simple")
+class MemoizedTypeCheckingUnitSuite extends MemoizedTypeCheckingSuite("type-inference/success/unit")
+class MemoizedTypeCheckingRegressionSuite extends MemoizedTypeCheckingSuite("type-inference/success/regression")
+class MemoizedTypeCheckingFailureUnitSuite extends MemoizedTypeCheckingFailureSuite("type-inference/failure/unit")
+
 class ParsingUnitSuite extends ParsingSuite("parser/success/unit") {
   override def ignored = Set("SomeXYZ")
 }